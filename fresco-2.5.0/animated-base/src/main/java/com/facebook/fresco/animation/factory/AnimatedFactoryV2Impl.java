@@ -9,13 +9,14 @@ package com.facebook.fresco.animation.factory;
 import android.content.Context;
 import android.graphics.Rect;
 import com.facebook.cache.common.CacheKey;
-import com.facebook.common.executors.DefaultSerialExecutorService;
-import com.facebook.common.executors.SerialExecutorService;
 import com.facebook.common.executors.UiThreadImmediateExecutorService;
 import com.facebook.common.internal.DoNotStrip;
 import com.facebook.common.internal.Supplier;
 import com.facebook.common.internal.Suppliers;
+import com.facebook.common.memory.MemoryTrimmableRegistry;
 import com.facebook.common.time.RealtimeSinceBootClock;
+import com.facebook.fresco.animation.bitmap.cache.FrameBitmapPool;
+import com.facebook.fresco.animation.bitmap.preparation.AnimationFrameScheduler;
 import com.facebook.fresco.animation.drawable.AnimatedDrawable2;
 import com.facebook.imagepipeline.animated.base.AnimatedDrawableBackend;
 import com.facebook.imagepipeline.animated.base.AnimatedImageResult;
@@ -46,6 +47,13 @@ import javax.annotation.concurrent.NotThreadSafe;
 public class AnimatedFactoryV2Impl implements com.facebook.imagepipeline.animated.factory.AnimatedFactory {
   private static final int NUMBER_OF_FRAMES_TO_PREPARE =  3;
 
+  // the frames being prepared, or prepared ahead of time and not due yet, by all the animations may
+  // use this share of the heap. Frames kept by the frame caches once due are not included.
+  private static final int FRAME_PREPARATION_LOOK_AHEAD_BUDGET_HEAP_FRACTION = 16;
+
+  // the unused frame bitmaps shared between the animations may use this share of the heap
+  private static final int FRAME_BITMAP_POOL_HEAP_FRACTION = 32;
+
   private final com.facebook.imagepipeline.bitmaps.PlatformBitmapFactory mPlatformBitmapFactory;
 
   private final com.facebook.imagepipeline.core.ExecutorSupplier mExecutorSupplier;
@@ -54,6 +62,11 @@ public class AnimatedFactoryV2Impl implements com.facebook.imagepipeline.animate
 
   private final boolean mDownscaleFrameToDrawableDimensions;
 
+  private final Supplier<Integer> mCachingStrategySupplier;
+
+  @Nullable
+  private final MemoryTrimmableRegistry mMemoryTrimmableRegistry;
+
   @Nullable
   private com.facebook.imagepipeline.animated.factory.AnimatedImageFactory mAnimatedImageFactory;
 
@@ -71,11 +84,44 @@ public class AnimatedFactoryV2Impl implements com.facebook.imagepipeline.animate
 
   @DoNotStrip
   public AnimatedFactoryV2Impl(com.facebook.imagepipeline.bitmaps.PlatformBitmapFactory platformBitmapFactory, com.facebook.imagepipeline.core.ExecutorSupplier executorSupplier, com.facebook.imagepipeline.cache.CountingMemoryCache<CacheKey, CloseableImage> backingCache, boolean downscaleFrameToDrawableDimensions, com.facebook.common.executors.SerialExecutorService serialExecutorServiceForFramePreparing) {
+    this(
+        platformBitmapFactory,
+        executorSupplier,
+        backingCache,
+        downscaleFrameToDrawableDimensions,
+        serialExecutorServiceForFramePreparing,
+        null,
+        null);
+  }
+
+  /**
+   * @param cachingStrategySupplier supplies one of the caching strategies of {@link
+   *     ExperimentalBitmapAnimationDrawableFactory}, or null to keep the frames in the Fresco cache
+   *     without reusing their bitmaps
+   * @param memoryTrimmableRegistry the registry the frame bitmap pool of {@link
+   *     ExperimentalBitmapAnimationDrawableFactory#CACHING_STRATEGY_KEEP_LAST_CACHE_SHARED_POOL} is
+   *     trimmed by. Without it, there is no pool and that strategy keeps the last frame only.
+   */
+  @DoNotStrip
+  public AnimatedFactoryV2Impl(
+      PlatformBitmapFactory platformBitmapFactory,
+      ExecutorSupplier executorSupplier,
+      CountingMemoryCache<CacheKey, CloseableImage> backingCache,
+      boolean downscaleFrameToDrawableDimensions,
+      @Nullable com.facebook.common.executors.SerialExecutorService serialExecutorServiceForFramePreparing,
+      @Nullable Supplier<Integer> cachingStrategySupplier,
+      @Nullable MemoryTrimmableRegistry memoryTrimmableRegistry) {
     mPlatformBitmapFactory = platformBitmapFactory;
     mExecutorSupplier = executorSupplier;
     mBackingCache = backingCache;
     mDownscaleFrameToDrawableDimensions = downscaleFrameToDrawableDimensions;
     mSerialExecutorService = serialExecutorServiceForFramePreparing;
+    mCachingStrategySupplier =
+        cachingStrategySupplier != null
+            ? cachingStrategySupplier
+            : Suppliers.of(
+                ExperimentalBitmapAnimationDrawableFactory.CACHING_STRATEGY_FRESCO_CACHE_NO_REUSING);
+    mMemoryTrimmableRegistry = memoryTrimmableRegistry;
   }
 
   @Nullable
@@ -118,19 +164,16 @@ public class AnimatedFactoryV2Impl implements com.facebook.imagepipeline.animate
   }
 
   private ExperimentalBitmapAnimationDrawableFactory createDrawableFactory() {
-    Supplier<Integer> cachingStrategySupplier =
-        new Supplier<Integer>() {
-          @Override
-          public Integer get() {
-            return ExperimentalBitmapAnimationDrawableFactory
-                .CACHING_STRATEGY_FRESCO_CACHE_NO_REUSING;
-          }
-        };
-
-    final SerialExecutorService serialExecutorServiceForFramePreparing =
+    // Unless frames are prepared on the given executor, the animations share a scheduler that
+    // prepares the frames needed the soonest first.
+    final AnimationFrameScheduler animationFrameScheduler =
         mSerialExecutorService == null
-            ? new DefaultSerialExecutorService(mExecutorSupplier.forDecode())
-            : mSerialExecutorService;
+            ? new AnimationFrameScheduler(
+                mExecutorSupplier.forDecode(),
+                RealtimeSinceBootClock.get(),
+                AnimationFrameScheduler.DEFAULT_MAX_CONCURRENT_JOBS,
+                Runtime.getRuntime().maxMemory() / FRAME_PREPARATION_LOOK_AHEAD_BUDGET_HEAP_FRACTION)
+            : null;
 
     Supplier<Integer> numberOfFramesToPrepareSupplier =
         new Supplier<Integer>() {
@@ -142,16 +185,31 @@ public class AnimatedFactoryV2Impl implements com.facebook.imagepipeline.animate
 
     final Supplier<Boolean> useDeepEquals = Suppliers.BOOLEAN_FALSE;
 
+    // Used by CACHING_STRATEGY_KEEP_LAST_CACHE_SHARED_POOL. The pool is only created if it can give
+    // its bitmaps back when the memory is trimmed.
+    @Nullable final FrameBitmapPool frameBitmapPool =
+        mMemoryTrimmableRegistry != null
+            ? new FrameBitmapPool(
+                mPlatformBitmapFactory,
+                (int)
+                    Math.min(
+                        Integer.MAX_VALUE,
+                        Runtime.getRuntime().maxMemory() / FRAME_BITMAP_POOL_HEAP_FRACTION),
+                mMemoryTrimmableRegistry)
+            : null;
+
     return new ExperimentalBitmapAnimationDrawableFactory(
         getAnimatedDrawableBackendProvider(),
         UiThreadImmediateExecutorService.getInstance(),
-        serialExecutorServiceForFramePreparing,
+        mSerialExecutorService,
         RealtimeSinceBootClock.get(),
         mPlatformBitmapFactory,
         mBackingCache,
-        cachingStrategySupplier,
+        mCachingStrategySupplier,
         numberOfFramesToPrepareSupplier,
-        useDeepEquals);
+        useDeepEquals,
+        animationFrameScheduler,
+        frameBitmapPool);
   }
 
   private com.facebook.imagepipeline.animated.util.AnimatedDrawableUtil getAnimatedDrawableUtil() {
@@ -11,6 +11,7 @@ import android.graphics.Rect;
 import com.facebook.cache.common.CacheKey;
 import com.facebook.common.internal.Preconditions;
 import com.facebook.common.internal.Supplier;
+import com.facebook.common.logging.FLog;
 import com.facebook.common.time.MonotonicClock;
 import com.facebook.fresco.animation.backend.AnimationBackend;
 import com.facebook.fresco.animation.backend.AnimationBackendDelegateWithInactivityCheck;
@@ -18,9 +19,12 @@ import com.facebook.fresco.animation.bitmap.BitmapAnimationBackend;
 import com.facebook.fresco.animation.bitmap.BitmapFrameCache;
 import com.facebook.fresco.animation.bitmap.BitmapFrameRenderer;
 import com.facebook.fresco.animation.bitmap.cache.AnimationFrameCacheKey;
+import com.facebook.fresco.animation.bitmap.cache.FrameBitmapPool;
 import com.facebook.fresco.animation.bitmap.cache.FrescoFrameCache;
 import com.facebook.fresco.animation.bitmap.cache.KeepLastFrameCache;
 import com.facebook.fresco.animation.bitmap.cache.NoOpCache;
+import com.facebook.fresco.animation.bitmap.cache.PooledBitmapFrameCache;
+import com.facebook.fresco.animation.bitmap.preparation.AnimationFrameScheduler;
 import com.facebook.fresco.animation.bitmap.preparation.BitmapFramePreparationStrategy;
 import com.facebook.fresco.animation.bitmap.preparation.BitmapFramePreparer;
 import com.facebook.fresco.animation.bitmap.preparation.DefaultBitmapFramePreparer;
@@ -47,6 +51,8 @@ import javax.annotation.Nullable;
  */
 @Nullsafe(Nullsafe.Mode.LOCAL)
 public class ExperimentalBitmapAnimationDrawableFactory implements com.facebook.imagepipeline.drawable.DrawableFactory {
+  private static final Class<?> TAG = ExperimentalBitmapAnimationDrawableFactory.class;
+
   public static final int CACHING_STRATEGY_NO_CACHE =  0;
 
   public static final int CACHING_STRATEGY_FRESCO_CACHE =  1;
@@ -55,10 +61,16 @@ public class ExperimentalBitmapAnimationDrawableFactory implements com.facebook.
 
   public static final int CACHING_STRATEGY_KEEP_LAST_CACHE =  3;
 
+  /**
+   *  Keeps the last frame, and takes the other frame bitmaps from the {@link FrameBitmapPool} shared by all the animations. 
+   */
+  public static final int CACHING_STRATEGY_KEEP_LAST_CACHE_SHARED_POOL =  4;
+
   private final com.facebook.imagepipeline.animated.impl.AnimatedDrawableBackendProvider mAnimatedDrawableBackendProvider;
 
   private final ScheduledExecutorService mScheduledExecutorServiceForUiThread;
 
+  @Nullable
   private final ExecutorService mExecutorServiceForFramePreparing;
 
   private final com.facebook.common.time.MonotonicClock mMonotonicClock;
@@ -73,7 +85,39 @@ public class ExperimentalBitmapAnimationDrawableFactory implements com.facebook.
 
   private final com.facebook.common.internal.Supplier<Boolean> mUseDeepEqualsForCacheKey;
 
+  @Nullable
+  private final AnimationFrameScheduler mAnimationFrameScheduler;
+
+  @Nullable
+  private final FrameBitmapPool mFrameBitmapPool;
+
   public ExperimentalBitmapAnimationDrawableFactory(com.facebook.imagepipeline.animated.impl.AnimatedDrawableBackendProvider animatedDrawableBackendProvider, ScheduledExecutorService scheduledExecutorServiceForUiThread, ExecutorService executorServiceForFramePreparing, com.facebook.common.time.MonotonicClock monotonicClock, com.facebook.imagepipeline.bitmaps.PlatformBitmapFactory platformBitmapFactory, com.facebook.imagepipeline.cache.CountingMemoryCache<CacheKey, CloseableImage> backingCache, com.facebook.common.internal.Supplier<Integer> cachingStrategySupplier, com.facebook.common.internal.Supplier<Integer> numberOfFramesToPrepareSupplier, com.facebook.common.internal.Supplier<Boolean> useDeepEqualsForCacheKey) {
+    this(
+        animatedDrawableBackendProvider,
+        scheduledExecutorServiceForUiThread,
+        executorServiceForFramePreparing,
+        monotonicClock,
+        platformBitmapFactory,
+        backingCache,
+        cachingStrategySupplier,
+        numberOfFramesToPrepareSupplier,
+        useDeepEqualsForCacheKey,
+        null,
+        null);
+  }
+
+  /**
+   * @param executorServiceForFramePreparing the executor the frames are prepared on, not needed
+   *     when {@code animationFrameScheduler} is set
+   * @param animationFrameScheduler if set, the frames of all the animations are prepared by it
+   *     instead of on {@code executorServiceForFramePreparing}
+   * @param frameBitmapPool the pool used by {@link #CACHING_STRATEGY_KEEP_LAST_CACHE_SHARED_POOL}.
+   *     Without it, that strategy keeps the last frame only.
+   */
+  public ExperimentalBitmapAnimationDrawableFactory(com.facebook.imagepipeline.animated.impl.AnimatedDrawableBackendProvider animatedDrawableBackendProvider, ScheduledExecutorService scheduledExecutorServiceForUiThread, @Nullable ExecutorService executorServiceForFramePreparing, com.facebook.common.time.MonotonicClock monotonicClock, com.facebook.imagepipeline.bitmaps.PlatformBitmapFactory platformBitmapFactory, com.facebook.imagepipeline.cache.CountingMemoryCache<CacheKey, CloseableImage> backingCache, com.facebook.common.internal.Supplier<Integer> cachingStrategySupplier, com.facebook.common.internal.Supplier<Integer> numberOfFramesToPrepareSupplier, com.facebook.common.internal.Supplier<Boolean> useDeepEqualsForCacheKey, @Nullable AnimationFrameScheduler animationFrameScheduler, @Nullable FrameBitmapPool frameBitmapPool) {
+    Preconditions.checkArgument(
+        executorServiceForFramePreparing != null || animationFrameScheduler != null,
+        "No executor or scheduler to prepare frames with");
     mAnimatedDrawableBackendProvider = animatedDrawableBackendProvider;
     mScheduledExecutorServiceForUiThread = scheduledExecutorServiceForUiThread;
     mExecutorServiceForFramePreparing = executorServiceForFramePreparing;
@@ -83,6 +127,8 @@ public class ExperimentalBitmapAnimationDrawableFactory implements com.facebook.
     mCachingStrategySupplier = cachingStrategySupplier;
     mNumberOfFramesToPrepareSupplier = numberOfFramesToPrepareSupplier;
     mUseDeepEqualsForCacheKey = useDeepEqualsForCacheKey;
+    mAnimationFrameScheduler = animationFrameScheduler;
+    mFrameBitmapPool = frameBitmapPool;
   }
 
   @Override
@@ -104,14 +150,24 @@ public class ExperimentalBitmapAnimationDrawableFactory implements com.facebook.
     AnimatedDrawableBackend animatedDrawableBackend =
         createAnimatedDrawableBackend(animatedImageResult);
 
-    BitmapFrameCache bitmapFrameCache = createBitmapFrameCache(animatedImageResult);
+    BitmapFrameCache bitmapFrameCache =
+        createBitmapFrameCache(animatedImageResult, animatedBitmapConig);
     BitmapFrameRenderer bitmapFrameRenderer =
         new AnimatedDrawableBackendFrameRenderer(bitmapFrameCache, animatedDrawableBackend);
 
     int numberOfFramesToPrefetch = mNumberOfFramesToPrepareSupplier.get();
     BitmapFramePreparationStrategy bitmapFramePreparationStrategy = null;
     BitmapFramePreparer bitmapFramePreparer = null;
-    if (numberOfFramesToPrefetch > 0) {
+    if (numberOfFramesToPrefetch > 0 && mAnimationFrameScheduler != null) {
+      AnimationFrameScheduler.FramePreparer framePreparer =
+          mAnimationFrameScheduler.createFramePreparer(
+              mPlatformBitmapFactory,
+              bitmapFrameRenderer,
+              animatedBitmapConig != null ? animatedBitmapConig : Bitmap.Config.ARGB_8888,
+              numberOfFramesToPrefetch);
+      bitmapFramePreparationStrategy = framePreparer;
+      bitmapFramePreparer = framePreparer;
+    } else if (numberOfFramesToPrefetch > 0) {
       bitmapFramePreparationStrategy =
           new FixedNumberBitmapFramePreparationStrategy(numberOfFramesToPrefetch);
       bitmapFramePreparer = createBitmapFramePreparer(bitmapFrameRenderer, animatedBitmapConig);
@@ -135,7 +191,7 @@ public class ExperimentalBitmapAnimationDrawableFactory implements com.facebook.
         mPlatformBitmapFactory,
         bitmapFrameRenderer,
         animatedBitmapConig != null ? animatedBitmapConig : Bitmap.Config.ARGB_8888,
-        mExecutorServiceForFramePreparing);
+        Preconditions.checkNotNull(mExecutorServiceForFramePreparing));
   }
 
   private com.facebook.imagepipeline.animated.base.AnimatedDrawableBackend createAnimatedDrawableBackend(com.facebook.imagepipeline.animated.base.AnimatedImageResult animatedImageResult) {
@@ -144,7 +200,7 @@ public class ExperimentalBitmapAnimationDrawableFactory implements com.facebook.
     return mAnimatedDrawableBackendProvider.get(animatedImageResult, initialBounds);
   }
 
-  private com.facebook.fresco.animation.bitmap.BitmapFrameCache createBitmapFrameCache(com.facebook.imagepipeline.animated.base.AnimatedImageResult animatedImageResult) {
+  private com.facebook.fresco.animation.bitmap.BitmapFrameCache createBitmapFrameCache(com.facebook.imagepipeline.animated.base.AnimatedImageResult animatedImageResult, @Nullable Bitmap.Config animatedBitmapConig) {
     switch (mCachingStrategySupplier.get()) {
       case CACHING_STRATEGY_FRESCO_CACHE:
         return new FrescoFrameCache(createAnimatedFrameCache(animatedImageResult), true);
@@ -152,6 +208,17 @@ public class ExperimentalBitmapAnimationDrawableFactory implements com.facebook.
         return new FrescoFrameCache(createAnimatedFrameCache(animatedImageResult), false);
       case CACHING_STRATEGY_KEEP_LAST_CACHE:
         return new KeepLastFrameCache();
+      case CACHING_STRATEGY_KEEP_LAST_CACHE_SHARED_POOL:
+        if (mFrameBitmapPool == null) {
+          FLog.w(
+              TAG,
+              "No frame bitmap pool for the shared pool caching strategy, keeping the last frame only");
+          return new KeepLastFrameCache();
+        }
+        return new PooledBitmapFrameCache(
+            new KeepLastFrameCache(),
+            mFrameBitmapPool,
+            animatedBitmapConig != null ? animatedBitmapConig : Bitmap.Config.ARGB_8888);
       case CACHING_STRATEGY_NO_CACHE:
       default:
         return new NoOpCache();
@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.fresco.animation.bitmap.cache;
+
+import android.graphics.Bitmap;
+import com.facebook.common.memory.MemoryTrimType;
+import com.facebook.common.memory.MemoryTrimmable;
+import com.facebook.common.memory.MemoryTrimmableRegistry;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.common.references.ResourceReleaser;
+import com.facebook.imagepipeline.bitmaps.PlatformBitmapFactory;
+import com.facebook.imageutils.BitmapUtil;
+import com.facebook.infer.annotation.Nullsafe;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Pool of frame bitmaps shared by animations, so that an animation can reuse the bitmaps another
+ * animation of the same dimensions released, e.g. when a list recycles its animated items.
+ *
+ * <p>The bitmaps returned by {@link #get} go back to the pool once their references are closed.
+ * The pool keeps at most {@code maxPoolSizeBytes} of unused bitmaps, the least recently released
+ * ones are freed first. Bitmaps are not cleared when reused, as frame renderers draw the whole
+ * frame.
+ */
+@ThreadSafe
+@Nullsafe(Nullsafe.Mode.LOCAL)
+public class FrameBitmapPool implements MemoryTrimmable {
+
+  private final PlatformBitmapFactory mPlatformBitmapFactory;
+  private final int mMaxPoolSizeBytes;
+
+  // the unused bitmaps of each size, the most recently released last
+  @GuardedBy("this")
+  private final Map<BitmapSpec, ArrayDeque<CloseableReference<Bitmap>>> mFreeBitmaps =
+      new HashMap<>();
+
+  // the sizes of the unused bitmaps, the least recently released first
+  @GuardedBy("this")
+  private final LinkedHashMap<Bitmap, BitmapSpec> mFreeBitmapSpecs = new LinkedHashMap<>();
+
+  @GuardedBy("this")
+  private int mFreeSizeBytes;
+
+  @GuardedBy("this")
+  private long mAllocatedCount;
+
+  @GuardedBy("this")
+  private long mReusedCount;
+
+  @GuardedBy("this")
+  private long mFreedCount;
+
+  public FrameBitmapPool(
+      PlatformBitmapFactory platformBitmapFactory,
+      int maxPoolSizeBytes,
+      @Nullable MemoryTrimmableRegistry memoryTrimmableRegistry) {
+    mPlatformBitmapFactory = platformBitmapFactory;
+    mMaxPoolSizeBytes = maxPoolSizeBytes;
+    if (memoryTrimmableRegistry != null) {
+      memoryTrimmableRegistry.registerMemoryTrimmable(this);
+    }
+  }
+
+  /**
+   * Returns an unused bitmap of the given size, or creates one.
+   *
+   * @return the bitmap, that goes back to the pool once the reference is closed
+   */
+  public CloseableReference<Bitmap> get(int width, int height, Bitmap.Config config) {
+    final BitmapSpec spec = new BitmapSpec(width, height, config);
+    CloseableReference<Bitmap> bitmapReference = null;
+    synchronized (this) {
+      final ArrayDeque<CloseableReference<Bitmap>> freeBitmaps = mFreeBitmaps.get(spec);
+      if (freeBitmaps != null) {
+        bitmapReference = freeBitmaps.pollLast();
+        if (freeBitmaps.isEmpty()) {
+          mFreeBitmaps.remove(spec);
+        }
+      }
+      if (bitmapReference != null) {
+        mFreeBitmapSpecs.remove(bitmapReference.get());
+        mFreeSizeBytes -= BitmapUtil.getSizeInBytes(bitmapReference.get());
+        mReusedCount++;
+      } else {
+        mAllocatedCount++;
+      }
+    }
+    if (bitmapReference == null) {
+      bitmapReference = mPlatformBitmapFactory.createBitmap(width, height, config);
+    }
+    return CloseableReference.of(bitmapReference.get(), new PoolReleaser(bitmapReference, spec));
+  }
+
+  private void release(CloseableReference<Bitmap> bitmapReference, BitmapSpec spec) {
+    final Bitmap bitmap = bitmapReference.get();
+    final int sizeBytes = BitmapUtil.getSizeInBytes(bitmap);
+    if (bitmap.isRecycled() || !bitmap.isMutable() || sizeBytes > mMaxPoolSizeBytes) {
+      bitmapReference.close();
+      return;
+    }
+    synchronized (this) {
+      ArrayDeque<CloseableReference<Bitmap>> freeBitmaps = mFreeBitmaps.get(spec);
+      if (freeBitmaps == null) {
+        freeBitmaps = new ArrayDeque<>();
+        mFreeBitmaps.put(spec, freeBitmaps);
+      }
+      freeBitmaps.addLast(bitmapReference);
+      mFreeBitmapSpecs.put(bitmap, spec);
+      mFreeSizeBytes += sizeBytes;
+      trimTo(mMaxPoolSizeBytes);
+    }
+  }
+
+  @Override
+  public void trim(MemoryTrimType trimType) {
+    trimTo((int) (mMaxPoolSizeBytes * (1f - trimType.getSuggestedTrimRatio())));
+  }
+
+  private synchronized void trimTo(int maxSizeBytes) {
+    final Iterator<BitmapSpec> iterator = mFreeBitmapSpecs.values().iterator();
+    while (mFreeSizeBytes > maxSizeBytes && iterator.hasNext()) {
+      final BitmapSpec spec = iterator.next();
+      iterator.remove();
+      // The least recently released bitmap is also the first one of its size
+      final ArrayDeque<CloseableReference<Bitmap>> freeBitmaps = mFreeBitmaps.get(spec);
+      final CloseableReference<Bitmap> bitmapReference = freeBitmaps.pollFirst();
+      if (freeBitmaps.isEmpty()) {
+        mFreeBitmaps.remove(spec);
+      }
+      mFreeSizeBytes -= BitmapUtil.getSizeInBytes(bitmapReference.get());
+      mFreedCount++;
+      bitmapReference.close();
+    }
+  }
+
+  /** @return the size of the unused bitmaps in the pool */
+  public synchronized int getSizeInBytes() {
+    return mFreeSizeBytes;
+  }
+
+  /** @return the number of bitmaps created, as none of the right size was unused */
+  public synchronized long getAllocatedCount() {
+    return mAllocatedCount;
+  }
+
+  /** @return the number of unused bitmaps returned instead of creating one */
+  public synchronized long getReusedCount() {
+    return mReusedCount;
+  }
+
+  /** @return the number of unused bitmaps freed to stay within the pool size */
+  public synchronized long getFreedCount() {
+    return mFreedCount;
+  }
+
+  private class PoolReleaser implements ResourceReleaser<Bitmap> {
+
+    private final CloseableReference<Bitmap> mBitmapReference;
+    private final BitmapSpec mSpec;
+
+    private PoolReleaser(CloseableReference<Bitmap> bitmapReference, BitmapSpec spec) {
+      mBitmapReference = bitmapReference;
+      mSpec = spec;
+    }
+
+    @Override
+    public void release(Bitmap value) {
+      FrameBitmapPool.this.release(mBitmapReference, mSpec);
+    }
+  }
+
+  private static class BitmapSpec {
+
+    private final int mWidth;
+    private final int mHeight;
+    private final Bitmap.Config mConfig;
+
+    private BitmapSpec(int width, int height, Bitmap.Config config) {
+      mWidth = width;
+      mHeight = height;
+      mConfig = config;
+    }
+
+    @Override
+    public boolean equals(@Nullable Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof BitmapSpec)) {
+        return false;
+      }
+      final BitmapSpec that = (BitmapSpec) o;
+      return mWidth == that.mWidth && mHeight == that.mHeight && mConfig == that.mConfig;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * (31 * mWidth + mHeight) + mConfig.hashCode();
+    }
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.fresco.animation.bitmap.cache;
+
+import android.graphics.Bitmap;
+import com.facebook.common.logging.FLog;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.fresco.animation.bitmap.BitmapAnimationBackend;
+import com.facebook.fresco.animation.bitmap.BitmapFrameCache;
+import com.facebook.infer.annotation.Nullsafe;
+import javax.annotation.Nullable;
+
+/**
+ * Bitmap frame cache that takes the bitmaps to reuse from a {@link FrameBitmapPool} when the given
+ * cache has none, so that the frame bitmaps go back to the pool once the cache releases them.
+ */
+@Nullsafe(Nullsafe.Mode.LOCAL)
+public class PooledBitmapFrameCache implements BitmapFrameCache {
+
+  private static final Class<?> TAG = PooledBitmapFrameCache.class;
+
+  private final BitmapFrameCache mBitmapFrameCache;
+  private final FrameBitmapPool mFrameBitmapPool;
+  private final Bitmap.Config mBitmapConfig;
+
+  public PooledBitmapFrameCache(
+      BitmapFrameCache bitmapFrameCache,
+      FrameBitmapPool frameBitmapPool,
+      Bitmap.Config bitmapConfig) {
+    mBitmapFrameCache = bitmapFrameCache;
+    mFrameBitmapPool = frameBitmapPool;
+    mBitmapConfig = bitmapConfig;
+  }
+
+  @Nullable
+  @Override
+  public CloseableReference<Bitmap> getCachedFrame(int frameNumber) {
+    return mBitmapFrameCache.getCachedFrame(frameNumber);
+  }
+
+  @Nullable
+  @Override
+  public CloseableReference<Bitmap> getFallbackFrame(int frameNumber) {
+    return mBitmapFrameCache.getFallbackFrame(frameNumber);
+  }
+
+  @Nullable
+  @Override
+  public CloseableReference<Bitmap> getBitmapToReuseForFrame(
+      int frameNumber, int width, int height) {
+    final CloseableReference<Bitmap> bitmapReference =
+        mBitmapFrameCache.getBitmapToReuseForFrame(frameNumber, width, height);
+    if (bitmapReference != null) {
+      return bitmapReference;
+    }
+    try {
+      return mFrameBitmapPool.get(width, height, mBitmapConfig);
+    } catch (RuntimeException e) {
+      // The caller creates the bitmap itself, and handles the failure
+      FLog.w(TAG, "Failed to create frame bitmap", e);
+      return null;
+    }
+  }
+
+  @Override
+  public boolean contains(int frameNumber) {
+    return mBitmapFrameCache.contains(frameNumber);
+  }
+
+  @Override
+  public int getSizeInBytes() {
+    return mBitmapFrameCache.getSizeInBytes();
+  }
+
+  @Override
+  public void clear() {
+    mBitmapFrameCache.clear();
+  }
+
+  @Override
+  public void onFrameRendered(
+      int frameNumber,
+      CloseableReference<Bitmap> bitmapReference,
+      @BitmapAnimationBackend.FrameType int frameType) {
+    mBitmapFrameCache.onFrameRendered(frameNumber, bitmapReference, frameType);
+  }
+
+  @Override
+  public void onFramePrepared(
+      int frameNumber,
+      CloseableReference<Bitmap> bitmapReference,
+      @BitmapAnimationBackend.FrameType int frameType) {
+    mBitmapFrameCache.onFramePrepared(frameNumber, bitmapReference, frameType);
+  }
+
+  @Override
+  public void setFrameCacheListener(FrameCacheListener frameCacheListener) {
+    mBitmapFrameCache.setFrameCacheListener(frameCacheListener);
+  }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.fresco.animation.bitmap.preparation;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import com.facebook.common.logging.FLog;
+import com.facebook.common.memory.MemoryTrimType;
+import com.facebook.common.memory.MemoryTrimmable;
+import com.facebook.common.time.AwakeTimeSinceBootClock;
+import com.facebook.common.time.MonotonicNanoClock;
+import com.facebook.fresco.animation.backend.AnimationBackend;
+import com.facebook.fresco.animation.bitmap.BitmapAnimationBackend;
+import com.facebook.fresco.animation.bitmap.BitmapFrameCache;
+import com.facebook.fresco.animation.bitmap.BitmapFrameRenderer;
+import com.facebook.infer.annotation.Nullsafe;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Frame preparation strategy that prepares as many frames ahead as it takes to hide the time
+ * needed to render them, measured while the animation runs.
+ *
+ * <p>The frames have to be rendered by the renderer returned by {@link #measureRenderTime}. When a
+ * frame is drawn, the next frames are prepared until their durations add up to {@code headroom}
+ * times the average render time, so that a 60 fps animation prepares more frames than a 2 fps one
+ * that is as costly to render.
+ *
+ * <p>Set the strategy as the {@link BitmapAnimationBackend.FrameListener} of its backend too: each
+ * frame that had to be rendered when drawn, as it wasn't prepared in time, then prepares one more
+ * frame ahead, until a whole loop is drawn in time.
+ *
+ * <p>Memory trims lower the maximum number of frames prepared, until {@code trimDurationMs} later.
+ *
+ * <p>The strategy keeps the state of one animation, so each animation needs its own.
+ */
+@ThreadSafe
+@Nullsafe(Nullsafe.Mode.LOCAL)
+public class AdaptiveBitmapFramePreparationStrategy
+    implements BitmapFramePreparationStrategy, BitmapAnimationBackend.FrameListener,
+        MemoryTrimmable {
+
+  private static final Class<?> TAG = AdaptiveBitmapFramePreparationStrategy.class;
+
+  public static final int DEFAULT_MAX_FRAMES_TO_PREPARE = 8;
+  public static final float DEFAULT_HEADROOM = 2f;
+  public static final long DEFAULT_TRIM_DURATION_MS = 30000;
+
+  // used until a render time was measured
+  private static final int INITIAL_FRAMES_TO_PREPARE = 3;
+  // weight of a new render time in the average, as a power of two
+  private static final int RENDER_TIME_AVERAGE_SHIFT = 3;
+
+  private final MonotonicNanoClock mClock;
+  private final int mMaxFramesToPrepare;
+  private final float mHeadroom;
+  private final long mTrimDurationNs;
+
+  @GuardedBy("this")
+  private long mAverageRenderTimeNs = -1;
+
+  @GuardedBy("this")
+  private int mMaxFramesToPrepareAfterTrim;
+
+  @GuardedBy("this")
+  private long mTrimEndNs;
+
+  // whether frames were prepared already, so that the next frames drawn could have been
+  @GuardedBy("this")
+  private boolean mPreparing;
+
+  @GuardedBy("this")
+  private int mLateFramesToPrepare;
+
+  @GuardedBy("this")
+  private int mFramesDrawnInTime;
+
+  @GuardedBy("this")
+  private long mLateFrameCount;
+
+  @GuardedBy("this")
+  private long mDroppedFrameCount;
+
+  public AdaptiveBitmapFramePreparationStrategy() {
+    this(
+        AwakeTimeSinceBootClock.get(),
+        DEFAULT_MAX_FRAMES_TO_PREPARE,
+        DEFAULT_HEADROOM,
+        DEFAULT_TRIM_DURATION_MS);
+  }
+
+  /**
+   * @param clock the clock the render times are measured with
+   * @param maxFramesToPrepare the maximum number of frames prepared ahead
+   * @param headroom how many times the render time the frames prepared ahead have to last
+   * @param trimDurationMs how long the number of frames prepared stays lower after a memory trim
+   */
+  public AdaptiveBitmapFramePreparationStrategy(
+      MonotonicNanoClock clock, int maxFramesToPrepare, float headroom, long trimDurationMs) {
+    if (maxFramesToPrepare <= 0) {
+      throw new IllegalArgumentException("maxFramesToPrepare must be > 0");
+    }
+    mClock = clock;
+    mMaxFramesToPrepare = maxFramesToPrepare;
+    mHeadroom = headroom;
+    mTrimDurationNs = TimeUnit.MILLISECONDS.toNanos(trimDurationMs);
+    mMaxFramesToPrepareAfterTrim = maxFramesToPrepare;
+  }
+
+  /** @return a renderer that renders with the given one, and measures how long it takes */
+  public BitmapFrameRenderer measureRenderTime(BitmapFrameRenderer bitmapFrameRenderer) {
+    return new RenderTimeMeasuringRenderer(bitmapFrameRenderer);
+  }
+
+  @Override
+  public void prepareFrames(
+      BitmapFramePreparer bitmapFramePreparer,
+      BitmapFrameCache bitmapFrameCache,
+      AnimationBackend animationBackend,
+      int lastDrawnFrameNumber) {
+    final int frameCount = animationBackend.getFrameCount();
+    if (frameCount <= 1) {
+      return;
+    }
+    synchronized (this) {
+      mPreparing = true;
+    }
+    final int framesToPrepare =
+        Math.min(getFramesToPrepare(animationBackend, lastDrawnFrameNumber), frameCount - 1);
+    for (int i = 1; i <= framesToPrepare; i++) {
+      int nextFrameNumber = (lastDrawnFrameNumber + i) % frameCount;
+      if (FLog.isLoggable(FLog.VERBOSE)) {
+        FLog.v(TAG, "Preparing frame %d, last drawn: %d", nextFrameNumber, lastDrawnFrameNumber);
+      }
+      if (!bitmapFramePreparer.prepareFrame(bitmapFrameCache, animationBackend, nextFrameNumber)) {
+        // We cannot prepare more frames, so we return early
+        return;
+      }
+    }
+  }
+
+  /** @return the number of frames to prepare after the given one */
+  synchronized int getFramesToPrepare(AnimationBackend animationBackend, int lastDrawnFrameNumber) {
+    final int maxFramesToPrepare = getMaxFramesToPrepare();
+    int framesToPrepare;
+    if (mAverageRenderTimeNs < 0) {
+      framesToPrepare = INITIAL_FRAMES_TO_PREPARE;
+    } else {
+      final long lookAheadNs = (long) (mAverageRenderTimeNs * mHeadroom);
+      final int frameCount = animationBackend.getFrameCount();
+      // the next frame is due once the drawn one was shown for its duration
+      long coveredMs = animationBackend.getFrameDurationMs(lastDrawnFrameNumber);
+      framesToPrepare = 1;
+      while (TimeUnit.MILLISECONDS.toNanos(coveredMs) < lookAheadNs
+          && framesToPrepare < maxFramesToPrepare) {
+        coveredMs +=
+            animationBackend.getFrameDurationMs(
+                (lastDrawnFrameNumber + framesToPrepare) % frameCount);
+        framesToPrepare++;
+      }
+    }
+    return Math.max(1, Math.min(framesToPrepare + mLateFramesToPrepare, maxFramesToPrepare));
+  }
+
+  @GuardedBy("this")
+  private int getMaxFramesToPrepare() {
+    if (mMaxFramesToPrepareAfterTrim < mMaxFramesToPrepare && mClock.nowNanos() >= mTrimEndNs) {
+      mMaxFramesToPrepareAfterTrim = mMaxFramesToPrepare;
+    }
+    return mMaxFramesToPrepareAfterTrim;
+  }
+
+  @Override
+  public synchronized void trim(MemoryTrimType trimType) {
+    final int maxFramesToPrepare =
+        (int) (getMaxFramesToPrepare() * (1 - trimType.getSuggestedTrimRatio()));
+    mMaxFramesToPrepareAfterTrim = Math.max(1, maxFramesToPrepare);
+    mTrimEndNs = mClock.nowNanos() + mTrimDurationNs;
+  }
+
+  @Override
+  public void onDrawFrameStart(BitmapAnimationBackend backend, int frameNumber) {}
+
+  @Override
+  public synchronized void onFrameDrawn(
+      BitmapAnimationBackend backend,
+      int frameNumber,
+      @BitmapAnimationBackend.FrameType int frameType) {
+    if (!mPreparing) {
+      return;
+    }
+    if (frameType == BitmapAnimationBackend.FRAME_TYPE_CACHED) {
+      // Once a whole loop was drawn in time, try with one frame less
+      if (mLateFramesToPrepare > 0 && ++mFramesDrawnInTime >= backend.getFrameCount()) {
+        mLateFramesToPrepare--;
+        mFramesDrawnInTime = 0;
+      }
+    } else {
+      onFrameLate();
+    }
+  }
+
+  @Override
+  public synchronized void onFrameDropped(BitmapAnimationBackend backend, int frameNumber) {
+    mDroppedFrameCount++;
+    onFrameLate();
+  }
+
+  @GuardedBy("this")
+  private void onFrameLate() {
+    if (!mPreparing) {
+      return;
+    }
+    mLateFrameCount++;
+    mFramesDrawnInTime = 0;
+    if (mLateFramesToPrepare < mMaxFramesToPrepare) {
+      mLateFramesToPrepare++;
+    }
+  }
+
+  /** @return the number of frames that had to be rendered when drawn, or could not be drawn */
+  public synchronized long getLateFrameCount() {
+    return mLateFrameCount;
+  }
+
+  /** @return the number of frames that could not be drawn */
+  public synchronized long getDroppedFrameCount() {
+    return mDroppedFrameCount;
+  }
+
+  /** @return the average time to render a frame in ms, or -1 if none was rendered yet */
+  public synchronized long getAverageRenderTimeMs() {
+    return mAverageRenderTimeNs < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(mAverageRenderTimeNs);
+  }
+
+  private synchronized void onFrameRendered(long renderTimeNs) {
+    if (mAverageRenderTimeNs < 0) {
+      mAverageRenderTimeNs = renderTimeNs;
+    } else {
+      mAverageRenderTimeNs +=
+          (renderTimeNs - mAverageRenderTimeNs) >> RENDER_TIME_AVERAGE_SHIFT;
+    }
+  }
+
+  private class RenderTimeMeasuringRenderer implements BitmapFrameRenderer {
+
+    private final BitmapFrameRenderer mBitmapFrameRenderer;
+
+    private RenderTimeMeasuringRenderer(BitmapFrameRenderer bitmapFrameRenderer) {
+      mBitmapFrameRenderer = bitmapFrameRenderer;
+    }
+
+    @Override
+    public boolean renderFrame(int frameNumber, Bitmap targetBitmap) {
+      final long startNs = mClock.nowNanos();
+      final boolean rendered = mBitmapFrameRenderer.renderFrame(frameNumber, targetBitmap);
+      if (rendered) {
+        onFrameRendered(mClock.nowNanos() - startNs);
+      }
+      return rendered;
+    }
+
+    @Override
+    public void setBounds(@Nullable Rect bounds) {
+      mBitmapFrameRenderer.setBounds(bounds);
+    }
+
+    @Override
+    public int getIntrinsicWidth() {
+      return mBitmapFrameRenderer.getIntrinsicWidth();
+    }
+
+    @Override
+    public int getIntrinsicHeight() {
+      return mBitmapFrameRenderer.getIntrinsicHeight();
+    }
+  }
+}
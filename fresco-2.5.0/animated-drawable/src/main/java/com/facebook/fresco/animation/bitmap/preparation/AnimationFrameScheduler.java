@@ -0,0 +1,416 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.fresco.animation.bitmap.preparation;
+
+import android.graphics.Bitmap;
+import android.util.SparseArray;
+import com.facebook.common.logging.FLog;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.common.time.MonotonicClock;
+import com.facebook.fresco.animation.backend.AnimationBackend;
+import com.facebook.fresco.animation.bitmap.BitmapAnimationBackend;
+import com.facebook.fresco.animation.bitmap.BitmapFrameCache;
+import com.facebook.fresco.animation.bitmap.BitmapFrameRenderer;
+import com.facebook.imagepipeline.bitmaps.PlatformBitmapFactory;
+import com.facebook.imageutils.BitmapUtil;
+import com.facebook.infer.annotation.Nullsafe;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Prepares the frames of all the animations together, the frame needed the soonest first.
+ *
+ * <p>Each animation gets its own {@link FramePreparer} from {@link #createFramePreparer}. When a
+ * frame is drawn, it schedules the next frames with the time they are going to be drawn at, from
+ * the frame durations of the animation. The frames are prepared on the given executor, by at most
+ * {@code maxConcurrentJobs} jobs at a time.
+ *
+ * <p>Animations that are stopped or not visible don't draw any more, so their frames are due
+ * before they are prepared. A frame that is due already is not prepared: it was either rendered
+ * when drawn, or it isn't needed any more.
+ *
+ * <p>The frames prepared ahead of time, by all the animations, are limited to the given look-ahead
+ * budget: a frame counts against it from the time its preparation starts until it is due, or until
+ * its preparation fails. Frames over budget are not prepared, and are rendered when drawn. The
+ * budget only limits this work ahead of the animations: once due, a prepared frame is owned by the
+ * frame cache of its animation, which may keep it longer.
+ */
+@ThreadSafe
+@Nullsafe(Nullsafe.Mode.LOCAL)
+public class AnimationFrameScheduler {
+
+  private static final Class<?> TAG = AnimationFrameScheduler.class;
+
+  public static final int DEFAULT_MAX_CONCURRENT_JOBS = 2;
+
+  private final Executor mExecutor;
+  private final MonotonicClock mMonotonicClock;
+  private final int mMaxConcurrentJobs;
+  private final long mLookAheadBudgetBytes;
+  private final Runnable mWorker;
+
+  @GuardedBy("this")
+  private final PriorityQueue<FrameJob> mQueue = new PriorityQueue<>();
+
+  // the jobs of the frames prepared that are not due yet. Running jobs are kept out of it, so
+  // that their reservation lasts until they are done.
+  @GuardedBy("this")
+  private final PriorityQueue<FrameJob> mReservedJobs = new PriorityQueue<>();
+
+  @GuardedBy("this")
+  private int mRunningJobCount;
+
+  @GuardedBy("this")
+  private long mReservedBytes;
+
+  @GuardedBy("this")
+  private long mJobSequenceNumber;
+
+  @GuardedBy("this")
+  private long mExpiredJobCount;
+
+  @GuardedBy("this")
+  private long mOverBudgetJobCount;
+
+  /**
+   * @param executor the executor to prepare the frames on
+   * @param monotonicClock the clock the frame deadlines are measured with
+   * @param maxConcurrentJobs the maximum number of frames prepared at the same time
+   * @param lookAheadBudgetBytes the maximum size of the frames being prepared, or prepared ahead of
+   *     time and not due yet, for all the animations
+   */
+  public AnimationFrameScheduler(
+      Executor executor,
+      MonotonicClock monotonicClock,
+      int maxConcurrentJobs,
+      long lookAheadBudgetBytes) {
+    if (maxConcurrentJobs <= 0) {
+      throw new IllegalArgumentException("maxConcurrentJobs must be > 0");
+    }
+    mExecutor = executor;
+    mMonotonicClock = monotonicClock;
+    mMaxConcurrentJobs = maxConcurrentJobs;
+    mLookAheadBudgetBytes = lookAheadBudgetBytes;
+    mWorker =
+        new Runnable() {
+          @Override
+          public void run() {
+            runJobs();
+          }
+        };
+  }
+
+  /**
+   * Creates the preparer of one animation. It is both the {@link BitmapFramePreparer} and the
+   * {@link BitmapFramePreparationStrategy} of its {@link BitmapAnimationBackend}.
+   *
+   * @param framesToPrepare the number of frames to prepare after the one drawn
+   */
+  public FramePreparer createFramePreparer(
+      PlatformBitmapFactory platformBitmapFactory,
+      BitmapFrameRenderer bitmapFrameRenderer,
+      Bitmap.Config bitmapConfig,
+      int framesToPrepare) {
+    return new FramePreparer(
+        platformBitmapFactory, bitmapFrameRenderer, bitmapConfig, framesToPrepare);
+  }
+
+  /** @return the number of frames waiting to be prepared */
+  public synchronized int getQueuedJobCount() {
+    return mQueue.size();
+  }
+
+  /** @return the size of the frames being prepared, or prepared ahead of time and not due yet */
+  public synchronized long getReservedBytes() {
+    releaseDueFrames(mMonotonicClock.now());
+    return mReservedBytes;
+  }
+
+  /** @return the number of frames not prepared because they were due already */
+  public synchronized long getExpiredJobCount() {
+    return mExpiredJobCount;
+  }
+
+  /** @return the number of frames not prepared because of the look-ahead budget */
+  public synchronized long getOverBudgetJobCount() {
+    return mOverBudgetJobCount;
+  }
+
+  private void startJobs() {
+    int jobsToStart;
+    synchronized (this) {
+      jobsToStart = Math.min(mQueue.size(), mMaxConcurrentJobs - mRunningJobCount);
+      if (jobsToStart <= 0) {
+        return;
+      }
+      mRunningJobCount += jobsToStart;
+    }
+    for (int i = 0; i < jobsToStart; i++) {
+      mExecutor.execute(mWorker);
+    }
+  }
+
+  private void runJobs() {
+    while (true) {
+      final FrameJob job;
+      synchronized (this) {
+        job = pollJob();
+        if (job == null) {
+          mRunningJobCount--;
+          return;
+        }
+      }
+      boolean prepared = false;
+      try {
+        prepared = job.prepare();
+      } catch (RuntimeException e) {
+        // Keep the worker running for the other frames
+        FLog.e(TAG, e, "Failed to prepare frame %d.", job.mFrameNumber);
+      } finally {
+        synchronized (this) {
+          job.mFramePreparer.mPendingJobs.remove(job.mFrameNumber);
+          if (prepared && job.mDeadlineMs >= mMonotonicClock.now()) {
+            mReservedJobs.add(job);
+          } else {
+            mReservedBytes -= job.mSizeInBytes;
+          }
+        }
+      }
+    }
+  }
+
+  @GuardedBy("this")
+  @Nullable
+  private FrameJob pollJob() {
+    final long now = mMonotonicClock.now();
+    releaseDueFrames(now);
+    FrameJob job;
+    while ((job = mQueue.poll()) != null) {
+      if (job.mDeadlineMs < now) {
+        // The animation drew the frame without it, or stopped drawing
+        mExpiredJobCount++;
+        job.mFramePreparer.mPendingJobs.remove(job.mFrameNumber);
+        continue;
+      }
+      if (mReservedBytes + job.mSizeInBytes > mLookAheadBudgetBytes) {
+        mOverBudgetJobCount++;
+        job.mFramePreparer.mPendingJobs.remove(job.mFrameNumber);
+        continue;
+      }
+      mReservedBytes += job.mSizeInBytes;
+      return job;
+    }
+    return null;
+  }
+
+  /**
+   * Releases the budget of the prepared frames that are due, so drawn or skipped by their
+   * animation. The frames still being prepared keep theirs until they are done.
+   */
+  @GuardedBy("this")
+  private void releaseDueFrames(long now) {
+    FrameJob job;
+    while ((job = mReservedJobs.peek()) != null && job.mDeadlineMs < now) {
+      mReservedJobs.poll();
+      mReservedBytes -= job.mSizeInBytes;
+    }
+  }
+
+  /** Prepares the frames of one animation with the {@link AnimationFrameScheduler}. */
+  @ThreadSafe
+  public class FramePreparer implements BitmapFramePreparer, BitmapFramePreparationStrategy {
+
+    private final PlatformBitmapFactory mPlatformBitmapFactory;
+    private final BitmapFrameRenderer mBitmapFrameRenderer;
+    private final Bitmap.Config mBitmapConfig;
+    private final int mFramesToPrepare;
+
+    // the jobs queued or running, by frame number
+    @GuardedBy("AnimationFrameScheduler.this")
+    private final SparseArray<FrameJob> mPendingJobs = new SparseArray<>();
+
+    private FramePreparer(
+        PlatformBitmapFactory platformBitmapFactory,
+        BitmapFrameRenderer bitmapFrameRenderer,
+        Bitmap.Config bitmapConfig,
+        int framesToPrepare) {
+      mPlatformBitmapFactory = platformBitmapFactory;
+      mBitmapFrameRenderer = bitmapFrameRenderer;
+      mBitmapConfig = bitmapConfig;
+      mFramesToPrepare = framesToPrepare;
+    }
+
+    /**
+     * Schedules the frame to be prepared as soon as possible. It is due once it would have been
+     * shown, so that it doesn't expire before a worker gets to it.
+     */
+    @Override
+    public boolean prepareFrame(
+        BitmapFrameCache bitmapFrameCache, AnimationBackend animationBackend, int frameNumber) {
+      synchronized (AnimationFrameScheduler.this) {
+        schedule(
+            bitmapFrameCache,
+            animationBackend,
+            frameNumber,
+            mMonotonicClock.now() + animationBackend.getFrameDurationMs(frameNumber));
+      }
+      startJobs();
+      return true;
+    }
+
+    /**
+     * Schedules the frames after the one drawn, each with the time it is going to be drawn at. The
+     * given preparer is not used: the frames are prepared by this one.
+     */
+    @Override
+    public void prepareFrames(
+        BitmapFramePreparer bitmapFramePreparer,
+        BitmapFrameCache bitmapFrameCache,
+        AnimationBackend animationBackend,
+        int lastDrawnFrameNumber) {
+      final int frameCount = animationBackend.getFrameCount();
+      if (frameCount <= 0) {
+        return;
+      }
+      long deadlineMs = mMonotonicClock.now();
+      synchronized (AnimationFrameScheduler.this) {
+        int frameNumber = lastDrawnFrameNumber;
+        for (int i = 1; i <= mFramesToPrepare && i < frameCount; i++) {
+          deadlineMs += animationBackend.getFrameDurationMs(frameNumber);
+          frameNumber = (lastDrawnFrameNumber + i) % frameCount;
+          if (FLog.isLoggable(FLog.VERBOSE)) {
+            FLog.v(TAG, "Preparing frame %d, last drawn: %d", frameNumber, lastDrawnFrameNumber);
+          }
+          schedule(bitmapFrameCache, animationBackend, frameNumber, deadlineMs);
+        }
+      }
+      startJobs();
+    }
+
+    @GuardedBy("AnimationFrameScheduler.this")
+    private void schedule(
+        BitmapFrameCache bitmapFrameCache,
+        AnimationBackend animationBackend,
+        int frameNumber,
+        long deadlineMs) {
+      final FrameJob pendingJob = mPendingJobs.get(frameNumber);
+      if (pendingJob != null) {
+        // Move it ahead if the frame is needed sooner than expected. Once running, it can't be.
+        if (deadlineMs < pendingJob.mDeadlineMs && mQueue.remove(pendingJob)) {
+          pendingJob.mDeadlineMs = deadlineMs;
+          mQueue.add(pendingJob);
+        }
+        return;
+      }
+      if (bitmapFrameCache.contains(frameNumber)) {
+        return;
+      }
+      final int sizeInBytes =
+          animationBackend.getIntrinsicWidth()
+              * animationBackend.getIntrinsicHeight()
+              * BitmapUtil.getPixelSizeForBitmapConfig(mBitmapConfig);
+      final FrameJob job =
+          new FrameJob(
+              this,
+              bitmapFrameCache,
+              animationBackend,
+              frameNumber,
+              deadlineMs,
+              mJobSequenceNumber++,
+              sizeInBytes);
+      mPendingJobs.put(frameNumber, job);
+      mQueue.add(job);
+    }
+  }
+
+  private static class FrameJob implements Comparable<FrameJob> {
+
+    private final FramePreparer mFramePreparer;
+    private final BitmapFrameCache mBitmapFrameCache;
+    private final AnimationBackend mAnimationBackend;
+    private final int mFrameNumber;
+    private final long mSequenceNumber;
+    private final int mSizeInBytes;
+
+    @GuardedBy("AnimationFrameScheduler.this")
+    private long mDeadlineMs;
+
+    private FrameJob(
+        FramePreparer framePreparer,
+        BitmapFrameCache bitmapFrameCache,
+        AnimationBackend animationBackend,
+        int frameNumber,
+        long deadlineMs,
+        long sequenceNumber,
+        int sizeInBytes) {
+      mFramePreparer = framePreparer;
+      mBitmapFrameCache = bitmapFrameCache;
+      mAnimationBackend = animationBackend;
+      mFrameNumber = frameNumber;
+      mDeadlineMs = deadlineMs;
+      mSequenceNumber = sequenceNumber;
+      mSizeInBytes = sizeInBytes;
+    }
+
+    @Override
+    public int compareTo(FrameJob other) {
+      if (mDeadlineMs != other.mDeadlineMs) {
+        return mDeadlineMs < other.mDeadlineMs ? -1 : 1;
+      }
+      return Long.compare(mSequenceNumber, other.mSequenceNumber);
+    }
+
+    /** @return true if the frame was prepared and cached by this job */
+    private boolean prepare() {
+      if (mBitmapFrameCache.contains(mFrameNumber)) {
+        FLog.v(TAG, "Frame %d is cached already.", mFrameNumber);
+        return false;
+      }
+      final int width = mAnimationBackend.getIntrinsicWidth();
+      final int height = mAnimationBackend.getIntrinsicHeight();
+      if (renderFrameAndCache(
+          mBitmapFrameCache.getBitmapToReuseForFrame(mFrameNumber, width, height),
+          BitmapAnimationBackend.FRAME_TYPE_REUSED)) {
+        return true;
+      }
+      final CloseableReference<Bitmap> bitmapReference;
+      try {
+        bitmapReference =
+            mFramePreparer.mPlatformBitmapFactory.createBitmap(
+                width, height, mFramePreparer.mBitmapConfig);
+      } catch (RuntimeException e) {
+        FLog.w(TAG, "Failed to create frame bitmap", e);
+        return false;
+      }
+      if (renderFrameAndCache(bitmapReference, BitmapAnimationBackend.FRAME_TYPE_CREATED)) {
+        return true;
+      }
+      FLog.e(TAG, "Could not prepare frame %d.", mFrameNumber);
+      return false;
+    }
+
+    private boolean renderFrameAndCache(
+        @Nullable CloseableReference<Bitmap> bitmapReference,
+        @BitmapAnimationBackend.FrameType int frameType) {
+      try {
+        if (!CloseableReference.isValid(bitmapReference)
+            || !mFramePreparer.mBitmapFrameRenderer.renderFrame(
+                mFrameNumber, bitmapReference.get())) {
+          return false;
+        }
+        mBitmapFrameCache.onFramePrepared(mFrameNumber, bitmapReference, frameType);
+        return true;
+      } finally {
+        CloseableReference.closeSafely(bitmapReference);
+      }
+    }
+  }
+}
@@ -9,16 +9,16 @@ package com.facebook.fresco.animation.frame;
 import androidx.annotation.VisibleForTesting;
 import com.facebook.fresco.animation.backend.AnimationInformation;
 import com.facebook.infer.annotation.Nullsafe;
+import javax.annotation.Nullable;
 /**
- *  Frame scheduler that maps time values to frames. 
+ *  Frame scheduler that maps time values to frames, using the {@link FrameTimeline} of the animation. 
  */
 @Nullsafe(Nullsafe.Mode.STRICT)
 public class DropFramesFrameScheduler implements FrameScheduler {
-  private static final int UNSET =  -1;
-
   private final com.facebook.fresco.animation.backend.AnimationInformation mAnimationInformation;
 
-  private long mLoopDurationMs =  UNSET;
+  @Nullable
+  private FrameTimeline mFrameTimeline;
 
   public DropFramesFrameScheduler(com.facebook.fresco.animation.backend.AnimationInformation animationInformation) {
     mAnimationInformation = animationInformation;
@@ -43,24 +43,16 @@ public class DropFramesFrameScheduler implements FrameScheduler {
 
   @Override
   public long getLoopDurationMs() {
-    if (mLoopDurationMs != UNSET) {
-      return mLoopDurationMs;
-    }
-    mLoopDurationMs = 0;
-    int frameCount = mAnimationInformation.getFrameCount();
-    for (int i = 0; i < frameCount; i++) {
-      mLoopDurationMs += mAnimationInformation.getFrameDurationMs(i);
-    }
-    return mLoopDurationMs;
+    return getFrameTimeline().getLoopDurationMs();
   }
 
   @Override
   public long getTargetRenderTimeMs(int frameNumber) {
-    long targetRenderTimeMs = 0;
-    for (int i = 0; i < frameNumber; i++) {
-      targetRenderTimeMs += mAnimationInformation.getFrameDurationMs(frameNumber);
+    FrameTimeline frameTimeline = getFrameTimeline();
+    if (frameNumber <= 0 || frameTimeline.getFrameCount() == 0) {
+      return 0;
     }
-    return targetRenderTimeMs;
+    return frameTimeline.getFrameStartTimeMs(Math.min(frameNumber, frameTimeline.getFrameCount()));
   }
 
   @Override
@@ -79,12 +71,8 @@ public class DropFramesFrameScheduler implements FrameScheduler {
     // The animation time in the current loop
     long timePassedInCurrentLoopMs = animationTimeMs % loopDurationMs;
     // The animation time in the current loop for the next frame
-    long timeOfNextFrameInLoopMs = 0;
-
-    int frameCount = mAnimationInformation.getFrameCount();
-    for (int i = 0; i < frameCount && timeOfNextFrameInLoopMs <= timePassedInCurrentLoopMs; i++) {
-      timeOfNextFrameInLoopMs += mAnimationInformation.getFrameDurationMs(i);
-    }
+    long timeOfNextFrameInLoopMs =
+        getFrameTimeline().getNextFrameStartTimeMs(timePassedInCurrentLoopMs);
 
     // Difference between current time in loop and next frame in loop
     long timeUntilNextFrameInLoopMs = timeOfNextFrameInLoopMs - timePassedInCurrentLoopMs;
@@ -99,13 +87,18 @@ public class DropFramesFrameScheduler implements FrameScheduler {
 
   @VisibleForTesting
   int getFrameNumberWithinLoop(long timeInCurrentLoopMs) {
-    int frame = 0;
-    long currentDuration = 0;
-    do {
-      currentDuration += mAnimationInformation.getFrameDurationMs(frame);
-      frame++;
-    } while (timeInCurrentLoopMs >= currentDuration);
-    return frame - 1;
+    return getFrameTimeline().getFrameNumberAt(timeInCurrentLoopMs);
+  }
+
+  FrameTimeline getFrameTimeline() {
+    FrameTimeline frameTimeline = mFrameTimeline;
+    if (frameTimeline == null
+        || frameTimeline.getFrameCount() != mAnimationInformation.getFrameCount()) {
+      // The frames may change, e.g. when a backend delegate is given another backend
+      frameTimeline = FrameTimeline.forAnimation(mAnimationInformation);
+      mFrameTimeline = frameTimeline;
+    }
+    return frameTimeline;
   }
 
 }
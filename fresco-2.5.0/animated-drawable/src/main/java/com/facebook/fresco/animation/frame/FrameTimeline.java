@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.fresco.animation.frame;
+
+import com.facebook.fresco.animation.backend.AnimationInformation;
+import com.facebook.infer.annotation.Nullsafe;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * Start times of the frames of one loop of an animation, so that the frame shown at a given time
+ * is found with a binary search instead of adding up the frame durations.
+ *
+ * <p>The timeline of an {@link AnimationInformation} is shared by all the frame schedulers of the
+ * same animation. It is computed again when the frames of the animation changed, e.g. when a
+ * backend delegate is given another backend.
+ */
+@Immutable
+@Nullsafe(Nullsafe.Mode.STRICT)
+public class FrameTimeline {
+
+  private static final Map<AnimationInformation, FrameTimeline> sTimelines =
+      Collections.synchronizedMap(new WeakHashMap<AnimationInformation, FrameTimeline>());
+
+  // the start time of each frame in the loop, followed by the loop duration
+  private final long[] mFrameStartTimesMs;
+
+  /** @return the timeline of the animation */
+  public static FrameTimeline forAnimation(AnimationInformation animationInformation) {
+    FrameTimeline timeline = sTimelines.get(animationInformation);
+    if (timeline == null || !timeline.matches(animationInformation)) {
+      timeline = new FrameTimeline(animationInformation);
+      // An animation without frames may not be set yet, e.g. by a backend delegate
+      if (timeline.getFrameCount() > 0) {
+        sTimelines.put(animationInformation, timeline);
+      }
+    }
+    return timeline;
+  }
+
+  FrameTimeline(AnimationInformation animationInformation) {
+    final int frameCount = animationInformation.getFrameCount();
+    mFrameStartTimesMs = new long[frameCount + 1];
+    for (int i = 0; i < frameCount; i++) {
+      mFrameStartTimesMs[i + 1] =
+          mFrameStartTimesMs[i] + Math.max(0, animationInformation.getFrameDurationMs(i));
+    }
+  }
+
+  /** @return whether the animation still has the frame count and loop duration of the timeline */
+  private boolean matches(AnimationInformation animationInformation) {
+    final int frameCount = animationInformation.getFrameCount();
+    if (frameCount != getFrameCount()) {
+      return false;
+    }
+    long loopDurationMs = 0;
+    for (int i = 0; i < frameCount; i++) {
+      loopDurationMs += Math.max(0, animationInformation.getFrameDurationMs(i));
+    }
+    return loopDurationMs == getLoopDurationMs();
+  }
+
+  public int getFrameCount() {
+    return mFrameStartTimesMs.length - 1;
+  }
+
+  public long getLoopDurationMs() {
+    return mFrameStartTimesMs[mFrameStartTimesMs.length - 1];
+  }
+
+  /** @return the time the frame starts at, within the loop */
+  public long getFrameStartTimeMs(int frameNumber) {
+    return mFrameStartTimesMs[frameNumber];
+  }
+
+  /**
+   * @param timeInLoopMs the time within the loop
+   * @return the frame shown at the given time. Frames without duration are never shown.
+   */
+  public int getFrameNumberAt(long timeInLoopMs) {
+    // the number of frames that ended by then
+    int low = 1;
+    int high = mFrameStartTimesMs.length - 1;
+    while (low <= high) {
+      final int middle = (low + high) >>> 1;
+      if (mFrameStartTimesMs[middle] <= timeInLoopMs) {
+        low = middle + 1;
+      } else {
+        high = middle - 1;
+      }
+    }
+    return Math.max(0, Math.min(low - 1, getFrameCount() - 1));
+  }
+
+  /**
+   * @param timeInLoopMs the time within the loop
+   * @return the time the frame after the one shown at the given time starts at. This is the loop
+   *     duration for the last frame.
+   */
+  public long getNextFrameStartTimeMs(long timeInLoopMs) {
+    final int frameNumber = getFrameNumberAt(timeInLoopMs);
+    return frameNumber + 1 < mFrameStartTimesMs.length
+        ? mFrameStartTimesMs[frameNumber + 1]
+        : getLoopDurationMs();
+  }
+}
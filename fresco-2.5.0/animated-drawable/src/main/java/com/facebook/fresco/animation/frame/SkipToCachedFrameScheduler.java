@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.fresco.animation.frame;
+
+import com.facebook.fresco.animation.backend.AnimationInformation;
+import com.facebook.fresco.animation.bitmap.BitmapFrameCache;
+import com.facebook.infer.annotation.Nullsafe;
+
+/**
+ * Frame scheduler that, when frames were skipped since the last draw and the frame due isn't in
+ * the {@link BitmapFrameCache}, shows the newest of the skipped frames that is cached instead.
+ *
+ * <p>When the drawing is late, the frame due is usually not prepared yet, so it would have to be
+ * rendered on the UI thread. Showing a cached frame newer than the last one drawn keeps the
+ * animation moving without rendering, and without showing the last drawn frame again.
+ */
+@Nullsafe(Nullsafe.Mode.STRICT)
+public class SkipToCachedFrameScheduler extends DropFramesFrameScheduler {
+
+  private final BitmapFrameCache mBitmapFrameCache;
+
+  public SkipToCachedFrameScheduler(
+      AnimationInformation animationInformation, BitmapFrameCache bitmapFrameCache) {
+    super(animationInformation);
+    mBitmapFrameCache = bitmapFrameCache;
+  }
+
+  @Override
+  public int getFrameNumberToRender(long animationTimeMs, long lastFrameTimeMs) {
+    final int frameNumber = super.getFrameNumberToRender(animationTimeMs, lastFrameTimeMs);
+    if (frameNumber == FRAME_NUMBER_DONE
+        || lastFrameTimeMs < 0
+        || lastFrameTimeMs >= animationTimeMs
+        || mBitmapFrameCache.contains(frameNumber)) {
+      return frameNumber;
+    }
+    final FrameTimeline frameTimeline = getFrameTimeline();
+    final int frameCount = frameTimeline.getFrameCount();
+    final long loopDurationMs = frameTimeline.getLoopDurationMs();
+    if (frameCount <= 1 || loopDurationMs == 0) {
+      return frameNumber;
+    }
+    final int skippedFrameCount;
+    if (animationTimeMs - lastFrameTimeMs >= loopDurationMs) {
+      skippedFrameCount = frameCount - 1;
+    } else {
+      final int lastFrameNumber = frameTimeline.getFrameNumberAt(lastFrameTimeMs % loopDurationMs);
+      skippedFrameCount = (frameNumber - lastFrameNumber + frameCount) % frameCount - 1;
+    }
+    for (int i = 1; i <= skippedFrameCount; i++) {
+      final int skippedFrameNumber = (frameNumber - i + frameCount) % frameCount;
+      if (mBitmapFrameCache.contains(skippedFrameNumber)) {
+        return skippedFrameNumber;
+      }
+    }
+    return frameNumber;
+  }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.fresco.animation.bitmap.cache;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.graphics.Bitmap;
+import com.facebook.common.memory.MemoryTrimType;
+import com.facebook.common.memory.MemoryTrimmableRegistry;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.common.references.ResourceReleaser;
+import com.facebook.fresco.animation.bitmap.BitmapFrameCache;
+import com.facebook.imagepipeline.bitmaps.PlatformBitmapFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RobolectricTestRunner;
+
+/** Tests {@link FrameBitmapPool}. */
+@RunWith(RobolectricTestRunner.class)
+public class FrameBitmapPoolTest {
+
+  private static final int WIDTH = 10;
+  private static final int HEIGHT = 20;
+  private static final int BITMAP_SIZE_BYTES = WIDTH * HEIGHT * 4;
+  private static final Bitmap.Config BITMAP_CONFIG = Bitmap.Config.ARGB_8888;
+
+  @Mock public PlatformBitmapFactory mPlatformBitmapFactory;
+  @Mock public ResourceReleaser<Bitmap> mBitmapReleaser;
+  @Mock public MemoryTrimmableRegistry mMemoryTrimmableRegistry;
+
+  private FrameBitmapPool mFrameBitmapPool;
+
+  @Before
+  public void setup() {
+    MockitoAnnotations.initMocks(this);
+    when(mPlatformBitmapFactory.createBitmap(anyInt(), anyInt(), eq(BITMAP_CONFIG)))
+        .thenAnswer(
+            new Answer<CloseableReference<Bitmap>>() {
+              @Override
+              public CloseableReference<Bitmap> answer(InvocationOnMock invocation) {
+                return CloseableReference.of(
+                    createBitmap(
+                        (Integer) invocation.getArguments()[0],
+                        (Integer) invocation.getArguments()[1]),
+                    mBitmapReleaser);
+              }
+            });
+    mFrameBitmapPool =
+        new FrameBitmapPool(
+            mPlatformBitmapFactory, 2 * BITMAP_SIZE_BYTES, mMemoryTrimmableRegistry);
+  }
+
+  @Test
+  public void testConstructor_thenRegisterMemoryTrimmable() {
+    verify(mMemoryTrimmableRegistry).registerMemoryTrimmable(mFrameBitmapPool);
+  }
+
+  @Test
+  public void testGet_whenBitmapReleased_thenReuseBitmap() {
+    CloseableReference<Bitmap> first = mFrameBitmapPool.get(WIDTH, HEIGHT, BITMAP_CONFIG);
+    Bitmap bitmap = first.get();
+    first.close();
+
+    assertThat(mFrameBitmapPool.getSizeInBytes()).isEqualTo(BITMAP_SIZE_BYTES);
+    CloseableReference<Bitmap> second = mFrameBitmapPool.get(WIDTH, HEIGHT, BITMAP_CONFIG);
+
+    assertThat(second.get()).isSameAs(bitmap);
+    assertThat(mFrameBitmapPool.getAllocatedCount()).isEqualTo(1);
+    assertThat(mFrameBitmapPool.getReusedCount()).isEqualTo(1);
+    assertThat(mFrameBitmapPool.getSizeInBytes()).isEqualTo(0);
+    verify(mBitmapReleaser, never()).release(bitmap);
+  }
+
+  @Test
+  public void testGet_whenBitmapInUse_thenCreateBitmap() {
+    CloseableReference<Bitmap> first = mFrameBitmapPool.get(WIDTH, HEIGHT, BITMAP_CONFIG);
+    CloseableReference<Bitmap> second = mFrameBitmapPool.get(WIDTH, HEIGHT, BITMAP_CONFIG);
+
+    assertThat(second.get()).isNotSameAs(first.get());
+    assertThat(mFrameBitmapPool.getAllocatedCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void testGet_whenOtherSizeReleased_thenCreateBitmap() {
+    mFrameBitmapPool.get(HEIGHT, WIDTH, BITMAP_CONFIG).close();
+
+    mFrameBitmapPool.get(WIDTH, HEIGHT, BITMAP_CONFIG);
+
+    assertThat(mFrameBitmapPool.getAllocatedCount()).isEqualTo(2);
+    assertThat(mFrameBitmapPool.getReusedCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void testRelease_whenPoolFull_thenFreeLeastRecentlyReleasedBitmap() {
+    CloseableReference<Bitmap> first = mFrameBitmapPool.get(WIDTH, HEIGHT, BITMAP_CONFIG);
+    CloseableReference<Bitmap> second = mFrameBitmapPool.get(WIDTH, HEIGHT, BITMAP_CONFIG);
+    CloseableReference<Bitmap> third = mFrameBitmapPool.get(WIDTH, HEIGHT, BITMAP_CONFIG);
+    Bitmap firstBitmap = first.get();
+    Bitmap thirdBitmap = third.get();
+
+    first.close();
+    second.close();
+    third.close();
+
+    verify(mBitmapReleaser).release(firstBitmap);
+    assertThat(mFrameBitmapPool.getFreedCount()).isEqualTo(1);
+    assertThat(mFrameBitmapPool.getSizeInBytes()).isEqualTo(2 * BITMAP_SIZE_BYTES);
+    assertThat(mFrameBitmapPool.get(WIDTH, HEIGHT, BITMAP_CONFIG).get()).isSameAs(thirdBitmap);
+  }
+
+  @Test
+  public void testTrim_thenFreeBitmaps() {
+    mFrameBitmapPool.get(WIDTH, HEIGHT, BITMAP_CONFIG).close();
+
+    mFrameBitmapPool.trim(MemoryTrimType.OnAppBackgrounded);
+
+    assertThat(mFrameBitmapPool.getSizeInBytes()).isEqualTo(0);
+    assertThat(mFrameBitmapPool.getFreedCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void testPooledBitmapFrameCache_whenCacheHasNoBitmapToReuse_thenUsePool() {
+    BitmapFrameCache bitmapFrameCache = mock(BitmapFrameCache.class);
+    PooledBitmapFrameCache pooledBitmapFrameCache =
+        new PooledBitmapFrameCache(bitmapFrameCache, mFrameBitmapPool, BITMAP_CONFIG);
+    mFrameBitmapPool.get(WIDTH, HEIGHT, BITMAP_CONFIG).close();
+
+    CloseableReference<Bitmap> bitmapReference =
+        pooledBitmapFrameCache.getBitmapToReuseForFrame(1, WIDTH, HEIGHT);
+
+    assertThat(bitmapReference).isNotNull();
+    assertThat(mFrameBitmapPool.getReusedCount()).isEqualTo(1);
+  }
+
+  private static Bitmap createBitmap(int width, int height) {
+    Bitmap bitmap = mock(Bitmap.class);
+    when(bitmap.getWidth()).thenReturn(width);
+    when(bitmap.getHeight()).thenReturn(height);
+    when(bitmap.isMutable()).thenReturn(true);
+    when(bitmap.getAllocationByteCount()).thenReturn(width * height * 4);
+    when(bitmap.getByteCount()).thenReturn(width * height * 4);
+    return bitmap;
+  }
+}
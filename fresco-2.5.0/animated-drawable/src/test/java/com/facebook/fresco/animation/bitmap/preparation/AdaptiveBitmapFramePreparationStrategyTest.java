@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.fresco.animation.bitmap.preparation;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.graphics.Bitmap;
+import com.facebook.common.memory.MemoryTrimType;
+import com.facebook.common.time.MonotonicNanoClock;
+import com.facebook.fresco.animation.backend.AnimationBackend;
+import com.facebook.fresco.animation.bitmap.BitmapAnimationBackend;
+import com.facebook.fresco.animation.bitmap.BitmapFrameCache;
+import com.facebook.fresco.animation.bitmap.BitmapFrameRenderer;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+
+/** Tests {@link AdaptiveBitmapFramePreparationStrategy}. */
+@RunWith(RobolectricTestRunner.class)
+public class AdaptiveBitmapFramePreparationStrategyTest {
+
+  private static final int FRAME_COUNT = 20;
+  private static final int MAX_FRAMES_TO_PREPARE = 8;
+  private static final long TRIM_DURATION_MS = 1000;
+
+  @Mock public MonotonicNanoClock mClock;
+  @Mock public AnimationBackend mAnimationBackend;
+  @Mock public BitmapAnimationBackend mBitmapAnimationBackend;
+  @Mock public BitmapFramePreparer mBitmapFramePreparer;
+  @Mock public BitmapFrameCache mBitmapFrameCache;
+  @Mock public BitmapFrameRenderer mBitmapFrameRenderer;
+  @Mock public Bitmap mBitmap;
+
+  private AdaptiveBitmapFramePreparationStrategy mStrategy;
+
+  @Before
+  public void setup() {
+    MockitoAnnotations.initMocks(this);
+    when(mAnimationBackend.getFrameCount()).thenReturn(FRAME_COUNT);
+    when(mBitmapAnimationBackend.getFrameCount()).thenReturn(FRAME_COUNT);
+    when(mBitmapFramePreparer.prepareFrame(
+            any(BitmapFrameCache.class), any(AnimationBackend.class), anyInt()))
+        .thenReturn(true);
+    when(mBitmapFrameRenderer.renderFrame(anyInt(), any(Bitmap.class))).thenReturn(true);
+    mStrategy =
+        new AdaptiveBitmapFramePreparationStrategy(
+            mClock, MAX_FRAMES_TO_PREPARE, 2f, TRIM_DURATION_MS);
+  }
+
+  @Test
+  public void testPrepareFrames_whenRenderTimeUnknown_thenPrepareInitialFrames() {
+    setFrameDurationMs(16);
+
+    mStrategy.prepareFrames(mBitmapFramePreparer, mBitmapFrameCache, mAnimationBackend, 0);
+
+    verify(mBitmapFramePreparer).prepareFrame(mBitmapFrameCache, mAnimationBackend, 1);
+    verify(mBitmapFramePreparer).prepareFrame(mBitmapFrameCache, mAnimationBackend, 3);
+    verify(mBitmapFramePreparer, times(3))
+        .prepareFrame(eq(mBitmapFrameCache), eq(mAnimationBackend), anyInt());
+  }
+
+  @Test
+  public void testGetFramesToPrepare_thenCoverRenderTimeWithHeadroom() {
+    renderFrame(20);
+
+    // 40 ms to cover
+    setFrameDurationMs(16);
+    assertThat(mStrategy.getFramesToPrepare(mAnimationBackend, 0)).isEqualTo(3);
+    setFrameDurationMs(500);
+    assertThat(mStrategy.getFramesToPrepare(mAnimationBackend, 0)).isEqualTo(1);
+    setFrameDurationMs(1);
+    assertThat(mStrategy.getFramesToPrepare(mAnimationBackend, 0))
+        .isEqualTo(MAX_FRAMES_TO_PREPARE);
+  }
+
+  @Test
+  public void testOnFrameDrawn_whenFrameLate_thenPrepareOneMoreFrameUntilLoopInTime() {
+    renderFrame(20);
+    setFrameDurationMs(500);
+    mStrategy.prepareFrames(mBitmapFramePreparer, mBitmapFrameCache, mAnimationBackend, 0);
+
+    mStrategy.onFrameDrawn(mBitmapAnimationBackend, 1, BitmapAnimationBackend.FRAME_TYPE_CREATED);
+    mStrategy.onFrameDropped(mBitmapAnimationBackend, 2);
+
+    assertThat(mStrategy.getFramesToPrepare(mAnimationBackend, 2)).isEqualTo(3);
+    assertThat(mStrategy.getLateFrameCount()).isEqualTo(2);
+    assertThat(mStrategy.getDroppedFrameCount()).isEqualTo(1);
+
+    for (int i = 0; i < FRAME_COUNT; i++) {
+      mStrategy.onFrameDrawn(mBitmapAnimationBackend, i, BitmapAnimationBackend.FRAME_TYPE_CACHED);
+    }
+    assertThat(mStrategy.getFramesToPrepare(mAnimationBackend, 2)).isEqualTo(2);
+  }
+
+  @Test
+  public void testOnFrameDrawn_whenNothingPreparedYet_thenFrameNotLate() {
+    mStrategy.onFrameDrawn(mBitmapAnimationBackend, 0, BitmapAnimationBackend.FRAME_TYPE_CREATED);
+
+    assertThat(mStrategy.getLateFrameCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void testTrim_thenPrepareFewerFramesUntilTrimDurationElapsed() {
+    renderFrame(20);
+    setFrameDurationMs(1);
+
+    mStrategy.trim(MemoryTrimType.OnCloseToDalvikHeapLimit);
+    assertThat(mStrategy.getFramesToPrepare(mAnimationBackend, 0))
+        .isEqualTo(MAX_FRAMES_TO_PREPARE / 2);
+
+    mStrategy.trim(MemoryTrimType.OnAppBackgrounded);
+    assertThat(mStrategy.getFramesToPrepare(mAnimationBackend, 0)).isEqualTo(1);
+
+    when(mClock.nowNanos()).thenReturn(TimeUnit.MILLISECONDS.toNanos(TRIM_DURATION_MS + 20));
+    assertThat(mStrategy.getFramesToPrepare(mAnimationBackend, 0))
+        .isEqualTo(MAX_FRAMES_TO_PREPARE);
+  }
+
+  private void renderFrame(long renderTimeMs) {
+    when(mClock.nowNanos()).thenReturn(0L, TimeUnit.MILLISECONDS.toNanos(renderTimeMs));
+    mStrategy.measureRenderTime(mBitmapFrameRenderer).renderFrame(0, mBitmap);
+    assertThat(mStrategy.getAverageRenderTimeMs()).isEqualTo(renderTimeMs);
+  }
+
+  private void setFrameDurationMs(int frameDurationMs) {
+    when(mAnimationBackend.getFrameDurationMs(anyInt())).thenReturn(frameDurationMs);
+  }
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.fresco.animation.bitmap.preparation;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.graphics.Bitmap;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.fresco.animation.backend.AnimationBackend;
+import com.facebook.fresco.animation.bitmap.BitmapAnimationBackend;
+import com.facebook.fresco.animation.bitmap.BitmapFrameCache;
+import com.facebook.fresco.animation.bitmap.BitmapFrameRenderer;
+import com.facebook.imagepipeline.bitmaps.PlatformBitmapFactory;
+import com.facebook.imagepipeline.testing.FakeClock;
+import com.facebook.imagepipeline.testing.TestExecutorService;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RobolectricTestRunner;
+
+/** Tests {@link AnimationFrameScheduler}. */
+@RunWith(RobolectricTestRunner.class)
+public class AnimationFrameSchedulerTest {
+
+  private static final int FRAME_COUNT = 10;
+  private static final int WIDTH = 10;
+  private static final int HEIGHT = 10;
+  private static final int FRAME_SIZE_BYTES = WIDTH * HEIGHT * 4;
+  private static final Bitmap.Config BITMAP_CONFIG = Bitmap.Config.ARGB_8888;
+
+  @Mock public PlatformBitmapFactory mPlatformBitmapFactory;
+  @Mock public CloseableReference<Bitmap> mBitmapReference;
+  @Mock public Bitmap mBitmap;
+
+  private FakeClock mFakeClock;
+  private TestExecutorService mExecutorService;
+
+  @Before
+  public void setup() {
+    MockitoAnnotations.initMocks(this);
+    mFakeClock = new FakeClock();
+    mExecutorService = new TestExecutorService(mFakeClock);
+    when(mBitmapReference.isValid()).thenReturn(true);
+    when(mBitmapReference.get()).thenReturn(mBitmap);
+    when(mPlatformBitmapFactory.createBitmap(WIDTH, HEIGHT, BITMAP_CONFIG))
+        .thenReturn(mBitmapReference);
+  }
+
+  @Test
+  public void testPrepareFrames_thenPrepareFramesNeededSoonestFirst() {
+    AnimationFrameScheduler scheduler = createScheduler(1, Long.MAX_VALUE);
+    BitmapFrameRenderer slowRenderer = createRenderer();
+    BitmapFrameRenderer fastRenderer = createRenderer();
+    BitmapFrameCache slowCache = mock(BitmapFrameCache.class);
+    BitmapFrameCache fastCache = mock(BitmapFrameCache.class);
+
+    prepareFrames(scheduler, slowRenderer, slowCache, createBackend(100), 2, 0);
+    prepareFrames(scheduler, fastRenderer, fastCache, createBackend(30), 2, 0);
+    mExecutorService.runUntilIdle();
+
+    // Due at 30, 60, 100 and 200 ms
+    InOrder inOrder = inOrder(slowRenderer, fastRenderer);
+    inOrder.verify(fastRenderer).renderFrame(1, mBitmap);
+    inOrder.verify(fastRenderer).renderFrame(2, mBitmap);
+    inOrder.verify(slowRenderer).renderFrame(1, mBitmap);
+    inOrder.verify(slowRenderer).renderFrame(2, mBitmap);
+    verify(fastCache)
+        .onFramePrepared(2, mBitmapReference, BitmapAnimationBackend.FRAME_TYPE_CREATED);
+  }
+
+  @Test
+  public void testPrepareFrames_thenRunAtMostMaxConcurrentJobs() {
+    AnimationFrameScheduler scheduler = createScheduler(2, Long.MAX_VALUE);
+
+    for (int i = 0; i < 3; i++) {
+      prepareFrames(
+          scheduler, createRenderer(), mock(BitmapFrameCache.class), createBackend(100), 3, 0);
+    }
+
+    assertThat(mExecutorService.getPendingCount()).isEqualTo(2);
+    assertThat(scheduler.getQueuedJobCount()).isEqualTo(9);
+    mExecutorService.runUntilIdle();
+    assertThat(scheduler.getQueuedJobCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void testPrepareFrames_whenFramePending_thenScheduleOnce() {
+    AnimationFrameScheduler scheduler = createScheduler(1, Long.MAX_VALUE);
+    AnimationFrameScheduler.FramePreparer framePreparer =
+        scheduler.createFramePreparer(mPlatformBitmapFactory, createRenderer(), BITMAP_CONFIG, 3);
+    BitmapFrameCache cache = mock(BitmapFrameCache.class);
+    AnimationBackend backend = createBackend(100);
+
+    framePreparer.prepareFrames(framePreparer, cache, backend, 0);
+    framePreparer.prepareFrames(framePreparer, cache, backend, 1);
+
+    // Frames 1 to 4
+    assertThat(scheduler.getQueuedJobCount()).isEqualTo(4);
+  }
+
+  @Test
+  public void testPrepareFrames_whenFrameCached_thenDoNothing() {
+    AnimationFrameScheduler scheduler = createScheduler(1, Long.MAX_VALUE);
+    BitmapFrameCache cache = mock(BitmapFrameCache.class);
+    when(cache.contains(anyInt())).thenReturn(true);
+
+    prepareFrames(scheduler, createRenderer(), cache, createBackend(100), 3, 0);
+
+    assertThat(scheduler.getQueuedJobCount()).isEqualTo(0);
+    assertThat(mExecutorService.isIdle()).isTrue();
+  }
+
+  @Test
+  public void testPrepareFrames_whenFrameDue_thenDropFrame() {
+    AnimationFrameScheduler scheduler = createScheduler(1, Long.MAX_VALUE);
+    BitmapFrameRenderer renderer = createRenderer();
+
+    prepareFrames(scheduler, renderer, mock(BitmapFrameCache.class), createBackend(100), 2, 0);
+    // The animation stopped drawing before the first frame was prepared
+    mFakeClock.incrementBy(150);
+    mExecutorService.runUntilIdle();
+
+    verify(renderer, never()).renderFrame(1, mBitmap);
+    verify(renderer).renderFrame(2, mBitmap);
+    assertThat(scheduler.getExpiredJobCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void testPrepareFrames_whenOverBudget_thenDropFrame() {
+    AnimationFrameScheduler scheduler = createScheduler(1, 2 * FRAME_SIZE_BYTES);
+    BitmapFrameRenderer renderer = createRenderer();
+
+    prepareFrames(scheduler, renderer, mock(BitmapFrameCache.class), createBackend(100), 3, 0);
+    mExecutorService.runUntilIdle();
+
+    verify(renderer).renderFrame(1, mBitmap);
+    verify(renderer).renderFrame(2, mBitmap);
+    verify(renderer, never()).renderFrame(3, mBitmap);
+    assertThat(scheduler.getOverBudgetJobCount()).isEqualTo(1);
+    assertThat(scheduler.getReservedBytes()).isEqualTo(2 * FRAME_SIZE_BYTES);
+  }
+
+  @Test
+  public void testPrepareFrames_whenFramesDue_thenReleaseBudget() {
+    AnimationFrameScheduler scheduler = createScheduler(1, 2 * FRAME_SIZE_BYTES);
+    AnimationFrameScheduler.FramePreparer framePreparer =
+        scheduler.createFramePreparer(mPlatformBitmapFactory, createRenderer(), BITMAP_CONFIG, 2);
+    BitmapFrameCache cache = mock(BitmapFrameCache.class);
+    AnimationBackend backend = createBackend(100);
+
+    framePreparer.prepareFrames(framePreparer, cache, backend, 0);
+    mExecutorService.runUntilIdle();
+    assertThat(scheduler.getReservedBytes()).isEqualTo(2 * FRAME_SIZE_BYTES);
+
+    mFakeClock.incrementBy(101);
+    assertThat(scheduler.getReservedBytes()).isEqualTo(FRAME_SIZE_BYTES);
+
+    when(cache.contains(2)).thenReturn(true);
+    framePreparer.prepareFrames(framePreparer, cache, backend, 1);
+    mExecutorService.runUntilIdle();
+    assertThat(scheduler.getOverBudgetJobCount()).isEqualTo(0);
+    assertThat(scheduler.getReservedBytes()).isEqualTo(2 * FRAME_SIZE_BYTES);
+  }
+
+  @Test
+  public void testPrepareFrames_whenFrameDueWhilePrepared_thenKeepBudgetUntilDone() {
+    final AnimationFrameScheduler scheduler = createScheduler(1, Long.MAX_VALUE);
+    final long[] reservedBytesWhileRendering = new long[1];
+    BitmapFrameRenderer renderer = mock(BitmapFrameRenderer.class);
+    when(renderer.renderFrame(anyInt(), any(Bitmap.class)))
+        .thenAnswer(
+            new Answer<Boolean>() {
+              @Override
+              public Boolean answer(InvocationOnMock invocation) {
+                mFakeClock.incrementBy(150);
+                reservedBytesWhileRendering[0] = scheduler.getReservedBytes();
+                return true;
+              }
+            });
+
+    prepareFrames(scheduler, renderer, mock(BitmapFrameCache.class), createBackend(100), 1, 0);
+    mExecutorService.runUntilIdle();
+
+    assertThat(reservedBytesWhileRendering[0]).isEqualTo(FRAME_SIZE_BYTES);
+    assertThat(scheduler.getReservedBytes()).isEqualTo(0);
+  }
+
+  @Test
+  public void testPrepareFrame_whenClockTicksBeforeRunning_thenPrepareFrame() {
+    AnimationFrameScheduler scheduler = createScheduler(1, Long.MAX_VALUE);
+    BitmapFrameRenderer renderer = createRenderer();
+    AnimationFrameScheduler.FramePreparer framePreparer =
+        scheduler.createFramePreparer(mPlatformBitmapFactory, renderer, BITMAP_CONFIG, 3);
+    BitmapFrameCache cache = mock(BitmapFrameCache.class);
+    AnimationBackend backend = createBackend(100);
+
+    framePreparer.prepareFrames(framePreparer, cache, backend, 0);
+    // Needed now, which must not make the pending job expire either
+    framePreparer.prepareFrame(cache, backend, 2);
+    framePreparer.prepareFrame(cache, backend, 5);
+    mFakeClock.incrementBy(1);
+    mExecutorService.runUntilIdle();
+
+    verify(renderer).renderFrame(2, mBitmap);
+    verify(renderer).renderFrame(5, mBitmap);
+    assertThat(scheduler.getExpiredJobCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void testPrepareFrames_whenRenderingFails_thenReleaseBudget() {
+    AnimationFrameScheduler scheduler = createScheduler(1, Long.MAX_VALUE);
+    BitmapFrameRenderer renderer = mock(BitmapFrameRenderer.class);
+
+    prepareFrames(scheduler, renderer, mock(BitmapFrameCache.class), createBackend(100), 1, 0);
+    mExecutorService.runUntilIdle();
+
+    assertThat(scheduler.getReservedBytes()).isEqualTo(0);
+  }
+
+  @Test
+  public void testPrepareFrames_whenRenderingThrows_thenPrepareNextFrames() {
+    AnimationFrameScheduler scheduler = createScheduler(1, Long.MAX_VALUE);
+    BitmapFrameRenderer throwingRenderer = mock(BitmapFrameRenderer.class);
+    when(throwingRenderer.renderFrame(anyInt(), any(Bitmap.class)))
+        .thenThrow(new IllegalStateException());
+    BitmapFrameRenderer renderer = createRenderer();
+
+    prepareFrames(
+        scheduler, throwingRenderer, mock(BitmapFrameCache.class), createBackend(30), 2, 0);
+    mExecutorService.runUntilIdle();
+    prepareFrames(scheduler, renderer, mock(BitmapFrameCache.class), createBackend(100), 1, 0);
+    mExecutorService.runUntilIdle();
+
+    verify(throwingRenderer).renderFrame(2, mBitmap);
+    verify(renderer).renderFrame(1, mBitmap);
+    assertThat(scheduler.getQueuedJobCount()).isEqualTo(0);
+    assertThat(scheduler.getReservedBytes()).isEqualTo(FRAME_SIZE_BYTES);
+  }
+
+  private AnimationFrameScheduler createScheduler(
+      int maxConcurrentJobs, long lookAheadBudgetBytes) {
+    return new AnimationFrameScheduler(
+        mExecutorService, mFakeClock, maxConcurrentJobs, lookAheadBudgetBytes);
+  }
+
+  private void prepareFrames(
+      AnimationFrameScheduler scheduler,
+      BitmapFrameRenderer renderer,
+      BitmapFrameCache cache,
+      AnimationBackend backend,
+      int framesToPrepare,
+      int lastDrawnFrameNumber) {
+    AnimationFrameScheduler.FramePreparer framePreparer =
+        scheduler.createFramePreparer(
+            mPlatformBitmapFactory, renderer, BITMAP_CONFIG, framesToPrepare);
+    framePreparer.prepareFrames(framePreparer, cache, backend, lastDrawnFrameNumber);
+  }
+
+  private BitmapFrameRenderer createRenderer() {
+    BitmapFrameRenderer renderer = mock(BitmapFrameRenderer.class);
+    when(renderer.renderFrame(anyInt(), any(Bitmap.class))).thenReturn(true);
+    return renderer;
+  }
+
+  private static AnimationBackend createBackend(int frameDurationMs) {
+    AnimationBackend backend = mock(AnimationBackend.class);
+    when(backend.getFrameCount()).thenReturn(FRAME_COUNT);
+    when(backend.getFrameDurationMs(anyInt())).thenReturn(frameDurationMs);
+    when(backend.getIntrinsicWidth()).thenReturn(WIDTH);
+    when(backend.getIntrinsicHeight()).thenReturn(HEIGHT);
+    return backend;
+  }
+}
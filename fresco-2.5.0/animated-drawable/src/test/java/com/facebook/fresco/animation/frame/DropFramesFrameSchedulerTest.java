@@ -15,6 +15,7 @@ import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
 import androidx.annotation.IntRange;
 import com.facebook.fresco.animation.backend.AnimationBackend;
+import com.facebook.fresco.animation.backend.AnimationBackendDelegate;
 import javax.annotation.Nullable;
 import org.junit.Before;
 import org.junit.Test;
@@ -139,6 +140,20 @@ public class DropFramesFrameSchedulerTest {
     assertThat(frameScheduler.getFrameNumberToRender(0, 0)).isEqualTo(0);
   }
 
+  @Test
+  public void testGetFrameNumberToRender_whenDelegateBackendChanges_thenUseNewFrames() {
+    AnimationBackendDelegate<AnimationBackend> delegate =
+        new AnimationBackendDelegate<AnimationBackend>(new DummyAnimationBackend(5));
+    DropFramesFrameScheduler frameScheduler = new DropFramesFrameScheduler(delegate);
+    assertThat(frameScheduler.getFrameNumberToRender(450, -1)).isEqualTo(4);
+
+    delegate.setAnimationBackend(new DummyAnimationBackend(3));
+
+    assertThat(frameScheduler.getLoopDurationMs()).isEqualTo(300);
+    assertThat(frameScheduler.getFrameNumberToRender(250, -1)).isEqualTo(2);
+    assertThat(frameScheduler.getFrameNumberToRender(450, -1)).isEqualTo(1);
+  }
+
   private static class DummyAnimationBackend implements AnimationBackend {
 
     private final int mFrameCount;
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.fresco.animation.frame;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.facebook.fresco.animation.backend.AnimationInformation;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Tests {@link FrameTimeline}. */
+public class FrameTimelineTest {
+
+  private AnimationInformation mAnimationInformation;
+  private FrameTimeline mFrameTimeline;
+
+  @Before
+  public void setUp() {
+    // Frames start at 0, 10, 30, 30 and 60 ms, and the loop lasts 100 ms
+    mAnimationInformation = createAnimationInformation(10, 20, 0, 30, 40);
+    mFrameTimeline = FrameTimeline.forAnimation(mAnimationInformation);
+  }
+
+  @Test
+  public void testGetLoopDurationMs() {
+    assertThat(mFrameTimeline.getFrameCount()).isEqualTo(5);
+    assertThat(mFrameTimeline.getLoopDurationMs()).isEqualTo(100);
+  }
+
+  @Test
+  public void testGetFrameStartTimeMs() {
+    assertThat(mFrameTimeline.getFrameStartTimeMs(0)).isEqualTo(0);
+    assertThat(mFrameTimeline.getFrameStartTimeMs(1)).isEqualTo(10);
+    assertThat(mFrameTimeline.getFrameStartTimeMs(2)).isEqualTo(30);
+    assertThat(mFrameTimeline.getFrameStartTimeMs(3)).isEqualTo(30);
+    assertThat(mFrameTimeline.getFrameStartTimeMs(4)).isEqualTo(60);
+  }
+
+  @Test
+  public void testGetFrameNumberAt() {
+    assertThat(mFrameTimeline.getFrameNumberAt(0)).isEqualTo(0);
+    assertThat(mFrameTimeline.getFrameNumberAt(9)).isEqualTo(0);
+    assertThat(mFrameTimeline.getFrameNumberAt(10)).isEqualTo(1);
+    assertThat(mFrameTimeline.getFrameNumberAt(29)).isEqualTo(1);
+    // Frame 2 has no duration
+    assertThat(mFrameTimeline.getFrameNumberAt(30)).isEqualTo(3);
+    assertThat(mFrameTimeline.getFrameNumberAt(59)).isEqualTo(3);
+    assertThat(mFrameTimeline.getFrameNumberAt(60)).isEqualTo(4);
+    assertThat(mFrameTimeline.getFrameNumberAt(99)).isEqualTo(4);
+  }
+
+  @Test
+  public void testGetNextFrameStartTimeMs() {
+    assertThat(mFrameTimeline.getNextFrameStartTimeMs(0)).isEqualTo(10);
+    assertThat(mFrameTimeline.getNextFrameStartTimeMs(10)).isEqualTo(30);
+    assertThat(mFrameTimeline.getNextFrameStartTimeMs(30)).isEqualTo(60);
+    assertThat(mFrameTimeline.getNextFrameStartTimeMs(99)).isEqualTo(100);
+  }
+
+  @Test
+  public void testForAnimation_thenShareTimeline() {
+    assertThat(FrameTimeline.forAnimation(mAnimationInformation)).isSameAs(mFrameTimeline);
+  }
+
+  @Test
+  public void testForAnimation_whenNoFrames_thenDoNotShareTimeline() {
+    AnimationInformation animationInformation = createAnimationInformation();
+
+    FrameTimeline frameTimeline = FrameTimeline.forAnimation(animationInformation);
+
+    assertThat(frameTimeline.getFrameCount()).isEqualTo(0);
+    assertThat(frameTimeline.getLoopDurationMs()).isEqualTo(0);
+    assertThat(FrameTimeline.forAnimation(animationInformation)).isNotSameAs(frameTimeline);
+  }
+
+  @Test
+  public void testForAnimation_whenFramesChanged_thenComputeTimelineAgain() {
+    when(mAnimationInformation.getFrameCount()).thenReturn(2);
+
+    FrameTimeline frameTimeline = FrameTimeline.forAnimation(mAnimationInformation);
+    assertThat(frameTimeline.getFrameCount()).isEqualTo(2);
+    assertThat(frameTimeline.getLoopDurationMs()).isEqualTo(30);
+
+    when(mAnimationInformation.getFrameDurationMs(1)).thenReturn(50);
+    frameTimeline = FrameTimeline.forAnimation(mAnimationInformation);
+    assertThat(frameTimeline.getLoopDurationMs()).isEqualTo(60);
+    assertThat(FrameTimeline.forAnimation(mAnimationInformation)).isSameAs(frameTimeline);
+  }
+
+  @Test
+  public void testDropFramesFrameScheduler_thenUseFrameStartTimes() {
+    DropFramesFrameScheduler frameScheduler = new DropFramesFrameScheduler(mAnimationInformation);
+
+    assertThat(frameScheduler.getLoopDurationMs()).isEqualTo(100);
+    assertThat(frameScheduler.getTargetRenderTimeMs(0)).isEqualTo(0);
+    assertThat(frameScheduler.getTargetRenderTimeMs(1)).isEqualTo(10);
+    assertThat(frameScheduler.getTargetRenderTimeMs(4)).isEqualTo(60);
+    assertThat(frameScheduler.getFrameNumberToRender(135, -1)).isEqualTo(3);
+    assertThat(frameScheduler.getTargetRenderTimeForNextFrameMs(135)).isEqualTo(160);
+    assertThat(frameScheduler.getTargetRenderTimeForNextFrameMs(199)).isEqualTo(200);
+  }
+
+  static AnimationInformation createAnimationInformation(int... frameDurationsMs) {
+    AnimationInformation animationInformation = mock(AnimationInformation.class);
+    when(animationInformation.getFrameCount()).thenReturn(frameDurationsMs.length);
+    for (int i = 0; i < frameDurationsMs.length; i++) {
+      when(animationInformation.getFrameDurationMs(i)).thenReturn(frameDurationsMs[i]);
+    }
+    when(animationInformation.getLoopCount())
+        .thenReturn(AnimationInformation.LOOP_COUNT_INFINITE);
+    return animationInformation;
+  }
+}
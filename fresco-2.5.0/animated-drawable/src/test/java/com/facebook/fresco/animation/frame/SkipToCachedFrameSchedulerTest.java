@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.fresco.animation.frame;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+import com.facebook.fresco.animation.bitmap.BitmapFrameCache;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+/** Tests {@link SkipToCachedFrameScheduler}. */
+public class SkipToCachedFrameSchedulerTest {
+
+  @Mock public BitmapFrameCache mBitmapFrameCache;
+
+  private SkipToCachedFrameScheduler mFrameScheduler;
+
+  @Before
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+    mFrameScheduler =
+        new SkipToCachedFrameScheduler(
+            FrameTimelineTest.createAnimationInformation(100, 100, 100, 100, 100),
+            mBitmapFrameCache);
+  }
+
+  @Test
+  public void testGetFrameNumberToRender_whenFrameCached_thenRenderFrame() {
+    when(mBitmapFrameCache.contains(3)).thenReturn(true);
+    when(mBitmapFrameCache.contains(2)).thenReturn(true);
+
+    assertThat(mFrameScheduler.getFrameNumberToRender(350, 50)).isEqualTo(3);
+  }
+
+  @Test
+  public void testGetFrameNumberToRender_whenSkippedFrameCached_thenRenderNewestCachedFrame() {
+    when(mBitmapFrameCache.contains(1)).thenReturn(true);
+    when(mBitmapFrameCache.contains(2)).thenReturn(true);
+
+    assertThat(mFrameScheduler.getFrameNumberToRender(350, 50)).isEqualTo(2);
+  }
+
+  @Test
+  public void testGetFrameNumberToRender_whenOnlyLastDrawnFrameCached_thenRenderFrame() {
+    when(mBitmapFrameCache.contains(0)).thenReturn(true);
+
+    assertThat(mFrameScheduler.getFrameNumberToRender(350, 50)).isEqualTo(3);
+    // Frame 1 follows frame 0, so nothing was skipped
+    assertThat(mFrameScheduler.getFrameNumberToRender(150, 50)).isEqualTo(1);
+  }
+
+  @Test
+  public void testGetFrameNumberToRender_whenSkippedFramesWrapAround_thenRenderNewestCachedFrame() {
+    when(mBitmapFrameCache.contains(4)).thenReturn(true);
+
+    // Frame 3 was drawn, frame 1 is due
+    assertThat(mFrameScheduler.getFrameNumberToRender(650, 350)).isEqualTo(4);
+  }
+
+  @Test
+  public void testGetFrameNumberToRender_whenLoopSkipped_thenRenderAnyCachedFrame() {
+    when(mBitmapFrameCache.contains(2)).thenReturn(true);
+
+    assertThat(mFrameScheduler.getFrameNumberToRender(750, 50)).isEqualTo(2);
+  }
+
+  @Test
+  public void testGetFrameNumberToRender_whenNoFrameDrawn_thenRenderFrame() {
+    when(mBitmapFrameCache.contains(2)).thenReturn(true);
+
+    assertThat(mFrameScheduler.getFrameNumberToRender(350, -1)).isEqualTo(3);
+  }
+}
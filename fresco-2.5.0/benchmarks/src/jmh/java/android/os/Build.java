@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package android.os;
+
+/** JVM shim for the framework class, which is only a stub in android.jar. */
+public final class Build {
+
+  private Build() {}
+
+  public static final class VERSION {
+
+    public static final int SDK_INT = VERSION_CODES.Q;
+
+    private VERSION() {}
+  }
+
+  public static final class VERSION_CODES {
+
+    public static final int HONEYCOMB = 11;
+    public static final int HONEYCOMB_MR1 = 12;
+    public static final int ICE_CREAM_SANDWICH = 14;
+    public static final int JELLY_BEAN = 16;
+    public static final int JELLY_BEAN_MR1 = 17;
+    public static final int JELLY_BEAN_MR2 = 18;
+    public static final int KITKAT = 19;
+    public static final int LOLLIPOP = 21;
+    public static final int M = 23;
+    public static final int N = 24;
+    public static final int O = 26;
+    public static final int P = 28;
+    public static final int Q = 29;
+
+    private VERSION_CODES() {}
+  }
+}
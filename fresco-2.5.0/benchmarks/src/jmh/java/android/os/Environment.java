@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package android.os;
+
+import java.io.File;
+
+/**
+ * JVM shim for the framework class, which is only a stub in android.jar. Internal storage maps to
+ * the JVM temporary directory and external storage is never mounted.
+ */
+public final class Environment {
+
+  public static final String MEDIA_MOUNTED = "mounted";
+  public static final String MEDIA_UNMOUNTED = "unmounted";
+
+  private Environment() {}
+
+  public static File getDataDirectory() {
+    return new File(System.getProperty("java.io.tmpdir"));
+  }
+
+  public static File getExternalStorageDirectory() {
+    return new File(System.getProperty("java.io.tmpdir"), "external");
+  }
+
+  public static String getExternalStorageState() {
+    return MEDIA_UNMOUNTED;
+  }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package android.os;
+
+import java.io.File;
+
+/** JVM shim for the framework class, which is only a stub in android.jar. */
+public class StatFs {
+
+  private static final int BLOCK_SIZE = 4096;
+
+  private File mPath;
+
+  public StatFs(String path) {
+    mPath = new File(path);
+  }
+
+  public void restat(String path) {
+    mPath = new File(path);
+  }
+
+  public int getBlockSize() {
+    return BLOCK_SIZE;
+  }
+
+  public long getBlockSizeLong() {
+    return BLOCK_SIZE;
+  }
+
+  public int getBlockCount() {
+    return (int) getBlockCountLong();
+  }
+
+  public long getBlockCountLong() {
+    return mPath.getTotalSpace() / BLOCK_SIZE;
+  }
+
+  public int getFreeBlocks() {
+    return (int) getFreeBlocksLong();
+  }
+
+  public long getFreeBlocksLong() {
+    return mPath.getFreeSpace() / BLOCK_SIZE;
+  }
+
+  public int getAvailableBlocks() {
+    return (int) getAvailableBlocksLong();
+  }
+
+  public long getAvailableBlocksLong() {
+    return mPath.getUsableSpace() / BLOCK_SIZE;
+  }
+}
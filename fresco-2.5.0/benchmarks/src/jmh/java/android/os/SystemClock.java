@@ -0,0 +1,26 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package android.os;
+
+/** JVM shim for the framework class, which is only a stub in android.jar. */
+public final class SystemClock {
+
+  private SystemClock() {}
+
+  public static long uptimeMillis() {
+    return System.nanoTime() / 1000000;
+  }
+
+  public static long elapsedRealtime() {
+    return System.nanoTime() / 1000000;
+  }
+
+  public static long elapsedRealtimeNanos() {
+    return System.nanoTime();
+  }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package android.util;
+
+/** JVM shim for the framework class, backed by {@link java.util.Base64}. */
+public final class Base64 {
+
+  public static final int DEFAULT = 0;
+  public static final int NO_PADDING = 1;
+  public static final int NO_WRAP = 2;
+  public static final int CRLF = 4;
+  public static final int URL_SAFE = 8;
+
+  private Base64() {}
+
+  public static String encodeToString(byte[] input, int flags) {
+    return encodeToString(input, 0, input.length, flags);
+  }
+
+  public static String encodeToString(byte[] input, int offset, int len, int flags) {
+    java.util.Base64.Encoder encoder =
+        (flags & URL_SAFE) != 0 ? java.util.Base64.getUrlEncoder() : java.util.Base64.getEncoder();
+    if ((flags & NO_PADDING) != 0) {
+      encoder = encoder.withoutPadding();
+    }
+    return encoder.encodeToString(java.util.Arrays.copyOfRange(input, offset, offset + len));
+  }
+
+  public static byte[] decode(String str, int flags) {
+    java.util.Base64.Decoder decoder =
+        (flags & URL_SAFE) != 0 ? java.util.Base64.getUrlDecoder() : java.util.Base64.getDecoder();
+    return decoder.decode(str);
+  }
+}
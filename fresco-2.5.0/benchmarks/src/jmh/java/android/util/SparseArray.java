@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package android.util;
+
+import java.util.Arrays;
+
+/** JVM shim for the framework class: int keys, sorted, mapped to objects. */
+public class SparseArray<E> {
+
+  private int[] mKeys;
+  private Object[] mValues;
+  private int mSize;
+
+  public SparseArray() {
+    this(10);
+  }
+
+  public SparseArray(int initialCapacity) {
+    mKeys = new int[Math.max(1, initialCapacity)];
+    mValues = new Object[mKeys.length];
+  }
+
+  public E get(int key) {
+    return get(key, null);
+  }
+
+  @SuppressWarnings("unchecked")
+  public E get(int key, E valueIfKeyNotFound) {
+    int index = indexOfKey(key);
+    return index >= 0 ? (E) mValues[index] : valueIfKeyNotFound;
+  }
+
+  public void put(int key, E value) {
+    int index = indexOfKey(key);
+    if (index >= 0) {
+      mValues[index] = value;
+      return;
+    }
+    index = ~index;
+    if (mSize == mKeys.length) {
+      mKeys = Arrays.copyOf(mKeys, mSize * 2);
+      mValues = Arrays.copyOf(mValues, mSize * 2);
+    }
+    System.arraycopy(mKeys, index, mKeys, index + 1, mSize - index);
+    System.arraycopy(mValues, index, mValues, index + 1, mSize - index);
+    mKeys[index] = key;
+    mValues[index] = value;
+    mSize++;
+  }
+
+  public int size() {
+    return mSize;
+  }
+
+  public int keyAt(int index) {
+    return mKeys[index];
+  }
+
+  @SuppressWarnings("unchecked")
+  public E valueAt(int index) {
+    return (E) mValues[index];
+  }
+
+  public void setValueAt(int index, E value) {
+    mValues[index] = value;
+  }
+
+  public int indexOfKey(int key) {
+    return Arrays.binarySearch(mKeys, 0, mSize, key);
+  }
+
+  public void clear() {
+    Arrays.fill(mValues, 0, mSize, null);
+    mSize = 0;
+  }
+}
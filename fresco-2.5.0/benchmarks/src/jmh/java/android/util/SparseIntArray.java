@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package android.util;
+
+import java.util.Arrays;
+
+/** JVM shim for the framework class: int keys, sorted, mapped to int values. */
+public class SparseIntArray {
+
+  private int[] mKeys;
+  private int[] mValues;
+  private int mSize;
+
+  public SparseIntArray() {
+    this(10);
+  }
+
+  public SparseIntArray(int initialCapacity) {
+    mKeys = new int[Math.max(1, initialCapacity)];
+    mValues = new int[mKeys.length];
+  }
+
+  public int get(int key) {
+    return get(key, 0);
+  }
+
+  public int get(int key, int valueIfKeyNotFound) {
+    int index = indexOfKey(key);
+    return index >= 0 ? mValues[index] : valueIfKeyNotFound;
+  }
+
+  public void put(int key, int value) {
+    int index = indexOfKey(key);
+    if (index >= 0) {
+      mValues[index] = value;
+      return;
+    }
+    index = ~index;
+    if (mSize == mKeys.length) {
+      mKeys = Arrays.copyOf(mKeys, mSize * 2);
+      mValues = Arrays.copyOf(mValues, mSize * 2);
+    }
+    System.arraycopy(mKeys, index, mKeys, index + 1, mSize - index);
+    System.arraycopy(mValues, index, mValues, index + 1, mSize - index);
+    mKeys[index] = key;
+    mValues[index] = value;
+    mSize++;
+  }
+
+  public int size() {
+    return mSize;
+  }
+
+  public int keyAt(int index) {
+    return mKeys[index];
+  }
+
+  public int valueAt(int index) {
+    return mValues[index];
+  }
+
+  public int indexOfKey(int key) {
+    return Arrays.binarySearch(mKeys, 0, mSize, key);
+  }
+
+  public void clear() {
+    mSize = 0;
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package androidx.core.util;
+
+/** JVM shim for the androidx class, which is only shipped as an Android library. */
+public final class Pools {
+
+  private Pools() {}
+
+  public interface Pool<T> {
+
+    T acquire();
+
+    boolean release(T instance);
+  }
+
+  public static class SimplePool<T> implements Pool<T> {
+
+    private final Object[] mPool;
+    private int mPoolSize;
+
+    public SimplePool(int maxPoolSize) {
+      if (maxPoolSize <= 0) {
+        throw new IllegalArgumentException("The max pool size must be > 0");
+      }
+      mPool = new Object[maxPoolSize];
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T acquire() {
+      if (mPoolSize == 0) {
+        return null;
+      }
+      mPoolSize--;
+      T instance = (T) mPool[mPoolSize];
+      mPool[mPoolSize] = null;
+      return instance;
+    }
+
+    @Override
+    public boolean release(T instance) {
+      for (int i = 0; i < mPoolSize; i++) {
+        if (mPool[i] == instance) {
+          throw new IllegalStateException("Already in the pool!");
+        }
+      }
+      if (mPoolSize == mPool.length) {
+        return false;
+      }
+      mPool[mPoolSize++] = instance;
+      return true;
+    }
+  }
+
+  public static class SynchronizedPool<T> extends SimplePool<T> {
+
+    public SynchronizedPool(int maxPoolSize) {
+      super(maxPoolSize);
+    }
+
+    @Override
+    public synchronized T acquire() {
+      return super.acquire();
+    }
+
+    @Override
+    public synchronized boolean release(T instance) {
+      return super.release(instance);
+    }
+  }
+}
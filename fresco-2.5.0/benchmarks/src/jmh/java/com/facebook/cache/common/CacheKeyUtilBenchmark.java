@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.cache.common;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of turning a cache key into its disk cache resource id with {@link
+ * Sha1ResourceIdGenerator} and {@link Murmur3ResourceIdGenerator}.
+ *
+ * <p>"freshKeys" builds a new key for every lookup, like a new request does, so the id is always
+ * computed. Otherwise the same key objects are looked up again and again, which measures the
+ * memoized path taken by the several disk cache calls of a single request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CacheKeyUtilBenchmark {
+
+  private static final int KEY_SPACE = 1024;
+
+  @Param({"sha1", "murmur3"})
+  public String generator;
+
+  @Param({"true", "false"})
+  public boolean freshKeys;
+
+  private ResourceIdGenerator mGenerator;
+  private String[] mUris;
+  private CacheKey[] mKeys;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    mGenerator =
+        "murmur3".equals(generator)
+            ? Murmur3ResourceIdGenerator.getInstance()
+            : Sha1ResourceIdGenerator.getInstance();
+    mUris = new String[KEY_SPACE];
+    mKeys = new CacheKey[KEY_SPACE];
+    for (int i = 0; i < KEY_SPACE; i++) {
+      mUris[i] = "https://scontent.example.com/v/t39.30808-6/" + i + "_n.jpg?_nc_cat=" + (i % 97);
+      mKeys[i] = new SimpleCacheKey(mUris[i]);
+    }
+  }
+
+  @Benchmark
+  public String getFirstResourceId() {
+    int index = ThreadLocalRandom.current().nextInt(KEY_SPACE);
+    CacheKey key = freshKeys ? new SimpleCacheKey(mUris[index]) : mKeys[index];
+    return CacheKeyUtil.getFirstResourceId(key, mGenerator);
+  }
+}
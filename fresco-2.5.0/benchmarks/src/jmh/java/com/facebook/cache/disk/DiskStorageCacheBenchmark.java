@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.cache.disk;
+
+import com.facebook.binaryresource.BinaryResource;
+import com.facebook.cache.common.CacheKey;
+import com.facebook.cache.common.NoOpCacheErrorLogger;
+import com.facebook.cache.common.NoOpCacheEventListener;
+import com.facebook.cache.common.SimpleCacheKey;
+import com.facebook.cache.common.WriterCallbacks;
+import com.facebook.common.executors.CallerThreadExecutor;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Measures {@link DiskStorageCache} lookups on a set of hot keys, alone and while another thread
+ * keeps inserting cold keys into a cache small enough that every insert triggers an eviction pass.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DiskStorageCacheBenchmark {
+
+  private static final int VALUE_SIZE = 4 * 1024;
+
+  /** Number of keys that are kept in the cache and read by the reader threads. */
+  @Param({"64"})
+  public int hotKeys;
+
+  private File mDirectory;
+  private DiskStorageCache mCache;
+  private CacheKey[] mHotKeys;
+  private byte[] mValue;
+  private final AtomicLong mColdKeyCounter = new AtomicLong();
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    mDirectory = Files.createTempDirectory("disk-cache-benchmark").toFile();
+    mValue = new byte[VALUE_SIZE];
+    ThreadLocalRandom.current().nextBytes(mValue);
+    // room for the hot keys plus a handful of cold ones, so that the writer keeps evicting
+    long sizeLimit = (long) (hotKeys + 16) * VALUE_SIZE;
+    mCache =
+        new DiskStorageCache(
+            new DefaultDiskStorage(mDirectory, 1, NoOpCacheErrorLogger.getInstance()),
+            new DefaultEntryEvictionComparatorSupplier(),
+            new DiskStorageCache.Params(0, sizeLimit, sizeLimit),
+            NoOpCacheEventListener.getInstance(),
+            NoOpCacheErrorLogger.getInstance(),
+            null,
+            CallerThreadExecutor.getInstance(),
+            false);
+    mHotKeys = new CacheKey[hotKeys];
+    for (int i = 0; i < hotKeys; i++) {
+      mHotKeys[i] = new SimpleCacheKey("https://example.com/hot/" + i + ".jpg");
+    }
+    insertHotKeys();
+  }
+
+  @Setup(Level.Iteration)
+  public void insertHotKeys() throws IOException {
+    // the writer may have evicted some of them during the previous iteration
+    for (CacheKey key : mHotKeys) {
+      if (!mCache.hasKeySync(key)) {
+        mCache.insert(key, WriterCallbacks.from(mValue));
+      }
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    mCache.clearAll();
+    mDirectory.delete();
+  }
+
+  @Benchmark
+  @Threads(4)
+  public BinaryResource readOnly() {
+    return read();
+  }
+
+  @Benchmark
+  @Group("readWhileEvicting")
+  @GroupThreads(3)
+  public BinaryResource readWhileEvicting_reader() {
+    return read();
+  }
+
+  @Benchmark
+  @Group("readWhileEvicting")
+  @GroupThreads(1)
+  public BinaryResource readWhileEvicting_writer() throws IOException {
+    CacheKey key =
+        new SimpleCacheKey("https://example.com/cold/" + mColdKeyCounter.incrementAndGet() + ".jpg");
+    return mCache.insert(key, WriterCallbacks.from(mValue));
+  }
+
+  private BinaryResource read() {
+    return mCache.getResource(mHotKeys[ThreadLocalRandom.current().nextInt(hotKeys)]);
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.cache.disk;
+
+import com.facebook.binaryresource.BinaryResource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of picking the entries to evict to bring the cache down to 90% of its size: sorting every
+ * entry, as {@link DiskStorageCache} used to, against building an {@link EvictionQueue} from the
+ * listing and against polling an already maintained one.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EvictionQueueBenchmark {
+
+  private static final long RANDOM_SEED = 42;
+
+  @Param({"10000", "50000", "100000"})
+  public int entryCount;
+
+  @Param({"default", "score"})
+  public String comparatorType;
+
+  private List<DiskStorage.Entry> mEntries;
+  private EntryEvictionComparator mComparator;
+  private long mBytesToEvict;
+  private EvictionQueue mMaintainedQueue;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    Random random = new Random(RANDOM_SEED);
+    mEntries = new ArrayList<>(entryCount);
+    long totalSize = 0;
+    for (int i = 0; i < entryCount; i++) {
+      long size = 1024 + random.nextInt(64 * 1024);
+      totalSize += size;
+      mEntries.add(
+          new BenchmarkEntry("resource" + i, size, 1600000000000L + random.nextInt(1000000000)));
+    }
+    mComparator =
+        "score".equals(comparatorType)
+            ? new ScoreBasedEvictionComparatorSupplier(1f, 1f).get()
+            : new DefaultEntryEvictionComparatorSupplier().get();
+    mBytesToEvict = totalSize / 10;
+  }
+
+  @Setup(Level.Invocation)
+  public void setUpMaintainedQueue() {
+    // built outside of the measurement, as it's maintained incrementally between evictions
+    mMaintainedQueue = new EvictionQueue();
+    mMaintainedQueue.rebuild(mEntries, mComparator, Long.MAX_VALUE);
+  }
+
+  @Benchmark
+  public long sortAll() {
+    List<DiskStorage.Entry> sorted = new ArrayList<>(mEntries);
+    Collections.sort(sorted, mComparator);
+    long evicted = 0;
+    for (DiskStorage.Entry entry : sorted) {
+      if (evicted > mBytesToEvict) {
+        break;
+      }
+      evicted += entry.getSize();
+    }
+    return evicted;
+  }
+
+  @Benchmark
+  public long rebuildAndPoll() {
+    EvictionQueue queue = new EvictionQueue();
+    queue.rebuild(mEntries, mComparator, Long.MAX_VALUE);
+    return evict(queue);
+  }
+
+  @Benchmark
+  public long pollMaintained() {
+    return evict(mMaintainedQueue);
+  }
+
+  private long evict(EvictionQueue queue) {
+    long evicted = 0;
+    while (evicted <= mBytesToEvict) {
+      DiskStorage.Entry entry = queue.poll();
+      if (entry == null) {
+        break;
+      }
+      evicted += entry.getSize();
+    }
+    return evicted;
+  }
+
+  private static class BenchmarkEntry implements DiskStorage.Entry {
+
+    private final String mId;
+    private final long mSize;
+    private final long mTimestamp;
+
+    private BenchmarkEntry(String id, long size, long timestamp) {
+      mId = id;
+      mSize = size;
+      mTimestamp = timestamp;
+    }
+
+    @Override
+    public String getId() {
+      return mId;
+    }
+
+    @Override
+    public long getTimestamp() {
+      return mTimestamp;
+    }
+
+    @Override
+    public long getSize() {
+      return mSize;
+    }
+
+    @Override
+    public BinaryResource getResource() {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
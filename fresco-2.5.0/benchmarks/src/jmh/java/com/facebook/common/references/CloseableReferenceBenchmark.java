@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.common.references;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Compares the default {@link CloseableReference} with the {@link
+ * CloseableReference#REF_TYPE_LOCK_FREE} one, with and without tracking of the live objects.
+ *
+ * <p>"cloneClose" clones and closes references to a small set of values shared by all the threads,
+ * like cache hits do. "ofClose" creates and releases new values, like decodes and pooled buffers
+ * do, which is where the default references go through the global live objects lock.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CloseableReferenceBenchmark {
+
+  private static final int NUM_SHARED_VALUES = 16;
+
+  private static final ResourceReleaser<Object> NOOP_RELEASER =
+      new ResourceReleaser<Object>() {
+        @Override
+        public void release(Object value) {}
+      };
+
+  @Param({"default", "lockFree", "lockFreeUntracked"})
+  public String refType;
+
+  private CloseableReference<Object>[] mSharedRefs;
+
+  @Setup(Level.Trial)
+  @SuppressWarnings("unchecked")
+  public void setUp() {
+    CloseableReference.setCloseableRefType(
+        "default".equals(refType)
+            ? CloseableReference.REF_TYPE_DEFAULT
+            : CloseableReference.REF_TYPE_LOCK_FREE);
+    LockFreeSharedReference.setTrackLiveObjects(!"lockFreeUntracked".equals(refType));
+    mSharedRefs = new CloseableReference[NUM_SHARED_VALUES];
+    for (int i = 0; i < NUM_SHARED_VALUES; i++) {
+      mSharedRefs[i] = CloseableReference.of(new Object(), NOOP_RELEASER);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    for (CloseableReference<Object> ref : mSharedRefs) {
+      ref.close();
+    }
+    CloseableReference.setCloseableRefType(CloseableReference.REF_TYPE_DEFAULT);
+    LockFreeSharedReference.setTrackLiveObjects(true);
+  }
+
+  @Benchmark
+  @Threads(1)
+  public int cloneClose_1Thread() {
+    return cloneClose();
+  }
+
+  @Benchmark
+  @Threads(4)
+  public int cloneClose_4Threads() {
+    return cloneClose();
+  }
+
+  @Benchmark
+  @Threads(8)
+  public int cloneClose_8Threads() {
+    return cloneClose();
+  }
+
+  @Benchmark
+  @Threads(1)
+  public int ofClose_1Thread() {
+    return ofClose();
+  }
+
+  @Benchmark
+  @Threads(4)
+  public int ofClose_4Threads() {
+    return ofClose();
+  }
+
+  @Benchmark
+  @Threads(8)
+  public int ofClose_8Threads() {
+    return ofClose();
+  }
+
+  private int cloneClose() {
+    CloseableReference<Object> ref =
+        mSharedRefs[ThreadLocalRandom.current().nextInt(NUM_SHARED_VALUES)].clone();
+    int hash = System.identityHashCode(ref.get());
+    ref.close();
+    return hash;
+  }
+
+  private int ofClose() {
+    CloseableReference<Object> ref = CloseableReference.of(new Object(), NOOP_RELEASER);
+    CloseableReference<Object> copy = ref.clone();
+    int hash = System.identityHashCode(copy.get());
+    copy.close();
+    ref.close();
+    return hash;
+  }
+}
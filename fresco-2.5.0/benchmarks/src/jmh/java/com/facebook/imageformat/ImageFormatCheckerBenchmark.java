@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imageformat;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Format detection by {@link DefaultImageFormatChecker}, on the header of each of the common
+ * formats and with both orders of the checks.
+ *
+ * <p>{@link #determineFormat()} only runs the checks on a header that was already read, while
+ * {@link #determineImageFormat()} also reads the header from a stream, the way the pipeline does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ImageFormatCheckerBenchmark {
+
+  @Param({"jpeg", "png", "gif", "webp", "heif", "unknown"})
+  public String format;
+
+  @Param({"false", "true"})
+  public boolean useNewOrder;
+
+  private DefaultImageFormatChecker mChecker;
+  private ImageFormatChecker mStreamChecker;
+  private byte[] mHeader;
+  private byte[] mFile;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    mChecker = new DefaultImageFormatChecker();
+    mChecker.setUseNewOrder(useNewOrder);
+    mStreamChecker = ImageFormatChecker.getInstance();
+    mStreamChecker.setUseNewOrder(useNewOrder);
+    mHeader = new byte[mChecker.getHeaderSize()];
+    byte[] signature = getSignature(format);
+    System.arraycopy(signature, 0, mHeader, 0, signature.length);
+    mFile = new byte[4 * 1024];
+    System.arraycopy(mHeader, 0, mFile, 0, mHeader.length);
+  }
+
+  @Benchmark
+  public ImageFormat determineFormat() {
+    return mChecker.determineFormat(mHeader, mHeader.length);
+  }
+
+  @Benchmark
+  public ImageFormat determineImageFormat() throws IOException {
+    return mStreamChecker.determineImageFormat(new ByteArrayInputStream(mFile));
+  }
+
+  private static byte[] getSignature(String format) {
+    switch (format) {
+      case "jpeg":
+        return new byte[] {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE0};
+      case "png":
+        return new byte[] {
+          (byte) 0x89, 'P', 'N', 'G', (byte) 0x0D, (byte) 0x0A, (byte) 0x1A, (byte) 0x0A
+        };
+      case "gif":
+        return ImageFormatCheckerUtils.asciiBytes("GIF89a");
+      case "webp":
+        return ImageFormatCheckerUtils.asciiBytes("RIFF\0\0\0\0WEBPVP8 ");
+      case "heif":
+        return ImageFormatCheckerUtils.asciiBytes("\0\0\0\030ftypheic");
+      default:
+        return ImageFormatCheckerUtils.asciiBytes("<!DOCTYPE html>");
+    }
+  }
+}
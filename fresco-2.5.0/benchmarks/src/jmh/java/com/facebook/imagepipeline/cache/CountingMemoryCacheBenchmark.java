@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import com.facebook.common.internal.Supplier;
+import com.facebook.common.memory.MemoryTrimType;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.common.references.ResourceReleaser;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Compares {@link LruCountingMemoryCache}, {@link SegmentedCountingMemoryCache} and the {@link
+ * AbstractAdaptiveCountingMemoryCache} under concurrent get / cache mixes similar to the ones seen
+ * on the bitmap memory cache.
+ *
+ * <p>Values are integers standing for their own size in bytes, so only the cache bookkeeping is
+ * measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CountingMemoryCacheBenchmark {
+
+  private static final int MAX_CACHE_SIZE = 64 * 1024 * 1024;
+  private static final int MAX_VALUE_SIZE = 256 * 1024;
+
+  /** Access count above which the adaptive cache considers an entry frequently used. */
+  private static final int FREQUENTLY_USED_THRESHOLD = 2;
+
+  private static final ResourceReleaser<Integer> NOOP_RELEASER =
+      new ResourceReleaser<Integer>() {
+        @Override
+        public void release(Integer value) {}
+      };
+
+  private static final ValueDescriptor<Integer> VALUE_DESCRIPTOR =
+      new ValueDescriptor<Integer>() {
+        @Override
+        public int getSizeInBytes(Integer value) {
+          return value;
+        }
+      };
+
+  private static final MemoryCache.CacheTrimStrategy TRIM_STRATEGY =
+      new MemoryCache.CacheTrimStrategy() {
+        @Override
+        public double getTrimRatio(MemoryTrimType trimType) {
+          return trimType.getSuggestedTrimRatio();
+        }
+      };
+
+  @Param({"lru", "segmented", "adaptive"})
+  public String cacheType;
+
+  /** Number of distinct keys; larger than what fits the cache so that eviction happens. */
+  @Param({"512"})
+  public int keySpace;
+
+  /** Percentage of the operations that insert a new value instead of reading one. */
+  @Param({"10", "50"})
+  public int writePercent;
+
+  private CountingMemoryCache<String, Integer> mCache;
+  private String[] mKeys;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    final MemoryCacheParams params =
+        new MemoryCacheParams(
+            MAX_CACHE_SIZE,
+            keySpace / 2,
+            MAX_CACHE_SIZE / 2,
+            keySpace / 4,
+            MAX_VALUE_SIZE,
+            TimeUnit.MINUTES.toMillis(5));
+    Supplier<MemoryCacheParams> paramsSupplier =
+        new Supplier<MemoryCacheParams>() {
+          @Override
+          public MemoryCacheParams get() {
+            return params;
+          }
+        };
+    if ("segmented".equals(cacheType)) {
+      mCache =
+          new SegmentedCountingMemoryCache<>(
+              VALUE_DESCRIPTOR, TRIM_STRATEGY, paramsSupplier, null);
+    } else if ("adaptive".equals(cacheType)) {
+      mCache =
+          new AbstractAdaptiveCountingMemoryCache<String, Integer>(
+              paramsSupplier,
+              TRIM_STRATEGY,
+              VALUE_DESCRIPTOR,
+              AbstractAdaptiveCountingMemoryCache.DEFAULT_ADAPTIVE_RATE_PROMIL,
+              FREQUENTLY_USED_THRESHOLD,
+              keySpace,
+              AbstractAdaptiveCountingMemoryCache.DEFAULT_LFU_FRACTION_PROMIL) {
+            @Override
+            protected void logIllegalLfuFraction() {}
+
+            @Override
+            protected void logIllegalAdaptiveRate() {}
+
+            @Override
+            public String getDebugData() {
+              return null;
+            }
+          };
+    } else {
+      mCache = new LruCountingMemoryCache<>(VALUE_DESCRIPTOR, TRIM_STRATEGY, paramsSupplier, null);
+    }
+    mKeys = new String[keySpace];
+    for (int i = 0; i < keySpace; i++) {
+      mKeys[i] = "https://example.com/image/" + i + ".jpg";
+      put(mKeys[i]);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    mCache.clear();
+  }
+
+  @Benchmark
+  @Threads(1)
+  public boolean getOrCache_1Thread() {
+    return getOrCache();
+  }
+
+  @Benchmark
+  @Threads(4)
+  public boolean getOrCache_4Threads() {
+    return getOrCache();
+  }
+
+  @Benchmark
+  @Threads(8)
+  public boolean getOrCache_8Threads() {
+    return getOrCache();
+  }
+
+  private boolean getOrCache() {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    String key = mKeys[random.nextInt(keySpace)];
+    if (random.nextInt(100) < writePercent) {
+      return put(key);
+    }
+    CloseableReference<Integer> ref = mCache.get(key);
+    if (ref == null) {
+      return put(key);
+    }
+    ref.close();
+    return true;
+  }
+
+  private boolean put(String key) {
+    CloseableReference<Integer> original =
+        CloseableReference.of(
+            1 + ThreadLocalRandom.current().nextInt(MAX_VALUE_SIZE), NOOP_RELEASER);
+    CloseableReference<Integer> cached = mCache.cache(key, original);
+    original.close();
+    if (cached == null) {
+      return false;
+    }
+    cached.close();
+    return true;
+  }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import com.facebook.common.internal.Supplier;
+import com.facebook.common.memory.MemoryTrimType;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.common.references.ResourceReleaser;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays key sequences on the counting memory caches and reports their hit ratio.
+ *
+ * <p>Run with {@code ./gradlew :benchmarks:replayCacheTrace -PtraceArgs="<args>"}, where the
+ * arguments are trace files and options:
+ *
+ * <ul>
+ *   <li>a trace file has one access per line: the key, and optionally the size of its value in
+ *       bytes, separated by whitespace. Empty lines and lines starting with # are skipped.
+ *   <li>{@code --capacities=64,256} sets the cache sizes to replay the traces with, in entries.
+ * </ul>
+ *
+ * <p>Without trace files, synthetic traces are replayed: a feed with a few images displayed over
+ * and over between flings through images displayed once, and a plain Zipf distribution.
+ *
+ * <p>Each access looks the key up, and caches a new value on a miss, as the image pipeline does.
+ * References are closed right away, so every entry can be evicted.
+ */
+public class MemoryCacheTraceReplay {
+
+  private static final String[] POLICIES = {"lru", "adaptive", "tinylfu"};
+  private static final int[] DEFAULT_CAPACITIES = {64, 256, 1024};
+  private static final int FREQUENTLY_USED_THRESHOLD = 2;
+  private static final long RANDOM_SEED = 42;
+  private static final int SYNTHETIC_TRACE_LENGTH = 200_000;
+
+  private static final ResourceReleaser<Integer> NOOP_RELEASER =
+      new ResourceReleaser<Integer>() {
+        @Override
+        public void release(Integer value) {}
+      };
+
+  private static final ValueDescriptor<Integer> VALUE_DESCRIPTOR =
+      new ValueDescriptor<Integer>() {
+        @Override
+        public int getSizeInBytes(Integer value) {
+          return value;
+        }
+      };
+
+  private static final MemoryCache.CacheTrimStrategy TRIM_STRATEGY =
+      new MemoryCache.CacheTrimStrategy() {
+        @Override
+        public double getTrimRatio(MemoryTrimType trimType) {
+          return trimType.getSuggestedTrimRatio();
+        }
+      };
+
+  /** A recorded or generated sequence of accesses. */
+  static class Trace {
+
+    final String name;
+    final String[] keys;
+    final int[] sizes;
+
+    Trace(String name, String[] keys, int[] sizes) {
+      this.name = name;
+      this.keys = keys;
+      this.sizes = sizes;
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    int[] capacities = DEFAULT_CAPACITIES;
+    List<Trace> traces = new ArrayList<>();
+    for (String arg : args) {
+      if (arg.startsWith("--capacities=")) {
+        String[] values = arg.substring("--capacities=".length()).split(",");
+        capacities = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+          capacities[i] = Integer.parseInt(values[i].trim());
+        }
+      } else {
+        traces.add(readTrace(new File(arg)));
+      }
+    }
+    if (traces.isEmpty()) {
+      Random random = new Random(RANDOM_SEED);
+      traces.add(feedTrace(random, SYNTHETIC_TRACE_LENGTH));
+      traces.add(zipfTrace(random, SYNTHETIC_TRACE_LENGTH, 10_000, 0.9));
+    }
+
+    System.out.println(
+        String.format(
+            Locale.US,
+            "%-24s %10s %10s %10s %10s",
+            "trace",
+            "capacity",
+            "lru",
+            "adaptive",
+            "tinylfu"));
+    for (Trace trace : traces) {
+      for (int capacity : capacities) {
+        StringBuilder line =
+            new StringBuilder(String.format(Locale.US, "%-24s %10d", trace.name, capacity));
+        for (String policy : POLICIES) {
+          double hitRatio = replay(createCache(policy, capacity), trace);
+          line.append(String.format(Locale.US, " %9.2f%%", hitRatio * 100));
+        }
+        System.out.println(line);
+      }
+    }
+  }
+
+  /** @return the share of the accesses of the trace that hit the cache */
+  static double replay(CountingMemoryCache<String, Integer> cache, Trace trace) {
+    long hits = 0;
+    for (int i = 0; i < trace.keys.length; i++) {
+      CloseableReference<Integer> ref = cache.get(trace.keys[i]);
+      if (ref != null) {
+        hits++;
+      } else {
+        CloseableReference<Integer> original = CloseableReference.of(trace.sizes[i], NOOP_RELEASER);
+        ref = cache.cache(trace.keys[i], original);
+        original.close();
+      }
+      CloseableReference.closeSafely(ref);
+    }
+    cache.clear();
+    return trace.keys.length == 0 ? 0 : (double) hits / trace.keys.length;
+  }
+
+  static CountingMemoryCache<String, Integer> createCache(String policy, int capacity) {
+    final MemoryCacheParams params =
+        new MemoryCacheParams(
+            Integer.MAX_VALUE,
+            capacity,
+            Integer.MAX_VALUE,
+            capacity,
+            Integer.MAX_VALUE,
+            TimeUnit.MINUTES.toMillis(5));
+    Supplier<MemoryCacheParams> paramsSupplier =
+        new Supplier<MemoryCacheParams>() {
+          @Override
+          public MemoryCacheParams get() {
+            return params;
+          }
+        };
+    switch (policy) {
+      case "lru":
+        return new LruCountingMemoryCache<>(VALUE_DESCRIPTOR, TRIM_STRATEGY, paramsSupplier, null);
+      case "adaptive":
+        return new AbstractAdaptiveCountingMemoryCache<String, Integer>(
+            paramsSupplier,
+            TRIM_STRATEGY,
+            VALUE_DESCRIPTOR,
+            AbstractAdaptiveCountingMemoryCache.DEFAULT_ADAPTIVE_RATE_PROMIL,
+            FREQUENTLY_USED_THRESHOLD,
+            capacity,
+            AbstractAdaptiveCountingMemoryCache.DEFAULT_LFU_FRACTION_PROMIL) {
+          @Override
+          protected void logIllegalLfuFraction() {}
+
+          @Override
+          protected void logIllegalAdaptiveRate() {}
+
+          @Override
+          public String getDebugData() {
+            return null;
+          }
+        };
+      case "tinylfu":
+        return new TinyLfuCountingMemoryCache<>(
+            VALUE_DESCRIPTOR, TRIM_STRATEGY, paramsSupplier, null);
+      default:
+        throw new IllegalArgumentException("Unknown policy: " + policy);
+    }
+  }
+
+  static Trace readTrace(File file) throws IOException {
+    List<String> keys = new ArrayList<>();
+    List<Integer> sizes = new ArrayList<>();
+    try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        line = line.trim();
+        if (line.isEmpty() || line.startsWith("#")) {
+          continue;
+        }
+        String[] fields = line.split("\\s+");
+        keys.add(fields[0]);
+        sizes.add(fields.length > 1 ? Integer.parseInt(fields[1]) : 1);
+      }
+    }
+    int[] sizeArray = new int[sizes.size()];
+    for (int i = 0; i < sizeArray.length; i++) {
+      sizeArray[i] = sizes.get(i);
+    }
+    return new Trace(file.getName(), keys.toArray(new String[0]), sizeArray);
+  }
+
+  /**
+   * A feed: the avatars of a few hundred authors, some much more frequent than others, next to
+   * post images displayed once or twice, and flings through hundreds of new posts in a row.
+   */
+  static Trace feedTrace(Random random, int length) {
+    final int authorCount = 300;
+    final double[] authorDistribution = zipfDistribution(authorCount, 1.0);
+    String[] keys = new String[length];
+    int nextPost = 0;
+    int i = 0;
+    while (i < length) {
+      if (random.nextInt(200) == 0) {
+        // fling through posts never seen again
+        int flingLength = 200 + random.nextInt(400);
+        for (int j = 0; j < flingLength && i < length; j++) {
+          keys[i++] = "post/" + nextPost++;
+        }
+        continue;
+      }
+      int author = sample(authorDistribution, random);
+      keys[i++] = "avatar/" + author;
+      if (i < length) {
+        // the post next to the avatar, sometimes one scrolled back to
+        int post =
+            random.nextInt(4) == 0 && nextPost > 10
+                ? nextPost - 1 - random.nextInt(10)
+                : nextPost++;
+        keys[i++] = "post/" + post;
+      }
+    }
+    int[] sizes = new int[length];
+    Arrays.fill(sizes, 1);
+    return new Trace("synthetic-feed", keys, sizes);
+  }
+
+  static Trace zipfTrace(Random random, int length, int keyCount, double exponent) {
+    final double[] distribution = zipfDistribution(keyCount, exponent);
+    String[] keys = new String[length];
+    for (int i = 0; i < length; i++) {
+      keys[i] = "image/" + sample(distribution, random);
+    }
+    int[] sizes = new int[length];
+    Arrays.fill(sizes, 1);
+    return new Trace("synthetic-zipf-" + exponent, keys, sizes);
+  }
+
+  /** @return the cumulative distribution of the ranks 0 to n - 1 */
+  private static double[] zipfDistribution(int n, double exponent) {
+    double[] cumulative = new double[n];
+    double sum = 0;
+    for (int i = 0; i < n; i++) {
+      sum += 1 / Math.pow(i + 1, exponent);
+      cumulative[i] = sum;
+    }
+    for (int i = 0; i < n; i++) {
+      cumulative[i] /= sum;
+    }
+    return cumulative;
+  }
+
+  private static int sample(double[] cumulative, Random random) {
+    int index = Arrays.binarySearch(cumulative, random.nextDouble());
+    return Math.min(index >= 0 ? index : -index - 1, cumulative.length - 1);
+  }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.decoder;
+
+import android.util.SparseIntArray;
+import com.facebook.common.memory.MemoryTrimType;
+import com.facebook.common.memory.NoOpMemoryTrimmableRegistry;
+import com.facebook.common.memory.PooledByteBuffer;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.common.references.ResourceReleaser;
+import com.facebook.imagepipeline.image.EncodedImage;
+import com.facebook.imagepipeline.memory.BufferMemoryChunk;
+import com.facebook.imagepipeline.memory.GenericByteArrayPool;
+import com.facebook.imagepipeline.memory.MemoryChunk;
+import com.facebook.imagepipeline.memory.MemoryPooledByteBuffer;
+import com.facebook.imagepipeline.memory.NoOpPoolStatsTracker;
+import com.facebook.imagepipeline.memory.PoolParams;
+import com.facebook.imageutils.JfifUtil;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Time to scan a whole progressive JPEG with {@link ProgressiveJpegParser#parseMoreData}, when the
+ * image arrives in chunks of {@code chunkSize} bytes, like it does from the network fetcher.
+ *
+ * <p>The image is synthetic: the usual header segments followed by {@link #NUM_SCANS} scans of
+ * random entropy coded data, stored in a {@link BufferMemoryChunk} as downloaded images are.
+ *
+ * <p>The "stream" scanner is the byte-at-a-time one that goes through an InputStream, the "buffer"
+ * one reads the buffer in bulk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ProgressiveJpegParserBenchmark {
+
+  private static final int NUM_SCANS = 10;
+  private static final int BYTE_ARRAY_BUCKET_SIZE = 16 * 1024;
+
+  @Param({"65536", "524288"})
+  public int imageSize;
+
+  @Param({"4096", "16384"})
+  public int chunkSize;
+
+  @Param({"stream", "buffer"})
+  public String scanner;
+
+  private GenericByteArrayPool mByteArrayPool;
+  private CloseableReference<MemoryChunk> mChunkRef;
+  private int mSize;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    SparseIntArray bucketSizes = new SparseIntArray();
+    bucketSizes.put(BYTE_ARRAY_BUCKET_SIZE, 4);
+    mByteArrayPool =
+        new GenericByteArrayPool(
+            NoOpMemoryTrimmableRegistry.getInstance(),
+            new PoolParams(1024 * 1024, bucketSizes),
+            NoOpPoolStatsTracker.getInstance());
+
+    byte[] jpeg = createProgressiveJpeg(imageSize);
+    mSize = jpeg.length;
+    MemoryChunk chunk = new BufferMemoryChunk(mSize);
+    chunk.write(0, jpeg, 0, mSize);
+    mChunkRef =
+        CloseableReference.of(
+            chunk,
+            new ResourceReleaser<MemoryChunk>() {
+              @Override
+              public void release(MemoryChunk value) {
+                value.close();
+              }
+            });
+
+    if (parse() != NUM_SCANS) {
+      throw new IllegalStateException("Unexpected number of scans in the test image");
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    mChunkRef.close();
+    mByteArrayPool.trim(MemoryTrimType.OnCloseToDalvikHeapLimit);
+  }
+
+  @Benchmark
+  public int parseMoreData() {
+    return parse();
+  }
+
+  private int parse() {
+    ProgressiveJpegParser parser =
+        new ProgressiveJpegParser(mByteArrayPool, "buffer".equals(scanner));
+    for (int available = 0; available < mSize; ) {
+      available = Math.min(mSize, available + chunkSize);
+      EncodedImage encodedImage =
+          new EncodedImage(
+              CloseableReference.<PooledByteBuffer>of(
+                  new MemoryPooledByteBuffer(mChunkRef.clone(), available)));
+      try {
+        parser.parseMoreData(encodedImage);
+      } finally {
+        encodedImage.close();
+      }
+    }
+    return parser.getBestScanNumber();
+  }
+
+  private static byte[] createProgressiveJpeg(int size) {
+    Random random = new Random(42);
+    ByteArrayOutputStream jpeg = new ByteArrayOutputStream(size + 1024);
+    jpeg.write(JfifUtil.MARKER_FIRST_BYTE);
+    jpeg.write(JfifUtil.MARKER_SOI);
+    writeSegment(jpeg, 0xE0, 14, random); // APP0
+    writeSegment(jpeg, 0xDB, 65, random); // DQT
+    writeSegment(jpeg, 0xC2, 15, random); // SOF2
+    int scanSize = size / NUM_SCANS;
+    for (int scan = 0; scan < NUM_SCANS; scan++) {
+      writeSegment(jpeg, 0xC4, 28, random); // DHT
+      writeSegment(jpeg, JfifUtil.MARKER_SOS, 10, random);
+      for (int i = 0; i < scanSize; i++) {
+        int value = random.nextInt(256);
+        jpeg.write(value);
+        if (value == JfifUtil.MARKER_FIRST_BYTE) {
+          jpeg.write(JfifUtil.MARKER_ESCAPE_BYTE);
+        }
+      }
+    }
+    jpeg.write(JfifUtil.MARKER_FIRST_BYTE);
+    jpeg.write(JfifUtil.MARKER_EOI);
+    return jpeg.toByteArray();
+  }
+
+  private static void writeSegment(
+      ByteArrayOutputStream out, int marker, int payloadSize, Random random) {
+    out.write(JfifUtil.MARKER_FIRST_BYTE);
+    out.write(marker);
+    out.write((payloadSize + 2) >> 8);
+    out.write((payloadSize + 2) & 0xFF);
+    byte[] payload = new byte[payloadSize];
+    random.nextBytes(payload);
+    out.write(payload, 0, payloadSize);
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.memory;
+
+import android.util.SparseIntArray;
+import com.facebook.common.memory.MemoryTrimType;
+import com.facebook.common.memory.NoOpMemoryTrimmableRegistry;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Get / release throughput of a {@link GenericByteArrayPool} with the pool-wide lock, and with
+ * {@link PoolParams#concurrent} set.
+ *
+ * <p>Each operation gets two buffers and releases them, the way a pooled output stream grows its
+ * buffer. The "fixed" size mix always asks for the same bucket, like network chunks do; the "mixed"
+ * one spreads the requests over all the buckets.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BasePoolBenchmark {
+
+  private static final int MIN_BUCKET_SIZE = 1024;
+  private static final int MAX_BUCKET_SIZE = 64 * 1024;
+  private static final int BUCKET_LENGTH = 32;
+  private static final int MAX_POOL_SIZE = 16 * 1024 * 1024;
+
+  @Param({"locked", "concurrent"})
+  public String poolType;
+
+  @Param({"fixed", "mixed"})
+  public String sizeMix;
+
+  private GenericByteArrayPool mPool;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    SparseIntArray bucketSizes = new SparseIntArray();
+    for (int size = MIN_BUCKET_SIZE; size <= MAX_BUCKET_SIZE; size *= 2) {
+      bucketSizes.put(size, BUCKET_LENGTH);
+    }
+    PoolParams params = new PoolParams(MAX_POOL_SIZE, MAX_POOL_SIZE, bucketSizes);
+    params.concurrent = "concurrent".equals(poolType);
+    mPool =
+        new GenericByteArrayPool(
+            NoOpMemoryTrimmableRegistry.getInstance(),
+            params,
+            NoOpPoolStatsTracker.getInstance());
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    mPool.trim(MemoryTrimType.OnCloseToDalvikHeapLimit);
+  }
+
+  @Benchmark
+  @Threads(1)
+  public int getRelease_1Thread() {
+    return getRelease();
+  }
+
+  @Benchmark
+  @Threads(2)
+  public int getRelease_2Threads() {
+    return getRelease();
+  }
+
+  @Benchmark
+  @Threads(4)
+  public int getRelease_4Threads() {
+    return getRelease();
+  }
+
+  @Benchmark
+  @Threads(8)
+  public int getRelease_8Threads() {
+    return getRelease();
+  }
+
+  private int getRelease() {
+    byte[] first = mPool.get(nextSize());
+    byte[] second = mPool.get(nextSize());
+    int length = first.length + second.length;
+    mPool.release(second);
+    mPool.release(first);
+    return length;
+  }
+
+  private int nextSize() {
+    if ("fixed".equals(sizeMix)) {
+      return 16 * 1024;
+    }
+    return MIN_BUCKET_SIZE + ThreadLocalRandom.current().nextInt(MAX_BUCKET_SIZE - MIN_BUCKET_SIZE);
+  }
+}
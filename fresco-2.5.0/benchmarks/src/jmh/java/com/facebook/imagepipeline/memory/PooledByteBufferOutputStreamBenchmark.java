@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.memory;
+
+import com.facebook.common.memory.MemoryTrimType;
+import com.facebook.common.memory.NoOpMemoryTrimmableRegistry;
+import com.facebook.common.memory.PooledByteBuffer;
+import com.facebook.common.memory.PooledByteBufferInputStream;
+import com.facebook.common.memory.PooledByteBufferOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Writes a download of unknown length to a {@link MemoryPooledByteBufferOutputStream}, which grows
+ * by reallocating and copying, and to a {@link SegmentedPooledByteBufferOutputStream}, then reads
+ * it back through a {@link PooledByteBufferInputStream} as a decoder would.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PooledByteBufferOutputStreamBenchmark {
+
+  /** Same as NetworkFetchProducer.READ_SIZE */
+  private static final int READ_SIZE = 16 * 1024;
+
+  @Param({"realloc", "segmented"})
+  public String streamType;
+
+  @Param({"262144", "4194304"})
+  public int contentLength;
+
+  @Param({"16384", "65536"})
+  public int segmentSize;
+
+  private BufferMemoryChunkPool mPool;
+  private byte[] mReadBuffer;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    mPool =
+        new BufferMemoryChunkPool(
+            NoOpMemoryTrimmableRegistry.getInstance(),
+            DefaultNativeMemoryChunkPoolParams.get(),
+            NoOpPoolStatsTracker.getInstance());
+    mReadBuffer = new byte[READ_SIZE];
+    for (int i = 0; i < READ_SIZE; i++) {
+      mReadBuffer[i] = (byte) i;
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    mPool.trim(MemoryTrimType.OnCloseToDalvikHeapLimit);
+  }
+
+  @Benchmark
+  public int write() throws IOException {
+    PooledByteBufferOutputStream os = newOutputStream();
+    try {
+      writeContent(os);
+      return os.size();
+    } finally {
+      os.close();
+    }
+  }
+
+  @Benchmark
+  public int writeAndRead() throws IOException {
+    PooledByteBufferOutputStream os = newOutputStream();
+    PooledByteBuffer buffer;
+    try {
+      writeContent(os);
+      buffer = os.toByteBuffer();
+    } finally {
+      os.close();
+    }
+    try {
+      PooledByteBufferInputStream is = new PooledByteBufferInputStream(buffer);
+      int checksum = 0;
+      int count;
+      while ((count = is.read(mReadBuffer)) > 0) {
+        checksum += mReadBuffer[count - 1];
+      }
+      return checksum;
+    } finally {
+      buffer.close();
+    }
+  }
+
+  private PooledByteBufferOutputStream newOutputStream() {
+    return "segmented".equals(streamType)
+        ? new SegmentedPooledByteBufferOutputStream(mPool, segmentSize)
+        : new MemoryPooledByteBufferOutputStream(mPool);
+  }
+
+  private void writeContent(PooledByteBufferOutputStream os) throws IOException {
+    for (int written = 0; written < contentLength; written += READ_SIZE) {
+      os.write(mReadBuffer, 0, Math.min(READ_SIZE, contentLength - written));
+    }
+  }
+}
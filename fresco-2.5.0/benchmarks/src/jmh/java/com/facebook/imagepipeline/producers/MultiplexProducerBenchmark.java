@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.producers;
+
+import com.facebook.imagepipeline.common.Priority;
+import com.facebook.imagepipeline.request.ImageRequest;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Request deduplication by {@link MultiplexProducer}, as done for the bitmap and encoded caches.
+ *
+ * <p>Each operation issues {@link #REQUESTS_PER_OPERATION} requests for random keys out of {@code
+ * keySpace}, so that some of them join a request that is still in flight, and then completes the
+ * fetches it started. The input producer does no work, only the multiplexing is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MultiplexProducerBenchmark {
+
+  private static final int REQUESTS_PER_OPERATION = 16;
+
+  private static final Closeable RESULT =
+      new Closeable() {
+        @Override
+        public void close() {}
+      };
+
+  private static final Consumer<Closeable> CONSUMER =
+      new Consumer<Closeable>() {
+        @Override
+        public void onNewResult(@Nullable Closeable newResult, @Status int status) {}
+
+        @Override
+        public void onFailure(Throwable t) {}
+
+        @Override
+        public void onCancellation() {}
+
+        @Override
+        public void onProgressUpdate(float progress) {}
+      };
+
+  private static final ProducerListener2 PRODUCER_LISTENER =
+      new ProducerListener2() {
+        @Override
+        public void onProducerStart(ProducerContext producerContext, String producerName) {}
+
+        @Override
+        public void onProducerEvent(
+            ProducerContext producerContext, String producerName, String eventName) {}
+
+        @Override
+        public void onProducerFinishWithSuccess(
+            ProducerContext producerContext,
+            String producerName,
+            @Nullable Map<String, String> extraMap) {}
+
+        @Override
+        public void onProducerFinishWithFailure(
+            ProducerContext producerContext,
+            String producerName,
+            Throwable t,
+            @Nullable Map<String, String> extraMap) {}
+
+        @Override
+        public void onProducerFinishWithCancellation(
+            ProducerContext producerContext,
+            String producerName,
+            @Nullable Map<String, String> extraMap) {}
+
+        @Override
+        public void onUltimateProducerReached(
+            ProducerContext producerContext, String producerName, boolean successful) {}
+
+        @Override
+        public boolean requiresExtraMap(ProducerContext producerContext, String producerName) {
+          return false;
+        }
+      };
+
+  /** Number of distinct keys requested; the smaller it is, the more requests get merged. */
+  @Param({"64", "4096"})
+  public int keySpace;
+
+  private final ThreadLocal<List<Consumer<Closeable>>> mPendingFetches =
+      new ThreadLocal<List<Consumer<Closeable>>>() {
+        @Override
+        protected List<Consumer<Closeable>> initialValue() {
+          return new ArrayList<>();
+        }
+      };
+
+  private KeyMultiplexProducer mProducer;
+  private String[] mKeys;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    mProducer =
+        new KeyMultiplexProducer(
+            new Producer<Closeable>() {
+              @Override
+              public void produceResults(Consumer<Closeable> consumer, ProducerContext context) {
+                mPendingFetches.get().add(consumer);
+              }
+            });
+    mKeys = new String[keySpace];
+    for (int i = 0; i < keySpace; i++) {
+      mKeys[i] = "https://example.com/image/" + i + ".jpg";
+    }
+  }
+
+  @Benchmark
+  @Threads(1)
+  public int produceResults_1Thread() {
+    return produceResults();
+  }
+
+  @Benchmark
+  @Threads(4)
+  public int produceResults_4Threads() {
+    return produceResults();
+  }
+
+  @Benchmark
+  @Threads(8)
+  public int produceResults_8Threads() {
+    return produceResults();
+  }
+
+  private int produceResults() {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    for (int i = 0; i < REQUESTS_PER_OPERATION; i++) {
+      ProducerContext context =
+          new BaseProducerContext(
+              null,
+              "id",
+              PRODUCER_LISTENER,
+              mKeys[random.nextInt(keySpace)],
+              ImageRequest.RequestLevel.FULL_FETCH,
+              false,
+              true,
+              Priority.MEDIUM,
+              null);
+      mProducer.produceResults(CONSUMER, context);
+    }
+    List<Consumer<Closeable>> pendingFetches = mPendingFetches.get();
+    int fetches = pendingFetches.size();
+    for (int i = 0; i < fetches; i++) {
+      pendingFetches.get(i).onNewResult(RESULT, Consumer.IS_LAST);
+    }
+    pendingFetches.clear();
+    return fetches;
+  }
+
+  /** Multiplexes the requests on their caller context, which holds the key */
+  private static class KeyMultiplexProducer extends MultiplexProducer<String, Closeable> {
+
+    KeyMultiplexProducer(Producer<Closeable> inputProducer) {
+      super(
+          inputProducer,
+          "KeyMultiplexProducer",
+          ProducerContext.ExtraKeys.MULTIPLEX_ENCODED_COUNT);
+    }
+
+    @Override
+    protected String getKey(ProducerContext producerContext) {
+      return (String) producerContext.getCallerContext();
+    }
+
+    @Override
+    protected @Nullable Closeable cloneOrNull(@Nullable Closeable object) {
+      return object;
+    }
+  }
+}
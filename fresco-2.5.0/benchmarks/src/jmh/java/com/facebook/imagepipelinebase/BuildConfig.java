@@ -0,0 +1,19 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipelinebase;
+
+/**
+ * Stand-in for the class generated by the Android build of imagepipeline-base. Benchmarks run the
+ * release configuration, so tracing stays off.
+ */
+public final class BuildConfig {
+
+  public static final boolean DEBUG = false;
+
+  private BuildConfig() {}
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imageutils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * JPEG metadata parsing with {@link JfifUtil} and {@link TiffUtil}: reading the EXIF orientation,
+ * and skipping the metadata segments up to the frame header.
+ *
+ * <p>The image is a synthetic JPEG header with a JFIF segment, an EXIF segment holding {@code
+ * ifdEntries} tags with the orientation last, and an ICC profile segment in front of the frame
+ * header.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ImageMetadataBenchmark {
+
+  private static final int ORIENTATION_ROTATE_90 = 6;
+  private static final int ICC_PROFILE_SIZE = 3 * 1024;
+
+  @Param({"true", "false"})
+  public boolean littleEndian;
+
+  @Param({"1", "12"})
+  public int ifdEntries;
+
+  private byte[] mJpeg;
+  private byte[] mTiff;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    mTiff = createTiff(littleEndian, ifdEntries);
+
+    ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+    writeMarker(jpeg, JfifUtil.MARKER_SOI);
+    writeSegment(jpeg, 0xE0, new byte[] {'J', 'F', 'I', 'F', 0, 1, 1, 0, 0, 1, 0, 1, 0, 0});
+    byte[] exif = new byte[6 + mTiff.length];
+    System.arraycopy(new byte[] {'E', 'x', 'i', 'f', 0, 0}, 0, exif, 0, 6);
+    System.arraycopy(mTiff, 0, exif, 6, mTiff.length);
+    writeSegment(jpeg, JfifUtil.MARKER_APP1, exif);
+    writeSegment(jpeg, 0xE2, new byte[ICC_PROFILE_SIZE]);
+    writeSegment(jpeg, JfifUtil.MARKER_SOFn, new byte[] {8, 0x04, 0, 0x03, 0, 1, 1, 0x11, 0});
+    writeMarker(jpeg, JfifUtil.MARKER_EOI);
+    mJpeg = jpeg.toByteArray();
+
+    if (JfifUtil.getOrientation(mJpeg) != ORIENTATION_ROTATE_90) {
+      throw new IllegalStateException("Orientation not found in the test image");
+    }
+  }
+
+  @Benchmark
+  public int getOrientation() {
+    return JfifUtil.getOrientation(mJpeg);
+  }
+
+  @Benchmark
+  public int readOrientationFromTIFF() throws IOException {
+    return TiffUtil.readOrientationFromTIFF(new ByteArrayInputStream(mTiff), mTiff.length);
+  }
+
+  @Benchmark
+  public boolean moveToFrameHeader() throws IOException {
+    return JfifUtil.moveToMarker(new ByteArrayInputStream(mJpeg), JfifUtil.MARKER_SOFn);
+  }
+
+  private static byte[] createTiff(boolean littleEndian, int numEntries) {
+    ByteArrayOutputStream tiff = new ByteArrayOutputStream();
+    writeInt(
+        tiff,
+        littleEndian ? TiffUtil.TIFF_BYTE_ORDER_LITTLE_END : TiffUtil.TIFF_BYTE_ORDER_BIG_END,
+        4,
+        false);
+    writeInt(tiff, 8, 4, littleEndian);
+    writeInt(tiff, numEntries, 2, littleEndian);
+    for (int i = 0; i < numEntries; i++) {
+      boolean isOrientation = i == numEntries - 1;
+      // IFD0 tags are sorted, the orientation comes after the ImageWidth, Make, Model... ones
+      writeInt(tiff, isOrientation ? TiffUtil.TIFF_TAG_ORIENTATION : 0x0100 + i, 2, littleEndian);
+      writeInt(tiff, TiffUtil.TIFF_TYPE_SHORT, 2, littleEndian);
+      writeInt(tiff, 1, 4, littleEndian);
+      writeInt(tiff, isOrientation ? ORIENTATION_ROTATE_90 : 0, 2, littleEndian);
+      writeInt(tiff, 0, 2, littleEndian);
+    }
+    writeInt(tiff, 0, 4, littleEndian);
+    return tiff.toByteArray();
+  }
+
+  private static void writeMarker(ByteArrayOutputStream out, int marker) {
+    out.write(JfifUtil.MARKER_FIRST_BYTE);
+    out.write(marker);
+  }
+
+  private static void writeSegment(ByteArrayOutputStream out, int marker, byte[] payload) {
+    writeMarker(out, marker);
+    writeInt(out, payload.length + 2, 2, false);
+    out.write(payload, 0, payload.length);
+  }
+
+  private static void writeInt(
+      ByteArrayOutputStream out, int value, int numBytes, boolean littleEndian) {
+    for (int i = 0; i < numBytes; i++) {
+      int shift = littleEndian ? 8 * i : 8 * (numBytes - 1 - i);
+      out.write((value >> shift) & 0xFF);
+    }
+  }
+}
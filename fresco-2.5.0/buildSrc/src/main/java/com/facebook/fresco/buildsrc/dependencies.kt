@@ -27,6 +27,13 @@ object Deps {
     const val tasks = "com.parse.bolts:bolts-tasks:1.4.0"
   }
 
+  object Cronet {
+    private const val version = "76.3809.111"
+
+    const val api = "org.chromium.net:cronet-api:$version"
+    const val fallback = "org.chromium.net:cronet-fallback:$version"
+  }
+
   object Kotlin {
     const val version = "1.3.72"
 
@@ -67,7 +67,13 @@ import javax.annotation.concurrent.GuardedBy;
  */
 @Nullsafe(Nullsafe.Mode.STRICT)
 public abstract class CloseableReference<T> extends Cloneable {
-  @IntDef({REF_TYPE_DEFAULT, REF_TYPE_FINALIZER, REF_TYPE_REF_COUNT, REF_TYPE_NOOP})
+  @IntDef({
+    REF_TYPE_DEFAULT,
+    REF_TYPE_FINALIZER,
+    REF_TYPE_REF_COUNT,
+    REF_TYPE_NOOP,
+    REF_TYPE_LOCK_FREE
+  })
   public @interface CloseableRefType {
   }
 
@@ -79,6 +85,11 @@ public abstract class CloseableReference<T> extends Cloneable {
 
   public static final int REF_TYPE_NOOP =  3;
 
+  /**
+   *  Reference counted without locks, see {@link LockFreeCloseableReference}. 
+   */
+  public static final int REF_TYPE_LOCK_FREE =  4;
+
   private static Class<CloseableReference> TAG =  CloseableReference.class;
 
   @CloseableRefType
@@ -94,6 +105,23 @@ public abstract class CloseableReference<T> extends Cloneable {
     sBitmapCloseableRefType = bitmapCloseableRefType;
   }
 
+  /**
+   *  Type of the references to values other than bitmaps. 
+   */
+  @CloseableRefType
+  private static int sCloseableRefType =  REF_TYPE_DEFAULT;
+
+  /**
+   * Sets the type of the references created for values other than bitmaps, which are always
+   * reference counted: either {@link #REF_TYPE_DEFAULT} or {@link #REF_TYPE_LOCK_FREE}.
+   */
+  public static void setCloseableRefType(@CloseableRefType int closeableRefType)
+  {
+    Preconditions.checkArgument(
+        closeableRefType == REF_TYPE_DEFAULT || closeableRefType == REF_TYPE_LOCK_FREE);
+    sCloseableRefType = closeableRefType;
+  }
+
   @GuardedBy("this")
   protected boolean mIsClosed =  false;
 
@@ -147,8 +175,18 @@ public abstract class CloseableReference<T> extends Cloneable {
       };
 
   protected CloseableReference(SharedReference<T> sharedReference, CloseableReference.LeakHandler leakHandler, @Nullable Throwable stacktrace) {
+    this(sharedReference, true, leakHandler, stacktrace);
+  }
+
+  /**
+   * @param addReference whether to add a reference to {@code sharedReference}, or to take over one
+   *     that the caller already added
+   */
+  protected CloseableReference(SharedReference<T> sharedReference, boolean addReference, CloseableReference.LeakHandler leakHandler, @Nullable Throwable stacktrace) {
     mSharedReference = Preconditions.checkNotNull(sharedReference);
-    sharedReference.addReference();
+    if (addReference) {
+      sharedReference.addReference();
+    }
     mLeakHandler = leakHandler;
     mStacktrace = stacktrace;
   }
@@ -228,9 +266,13 @@ public abstract class CloseableReference<T> extends Cloneable {
             return new RefCountCloseableReference<>(t, resourceReleaser, leakHandler, stacktrace);
           case REF_TYPE_NOOP:
             return new NoOpCloseableReference<>(t, resourceReleaser, leakHandler, stacktrace);
+          case REF_TYPE_LOCK_FREE:
+            return new LockFreeCloseableReference<>(t, resourceReleaser, leakHandler, stacktrace);
           case REF_TYPE_DEFAULT:
             // return default
         }
+      } else if (sCloseableRefType == REF_TYPE_LOCK_FREE) {
+        return new LockFreeCloseableReference<>(t, resourceReleaser, leakHandler, stacktrace);
       }
 
       return new DefaultCloseableReference<>(t, resourceReleaser, leakHandler, stacktrace);
@@ -378,12 +420,9 @@ public abstract class CloseableReference<T> extends Cloneable {
   @Override
   protected void finalize() throws Throwable {
     try {
-      // We put synchronized here so that lint doesn't warn about accessing mIsClosed, which is
-      // guarded by this. Lint isn't aware of finalize semantics.
-      synchronized (this) {
-        if (mIsClosed) {
-          return;
-        }
+      // isValid is overridden by the subclasses that don't track the closed state in mIsClosed
+      if (!isValid()) {
+        return;
       }
 
       mLeakHandler.reportLeak((SharedReference<Object>) mSharedReference, mStacktrace);
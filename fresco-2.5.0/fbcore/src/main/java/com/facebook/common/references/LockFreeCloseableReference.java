@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.common.references;
+
+import com.facebook.common.internal.Preconditions;
+import com.facebook.infer.annotation.Nullsafe;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import javax.annotation.Nullable;
+
+/**
+ * A reference counted {@link CloseableReference} that doesn't lock on get, clone or close.
+ *
+ * <p>The closed state is flipped with compare-and-set, so that concurrent closes still only drop
+ * one reference, and the value is held by a {@link LockFreeSharedReference}.
+ */
+@Nullsafe(Nullsafe.Mode.STRICT)
+public class LockFreeCloseableReference<T> extends CloseableReference<T> {
+  @SuppressWarnings("rawtypes")
+  private static final AtomicIntegerFieldUpdater<LockFreeCloseableReference> CLOSED_UPDATER =
+      AtomicIntegerFieldUpdater.newUpdater(LockFreeCloseableReference.class, "mClosed");
+
+  private volatile int mClosed;
+
+  private LockFreeCloseableReference(
+      SharedReference<T> sharedReference,
+      boolean addReference,
+      CloseableReference.LeakHandler leakHandler,
+      @Nullable Throwable stacktrace) {
+    super(sharedReference, addReference, leakHandler, stacktrace);
+  }
+
+  /** package */
+  LockFreeCloseableReference(
+      T t,
+      ResourceReleaser<T> resourceReleaser,
+      CloseableReference.LeakHandler leakHandler,
+      @Nullable Throwable stacktrace) {
+    super(new LockFreeSharedReference<T>(t, resourceReleaser), false, leakHandler, stacktrace);
+  }
+
+  @Override
+  public T get() {
+    Preconditions.checkState(mClosed == 0);
+    return Preconditions.checkNotNull(mSharedReference.get());
+  }
+
+  @Override
+  public CloseableReference<T> clone() {
+    Preconditions.checkState(isValid());
+    return new LockFreeCloseableReference<T>(
+        mSharedReference, true, mLeakHandler, newStacktrace());
+  }
+
+  @Override
+  @Nullable
+  public CloseableReference<T> cloneOrNull() {
+    if (!isValid() || !mSharedReference.addReferenceIfValid()) {
+      return null;
+    }
+    return new LockFreeCloseableReference<T>(
+        mSharedReference, false, mLeakHandler, newStacktrace());
+  }
+
+  @Nullable
+  private Throwable newStacktrace() {
+    return mStacktrace != null ? new Throwable(mStacktrace) : null;
+  }
+
+  @Override
+  public boolean isValid() {
+    return mClosed == 0;
+  }
+
+  @Override
+  public void close() {
+    if (CLOSED_UPDATER.compareAndSet(this, 0, 1)) {
+      mSharedReference.deleteReference();
+    }
+  }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.common.references;
+
+import android.graphics.Bitmap;
+import com.facebook.common.internal.Objects;
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.logging.FLog;
+import com.facebook.infer.annotation.Nullsafe;
+import java.util.IdentityHashMap;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A {@link SharedReference} that doesn't take any lock when its reference count changes.
+ *
+ * <p>The reference count is updated with compare-and-set, and the thread that drops it to zero is
+ * the one releasing the value.
+ *
+ * <p>Like {@link SharedReference}, live values are kept in a static map so that they can't be
+ * finalized before they are released. The map is split in {@link #LIVE_OBJECTS_STRIPES} stripes,
+ * each with its own lock, so that unrelated references don't contend with each other. The tracking
+ * can be turned off with {@link #setTrackLiveObjects(boolean)}, in which case creating and
+ * releasing a reference doesn't take any lock either.
+ */
+@Nullsafe(Nullsafe.Mode.STRICT)
+@ThreadSafe
+public class LockFreeSharedReference<T> extends SharedReference<T> {
+
+  /** Number of independently locked stripes of the live objects map, a power of two */
+  static final int LIVE_OBJECTS_STRIPES = 16;
+
+  @SuppressWarnings("unchecked")
+  private static final IdentityHashMap<Object, Integer>[] sLiveObjects =
+      new IdentityHashMap[LIVE_OBJECTS_STRIPES];
+
+  static {
+    for (int i = 0; i < LIVE_OBJECTS_STRIPES; i++) {
+      sLiveObjects[i] = new IdentityHashMap<>();
+    }
+  }
+
+  private static volatile boolean sTrackLiveObjects = true;
+
+  @SuppressWarnings("rawtypes")
+  private static final AtomicIntegerFieldUpdater<LockFreeSharedReference> REF_COUNT_UPDATER =
+      AtomicIntegerFieldUpdater.newUpdater(LockFreeSharedReference.class, "mRefCount");
+
+  private volatile @Nullable T mValue;
+  private volatile int mRefCount;
+  private final ResourceReleaser<T> mResourceReleaser;
+  private final boolean mIsTracked;
+
+  /**
+   * Construct a new shared-reference that will 'own' the supplied {@code value}. The reference
+   * count will be set to 1. When the reference count decreases to zero {@code resourceReleaser}
+   * will be used to release the {@code value}
+   *
+   * @param value non-null value to manage
+   * @param resourceReleaser non-null ResourceReleaser for the value
+   */
+  public LockFreeSharedReference(T value, ResourceReleaser<T> resourceReleaser) {
+    super(resourceReleaser);
+    mResourceReleaser = resourceReleaser;
+    mValue = Preconditions.checkNotNull(value);
+    mIsTracked = addLiveReference(value);
+    mRefCount = 1;
+  }
+
+  /**
+   * Enables or disables the tracking of live objects for the references created from now on. It is
+   * enabled by default.
+   */
+  public static void setTrackLiveObjects(boolean trackLiveObjects) {
+    sTrackLiveObjects = trackLiveObjects;
+  }
+
+  private static boolean addLiveReference(Object value) {
+    if (!sTrackLiveObjects
+        || (CloseableReference.useGc() && (value instanceof Bitmap || value instanceof HasBitmap))) {
+      return false;
+    }
+    IdentityHashMap<Object, Integer> liveObjects = getStripe(value);
+    synchronized (liveObjects) {
+      Integer count = liveObjects.get(value);
+      liveObjects.put(value, count == null ? 1 : count + 1);
+    }
+    return true;
+  }
+
+  private static void removeLiveReference(Object value) {
+    IdentityHashMap<Object, Integer> liveObjects = getStripe(value);
+    synchronized (liveObjects) {
+      Integer count = liveObjects.get(value);
+      if (count == null) {
+        FLog.wtf(
+            "LockFreeSharedReference",
+            "No entry in sLiveObjects for value of type %s",
+            value.getClass());
+      } else if (count == 1) {
+        liveObjects.remove(value);
+      } else {
+        liveObjects.put(value, count - 1);
+      }
+    }
+  }
+
+  private static IdentityHashMap<Object, Integer> getStripe(Object value) {
+    return sLiveObjects[System.identityHashCode(value) & (LIVE_OBJECTS_STRIPES - 1)];
+  }
+
+  @Override
+  @Nullable
+  public T get() {
+    return mValue;
+  }
+
+  @Override
+  public boolean isValid() {
+    return mRefCount > 0;
+  }
+
+  @Override
+  public void addReference() {
+    if (!addReferenceIfValid()) {
+      throw new NullReferenceException();
+    }
+  }
+
+  @Override
+  public boolean addReferenceIfValid() {
+    int refCount;
+    do {
+      refCount = mRefCount;
+      if (refCount <= 0) {
+        return false;
+      }
+    } while (!REF_COUNT_UPDATER.compareAndSet(this, refCount, refCount + 1));
+    return true;
+  }
+
+  @Override
+  public boolean deleteReferenceIfValid() {
+    int refCount;
+    do {
+      refCount = mRefCount;
+      if (refCount <= 0) {
+        return false;
+      }
+    } while (!REF_COUNT_UPDATER.compareAndSet(this, refCount, refCount - 1));
+    if (refCount == 1) {
+      release();
+    }
+    return true;
+  }
+
+  @Override
+  public void deleteReference() {
+    if (!deleteReferenceIfValid()) {
+      throw new NullReferenceException();
+    }
+  }
+
+  /** Releases the value; only called once, by the thread that dropped the count to zero. */
+  private void release() {
+    T deleted = mValue;
+    mValue = null;
+    if (deleted != null) {
+      mResourceReleaser.release(deleted);
+      if (mIsTracked) {
+        removeLiveReference(deleted);
+      }
+    }
+  }
+
+  @Override
+  public int getRefCountTestOnly() {
+    return mRefCount;
+  }
+
+  public static String reportData() {
+    int liveObjectsCount = 0;
+    for (IdentityHashMap<Object, Integer> liveObjects : sLiveObjects) {
+      synchronized (liveObjects) {
+        liveObjectsCount += liveObjects.size();
+      }
+    }
+    return Objects.toStringHelper("LockFreeSharedReference")
+        .add("live_objects_count", liveObjectsCount)
+        .toString();
+  }
+}
@@ -94,6 +94,18 @@ public class SharedReference<T> {
     addLiveReference(value);
   }
 
+  /**
+   * Constructor for subclasses that keep the value and the reference count themselves, such as
+   * {@link LockFreeSharedReference}. Those must override all the public methods of this class.
+   * 
+   * @param resourceReleaser non-null ResourceReleaser for the value
+   */
+  protected SharedReference(ResourceReleaser<T> resourceReleaser) {
+    mValue = null;
+    mResourceReleaser = Preconditions.checkNotNull(resourceReleaser);
+    mRefCount = 0;
+  }
+
   /**
    * Increases the reference count of a live object in the static map. Adds it if it's not being
    * held.
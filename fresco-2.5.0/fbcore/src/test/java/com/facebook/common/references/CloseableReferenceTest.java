@@ -9,6 +9,7 @@ package com.facebook.common.references;
 
 import java.io.Closeable;
 import java.io.IOException;
+import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -62,4 +63,33 @@ public class CloseableReferenceTest {
         0, mCloseableReference.getUnderlyingReferenceTestOnly().getRefCountTestOnly());
     Mockito.verify(mMockCloseable).close();
   }
+
+  @Test
+  public void testLockFreeReference() throws IOException {
+    CloseableReference.setCloseableRefType(CloseableReference.REF_TYPE_LOCK_FREE);
+    Closeable closeable = Mockito.mock(Closeable.class);
+    CloseableReference<Closeable> ref = CloseableReference.of(closeable);
+    Assert.assertTrue(ref instanceof LockFreeCloseableReference);
+    Assert.assertSame(closeable, ref.get());
+
+    CloseableReference<Closeable> copy = ref.clone();
+    Assert.assertTrue(copy instanceof LockFreeCloseableReference);
+    Assert.assertEquals(2, ref.getUnderlyingReferenceTestOnly().getRefCountTestOnly());
+
+    // closing twice only drops one reference
+    copy.close();
+    copy.close();
+    Assert.assertFalse(copy.isValid());
+    Assert.assertNull(copy.cloneOrNull());
+    Assert.assertEquals(1, ref.getUnderlyingReferenceTestOnly().getRefCountTestOnly());
+
+    ref.close();
+    Assert.assertEquals(0, ref.getUnderlyingReferenceTestOnly().getRefCountTestOnly());
+    Mockito.verify(closeable, Mockito.times(1)).close();
+  }
+
+  @After
+  public void tearDown() {
+    CloseableReference.setCloseableRefType(CloseableReference.REF_TYPE_DEFAULT);
+  }
 }
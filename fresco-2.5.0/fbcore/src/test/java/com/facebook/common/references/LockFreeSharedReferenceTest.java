@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.common.references;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.robolectric.RobolectricTestRunner;
+
+/** Tests for {@link LockFreeSharedReference} */
+@RunWith(RobolectricTestRunner.class)
+public class LockFreeSharedReferenceTest {
+
+  @After
+  public void tearDown() {
+    LockFreeSharedReference.setTrackLiveObjects(true);
+  }
+
+  @Test
+  public void testBasic() {
+    Object value = new Object();
+    ResourceReleaser<Object> releaser = Mockito.mock(ResourceReleaser.class);
+    SharedReference<Object> ref = new LockFreeSharedReference<>(value, releaser);
+    Assert.assertTrue(SharedReference.isValid(ref));
+    Assert.assertEquals(1, ref.getRefCountTestOnly());
+    Assert.assertSame(value, ref.get());
+
+    ref.addReference();
+    Assert.assertEquals(2, ref.getRefCountTestOnly());
+
+    ref.deleteReference();
+    Assert.assertTrue(SharedReference.isValid(ref));
+    Assert.assertEquals(1, ref.getRefCountTestOnly());
+    Mockito.verifyZeroInteractions(releaser);
+
+    ref.deleteReference();
+    Assert.assertFalse(SharedReference.isValid(ref));
+    Assert.assertEquals(0, ref.getRefCountTestOnly());
+    Assert.assertNull(ref.get());
+    Mockito.verify(releaser, Mockito.times(1)).release(value);
+
+    try {
+      ref.addReference();
+      Assert.fail();
+    } catch (SharedReference.NullReferenceException e) {
+      // do nothing
+    }
+    try {
+      ref.deleteReference();
+      Assert.fail();
+    } catch (SharedReference.NullReferenceException e) {
+      // do nothing
+    }
+  }
+
+  @Test
+  public void testIfValid() {
+    Object value = new Object();
+    ResourceReleaser<Object> releaser = Mockito.mock(ResourceReleaser.class);
+    SharedReference<Object> ref = new LockFreeSharedReference<>(value, releaser);
+    Assert.assertTrue(ref.addReferenceIfValid());
+    Assert.assertTrue(ref.deleteReferenceIfValid());
+    Assert.assertTrue(ref.deleteReferenceIfValid());
+    Assert.assertFalse(ref.deleteReferenceIfValid());
+    Assert.assertFalse(ref.addReferenceIfValid());
+    Mockito.verify(releaser, Mockito.times(1)).release(value);
+  }
+
+  @Test
+  public void testLiveObjectsTracking() {
+    int liveObjects = liveObjectsCount();
+    SharedReference<Object> tracked =
+        new LockFreeSharedReference<>(new Object(), Mockito.mock(ResourceReleaser.class));
+    Assert.assertEquals(liveObjects + 1, liveObjectsCount());
+
+    LockFreeSharedReference.setTrackLiveObjects(false);
+    SharedReference<Object> untracked =
+        new LockFreeSharedReference<>(new Object(), Mockito.mock(ResourceReleaser.class));
+    Assert.assertEquals(liveObjects + 1, liveObjectsCount());
+
+    // references keep the tracking mode they were created with
+    LockFreeSharedReference.setTrackLiveObjects(true);
+    untracked.deleteReference();
+    Assert.assertEquals(liveObjects + 1, liveObjectsCount());
+    tracked.deleteReference();
+    Assert.assertEquals(liveObjects, liveObjectsCount());
+  }
+
+  @Test
+  public void testConcurrentAddAndDelete() throws InterruptedException {
+    final int numThreads = 8;
+    final int iterations = 10000;
+    final AtomicInteger releases = new AtomicInteger();
+    final SharedReference<Object> ref =
+        new LockFreeSharedReference<>(
+            new Object(),
+            new ResourceReleaser<Object>() {
+              @Override
+              public void release(Object value) {
+                releases.incrementAndGet();
+              }
+            });
+    final CountDownLatch start = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(numThreads);
+    for (int i = 0; i < numThreads; i++) {
+      new Thread(
+              new Runnable() {
+                @Override
+                public void run() {
+                  try {
+                    start.await();
+                    for (int j = 0; j < iterations; j++) {
+                      ref.addReference();
+                      ref.deleteReference();
+                    }
+                  } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                  } finally {
+                    done.countDown();
+                  }
+                }
+              })
+          .start();
+    }
+    start.countDown();
+    done.await();
+
+    Assert.assertEquals(1, ref.getRefCountTestOnly());
+    Assert.assertEquals(0, releases.get());
+    ref.deleteReference();
+    Assert.assertEquals(1, releases.get());
+  }
+
+  private static int liveObjectsCount() {
+    String data = LockFreeSharedReference.reportData();
+    return Integer.parseInt(data.substring(data.indexOf('=') + 1, data.indexOf('}')));
+  }
+}
@@ -0,0 +1,27 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.backends.cronet;
+
+import android.content.Context;
+import com.facebook.imagepipeline.core.ImagePipelineConfig;
+import com.facebook.infer.annotation.Nullsafe;
+import org.chromium.net.CronetEngine;
+
+/**
+ * Factory for getting an {@link com.facebook.imagepipeline.core.ImagePipelineConfig} that uses
+ * {@link CronetNetworkFetcher}.
+ */
+@Nullsafe(Nullsafe.Mode.LOCAL)
+public class CronetImagePipelineConfigFactory {
+
+  public static ImagePipelineConfig.Builder newBuilder(
+      Context context, CronetEngine cronetEngine) {
+    return ImagePipelineConfig.newBuilder(context)
+        .setNetworkFetcher(new CronetNetworkFetcher(cronetEngine));
+  }
+}
@@ -0,0 +1,344 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.backends.cronet;
+
+import android.os.SystemClock;
+import com.facebook.common.memory.PooledByteBuffer;
+import com.facebook.common.memory.PooledByteBufferFactory;
+import com.facebook.common.memory.PooledByteBufferInputStream;
+import com.facebook.common.memory.PooledByteBufferOutputStream;
+import com.facebook.imagepipeline.common.BytesRange;
+import com.facebook.imagepipeline.common.Priority;
+import com.facebook.imagepipeline.core.MemoryChunkType;
+import com.facebook.imagepipeline.image.EncodedImage;
+import com.facebook.imagepipeline.memory.PoolConfig;
+import com.facebook.imagepipeline.memory.PoolFactory;
+import com.facebook.imagepipeline.producers.BaseNetworkFetcher;
+import com.facebook.imagepipeline.producers.BaseProducerContextCallbacks;
+import com.facebook.imagepipeline.producers.Consumer;
+import com.facebook.imagepipeline.producers.FetchState;
+import com.facebook.imagepipeline.producers.ProducerContext;
+import com.facebook.infer.annotation.Nullsafe;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import javax.annotation.Nullable;
+import org.chromium.net.CronetEngine;
+import org.chromium.net.CronetException;
+import org.chromium.net.UrlRequest;
+import org.chromium.net.UrlResponseInfo;
+
+/**
+ * Network fetcher that uses Cronet as a backend.
+ *
+ * <p>Cronet doesn't hold a thread while a request is sent and its response awaited: requests to
+ * the same host are multiplexed over the HTTP/2 or QUIC connections it keeps alive, and it follows
+ * redirects itself. No thread is held while the body arrives either: each chunk is copied into a
+ * pooled buffer on the callback executor as soon as Cronet delivers it, and the whole body is handed
+ * over to the pipeline once it is complete. The pipeline therefore gets no progress updates or
+ * intermediate results while the body downloads.
+ */
+@Nullsafe(Nullsafe.Mode.LOCAL)
+public class CronetNetworkFetcher
+    extends BaseNetworkFetcher<CronetNetworkFetcher.CronetNetworkFetchState> {
+
+  public static class CronetNetworkFetchState extends FetchState {
+    public long submitTime;
+    public long responseTime;
+    public long fetchCompleteTime;
+
+    public CronetNetworkFetchState(
+        Consumer<EncodedImage> consumer, ProducerContext producerContext) {
+      super(consumer, producerContext);
+    }
+  }
+
+  private static final String QUEUE_TIME = "queue_time";
+  private static final String FETCH_TIME = "fetch_time";
+  private static final String TOTAL_TIME = "total_time";
+  private static final String IMAGE_SIZE = "image_size";
+
+  private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+  private final CronetEngine mCronetEngine;
+  private final Executor mCallbackExecutor;
+  private final PooledByteBufferFactory mPooledByteBufferFactory;
+  private final boolean mDisableCronetCache;
+
+  /**
+   * The bodies are buffered in pools of their own. Use {@link #CronetNetworkFetcher(CronetEngine,
+   * Executor, PooledByteBufferFactory, boolean)} to share the pools of the pipeline.
+   *
+   * @param cronetEngine engine to use
+   */
+  public CronetNetworkFetcher(CronetEngine cronetEngine) {
+    this(
+        cronetEngine,
+        Executors.newSingleThreadExecutor(),
+        new PoolFactory(PoolConfig.newBuilder().build())
+            .getPooledByteBufferFactory(MemoryChunkType.BUFFER_MEMORY),
+        true);
+  }
+
+  /**
+   * @param cronetEngine engine to use
+   * @param callbackExecutor executor on which Cronet calls back, and the bodies are buffered and
+   *     handed over to the pipeline. The callbacks never block
+   * @param pooledByteBufferFactory factory of the buffers the bodies are written to as they arrive
+   * @param disableCronetCache true if responses should not be cached by Cronet
+   */
+  public CronetNetworkFetcher(
+      CronetEngine cronetEngine,
+      Executor callbackExecutor,
+      PooledByteBufferFactory pooledByteBufferFactory,
+      boolean disableCronetCache) {
+    mCronetEngine = cronetEngine;
+    mCallbackExecutor = callbackExecutor;
+    mPooledByteBufferFactory = pooledByteBufferFactory;
+    mDisableCronetCache = disableCronetCache;
+  }
+
+  @Override
+  public CronetNetworkFetchState createFetchState(
+      Consumer<EncodedImage> consumer, ProducerContext context) {
+    return new CronetNetworkFetchState(consumer, context);
+  }
+
+  @Override
+  public void fetch(final CronetNetworkFetchState fetchState, final Callback callback) {
+    fetchState.submitTime = SystemClock.elapsedRealtime();
+    final UrlRequest request;
+    try {
+      final UrlRequest.Builder requestBuilder =
+          mCronetEngine
+              .newUrlRequestBuilder(
+                  fetchState.getUri().toString(),
+                  new CronetCallback(fetchState, callback),
+                  mCallbackExecutor)
+              .setPriority(getRequestPriority(fetchState.getContext().getPriority()));
+
+      if (mDisableCronetCache) {
+        requestBuilder.disableCache();
+      }
+
+      final BytesRange bytesRange = fetchState.getContext().getImageRequest().getBytesRange();
+      if (bytesRange != null) {
+        requestBuilder.addHeader("Range", bytesRange.toHttpRangeHeaderValue());
+      }
+
+      request = requestBuilder.build();
+    } catch (Exception e) {
+      // handle error while creating the request
+      callback.onFailure(e);
+      return;
+    }
+
+    request.start();
+    fetchState
+        .getContext()
+        .addCallbacks(
+            new BaseProducerContextCallbacks() {
+              @Override
+              public void onCancellationRequested() {
+                // Cronet cancels asynchronously, this doesn't block the UI thread
+                request.cancel();
+              }
+            });
+  }
+
+  @Override
+  public void onFetchCompletion(CronetNetworkFetchState fetchState, int byteSize) {
+    fetchState.fetchCompleteTime = SystemClock.elapsedRealtime();
+  }
+
+  @Override
+  public Map<String, String> getExtraMap(CronetNetworkFetchState fetchState, int byteSize) {
+    Map<String, String> extraMap = new HashMap<>(4);
+    extraMap.put(QUEUE_TIME, Long.toString(fetchState.responseTime - fetchState.submitTime));
+    extraMap.put(FETCH_TIME, Long.toString(fetchState.fetchCompleteTime - fetchState.responseTime));
+    extraMap.put(TOTAL_TIME, Long.toString(fetchState.fetchCompleteTime - fetchState.submitTime));
+    extraMap.put(IMAGE_SIZE, Integer.toString(byteSize));
+    return extraMap;
+  }
+
+  private static int getRequestPriority(Priority priority) {
+    switch (priority) {
+      case LOW:
+        return UrlRequest.Builder.REQUEST_PRIORITY_LOW;
+      case HIGH:
+        return UrlRequest.Builder.REQUEST_PRIORITY_HIGHEST;
+      default:
+        return UrlRequest.Builder.REQUEST_PRIORITY_MEDIUM;
+    }
+  }
+
+  @Nullable
+  private static String getHeader(UrlResponseInfo info, String name) {
+    final List<Map.Entry<String, String>> headers = info.getAllHeadersAsList();
+    for (int i = 0; i < headers.size(); i++) {
+      if (name.equalsIgnoreCase(headers.get(i).getKey())) {
+        return headers.get(i).getValue();
+      }
+    }
+    return null;
+  }
+
+  /** @return the length of the body as delivered by Cronet, -1 if it is not known */
+  private static int getContentLength(UrlResponseInfo info) {
+    final String contentEncoding = getHeader(info, "Content-Encoding");
+    if (contentEncoding != null && !"identity".equalsIgnoreCase(contentEncoding)) {
+      // Cronet decodes the body, the header is the length of the encoded one
+      return -1;
+    }
+    final String contentLength = getHeader(info, "Content-Length");
+    if (contentLength == null) {
+      return -1;
+    }
+    try {
+      final long length = Long.parseLong(contentLength.trim());
+      return length >= 0 && length <= Integer.MAX_VALUE ? (int) length : -1;
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Calls back the pipeline for one request. Cronet calls it back on {@link #mCallbackExecutor}, one
+   * callback at a time.
+   *
+   * <p>Once the response starts, every chunk read is written to {@link #mBody} and the next one is
+   * asked for right away. The body is handed over to the pipeline when the request succeeds, and
+   * released if it fails or is canceled instead.
+   */
+  private class CronetCallback extends UrlRequest.Callback {
+
+    private final CronetNetworkFetchState mFetchState;
+    private final Callback mCallback;
+    private final byte[] mCopyBuffer = new byte[READ_BUFFER_SIZE];
+
+    @Nullable private PooledByteBufferOutputStream mBody;
+
+    /** set if the request is canceled because of a failure, reported instead of the cancellation */
+    @Nullable private IOException mFailure;
+
+    CronetCallback(CronetNetworkFetchState fetchState, Callback callback) {
+      mFetchState = fetchState;
+      mCallback = callback;
+    }
+
+    @Override
+    public void onRedirectReceived(
+        UrlRequest request, UrlResponseInfo info, String newLocationUrl) {
+      request.followRedirect();
+    }
+
+    @Override
+    public void onResponseStarted(UrlRequest request, UrlResponseInfo info) {
+      mFetchState.responseTime = SystemClock.elapsedRealtime();
+
+      final int httpStatusCode = info.getHttpStatusCode();
+      if (httpStatusCode < 200 || httpStatusCode >= 300) {
+        mFailure =
+            new IOException("Unexpected HTTP code " + httpStatusCode + " for " + info.getUrl());
+        request.cancel();
+        return;
+      }
+
+      final BytesRange responseRange =
+          BytesRange.fromContentRangeHeader(getHeader(info, "Content-Range"));
+      if (responseRange != null
+          && !(responseRange.from == 0 && responseRange.to == BytesRange.TO_END_OF_CONTENT)) {
+        // Only treat as a partial image if the range is not all of the content
+        mFetchState.setResponseBytesRange(responseRange);
+        mFetchState.setOnNewResultStatusFlags(Consumer.IS_PARTIAL_RESULT);
+      }
+
+      final int contentLength = getContentLength(info);
+      mBody =
+          contentLength > 0
+              ? mPooledByteBufferFactory.newOutputStream(contentLength)
+              : mPooledByteBufferFactory.newOutputStream();
+      // Cronet reads into direct buffers, this one is passed back by every read
+      request.read(ByteBuffer.allocateDirect(READ_BUFFER_SIZE));
+    }
+
+    @Override
+    public void onReadCompleted(UrlRequest request, UrlResponseInfo info, ByteBuffer byteBuffer) {
+      final PooledByteBufferOutputStream body = mBody;
+      if (body == null) {
+        return;
+      }
+      byteBuffer.flip();
+      try {
+        while (byteBuffer.hasRemaining()) {
+          final int count = Math.min(byteBuffer.remaining(), mCopyBuffer.length);
+          byteBuffer.get(mCopyBuffer, 0, count);
+          body.write(mCopyBuffer, 0, count);
+        }
+      } catch (IOException e) {
+        mFailure = e;
+        request.cancel();
+        return;
+      }
+      byteBuffer.clear();
+      request.read(byteBuffer);
+    }
+
+    @Override
+    public void onSucceeded(UrlRequest request, UrlResponseInfo info) {
+      final PooledByteBufferOutputStream body = mBody;
+      if (body == null) {
+        mCallback.onFailure(new IOException("No body for " + info.getUrl()));
+        return;
+      }
+      mBody = null;
+      try {
+        final PooledByteBuffer buffer = body.toByteBuffer();
+        try {
+          mCallback.onResponse(new PooledByteBufferInputStream(buffer), buffer.size());
+        } finally {
+          buffer.close();
+        }
+      } catch (Exception e) {
+        mCallback.onFailure(e);
+      } finally {
+        body.close();
+      }
+    }
+
+    @Override
+    public void onFailed(
+        UrlRequest request, @Nullable UrlResponseInfo info, CronetException error) {
+      releaseBody();
+      mCallback.onFailure(error);
+    }
+
+    @Override
+    public void onCanceled(UrlRequest request, @Nullable UrlResponseInfo info) {
+      releaseBody();
+      final IOException failure = mFailure;
+      if (failure != null) {
+        mCallback.onFailure(failure);
+      } else {
+        mCallback.onCancellation();
+      }
+    }
+
+    private void releaseBody() {
+      final PooledByteBufferOutputStream body = mBody;
+      mBody = null;
+      if (body != null) {
+        body.close();
+      }
+    }
+  }
+}
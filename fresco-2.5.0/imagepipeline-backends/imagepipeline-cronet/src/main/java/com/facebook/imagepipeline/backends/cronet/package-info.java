@@ -0,0 +1,9 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+/** Classes for the NetworkFetcher implementation with Cronet */
+package com.facebook.imagepipeline.backends.cronet;
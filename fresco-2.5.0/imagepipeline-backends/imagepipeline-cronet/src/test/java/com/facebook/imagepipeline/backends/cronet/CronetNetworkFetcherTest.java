@@ -0,0 +1,394 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.backends.cronet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.net.Uri;
+import com.facebook.imagepipeline.common.BytesRange;
+import com.facebook.imagepipeline.common.Priority;
+import com.facebook.imagepipeline.core.MemoryChunkType;
+import com.facebook.imagepipeline.image.EncodedImage;
+import com.facebook.imagepipeline.memory.PoolConfig;
+import com.facebook.imagepipeline.memory.PoolFactory;
+import com.facebook.imagepipeline.producers.Consumer;
+import com.facebook.imagepipeline.producers.NetworkFetcher;
+import com.facebook.imagepipeline.producers.ProducerContext;
+import com.facebook.imagepipeline.producers.ProducerContextCallbacks;
+import com.facebook.imagepipeline.request.ImageRequest;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import org.chromium.net.CronetEngine;
+import org.chromium.net.impl.JavaCronetProvider;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+/**
+ * Tests for {@link CronetNetworkFetcher}, against an in-process HTTP server.
+ *
+ * <p>The engine is the pure Java one of cronet-fallback, which behaves as the native one for the
+ * fetcher.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class CronetNetworkFetcherTest {
+
+  private static final int TIMEOUT_SECONDS = 10;
+  private static final int IMAGE_SIZE = 100 * 1024;
+  private static final int CONCURRENT_DOWNLOADS = 8;
+
+  private HttpServer mServer;
+  private ExecutorService mServerExecutor;
+  private CronetEngine mCronetEngine;
+  private CronetNetworkFetcher mFetcher;
+  private byte[] mImageBytes;
+  private CountDownLatch mSlowBodyLatch;
+  private CountDownLatch mSlowBodyStartedLatch;
+  private CountDownLatch mConcurrentRequestsLatch;
+  private CountDownLatch mConcurrentBodiesLatch;
+  private volatile String mReceivedRangeHeader;
+
+  @Before
+  public void setUp() throws IOException {
+    mImageBytes = new byte[IMAGE_SIZE];
+    for (int i = 0; i < IMAGE_SIZE; i++) {
+      mImageBytes[i] = (byte) (i * 31);
+    }
+    mSlowBodyLatch = new CountDownLatch(1);
+    mSlowBodyStartedLatch = new CountDownLatch(1);
+    mConcurrentRequestsLatch = new CountDownLatch(CONCURRENT_DOWNLOADS);
+    mConcurrentBodiesLatch = new CountDownLatch(CONCURRENT_DOWNLOADS);
+
+    mServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    mServerExecutor = Executors.newCachedThreadPool();
+    mServer.setExecutor(mServerExecutor);
+    mServer.createContext(
+        "/image",
+        new HttpHandler() {
+          @Override
+          public void handle(HttpExchange exchange) throws IOException {
+            mReceivedRangeHeader = exchange.getRequestHeaders().getFirst("Range");
+            if (mReceivedRangeHeader != null) {
+              int from = Integer.parseInt(mReceivedRangeHeader.replaceAll("[^0-9]", ""));
+              exchange
+                  .getResponseHeaders()
+                  .add(
+                      "Content-Range",
+                      "bytes " + from + "-" + (IMAGE_SIZE - 1) + "/" + IMAGE_SIZE);
+              respond(exchange, 206, mImageBytes, from);
+            } else {
+              respond(exchange, 200, mImageBytes, 0);
+            }
+          }
+        });
+    mServer.createContext(
+        "/redirect",
+        new HttpHandler() {
+          @Override
+          public void handle(HttpExchange exchange) throws IOException {
+            exchange
+                .getResponseHeaders()
+                .add("Location", getUrl("/image"));
+            exchange.sendResponseHeaders(302, -1);
+            exchange.close();
+          }
+        });
+    mServer.createContext(
+        "/missing",
+        new HttpHandler() {
+          @Override
+          public void handle(HttpExchange exchange) throws IOException {
+            respond(exchange, 404, new byte[] {1, 2, 3}, 0);
+          }
+        });
+    mServer.createContext(
+        "/slow",
+        new HttpHandler() {
+          @Override
+          public void handle(HttpExchange exchange) throws IOException {
+            exchange.sendResponseHeaders(200, IMAGE_SIZE);
+            OutputStream body = exchange.getResponseBody();
+            body.write(mImageBytes, 0, 1000);
+            body.flush();
+            mSlowBodyStartedLatch.countDown();
+            awaitQuietly(mSlowBodyLatch);
+            exchange.close();
+          }
+        });
+    mServer.createContext(
+        "/concurrent",
+        new HttpHandler() {
+          @Override
+          public void handle(HttpExchange exchange) throws IOException {
+            // only responds once all the requests are in flight
+            mConcurrentRequestsLatch.countDown();
+            awaitQuietly(mConcurrentRequestsLatch);
+            respond(exchange, 200, mImageBytes, 0);
+          }
+        });
+    mServer.createContext(
+        "/concurrent-bodies",
+        new HttpHandler() {
+          @Override
+          public void handle(HttpExchange exchange) throws IOException {
+            // only ends the bodies once all of them are being downloaded
+            exchange.sendResponseHeaders(200, IMAGE_SIZE);
+            OutputStream body = exchange.getResponseBody();
+            body.write(mImageBytes, 0, 1000);
+            body.flush();
+            mConcurrentBodiesLatch.countDown();
+            awaitQuietly(mConcurrentBodiesLatch);
+            body.write(mImageBytes, 1000, IMAGE_SIZE - 1000);
+            exchange.close();
+          }
+        });
+    mServer.start();
+
+    mCronetEngine = new JavaCronetProvider(RuntimeEnvironment.application).createBuilder().build();
+    mFetcher =
+        new CronetNetworkFetcher(
+            mCronetEngine,
+            Executors.newSingleThreadExecutor(),
+            new PoolFactory(PoolConfig.newBuilder().build())
+                .getPooledByteBufferFactory(MemoryChunkType.BUFFER_MEMORY),
+            true);
+  }
+
+  @After
+  public void tearDown() {
+    mSlowBodyLatch.countDown();
+    mServer.stop(0);
+    mServerExecutor.shutdownNow();
+  }
+
+  @Test
+  public void testFetch() throws Exception {
+    CronetNetworkFetcher.CronetNetworkFetchState fetchState = createFetchState("/image", null);
+    RecordingCallback callback = new RecordingCallback();
+    mFetcher.fetch(fetchState, callback);
+    callback.await();
+
+    assertNull(callback.mFailure);
+    assertFalse(callback.mIsCancelled);
+    assertEquals(IMAGE_SIZE, callback.mResponseLength);
+    assertArrayEquals(mImageBytes, callback.mBytes.toByteArray());
+    assertNull(mReceivedRangeHeader);
+    assertEquals(0, fetchState.getOnNewResultStatusFlags());
+
+    mFetcher.onFetchCompletion(fetchState, IMAGE_SIZE);
+    Map<String, String> extraMap = mFetcher.getExtraMap(fetchState, IMAGE_SIZE);
+    assertNotNull(extraMap.get("queue_time"));
+    assertNotNull(extraMap.get("fetch_time"));
+    assertNotNull(extraMap.get("total_time"));
+    assertEquals(Integer.toString(IMAGE_SIZE), extraMap.get("image_size"));
+  }
+
+  @Test
+  public void testFetchFollowsRedirects() throws Exception {
+    RecordingCallback callback = new RecordingCallback();
+    mFetcher.fetch(createFetchState("/redirect", null), callback);
+    callback.await();
+
+    assertNull(callback.mFailure);
+    assertArrayEquals(mImageBytes, callback.mBytes.toByteArray());
+  }
+
+  @Test
+  public void testFetchFailsOnHttpError() throws Exception {
+    RecordingCallback callback = new RecordingCallback();
+    mFetcher.fetch(createFetchState("/missing", null), callback);
+    callback.await();
+
+    assertTrue(callback.mFailure instanceof IOException);
+    assertEquals(-2, callback.mResponseLength);
+    assertFalse(callback.mIsCancelled);
+  }
+
+  @Test
+  public void testFetchRange() throws Exception {
+    CronetNetworkFetcher.CronetNetworkFetchState fetchState =
+        createFetchState("/image", BytesRange.from(1000));
+    RecordingCallback callback = new RecordingCallback();
+    mFetcher.fetch(fetchState, callback);
+    callback.await();
+
+    assertNull(callback.mFailure);
+    assertEquals("bytes=1000-", mReceivedRangeHeader);
+    assertEquals(IMAGE_SIZE - 1000, callback.mBytes.size());
+    assertEquals(Consumer.IS_PARTIAL_RESULT, fetchState.getOnNewResultStatusFlags());
+    BytesRange responseRange = fetchState.getResponseBytesRange();
+    assertEquals(1000, responseRange.from);
+    assertEquals(IMAGE_SIZE - 1, responseRange.to);
+  }
+
+  @Test
+  public void testCancellationWhileReadingBody() throws Exception {
+    final CronetNetworkFetcher.CronetNetworkFetchState fetchState =
+        createFetchState("/slow", null);
+    final List<ProducerContextCallbacks> contextCallbacks = captureContextCallbacks(fetchState);
+    RecordingCallback callback = new RecordingCallback();
+    mFetcher.fetch(fetchState, callback);
+    assertTrue(mSlowBodyStartedLatch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    contextCallbacks.get(0).onCancellationRequested();
+    callback.await();
+
+    assertTrue(callback.mIsCancelled);
+    assertNull(callback.mFailure);
+    // the part of the body received is not handed over
+    assertEquals(-2, callback.mResponseLength);
+  }
+
+  @Test
+  public void testConcurrentDownloads() throws Exception {
+    List<RecordingCallback> callbacks = new ArrayList<>();
+    for (int i = 0; i < CONCURRENT_DOWNLOADS; i++) {
+      RecordingCallback callback = new RecordingCallback();
+      mFetcher.fetch(createFetchState("/concurrent", null), callback);
+      callbacks.add(callback);
+    }
+    for (RecordingCallback callback : callbacks) {
+      callback.await();
+      assertNull(callback.mFailure);
+      assertArrayEquals(mImageBytes, callback.mBytes.toByteArray());
+    }
+  }
+
+  @Test
+  public void testConcurrentBodiesWithDefaultConstructor() throws Exception {
+    // more bodies than the default fetcher used to have threads to read them on
+    mFetcher = new CronetNetworkFetcher(mCronetEngine);
+    List<RecordingCallback> callbacks = new ArrayList<>();
+    for (int i = 0; i < CONCURRENT_DOWNLOADS; i++) {
+      RecordingCallback callback = new RecordingCallback();
+      mFetcher.fetch(createFetchState("/concurrent-bodies", null), callback);
+      callbacks.add(callback);
+    }
+    for (RecordingCallback callback : callbacks) {
+      callback.await();
+      assertNull(callback.mFailure);
+      assertEquals(IMAGE_SIZE, callback.mResponseLength);
+      assertArrayEquals(mImageBytes, callback.mBytes.toByteArray());
+    }
+  }
+
+  private CronetNetworkFetcher.CronetNetworkFetchState createFetchState(
+      String path, @Nullable BytesRange bytesRange) {
+    ImageRequest imageRequest = mock(ImageRequest.class);
+    when(imageRequest.getSourceUri())
+        .thenReturn(Uri.parse(getUrl(path)));
+    when(imageRequest.getBytesRange()).thenReturn(bytesRange);
+    ProducerContext producerContext = mock(ProducerContext.class);
+    when(producerContext.getImageRequest()).thenReturn(imageRequest);
+    when(producerContext.getPriority()).thenReturn(Priority.HIGH);
+    @SuppressWarnings("unchecked")
+    Consumer<EncodedImage> consumer = mock(Consumer.class);
+    return mFetcher.createFetchState(consumer, producerContext);
+  }
+
+  private String getUrl(String path) {
+    return "http://127.0.0.1:" + mServer.getAddress().getPort() + path;
+  }
+
+  private static List<ProducerContextCallbacks> captureContextCallbacks(
+      CronetNetworkFetcher.CronetNetworkFetchState fetchState) {
+    final List<ProducerContextCallbacks> contextCallbacks = new ArrayList<>();
+    doAnswer(
+            new Answer<Void>() {
+              @Override
+              public Void answer(InvocationOnMock invocation) {
+                contextCallbacks.add((ProducerContextCallbacks) invocation.getArguments()[0]);
+                return null;
+              }
+            })
+        .when(fetchState.getContext())
+        .addCallbacks(any(ProducerContextCallbacks.class));
+    return contextCallbacks;
+  }
+
+  private static void respond(HttpExchange exchange, int code, byte[] bytes, int from)
+      throws IOException {
+    exchange.sendResponseHeaders(code, bytes.length - from);
+    OutputStream body = exchange.getResponseBody();
+    body.write(bytes, from, bytes.length - from);
+    exchange.close();
+  }
+
+  private static void awaitQuietly(CountDownLatch latch) {
+    try {
+      latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** Reads the body as {@link com.facebook.imagepipeline.producers.NetworkFetchProducer} does. */
+  private static class RecordingCallback implements NetworkFetcher.Callback {
+
+    final ByteArrayOutputStream mBytes = new ByteArrayOutputStream();
+    final CountDownLatch mDone = new CountDownLatch(1);
+    volatile int mResponseLength = -2;
+    @Nullable volatile Throwable mFailure;
+    volatile boolean mIsCancelled;
+
+    @Override
+    public void onResponse(InputStream response, int responseLength) throws IOException {
+      mResponseLength = responseLength;
+      byte[] buffer = new byte[4096];
+      int length;
+      while ((length = response.read(buffer)) >= 0) {
+        mBytes.write(buffer, 0, length);
+      }
+      mDone.countDown();
+    }
+
+    @Override
+    public void onFailure(Throwable throwable) {
+      mFailure = throwable;
+      mDone.countDown();
+    }
+
+    @Override
+    public void onCancellation() {
+      mIsCancelled = true;
+      mDone.countDown();
+    }
+
+    void await() throws InterruptedException {
+      assertTrue(mDone.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.binaryresource;
+
+import com.facebook.common.internal.Preconditions;
+import com.facebook.infer.annotation.Nullsafe;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A BinaryResource backed by a region of a file. Reads are positional, so the channel can be shared
+ * by any number of resources and threads, and the channel position is never changed.
+ */
+@Nullsafe(Nullsafe.Mode.STRICT)
+public class FileChannelBinaryResource implements BinaryResource {
+
+  private final FileChannel mChannel;
+  private final long mOffset;
+  private final int mSize;
+
+  public FileChannelBinaryResource(FileChannel channel, long offset, int size) {
+    Preconditions.checkArgument(offset >= 0 && size >= 0);
+    mChannel = Preconditions.checkNotNull(channel);
+    mOffset = offset;
+    mSize = size;
+  }
+
+  public FileChannel getChannel() {
+    return mChannel;
+  }
+
+  /** Position of the first byte of the resource in the channel. */
+  public long getOffset() {
+    return mOffset;
+  }
+
+  @Override
+  public InputStream openStream() throws IOException {
+    return new RegionInputStream();
+  }
+
+  @Override
+  public byte[] read() throws IOException {
+    byte[] bytes = new byte[mSize];
+    readFully(ByteBuffer.wrap(bytes), mOffset);
+    return bytes;
+  }
+
+  @Override
+  public long size() {
+    return mSize;
+  }
+
+  private void readFully(ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      int read = mChannel.read(buffer, position);
+      if (read < 0) {
+        throw new EOFException("resource truncated at " + position);
+      }
+      position += read;
+    }
+  }
+
+  private class RegionInputStream extends InputStream {
+
+    private int mPosition;
+    private int mMark;
+
+    @Override
+    public int read() throws IOException {
+      byte[] single = new byte[1];
+      return read(single, 0, 1) < 0 ? -1 : (single[0] & 0xFF);
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      Preconditions.checkPositionIndexes(offset, offset + length, buffer.length);
+      if (length == 0) {
+        return 0;
+      }
+      int remaining = mSize - mPosition;
+      if (remaining <= 0) {
+        return -1;
+      }
+      ByteBuffer target = ByteBuffer.wrap(buffer, offset, Math.min(length, remaining));
+      readFully(target, mOffset + mPosition);
+      int read = target.position() - offset;
+      mPosition += read;
+      return read;
+    }
+
+    @Override
+    public long skip(long count) {
+      int skipped = (int) Math.max(0, Math.min(count, mSize - mPosition));
+      mPosition += skipped;
+      return skipped;
+    }
+
+    @Override
+    public int available() {
+      return mSize - mPosition;
+    }
+
+    @Override
+    public boolean markSupported() {
+      return true;
+    }
+
+    @Override
+    public synchronized void mark(int readLimit) {
+      mMark = mPosition;
+    }
+
+    @Override
+    public synchronized void reset() {
+      mPosition = mMark;
+    }
+  }
+}
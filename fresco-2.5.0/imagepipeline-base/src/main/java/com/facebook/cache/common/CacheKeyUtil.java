@@ -6,10 +6,9 @@
  */
 package com.facebook.cache.common;
 
-import com.facebook.common.util.SecureHashUtil;
 import com.facebook.infer.annotation.Nullsafe;
-import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 @Nullsafe(Nullsafe.Mode.STRICT)
 public final class CacheKeyUtil {
@@ -18,23 +17,41 @@ public final class CacheKeyUtil {
    */
   public static List<String> getResourceIds(final CacheKey key)
   {
-    try {
-      final List<String> ids;
-      if (key instanceof MultiCacheKey) {
-        List<CacheKey> keys = ((MultiCacheKey) key).getCacheKeys();
-        ids = new ArrayList<>(keys.size());
-        for (int i = 0; i < keys.size(); i++) {
-          ids.add(secureHashKey(keys.get(i)));
-        }
-      } else {
-        ids = new ArrayList<>(1);
-        ids.add(key.isResourceIdForDebugging() ? key.getUriString() : secureHashKey(key));
+    return getResourceIds(key, Sha1ResourceIdGenerator.getInstance());
+  }
+
+  /**
+   * Get a list of possible resourceIds from MultiCacheKey or get single resourceId from CacheKey,
+   * as computed by the given generator.
+   * 
+   * <p>The ids of {@link SimpleCacheKey} and {@link MultiCacheKey} are memoized on the key, so
+   * looking up the same key again doesn't hash nor allocate. The returned list must not be
+   * modified.
+   */
+  public static List<String> getResourceIds(final CacheKey key, final ResourceIdGenerator generator)
+  {
+    if (key instanceof MultiCacheKey) {
+      MultiCacheKey multiCacheKey = (MultiCacheKey) key;
+      MemoizedResourceIds memoized = multiCacheKey.mMemoizedResourceIds;
+      if (memoized != null && memoized.mGenerator == generator) {
+        return memoized.mResourceIds;
+      }
+      List<CacheKey> keys = multiCacheKey.getCacheKeys();
+      List<String> ids = new ArrayList<>(keys.size());
+      for (int i = 0; i < keys.size(); i++) {
+        ids.add(getResourceId(keys.get(i), generator));
       }
+      ids = Collections.unmodifiableList(ids);
+      multiCacheKey.mMemoizedResourceIds = new MemoizedResourceIds(generator, ids);
       return ids;
-    } catch (UnsupportedEncodingException e) {
-      // This should never happen. All VMs support UTF-8
-      throw new RuntimeException(e);
     }
+    if (key.isResourceIdForDebugging()) {
+      return Collections.singletonList(key.getUriString());
+    }
+    if (key instanceof SimpleCacheKey) {
+      return getMemoizedResourceIds((SimpleCacheKey) key, generator).mResourceIds;
+    }
+    return Collections.singletonList(generator.getResourceId(key));
   }
 
   /**
@@ -42,22 +59,56 @@ public final class CacheKeyUtil {
    */
   public static String getFirstResourceId(final CacheKey key)
   {
-    try {
-      if (key instanceof MultiCacheKey) {
-        List<CacheKey> keys = ((MultiCacheKey) key).getCacheKeys();
-        return secureHashKey(keys.get(0));
-      } else {
-        return secureHashKey(key);
-      }
-    } catch (UnsupportedEncodingException e) {
-      // This should never happen. All VMs support UTF-8
-      throw new RuntimeException(e);
+    return getFirstResourceId(key, Sha1ResourceIdGenerator.getInstance());
+  }
+
+  /**
+   * Get the resourceId from the first key in MultiCacheKey or get single resourceId from CacheKey,
+   * as computed by the given generator.
+   */
+  public static String getFirstResourceId(final CacheKey key, final ResourceIdGenerator generator)
+  {
+    if (key instanceof MultiCacheKey) {
+      List<CacheKey> keys = ((MultiCacheKey) key).getCacheKeys();
+      return getResourceId(keys.get(0), generator);
+    } else {
+      return getResourceId(key, generator);
+    }
+  }
+
+  private static String getResourceId(final CacheKey key, final ResourceIdGenerator generator)
+  {
+    if (key instanceof SimpleCacheKey) {
+      return getMemoizedResourceIds((SimpleCacheKey) key, generator).mResourceIds.get(0);
     }
+    return generator.getResourceId(key);
   }
 
-  private static String secureHashKey(final CacheKey key) throws UnsupportedEncodingException
+  private static MemoizedResourceIds getMemoizedResourceIds(
+      final SimpleCacheKey key, final ResourceIdGenerator generator)
   {
-    return SecureHashUtil.makeSHA1HashBase64(key.getUriString().getBytes("UTF-8"));
+    MemoizedResourceIds memoized = key.mMemoizedResourceIds;
+    if (memoized == null || memoized.mGenerator != generator) {
+      memoized =
+          new MemoizedResourceIds(
+              generator, Collections.singletonList(generator.getResourceId(key)));
+      // racing threads compute the same ids, any of them can win
+      key.mMemoizedResourceIds = memoized;
+    }
+    return memoized;
+  }
+
+  /** The resource ids of a key, and the generator they were computed with. */
+  static final class MemoizedResourceIds {
+    final ResourceIdGenerator mGenerator;
+
+    final List<String> mResourceIds;
+
+    MemoizedResourceIds(ResourceIdGenerator generator, List<String> resourceIds) {
+      mGenerator = generator;
+      mResourceIds = resourceIds;
+    }
+
   }
 
 }
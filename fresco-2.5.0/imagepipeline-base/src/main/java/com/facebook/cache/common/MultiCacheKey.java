@@ -27,6 +27,12 @@ import javax.annotation.Nullable;
 public class MultiCacheKey implements CacheKey {
   final List<CacheKey> mCacheKeys;
 
+  /**
+   *  Memoized by {@link CacheKeyUtil}, not part of the key. 
+   */
+  @Nullable
+  volatile CacheKeyUtil.MemoizedResourceIds mMemoizedResourceIds;
+
   public MultiCacheKey(List<CacheKey> cacheKeys) {
     mCacheKeys = Preconditions.checkNotNull(cacheKeys);
   }
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.cache.common;
+
+import com.facebook.infer.annotation.Nullsafe;
+import javax.annotation.Nullable;
+
+/**
+ * A {@link ResourceIdGenerator} using the 128-bit x64 variant of MurmurHash3, encoded as 22
+ * characters of URL-safe base64.
+ *
+ * <p>The key is hashed as its UTF-16 code units in little-endian order, like Guava's {@code
+ * murmur3_128().hashUnencodedChars()}, so no byte array, digest or encoder is allocated. The hash
+ * is not cryptographic, which is fine for naming cache entries: keys are not chosen by an attacker
+ * trying to make two images collide, and 128 bits leave collisions negligible.
+ */
+@Nullsafe(Nullsafe.Mode.STRICT)
+public class Murmur3ResourceIdGenerator implements ResourceIdGenerator {
+
+  public static final int VERSION = 1;
+
+  private static final long C1 = 0x87c37b91114253d5L;
+  private static final long C2 = 0x4cf5ad432745937fL;
+
+  private static final char[] BASE64_URL_SAFE =
+      "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+
+  @Nullable private static Murmur3ResourceIdGenerator sInstance = null;
+
+  private Murmur3ResourceIdGenerator() {}
+
+  public static synchronized Murmur3ResourceIdGenerator getInstance() {
+    if (sInstance == null) {
+      sInstance = new Murmur3ResourceIdGenerator();
+    }
+    return sInstance;
+  }
+
+  @Override
+  public String getResourceId(CacheKey key) {
+    String text = key.getUriString();
+    long h1 = 0;
+    long h2 = 0;
+    int length = text.length();
+    int blockEnd = length & ~7;
+    for (int i = 0; i < blockEnd; i += 8) {
+      long k1 = chars(text, i, 4);
+      long k2 = chars(text, i + 4, 4);
+      h1 ^= mixK1(k1);
+      h1 = Long.rotateLeft(h1, 27);
+      h1 += h2;
+      h1 = h1 * 5 + 0x52dce729;
+      h2 ^= mixK2(k2);
+      h2 = Long.rotateLeft(h2, 31);
+      h2 += h1;
+      h2 = h2 * 5 + 0x38495ab5;
+    }
+    int remaining = length - blockEnd;
+    if (remaining > 0) {
+      if (remaining > 4) {
+        h2 ^= mixK2(chars(text, blockEnd + 4, remaining - 4));
+      }
+      h1 ^= mixK1(chars(text, blockEnd, Math.min(remaining, 4)));
+    }
+    long byteLength = 2L * length;
+    h1 ^= byteLength;
+    h2 ^= byteLength;
+    h1 += h2;
+    h2 += h1;
+    h1 = fmix64(h1);
+    h2 = fmix64(h2);
+    h1 += h2;
+    h2 += h1;
+    return encode(h1, h2);
+  }
+
+  @Override
+  public int getVersion() {
+    return VERSION;
+  }
+
+  /** Reads {@code count} chars, at most 4, as a little-endian long. */
+  private static long chars(String text, int offset, int count) {
+    long value = 0;
+    for (int i = 0; i < count; i++) {
+      value |= ((long) text.charAt(offset + i)) << (16 * i);
+    }
+    return value;
+  }
+
+  private static long mixK1(long k1) {
+    k1 *= C1;
+    k1 = Long.rotateLeft(k1, 31);
+    k1 *= C2;
+    return k1;
+  }
+
+  private static long mixK2(long k2) {
+    k2 *= C2;
+    k2 = Long.rotateLeft(k2, 33);
+    k2 *= C1;
+    return k2;
+  }
+
+  private static long fmix64(long k) {
+    k ^= k >>> 33;
+    k *= 0xff51afd7ed558ccdL;
+    k ^= k >>> 33;
+    k *= 0xc4ceb9fe1a85ec53L;
+    k ^= k >>> 33;
+    return k;
+  }
+
+  /** Encodes the hash bytes, h1 then h2 in little-endian order, as unpadded base64. */
+  private static String encode(long h1, long h2) {
+    char[] chars = new char[22];
+    int charIndex = 0;
+    int bits = 0;
+    int bitCount = 0;
+    for (int i = 0; i < 16; i++) {
+      long half = i < 8 ? h1 : h2;
+      bits = (bits << 8) | (int) ((half >>> (8 * (i & 7))) & 0xFF);
+      bitCount += 8;
+      while (bitCount >= 6) {
+        bitCount -= 6;
+        chars[charIndex++] = BASE64_URL_SAFE[(bits >>> bitCount) & 0x3F];
+      }
+    }
+    chars[charIndex] = BASE64_URL_SAFE[(bits << (6 - bitCount)) & 0x3F];
+    return new String(chars);
+  }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.cache.common;
+
+import com.facebook.infer.annotation.Nullsafe;
+
+/**
+ * Computes the id under which the disk cache stores the resource of a {@link CacheKey}.
+ *
+ * <p>Implementations must be stateless and deterministic across processes and devices, as the ids
+ * name the entries on disk. {@link CacheKeyUtil} memoizes the ids on the keys, per generator
+ * instance, so a generator should be a single shared instance.
+ */
+@Nullsafe(Nullsafe.Mode.STRICT)
+public interface ResourceIdGenerator {
+
+  /**
+   * Returns the resource id of a single key, computed from its {@link CacheKey#getUriString()}. The
+   * id must be usable as a file name.
+   */
+  String getResourceId(CacheKey key);
+
+  /**
+   * Returns the version of the ids this generator produces. The ids of the original SHA-1 scheme
+   * are version 0. The disk cache is stored separately for each version, so changing the generator
+   * of a cache starts it empty and deletes the entries of the previous version.
+   */
+  int getVersion();
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.cache.common;
+
+import com.facebook.common.util.SecureHashUtil;
+import com.facebook.infer.annotation.Nullsafe;
+import java.io.UnsupportedEncodingException;
+import javax.annotation.Nullable;
+
+/** The default {@link ResourceIdGenerator}: the base64 SHA-1 hash of the UTF-8 key. */
+@Nullsafe(Nullsafe.Mode.STRICT)
+public class Sha1ResourceIdGenerator implements ResourceIdGenerator {
+
+  public static final int VERSION = 0;
+
+  @Nullable private static Sha1ResourceIdGenerator sInstance = null;
+
+  private Sha1ResourceIdGenerator() {}
+
+  public static synchronized Sha1ResourceIdGenerator getInstance() {
+    if (sInstance == null) {
+      sInstance = new Sha1ResourceIdGenerator();
+    }
+    return sInstance;
+  }
+
+  @Override
+  public String getResourceId(CacheKey key) {
+    try {
+      return SecureHashUtil.makeSHA1HashBase64(key.getUriString().getBytes("UTF-8"));
+    } catch (UnsupportedEncodingException e) {
+      // This should never happen. All VMs support UTF-8
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Override
+  public int getVersion() {
+    return VERSION;
+  }
+}
@@ -22,6 +22,12 @@ public class SimpleCacheKey implements CacheKey {
 
   final boolean mIsResourceIdForDebugging;
 
+  /**
+   *  Memoized by {@link CacheKeyUtil}, not part of the key. 
+   */
+  @Nullable
+  volatile CacheKeyUtil.MemoizedResourceIds mMemoizedResourceIds;
+
   public SimpleCacheKey(final String key) {
     this(key, false);
   }
@@ -113,7 +113,7 @@ public class DefaultDiskStorage implements DiskStorage {
   }
 
   @SuppressWarnings("ExternalStorageUse")
-  private static boolean isExternal(File directory, com.facebook.cache.common.CacheErrorLogger cacheErrorLogger)
+  static boolean isExternal(File directory, com.facebook.cache.common.CacheErrorLogger cacheErrorLogger)
   {
     boolean state = false;
     String appCacheDirPath = null;
@@ -464,7 +464,7 @@ public class DefaultDiskStorage implements DiskStorage {
     return new DiskDumpInfoEntry(entryImpl.getId(), path, type, entryImpl.getSize(), firstBits);
   }
 
-  private String typeOfBytes(byte[] bytes) {
+  static String typeOfBytes(byte[] bytes) {
     if (bytes.length >= 2) {
       if (bytes[0] == (byte) 0xFF && bytes[1] == (byte) 0xD8) {
         return "jpg";
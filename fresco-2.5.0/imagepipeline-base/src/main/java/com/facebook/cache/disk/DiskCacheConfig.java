@@ -11,6 +11,8 @@ import com.facebook.cache.common.CacheErrorLogger;
 import com.facebook.cache.common.CacheEventListener;
 import com.facebook.cache.common.NoOpCacheErrorLogger;
 import com.facebook.cache.common.NoOpCacheEventListener;
+import com.facebook.cache.common.ResourceIdGenerator;
+import com.facebook.cache.common.Sha1ResourceIdGenerator;
 import com.facebook.common.disk.DiskTrimmable;
 import com.facebook.common.disk.DiskTrimmableRegistry;
 import com.facebook.common.disk.NoOpDiskTrimmableRegistry;
@@ -51,6 +53,20 @@ public class DiskCacheConfig {
 
   private final boolean mIndexPopulateAtStartupEnabled;
 
+  private final DiskCacheConfig.StorageType mStorageType;
+
+  private final com.facebook.cache.common.ResourceIdGenerator mResourceIdGenerator;
+
+  /** How the entries of the cache are laid out on disk. */
+  public enum StorageType {
+    /** One file per entry, see {@link DefaultDiskStorage}. */
+    DEFAULT,
+    /** One file per entry, with the index kept in a journal. See {@link JournaledDiskStorage}. */
+    JOURNALED,
+    /** Entries packed into a few large segment files. See {@link PackedDiskStorage}. */
+    PACKED,
+  }
+
   protected DiskCacheConfig(DiskCacheConfig.Builder builder) {
     mContext = builder.mContext;
     Preconditions.checkState(
@@ -87,6 +103,8 @@ public class DiskCacheConfig {
             ? NoOpDiskTrimmableRegistry.getInstance()
             : builder.mDiskTrimmableRegistry;
     mIndexPopulateAtStartupEnabled = builder.mIndexPopulateAtStartupEnabled;
+    mStorageType = builder.mStorageType;
+    mResourceIdGenerator = builder.mResourceIdGenerator;
   }
 
   public static class Builder {
@@ -117,6 +135,11 @@ public class DiskCacheConfig {
 
     private boolean mIndexPopulateAtStartupEnabled;
 
+    private DiskCacheConfig.StorageType mStorageType =  StorageType.DEFAULT;
+
+    private com.facebook.cache.common.ResourceIdGenerator mResourceIdGenerator = 
+        Sha1ResourceIdGenerator.getInstance();
+
     @Nullable
     private final Context mContext;
 
@@ -225,6 +248,31 @@ public class DiskCacheConfig {
       return this;
     }
 
+    /**
+     * Sets how the entries are stored on disk.
+     * 
+     * <p>{@link StorageType#PACKED} is more compact and faster to read for caches of small images,
+     * such as thumbnails. Changing the type of an existing cache starts it empty. With a custom
+     * storage factory, {@link StorageType#JOURNALED} adds a journal to its storage while {@link
+     * StorageType#PACKED} leaves the choice of storage to it.
+     */
+    public DiskCacheConfig.Builder setStorageType(DiskCacheConfig.StorageType storageType) {
+      mStorageType = Preconditions.checkNotNull(storageType);
+      return this;
+    }
+
+    /**
+     * Sets how the ids of the entries are computed from the cache keys.
+     * 
+     * <p>The default is {@link Sha1ResourceIdGenerator}. Since the cache is stored separately for
+     * each {@link ResourceIdGenerator#getVersion()}, changing the generator of an existing cache
+     * starts it empty and deletes the entries of the previous one.
+     */
+    public DiskCacheConfig.Builder setResourceIdGenerator(com.facebook.cache.common.ResourceIdGenerator resourceIdGenerator) {
+      mResourceIdGenerator = Preconditions.checkNotNull(resourceIdGenerator);
+      return this;
+    }
+
     public DiskCacheConfig build() {
       return new DiskCacheConfig(this);
     }
@@ -280,6 +328,26 @@ public class DiskCacheConfig {
     return mIndexPopulateAtStartupEnabled;
   }
 
+  public DiskCacheConfig.StorageType getStorageType() {
+    return mStorageType;
+  }
+
+  public com.facebook.cache.common.ResourceIdGenerator getResourceIdGenerator() {
+    return mResourceIdGenerator;
+  }
+
+  /**
+   * Returns the version the storage should be created with: {@link #getVersion()} combined with
+   * the version of the resource ids, so that entries named by another {@link ResourceIdGenerator}
+   * are never looked up and get purged.
+   * 
+   * <p>This is the same as {@link #getVersion()} for the default ids, and for versions below
+   * 2^24 it is different for every other combination.
+   */
+  public int getStorageVersion() {
+    return (mResourceIdGenerator.getVersion() << 24) ^ mVersion;
+  }
+
   /**
    * Create a new builder.
    * 
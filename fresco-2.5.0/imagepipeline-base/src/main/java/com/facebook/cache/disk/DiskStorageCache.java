@@ -12,6 +12,8 @@ import com.facebook.cache.common.CacheErrorLogger;
 import com.facebook.cache.common.CacheEventListener;
 import com.facebook.cache.common.CacheKey;
 import com.facebook.cache.common.CacheKeyUtil;
+import com.facebook.cache.common.ResourceIdGenerator;
+import com.facebook.cache.common.Sha1ResourceIdGenerator;
 import com.facebook.cache.common.WriterCallback;
 import com.facebook.common.disk.DiskTrimmable;
 import com.facebook.common.disk.DiskTrimmableRegistry;
@@ -22,15 +24,18 @@ import com.facebook.common.time.Clock;
 import com.facebook.common.time.SystemClock;
 import com.facebook.infer.annotation.Nullsafe;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
@@ -61,6 +66,18 @@ public class DiskStorageCache implements FileCache, com.facebook.common.disk.Dis
 
   private static final long UNINITIALIZED =  -1;
 
+  /**
+   *  Number of locks the resource ids are striped over. Must be a power of two.
+   */
+  private static final int RESOURCE_LOCK_STRIPES =  64;
+
+  /**
+   *  The resource id filter is sized for twice the entries it's built from, and at least this many.
+   */
+  private static final int MIN_FILTER_CAPACITY =  1024;
+
+  private static final double FILTER_FALSE_POSITIVE_RATE =  0.01;
+
   private final long mLowDiskSpaceCacheSizeLimit;
 
   private final long mDefaultCacheSizeLimit;
@@ -72,9 +89,10 @@ public class DiskStorageCache implements FileCache, com.facebook.common.disk.Dis
   private final com.facebook.cache.common.CacheEventListener mCacheEventListener;
 
   /**
-   *  All resourceId stored on disk (if any).
+   *  All resourceId stored on disk (if any). This is a concurrent set, so that it can be read
+   *  without holding any lock. Updates for a given resource id are done while holding the
+   *  corresponding resource lock (see {@link #getResourceLock}).
    */
-  @GuardedBy("mLock")
   @VisibleForTesting
   final Set<String> mResourceIndex;
 
@@ -92,6 +110,8 @@ public class DiskStorageCache implements FileCache, com.facebook.common.disk.Dis
 
   private final boolean mIndexPopulateAtStartupEnabled;
 
+  private final ResourceIdGenerator mResourceIdGenerator;
+
   @VisibleForTesting
   static class CacheStats {
     private boolean mInitialized =  false;
@@ -148,8 +168,43 @@ public class DiskStorageCache implements FileCache, com.facebook.common.disk.Dis
    */
   private final Object mLock =  new Object();
 
+  /**
+   *  Per-resource-id locks. Reads only take the lock of the resource ids they look up, so that
+   *  cache hits don't wait for inserts and eviction passes holding mLock. Writers that already
+   *  hold mLock may take a resource lock, but never the other way around.
+   */
+  private final Object[] mResourceLocks;
+
+  /**
+   *  Eviction order of the entries. Built from a listing of the storage and kept up to date by
+   *  inserts and removals, so that eviction passes don't need to list and sort every entry.
+   */
+  @GuardedBy("mLock")
+  private final EvictionQueue mEvictionQueue;
+
+  @GuardedBy("mLock")
+  private boolean mEvictionQueueValid;
+
+  /**
+   *  Access times of cache hits that are not applied to mEvictionQueue yet. Reads don't hold
+   *  mLock, so they are applied before the next eviction pass instead.
+   */
+  private final Map<String, Long> mPendingAccesses;
+
   private boolean mIndexReady;
 
+  /**
+   *  Bloom filter of the resource ids in mResourceIndex, so that lookups of keys that are
+   *  definitely not in the cache skip the storage. Only built once the index is populated from
+   *  the storage, and rebuilt from the index after entries were removed, as ids can't be removed
+   *  from it. Null while the index is not complete.
+   */
+  @Nullable private volatile ResourceIdBloomFilter mResourceIdFilter;
+
+  private final AtomicLong mFilteredLookupCount =  new AtomicLong();
+
+  private final AtomicLong mFilterFalsePositiveCount =  new AtomicLong();
+
   public static class Params {
     public final long mCacheSizeLimitMinimum;
 
@@ -166,6 +221,24 @@ public class DiskStorageCache implements FileCache, com.facebook.common.disk.Dis
   }
 
   public DiskStorageCache(DiskStorage diskStorage, EntryEvictionComparatorSupplier entryEvictionComparatorSupplier, DiskStorageCache.Params params, com.facebook.cache.common.CacheEventListener cacheEventListener, com.facebook.cache.common.CacheErrorLogger cacheErrorLogger, @Nullable com.facebook.common.disk.DiskTrimmableRegistry diskTrimmableRegistry, final Executor executorForBackgrountInit, boolean indexPopulateAtStartupEnabled) {
+    this(
+        diskStorage,
+        entryEvictionComparatorSupplier,
+        params,
+        cacheEventListener,
+        cacheErrorLogger,
+        diskTrimmableRegistry,
+        executorForBackgrountInit,
+        indexPopulateAtStartupEnabled,
+        Sha1ResourceIdGenerator.getInstance());
+  }
+
+  /**
+   * @param resourceIdGenerator computes the ids of the entries in the storage. The storage should
+   *     be versioned with {@link ResourceIdGenerator#getVersion()}, see {@link
+   *     DiskCacheConfig#getStorageVersion()}
+   */
+  public DiskStorageCache(DiskStorage diskStorage, EntryEvictionComparatorSupplier entryEvictionComparatorSupplier, DiskStorageCache.Params params, com.facebook.cache.common.CacheEventListener cacheEventListener, com.facebook.cache.common.CacheErrorLogger cacheErrorLogger, @Nullable com.facebook.common.disk.DiskTrimmableRegistry diskTrimmableRegistry, final Executor executorForBackgrountInit, boolean indexPopulateAtStartupEnabled, ResourceIdGenerator resourceIdGenerator) {
     this.mLowDiskSpaceCacheSizeLimit = params.mLowDiskSpaceCacheSizeLimit;
     this.mDefaultCacheSizeLimit = params.mDefaultCacheSizeLimit;
     this.mCacheSizeLimit = params.mDefaultCacheSizeLimit;
@@ -189,7 +262,17 @@ public class DiskStorageCache implements FileCache, com.facebook.common.disk.Dis
 
     mIndexPopulateAtStartupEnabled = indexPopulateAtStartupEnabled;
 
-    this.mResourceIndex = new HashSet<>();
+    this.mResourceIdGenerator = resourceIdGenerator;
+
+    this.mResourceIndex = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    this.mResourceLocks = new Object[RESOURCE_LOCK_STRIPES];
+    for (int i = 0; i < RESOURCE_LOCK_STRIPES; i++) {
+      mResourceLocks[i] = new Object();
+    }
+
+    this.mEvictionQueue = new EvictionQueue();
+    this.mPendingAccesses = new ConcurrentHashMap<>();
 
     if (diskTrimmableRegistry != null) {
       diskTrimmableRegistry.registerDiskTrimmable(this);
@@ -205,6 +288,10 @@ public class DiskStorageCache implements FileCache, com.facebook.common.disk.Dis
             public void run() {
               synchronized (mLock) {
                 maybeUpdateFileCacheSize();
+                // the index is complete once the storage was listed, here or by an earlier insert
+                if (mCacheSizeLastUpdateTime != UNINITIALIZED) {
+                  buildResourceIdFilter();
+                }
               }
               mIndexReady = true;
               mCountDownLatch.countDown();
@@ -246,10 +333,59 @@ public class DiskStorageCache implements FileCache, com.facebook.common.disk.Dis
     return mIndexReady || !mIndexPopulateAtStartupEnabled;
   }
 
+  /**
+   * Tells if the key is definitely not in the cache, from the in-memory key index.
+   * 
+   * <p>Only available once the index is populated at startup, and false otherwise.
+   * 
+   * <p>Avoids a disk read.
+   */
+  @Override
+  public boolean isDefiniteMissSync(com.facebook.cache.common.CacheKey key) {
+    ResourceIdBloomFilter filter = mResourceIdFilter;
+    if (filter == null) {
+      return false;
+    }
+    List<String> resourceIds = CacheKeyUtil.getResourceIds(key, mResourceIdGenerator);
+    for (int i = 0; i < resourceIds.size(); i++) {
+      if (filter.mightContain(resourceIds.get(i))) {
+        return false;
+      }
+    }
+    mFilteredLookupCount.incrementAndGet();
+    return true;
+  }
+
+  /**
+   *  @return the number of lookups that were found definite misses without reading the storage 
+   */
+  public long getFilteredLookupCount() {
+    return mFilteredLookupCount.get();
+  }
+
+  /**
+   *  @return the number of lookups that the filter let read the storage, and that missed 
+   */
+  public long getFilterFalsePositiveCount() {
+    return mFilterFalsePositiveCount.get();
+  }
+
+  /**
+   *  @return the share of the misses that the filter let read the storage, 0 if none 
+   */
+  public double getFilterFalsePositiveRate() {
+    long falsePositives = mFilterFalsePositiveCount.get();
+    long misses = falsePositives + mFilteredLookupCount.get();
+    return misses == 0 ? 0 : (double) falsePositives / misses;
+  }
+
   /**
    * Retrieves the file corresponding to the mKey, if it is in the cache. Also touches the item,
    * thus changing its LRU timestamp. If the file is not present in the file cache, returns null.
    * 
+   * <p>This does not take the cache-wide lock, only the locks of the resource ids being looked up,
+   * so reads are not blocked by concurrent inserts or eviction passes.
+   * 
    * <p>This should NOT be called on the UI thread.
    * 
    * @param key the mKey to check
@@ -261,27 +397,36 @@ public class DiskStorageCache implements FileCache, com.facebook.common.disk.Dis
     String resourceId = null;
     SettableCacheEvent cacheEvent = SettableCacheEvent.obtain().setCacheKey(key);
     try {
-      synchronized (mLock) {
-        BinaryResource resource = null;
-        List<String> resourceIds = CacheKeyUtil.getResourceIds(key);
-        for (int i = 0; i < resourceIds.size(); i++) {
-          resourceId = resourceIds.get(i);
-          cacheEvent.setResourceId(resourceId);
+      if (isDefiniteMissSync(key)) {
+        mCacheEventListener.onMiss(cacheEvent);
+        return null;
+      }
+      final boolean isFiltered = mResourceIdFilter != null;
+      BinaryResource resource = null;
+      List<String> resourceIds = CacheKeyUtil.getResourceIds(key, mResourceIdGenerator);
+      for (int i = 0; i < resourceIds.size(); i++) {
+        resourceId = resourceIds.get(i);
+        cacheEvent.setResourceId(resourceId);
+        synchronized (getResourceLock(resourceId)) {
           resource = mStorage.getResource(resourceId, key);
           if (resource != null) {
+            addToIndex(resourceId);
+            mPendingAccesses.put(resourceId, mClock.now());
             break;
           }
-        }
-        if (resource == null) {
-          mCacheEventListener.onMiss(cacheEvent);
           mResourceIndex.remove(resourceId);
-        } else {
-          Preconditions.checkNotNull(resourceId);
-          mCacheEventListener.onHit(cacheEvent);
-          mResourceIndex.add(resourceId);
         }
-        return resource;
       }
+      if (resource == null) {
+        if (isFiltered) {
+          mFilterFalsePositiveCount.incrementAndGet();
+        }
+        mCacheEventListener.onMiss(cacheEvent);
+      } else {
+        Preconditions.checkNotNull(resourceId);
+        mCacheEventListener.onHit(cacheEvent);
+      }
+      return resource;
     } catch (IOException ioe) {
       mCacheErrorLogger.logError(
           CacheErrorLogger.CacheErrorCategory.GENERIC_IO, TAG, "getResource", ioe);
@@ -306,17 +451,18 @@ public class DiskStorageCache implements FileCache, com.facebook.common.disk.Dis
   public boolean probe(final com.facebook.cache.common.CacheKey key) {
     String resourceId = null;
     try {
-      synchronized (mLock) {
-        List<String> resourceIds = CacheKeyUtil.getResourceIds(key);
-        for (int i = 0; i < resourceIds.size(); i++) {
-          resourceId = resourceIds.get(i);
+      List<String> resourceIds = CacheKeyUtil.getResourceIds(key, mResourceIdGenerator);
+      for (int i = 0; i < resourceIds.size(); i++) {
+        resourceId = resourceIds.get(i);
+        synchronized (getResourceLock(resourceId)) {
           if (mStorage.touch(resourceId, key)) {
-            mResourceIndex.add(resourceId);
+            addToIndex(resourceId);
+            mPendingAccesses.put(resourceId, mClock.now());
             return true;
           }
         }
-        return false;
       }
+      return false;
     } catch (IOException e) {
       SettableCacheEvent cacheEvent =
           SettableCacheEvent.obtain().setCacheKey(key).setResourceId(resourceId).setException(e);
@@ -340,9 +486,18 @@ public class DiskStorageCache implements FileCache, com.facebook.common.disk.Dis
    */
   private com.facebook.binaryresource.BinaryResource endInsert(final DiskStorage.Inserter inserter, final com.facebook.cache.common.CacheKey key, String resourceId) throws IOException {
     synchronized (mLock) {
-      BinaryResource resource = inserter.commit(key);
-      mResourceIndex.add(resourceId);
-      mCacheStats.increment(resource.size(), 1);
+      BinaryResource resource;
+      synchronized (getResourceLock(resourceId)) {
+        resource = inserter.commit(key);
+        addToIndex(resourceId);
+      }
+      ResourceIdBloomFilter filter = mResourceIdFilter;
+      if (filter != null && filter.isSaturated()) {
+        buildResourceIdFilter();
+      }
+      long size = resource.size();
+      mCacheStats.increment(size, 1);
+      mEvictionQueue.put(resourceId, resource, mClock.now());
       return resource;
     }
   }
@@ -356,7 +511,7 @@ public class DiskStorageCache implements FileCache, com.facebook.common.disk.Dis
     String resourceId;
     synchronized (mLock) {
       // for multiple resource ids associated with the same image, we only write one file
-      resourceId = CacheKeyUtil.getFirstResourceId(key);
+      resourceId = CacheKeyUtil.getFirstResourceId(key, mResourceIdGenerator);
     }
     cacheEvent.setResourceId(resourceId);
     try {
@@ -389,11 +544,10 @@ public class DiskStorageCache implements FileCache, com.facebook.common.disk.Dis
     synchronized (mLock) {
       try {
         String resourceId = null;
-        List<String> resourceIds = CacheKeyUtil.getResourceIds(key);
+        List<String> resourceIds = CacheKeyUtil.getResourceIds(key, mResourceIdGenerator);
         for (int i = 0; i < resourceIds.size(); i++) {
           resourceId = resourceIds.get(i);
-          mStorage.remove(resourceId);
-          mResourceIndex.remove(resourceId);
+          removeEntry(resourceId);
         }
       } catch (IOException e) {
         mCacheErrorLogger.logError(
@@ -422,8 +576,7 @@ public class DiskStorageCache implements FileCache, com.facebook.common.disk.Dis
           // entry age of zero is disallowed.
           long entryAgeMs = Math.max(1, Math.abs(now - entry.getTimestamp()));
           if (entryAgeMs >= cacheExpirationMs) {
-            long entryRemovedSize = mStorage.remove(entry);
-            mResourceIndex.remove(entry.getId());
+            long entryRemovedSize = removeEntry(entry.getId());
             if (entryRemovedSize > 0) {
               itemsRemovedCount++;
               itemsRemovedSize += entryRemovedSize;
@@ -444,6 +597,7 @@ public class DiskStorageCache implements FileCache, com.facebook.common.disk.Dis
         if (itemsRemovedCount > 0) {
           maybeUpdateFileCacheSize();
           mCacheStats.increment(-itemsRemovedSize, -itemsRemovedCount);
+          maybeRebuildResourceIdFilter();
         }
       } catch (IOException ioe) {
         mCacheErrorLogger.logError(
@@ -487,28 +641,30 @@ public class DiskStorageCache implements FileCache, com.facebook.common.disk.Dis
 
   @GuardedBy("mLock")
   private void evictAboveSize(long desiredSize, com.facebook.cache.common.CacheEventListener.EvictionReason reason) throws IOException {
-    Collection<DiskStorage.Entry> entries;
-    try {
-      entries = getSortedEntries(mStorage.getEntries());
-    } catch (IOException ioe) {
-      mCacheErrorLogger.logError(
-          CacheErrorLogger.CacheErrorCategory.EVICTION,
-          TAG,
-          "evictAboveSize: " + ioe.getMessage(),
-          ioe);
-      throw ioe;
+    if (!mEvictionQueueValid) {
+      try {
+        rebuildEvictionQueue(mStorage.getEntries());
+      } catch (IOException ioe) {
+        mCacheErrorLogger.logError(
+            CacheErrorLogger.CacheErrorCategory.EVICTION,
+            TAG,
+            "evictAboveSize: " + ioe.getMessage(),
+            ioe);
+        throw ioe;
+      }
     }
+    applyPendingAccesses();
 
     long cacheSizeBeforeClearance = mCacheStats.getSize();
     long deleteSize = cacheSizeBeforeClearance - desiredSize;
     int itemCount = 0;
     long sumItemSizes = 0L;
-    for (DiskStorage.Entry entry : entries) {
-      if (sumItemSizes > (deleteSize)) {
+    while (sumItemSizes <= deleteSize) {
+      DiskStorage.Entry entry = mEvictionQueue.poll();
+      if (entry == null) {
         break;
       }
-      long deletedSize = mStorage.remove(entry);
-      mResourceIndex.remove(entry.getId());
+      long deletedSize = removeEntry(entry.getId());
       if (deletedSize > 0) {
         itemCount++;
         sumItemSizes += deletedSize;
@@ -525,29 +681,89 @@ public class DiskStorageCache implements FileCache, com.facebook.common.disk.Dis
     }
     mCacheStats.increment(-sumItemSizes, -itemCount);
     mStorage.purgeUnexpectedResources();
+    if (itemCount > 0) {
+      maybeRebuildResourceIdFilter();
+    }
+  }
+
+  /**
+   *  Removes the entry from the storage and the indexes while holding its resource lock. 
+   */
+  @GuardedBy("mLock")
+  private long removeEntry(String resourceId) throws IOException {
+    synchronized (getResourceLock(resourceId)) {
+      long removedSize = mStorage.remove(resourceId);
+      mResourceIndex.remove(resourceId);
+      mEvictionQueue.remove(resourceId);
+      mPendingAccesses.remove(resourceId);
+      return removedSize;
+    }
+  }
+
+  /**
+   *  Adds the resource id to the index, and to the filter of the index if there is one. 
+   */
+  private void addToIndex(String resourceId) {
+    mResourceIndex.add(resourceId);
+    ResourceIdBloomFilter filter = mResourceIdFilter;
+    if (filter != null) {
+      filter.add(resourceId);
+    }
+  }
+
+  /**
+   * Builds the filter from the index, which must hold every resource id of the storage. Entries
+   * with a timestamp in the future are left out of the index, and so may be found missing until
+   * they are evicted, which they are first.
+   */
+  @GuardedBy("mLock")
+  private void buildResourceIdFilter() {
+    ResourceIdBloomFilter filter =
+        new ResourceIdBloomFilter(
+            Math.max(MIN_FILTER_CAPACITY, mResourceIndex.size() * 2), FILTER_FALSE_POSITIVE_RATE);
+    for (String resourceId : mResourceIndex) {
+      filter.add(resourceId);
+    }
+    mResourceIdFilter = filter;
+  }
+
+  /**
+   *  Rebuilds the filter after ids were removed from the index, if it was built already. 
+   */
+  @GuardedBy("mLock")
+  private void maybeRebuildResourceIdFilter() {
+    if (mResourceIdFilter != null) {
+      buildResourceIdFilter();
+    }
+  }
+
+  private Object getResourceLock(String resourceId) {
+    int h = resourceId.hashCode();
+    h ^= (h >>> 16);
+    return mResourceLocks[h & (RESOURCE_LOCK_STRIPES - 1)];
   }
 
   /**
    * If any file timestamp is in the future (beyond now + FUTURE_TIMESTAMP_THRESHOLD_MS), we will
-   * set its effective timestamp to 0 (the beginning of unix time), thus sending it to the head of
-   * the queue for eviction (entries with the lowest timestamps are evicted first). This is a safety
-   * check in case we get files that are written with a future timestamp. We are adding a small
-   * delta (this constant) to account for network time changes, timezone changes, etc.
+   * send it to the head of the queue for eviction. This is a safety check in case we get files that
+   * are written with a future timestamp. We are adding a small delta (this constant) to account for
+   * network time changes, timezone changes, etc.
    */
-  private Collection<DiskStorage.Entry> getSortedEntries(Collection<DiskStorage.Entry> allEntries) {
+  @GuardedBy("mLock")
+  private void rebuildEvictionQueue(Collection<DiskStorage.Entry> allEntries) {
     final long threshold = mClock.now() + DiskStorageCache.FUTURE_TIMESTAMP_THRESHOLD_MS;
-    ArrayList<DiskStorage.Entry> sortedList = new ArrayList<>(allEntries.size());
-    ArrayList<DiskStorage.Entry> listToSort = new ArrayList<>(allEntries.size());
-    for (DiskStorage.Entry entry : allEntries) {
-      if (entry.getTimestamp() > threshold) {
-        sortedList.add(entry);
-      } else {
-        listToSort.add(entry);
-      }
+    mEvictionQueue.rebuild(allEntries, mEntryEvictionComparatorSupplier.get(), threshold);
+    mEvictionQueueValid = true;
+  }
+
+  @GuardedBy("mLock")
+  private void applyPendingAccesses() {
+    Iterator<Map.Entry<String, Long>> iterator = mPendingAccesses.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<String, Long> access = iterator.next();
+      iterator.remove();
+      mEvictionQueue.touch(access.getKey(), access.getValue());
     }
-    Collections.sort(listToSort, mEntryEvictionComparatorSupplier.get());
-    sortedList.addAll(listToSort);
-    return sortedList;
   }
 
   /**
@@ -584,6 +800,9 @@ public class DiskStorageCache implements FileCache, com.facebook.common.disk.Dis
       try {
         mStorage.clearAll();
         mResourceIndex.clear();
+        mEvictionQueue.clear();
+        mPendingAccesses.clear();
+        maybeRebuildResourceIdFilter();
         mCacheEventListener.onCleared();
       } catch (IOException | NullPointerException e) {
         mCacheErrorLogger.logError(
@@ -595,39 +814,44 @@ public class DiskStorageCache implements FileCache, com.facebook.common.disk.Dis
 
   @Override
   public boolean hasKeySync(com.facebook.cache.common.CacheKey key) {
-    synchronized (mLock) {
-      String resourceId = null;
-      List<String> resourceIds = CacheKeyUtil.getResourceIds(key);
-      for (int i = 0; i < resourceIds.size(); i++) {
-        resourceId = resourceIds.get(i);
-        if (mResourceIndex.contains(resourceId)) {
-          return true;
-        }
+    String resourceId = null;
+    List<String> resourceIds = CacheKeyUtil.getResourceIds(key, mResourceIdGenerator);
+    for (int i = 0; i < resourceIds.size(); i++) {
+      resourceId = resourceIds.get(i);
+      if (mResourceIndex.contains(resourceId)) {
+        return true;
       }
-      return false;
     }
+    return false;
   }
 
   @Override
   public boolean hasKey(final com.facebook.cache.common.CacheKey key) {
-    synchronized (mLock) {
-      if (hasKeySync(key)) {
-        return true;
-      }
-      try {
-        String resourceId = null;
-        List<String> resourceIds = CacheKeyUtil.getResourceIds(key);
-        for (int i = 0; i < resourceIds.size(); i++) {
-          resourceId = resourceIds.get(i);
+    if (hasKeySync(key)) {
+      return true;
+    }
+    if (isDefiniteMissSync(key)) {
+      return false;
+    }
+    final boolean isFiltered = mResourceIdFilter != null;
+    try {
+      String resourceId = null;
+      List<String> resourceIds = CacheKeyUtil.getResourceIds(key, mResourceIdGenerator);
+      for (int i = 0; i < resourceIds.size(); i++) {
+        resourceId = resourceIds.get(i);
+        synchronized (getResourceLock(resourceId)) {
           if (mStorage.contains(resourceId, key)) {
-            mResourceIndex.add(resourceId);
+            addToIndex(resourceId);
             return true;
           }
         }
-        return false;
-      } catch (IOException e) {
-        return false;
       }
+      if (isFiltered) {
+        mFilterFalsePositiveCount.incrementAndGet();
+      }
+      return false;
+    } catch (IOException e) {
+      return false;
     }
   }
 
@@ -735,11 +959,20 @@ public class DiskStorageCache implements FileCache, com.facebook.common.disk.Dis
       if (mCacheStats.getCount() != count || mCacheStats.getSize() != size) {
         if (mIndexPopulateAtStartupEnabled && mResourceIndex != tempResourceIndex) {
           Preconditions.checkNotNull(tempResourceIndex);
-          mResourceIndex.clear();
+          // hasKeySync reads the index without the lock, so update it in place instead of
+          // clearing it first, which would report misses for every key in the meantime
+          mResourceIndex.retainAll(tempResourceIndex);
           mResourceIndex.addAll(tempResourceIndex);
+          maybeRebuildResourceIdFilter();
         }
         mCacheStats.set(size, count);
       }
+      // only rebuild the eviction queue if it drifted from the storage, it's otherwise up to date
+      if (!mEvictionQueueValid
+          || mEvictionQueue.size() != count
+          || mEvictionQueue.getTotalSize() != size) {
+        rebuildEvictionQueue(entries);
+      }
     } catch (IOException ioe) {
       mCacheErrorLogger.logError(
           CacheErrorLogger.CacheErrorCategory.GENERIC_IO,
@@ -183,10 +183,19 @@ public class DynamicDefaultDiskStorage implements DiskStorage {
   private void createStorage() throws IOException {
     File rootDirectory = new File(mBaseDirectoryPathSupplier.get(), mBaseDirectoryName);
     createRootDirectoryIfNecessary(rootDirectory);
-    DiskStorage storage = new DefaultDiskStorage(rootDirectory, mVersion, mCacheErrorLogger);
+    DiskStorage storage = createDiskStorage(rootDirectory, mVersion, mCacheErrorLogger);
     mCurrentState = new State(rootDirectory, storage);
   }
 
+  /**
+   * Creates the storage in the root directory, once it exists. Subclasses can lay out the entries
+   * differently while keeping the directory resolved lazily.
+   */
+  protected DiskStorage createDiskStorage(
+      File rootDirectory, int version, CacheErrorLogger cacheErrorLogger) {
+    return new DefaultDiskStorage(rootDirectory, version, cacheErrorLogger);
+  }
+
   @VisibleForTesting
   void createRootDirectoryIfNecessary(File rootDirectory) throws IOException {
     try {
@@ -12,5 +12,5 @@ import java.util.Comparator;
  *  Defines an order the items are being evicted from the cache. 
  */
 @Nullsafe(Nullsafe.Mode.STRICT)
-public interface EntryEvictionComparator {
+public interface EntryEvictionComparator extends Comparator<DiskStorage.Entry> {
 }
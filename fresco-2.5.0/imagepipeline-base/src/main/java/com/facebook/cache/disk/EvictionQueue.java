@@ -0,0 +1,279 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.cache.disk;
+
+import com.facebook.binaryresource.BinaryResource;
+import com.facebook.common.internal.Preconditions;
+import com.facebook.infer.annotation.Nullsafe;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Indexed binary heap of the cache entries, ordered by an {@link EntryEvictionComparator}. The
+ * entry to evict next is always at the head.
+ *
+ * <p>The heap is built in linear time from a listing of the storage, and then kept up to date as
+ * entries are inserted, accessed and removed, so that evicting k entries costs O(k log n) instead
+ * of sorting all of them.
+ *
+ * <p>Entries with a timestamp in the future when the heap is built are ordered before all others,
+ * so that files written with a wrong clock don't stay in the cache forever. Accessing such an
+ * entry moves its timestamp to the present and clears that status.
+ *
+ * <p>The comparator must give an order that doesn't change with time. This is true for both
+ * {@link DefaultEntryEvictionComparatorSupplier} and {@link ScoreBasedEvictionComparatorSupplier},
+ * as the score difference between two entries doesn't depend on the current time.
+ */
+@NotThreadSafe
+@Nullsafe(Nullsafe.Mode.STRICT)
+class EvictionQueue {
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  private final Map<String, QueueEntry> mEntries = new HashMap<>();
+  private QueueEntry[] mHeap = new QueueEntry[INITIAL_CAPACITY];
+  private int mSize;
+  private long mTotalSize;
+  private Comparator<DiskStorage.Entry> mComparator =
+      new DefaultEntryEvictionComparatorSupplier().get();
+
+  /**
+   * Replaces the content of the queue with the given entries.
+   *
+   * @param entries all the entries of the storage
+   * @param comparator the eviction order
+   * @param futureTimestampThreshold entries with a timestamp after this are evicted first
+   */
+  public void rebuild(
+      Collection<DiskStorage.Entry> entries,
+      Comparator<DiskStorage.Entry> comparator,
+      long futureTimestampThreshold) {
+    clear();
+    mComparator = comparator;
+    ensureCapacity(entries.size());
+    for (DiskStorage.Entry entry : entries) {
+      QueueEntry previous = mEntries.get(entry.getId());
+      if (previous != null) {
+        // shouldn't happen, keep the last one listed
+        removeAt(previous.mHeapIndex);
+      }
+      QueueEntry queueEntry =
+          new QueueEntry(
+              entry.getId(),
+              entry.getSize(),
+              entry.getTimestamp(),
+              entry.getTimestamp() > futureTimestampThreshold);
+      queueEntry.mStorageEntry = entry;
+      queueEntry.mHeapIndex = mSize;
+      mHeap[mSize++] = queueEntry;
+      mEntries.put(queueEntry.mId, queueEntry);
+      mTotalSize += queueEntry.mSize;
+    }
+    for (int i = (mSize >>> 1) - 1; i >= 0; i--) {
+      siftDown(i);
+    }
+  }
+
+  /** Adds an entry for the resource just written, or replaces the entry with the same id. */
+  public void put(String resourceId, BinaryResource resource, long timestamp) {
+    long size = resource.size();
+    QueueEntry entry = mEntries.get(resourceId);
+    if (entry == null) {
+      entry = new QueueEntry(resourceId, size, timestamp, false);
+      entry.mResource = resource;
+      ensureCapacity(mSize + 1);
+      entry.mHeapIndex = mSize;
+      mHeap[mSize++] = entry;
+      mEntries.put(resourceId, entry);
+      mTotalSize += size;
+      siftUp(entry.mHeapIndex);
+      return;
+    }
+    mTotalSize += size - entry.mSize;
+    entry.mSize = size;
+    entry.mResource = resource;
+    entry.mStorageEntry = null;
+    entry.mTimestamp = timestamp;
+    entry.mFutureTimestamp = false;
+    reposition(entry.mHeapIndex);
+  }
+
+  /** Records an access to the entry, if present. Older timestamps are ignored. */
+  public void touch(String resourceId, long timestamp) {
+    QueueEntry entry = mEntries.get(resourceId);
+    if (entry == null || (!entry.mFutureTimestamp && entry.mTimestamp >= timestamp)) {
+      return;
+    }
+    entry.mTimestamp = timestamp;
+    entry.mFutureTimestamp = false;
+    reposition(entry.mHeapIndex);
+  }
+
+  /**
+   * Removes the entry with the given id.
+   *
+   * @return true if it was present
+   */
+  public boolean remove(String resourceId) {
+    QueueEntry entry = mEntries.get(resourceId);
+    if (entry == null) {
+      return false;
+    }
+    removeAt(entry.mHeapIndex);
+    return true;
+  }
+
+  /** Removes and returns the entry to evict next, or null if the queue is empty. */
+  @Nullable
+  public DiskStorage.Entry poll() {
+    if (mSize == 0) {
+      return null;
+    }
+    QueueEntry head = mHeap[0];
+    removeAt(0);
+    return head;
+  }
+
+  public void clear() {
+    Arrays.fill(mHeap, 0, mSize, null);
+    mSize = 0;
+    mTotalSize = 0;
+    mEntries.clear();
+  }
+
+  public int size() {
+    return mSize;
+  }
+
+  /** Sum of the sizes of the entries in the queue, in bytes. */
+  public long getTotalSize() {
+    return mTotalSize;
+  }
+
+  private void removeAt(int index) {
+    QueueEntry removed = mHeap[index];
+    mEntries.remove(removed.mId);
+    mTotalSize -= removed.mSize;
+    int last = --mSize;
+    if (index != last) {
+      mHeap[index] = mHeap[last];
+      mHeap[index].mHeapIndex = index;
+      mHeap[last] = null;
+      reposition(index);
+    } else {
+      mHeap[last] = null;
+    }
+    removed.mHeapIndex = -1;
+  }
+
+  private void reposition(int index) {
+    if (siftUp(index) == index) {
+      siftDown(index);
+    }
+  }
+
+  private int siftUp(int index) {
+    QueueEntry entry = mHeap[index];
+    while (index > 0) {
+      int parent = (index - 1) >>> 1;
+      QueueEntry parentEntry = mHeap[parent];
+      if (compare(entry, parentEntry) >= 0) {
+        break;
+      }
+      mHeap[index] = parentEntry;
+      parentEntry.mHeapIndex = index;
+      index = parent;
+    }
+    mHeap[index] = entry;
+    entry.mHeapIndex = index;
+    return index;
+  }
+
+  private void siftDown(int index) {
+    QueueEntry entry = mHeap[index];
+    int half = mSize >>> 1;
+    while (index < half) {
+      int child = (index << 1) + 1;
+      int right = child + 1;
+      if (right < mSize && compare(mHeap[right], mHeap[child]) < 0) {
+        child = right;
+      }
+      if (compare(entry, mHeap[child]) <= 0) {
+        break;
+      }
+      mHeap[index] = mHeap[child];
+      mHeap[index].mHeapIndex = index;
+      index = child;
+    }
+    mHeap[index] = entry;
+    entry.mHeapIndex = index;
+  }
+
+  private int compare(QueueEntry lhs, QueueEntry rhs) {
+    if (lhs.mFutureTimestamp != rhs.mFutureTimestamp) {
+      return lhs.mFutureTimestamp ? -1 : 1;
+    }
+    return mComparator.compare(lhs, rhs);
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity > mHeap.length) {
+      mHeap = Arrays.copyOf(mHeap, Math.max(capacity, mHeap.length * 2));
+    }
+  }
+
+  private static class QueueEntry implements DiskStorage.Entry {
+
+    private final String mId;
+    private long mSize;
+    private long mTimestamp;
+    private boolean mFutureTimestamp;
+    private int mHeapIndex;
+
+    /** The entry listed by the storage, or null if the resource was written since. */
+    @Nullable private DiskStorage.Entry mStorageEntry;
+
+    /** The resource written, or null if the entry was listed by the storage. */
+    @Nullable private BinaryResource mResource;
+
+    private QueueEntry(String id, long size, long timestamp, boolean futureTimestamp) {
+      mId = id;
+      mSize = size;
+      mTimestamp = timestamp;
+      mFutureTimestamp = futureTimestamp;
+    }
+
+    @Override
+    public String getId() {
+      return mId;
+    }
+
+    @Override
+    public long getTimestamp() {
+      return mTimestamp;
+    }
+
+    @Override
+    public long getSize() {
+      return mSize;
+    }
+
+    @Override
+    public BinaryResource getResource() {
+      if (mResource != null) {
+        return mResource;
+      }
+      return Preconditions.checkNotNull(mStorageEntry).getResource();
+    }
+  }
+}
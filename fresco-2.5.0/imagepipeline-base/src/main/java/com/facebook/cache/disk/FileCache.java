@@ -43,6 +43,16 @@ public interface FileCache extends com.facebook.common.disk.DiskTrimmable {
    */
   boolean hasKeySync(com.facebook.cache.common.CacheKey key) ;
 
+  /**
+   * Returns true if the key is definitely not in the cache, from the in-memory key index.
+   *
+   * <p>Not guaranteed to be correct the other way around. The cache may yet not have this key
+   * even if this returns false. But if it returns true, it definitely doesn't have it.
+   *
+   * <p>Avoids a disk read.
+   */
+  boolean isDefiniteMissSync(com.facebook.cache.common.CacheKey key) ;
+
   boolean hasKey(com.facebook.cache.common.CacheKey key) ;
 
   boolean probe(com.facebook.cache.common.CacheKey key) ;
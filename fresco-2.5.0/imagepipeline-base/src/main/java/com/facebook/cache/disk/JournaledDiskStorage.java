@@ -0,0 +1,662 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.cache.disk;
+
+import androidx.annotation.VisibleForTesting;
+import com.facebook.binaryresource.BinaryResource;
+import com.facebook.cache.common.CacheErrorLogger;
+import com.facebook.cache.common.WriterCallback;
+import com.facebook.common.internal.Closeables;
+import com.facebook.common.internal.CountingOutputStream;
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.Supplier;
+import com.facebook.common.time.Clock;
+import com.facebook.common.time.SystemClock;
+import com.facebook.infer.annotation.Nullsafe;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * A {@link DiskStorage} decorator that keeps the id, size and timestamp of every entry in memory
+ * and persists them in an append-only journal.
+ *
+ * <p>{@link #getEntries()} is served from memory, so size accounting and eviction in {@link
+ * DiskStorageCache} don't need to walk and stat the whole cache directory. The journal is replayed
+ * on first use and compacted once it grows well past the number of live entries. The delegate is
+ * only walked when the journal is missing, corrupt or was written for another storage version.
+ *
+ * <p>Insert records are flushed before the delegate commits the file, and remove records right
+ * after the file is deleted. Touches are buffered. A crash can therefore only lose recent touches
+ * or leave entries in the index whose file is gone, which are dropped as soon as they are looked
+ * up or evicted.
+ */
+@Nullsafe(Nullsafe.Mode.STRICT)
+public class JournaledDiskStorage implements DiskStorage {
+
+  private static final Class<?> TAG = JournaledDiskStorage.class;
+
+  private static final int JOURNAL_MAGIC = 0x464a524e; // "FJRN"
+  private static final int JOURNAL_FORMAT_VERSION = 1;
+
+  private static final byte OP_INSERT = 1;
+  private static final byte OP_TOUCH = 2;
+  private static final byte OP_REMOVE = 3;
+
+  /** The journal is compacted once it holds this many records more than there are entries. */
+  @VisibleForTesting static final int MIN_COMPACTION_RECORDS = 1000;
+
+  /**
+   * Touches closer than this to the last recorded timestamp of the entry are only kept in memory.
+   * After a restart eviction order is accurate to this granularity.
+   */
+  @VisibleForTesting static final long TOUCH_RECORD_GRANULARITY_MS = TimeUnit.MINUTES.toMillis(1);
+
+  /** The delegate is asked to purge its directory at most this often. */
+  @VisibleForTesting static final long PURGE_INTERVAL_MS = DefaultDiskStorage.TEMP_FILE_LIFETIME_MS;
+
+  private final DiskStorage mDelegate;
+  private final Supplier<File> mJournalFileSupplier;
+  private final int mVersion;
+  private final CacheErrorLogger mCacheErrorLogger;
+  private final Clock mClock;
+
+  private final Map<String, JournalEntry> mIndex = new ConcurrentHashMap<>();
+
+  private final Object mJournalLock = new Object();
+
+  private volatile boolean mLoaded;
+
+  @GuardedBy("mJournalLock")
+  @Nullable
+  private DataOutputStream mJournalWriter;
+
+  @GuardedBy("mJournalLock")
+  private int mRecordCount;
+
+  @GuardedBy("mJournalLock")
+  private long mLastPurgeTime = -1;
+
+  /**
+   * @param delegate the storage holding the actual files
+   * @param journalFileSupplier the journal location. It must be outside of the delegate's root
+   *     directory, or the delegate will purge it as an unexpected file
+   * @param version version of the delegate. A journal written for another version is discarded
+   * @param cacheErrorLogger logger for journal errors
+   */
+  public JournaledDiskStorage(
+      DiskStorage delegate,
+      Supplier<File> journalFileSupplier,
+      int version,
+      CacheErrorLogger cacheErrorLogger) {
+    mDelegate = Preconditions.checkNotNull(delegate);
+    mJournalFileSupplier = journalFileSupplier;
+    mVersion = version;
+    mCacheErrorLogger = cacheErrorLogger;
+    mClock = SystemClock.get();
+  }
+
+  @Override
+  public boolean isEnabled() {
+    return mDelegate.isEnabled();
+  }
+
+  @Override
+  public boolean isExternal() {
+    return mDelegate.isExternal();
+  }
+
+  @Override
+  public String getStorageName() {
+    return mDelegate.getStorageName();
+  }
+
+  @Override
+  @Nullable
+  public BinaryResource getResource(String resourceId, Object debugInfo) throws IOException {
+    ensureLoaded();
+    if (!mIndex.containsKey(resourceId)) {
+      // reported as absent, like by query()
+      return null;
+    }
+    BinaryResource resource = mDelegate.getResource(resourceId, debugInfo);
+    if (resource == null) {
+      if (mIndex.remove(resourceId) != null) {
+        appendRemove(resourceId);
+      }
+      return null;
+    }
+    onAccessed(resourceId);
+    return resource;
+  }
+
+  @Override
+  public boolean contains(String resourceId, Object debugInfo) throws IOException {
+    return query(resourceId, debugInfo, false);
+  }
+
+  @Override
+  public boolean touch(String resourceId, Object debugInfo) throws IOException {
+    return query(resourceId, debugInfo, true);
+  }
+
+  /**
+   * Entries missing from the index are reported as absent even if the delegate still has the file,
+   * so that the cache writes them again and they get a journal record. {@link #getResource} does
+   * the same. The delegate is only asked whether the file exists; its timestamp is not updated
+   * since the index keeps its own.
+   */
+  private boolean query(String resourceId, Object debugInfo, boolean touch) throws IOException {
+    ensureLoaded();
+    JournalEntry entry = mIndex.get(resourceId);
+    if (entry == null) {
+      return false;
+    }
+    if (!mDelegate.contains(resourceId, debugInfo)) {
+      if (mIndex.remove(resourceId) != null) {
+        appendRemove(resourceId);
+      }
+      return false;
+    }
+    if (touch) {
+      onAccessed(resourceId);
+    }
+    return true;
+  }
+
+  private void onAccessed(String resourceId) {
+    long now = mClock.now();
+    JournalEntry entry = mIndex.get(resourceId);
+    if (entry == null) {
+      // removed concurrently
+      return;
+    }
+    boolean record = now - entry.mRecordedTimestamp >= TOUCH_RECORD_GRANULARITY_MS;
+    mIndex.put(
+        resourceId,
+        new JournalEntry(
+            resourceId, entry.mSize, now, record ? now : entry.mRecordedTimestamp));
+    if (record) {
+      appendTouch(resourceId, now);
+    }
+  }
+
+  @Override
+  public void purgeUnexpectedResources() {
+    // DiskStorageCache purges after every eviction pass. Purging walks the whole directory, which
+    // is what the journal is meant to avoid, so only let it through once in a while.
+    synchronized (mJournalLock) {
+      long now = mClock.now();
+      if (mLastPurgeTime >= 0 && now - mLastPurgeTime < PURGE_INTERVAL_MS) {
+        return;
+      }
+      mLastPurgeTime = now;
+    }
+    mDelegate.purgeUnexpectedResources();
+  }
+
+  @Override
+  public Inserter insert(String resourceId, Object debugInfo) throws IOException {
+    ensureLoaded();
+    return new JournaledInserter(resourceId, mDelegate.insert(resourceId, debugInfo));
+  }
+
+  /**
+   * Returns a snapshot of the index. The entries are immutable and their resources are resolved
+   * through the delegate on demand.
+   */
+  @Override
+  public Collection<Entry> getEntries() throws IOException {
+    ensureLoaded();
+    return Collections.<Entry>unmodifiableList(new ArrayList<Entry>(mIndex.values()));
+  }
+
+  @Override
+  public long remove(Entry entry) throws IOException {
+    return remove(entry.getId());
+  }
+
+  @Override
+  public long remove(String resourceId) throws IOException {
+    ensureLoaded();
+    long removedSize = mDelegate.remove(resourceId);
+    if (removedSize >= 0 && mIndex.remove(resourceId) != null) {
+      appendRemove(resourceId);
+    }
+    return removedSize;
+  }
+
+  @Override
+  public void clearAll() throws IOException {
+    synchronized (mJournalLock) {
+      mDelegate.clearAll();
+      mIndex.clear();
+      rewriteJournal();
+      mLoaded = true;
+    }
+  }
+
+  @Override
+  public DiskDumpInfo getDumpInfo() throws IOException {
+    return mDelegate.getDumpInfo();
+  }
+
+  @VisibleForTesting
+  int getJournalRecordCount() {
+    synchronized (mJournalLock) {
+      return mRecordCount;
+    }
+  }
+
+  private void ensureLoaded() {
+    if (mLoaded) {
+      return;
+    }
+    synchronized (mJournalLock) {
+      if (mLoaded) {
+        return;
+      }
+      mIndex.clear();
+      boolean clean = false;
+      try {
+        clean = readJournal();
+      } catch (IOException ioe) {
+        mCacheErrorLogger.logError(
+            CacheErrorLogger.CacheErrorCategory.READ_INVALID_ENTRY,
+            TAG,
+            "failed to read the journal, rebuilding it from the storage",
+            ioe);
+        mIndex.clear();
+      }
+      if (clean) {
+        // keep appending to the replayed journal
+        try {
+          openJournalWriter(mJournalFileSupplier.get());
+        } catch (IOException ioe) {
+          onJournalWriteFailed(ioe);
+        }
+      } else {
+        // a torn last record is harmless, anything else means we can't trust the journal
+        if (mRecordCount < 0) {
+          mIndex.clear();
+          populateFromDelegate();
+        }
+        rewriteJournal();
+      }
+      mLoaded = true;
+    }
+  }
+
+  /**
+   * Replays the journal into the index.
+   *
+   * @return true if the whole journal could be replayed. If false, {@link #mRecordCount} is -1 if
+   *     the journal is missing or unusable, or the number of records replayed before a torn one
+   */
+  @GuardedBy("mJournalLock")
+  private boolean readJournal() throws IOException {
+    mRecordCount = -1;
+    File journalFile = mJournalFileSupplier.get();
+    if (!journalFile.exists()) {
+      return false;
+    }
+    DataInputStream in =
+        new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)));
+    try {
+      if (in.readInt() != JOURNAL_MAGIC
+          || in.readInt() != JOURNAL_FORMAT_VERSION
+          || in.readInt() != mVersion) {
+        return false;
+      }
+      int records = 0;
+      while (true) {
+        int op = in.read();
+        if (op == -1) {
+          mRecordCount = records;
+          return true;
+        }
+        try {
+          String resourceId = in.readUTF();
+          switch (op) {
+            case OP_INSERT:
+              long size = in.readLong();
+              long timestamp = in.readLong();
+              mIndex.put(resourceId, new JournalEntry(resourceId, size, timestamp, timestamp));
+              break;
+            case OP_TOUCH:
+              long touchTime = in.readLong();
+              JournalEntry entry = mIndex.get(resourceId);
+              if (entry != null) {
+                mIndex.put(
+                    resourceId, new JournalEntry(resourceId, entry.mSize, touchTime, touchTime));
+              }
+              break;
+            case OP_REMOVE:
+              mIndex.remove(resourceId);
+              break;
+            default:
+              throw new IOException("unknown journal record " + op);
+          }
+        } catch (EOFException eof) {
+          // the process died while appending the last record, which was not acted upon yet
+          mRecordCount = records;
+          return false;
+        }
+        records++;
+      }
+    } finally {
+      Closeables.closeQuietly(in);
+    }
+  }
+
+  @GuardedBy("mJournalLock")
+  private void populateFromDelegate() {
+    try {
+      for (Entry entry : mDelegate.getEntries()) {
+        long timestamp = entry.getTimestamp();
+        mIndex.put(
+            entry.getId(), new JournalEntry(entry.getId(), entry.getSize(), timestamp, timestamp));
+      }
+    } catch (IOException ioe) {
+      mCacheErrorLogger.logError(
+          CacheErrorLogger.CacheErrorCategory.GENERIC_IO,
+          TAG,
+          "failed to list the storage entries",
+          ioe);
+    }
+  }
+
+  /** Writes a journal holding one insert record per entry and atomically replaces the old one. */
+  @GuardedBy("mJournalLock")
+  private void rewriteJournal() {
+    closeJournalWriter();
+    File journalFile = mJournalFileSupplier.get();
+    File tempFile = new File(journalFile.getPath() + ".tmp");
+    DataOutputStream out = null;
+    try {
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+      out.writeInt(JOURNAL_MAGIC);
+      out.writeInt(JOURNAL_FORMAT_VERSION);
+      out.writeInt(mVersion);
+      for (JournalEntry entry : mIndex.values()) {
+        writeInsert(out, entry);
+      }
+      out.close();
+      out = null;
+      if (!tempFile.renameTo(journalFile)) {
+        throw new IOException("failed to rename " + tempFile + " to " + journalFile);
+      }
+      mRecordCount = mIndex.size();
+      openJournalWriter(journalFile);
+    } catch (IOException ioe) {
+      closeQuietly(out);
+      tempFile.delete();
+      onJournalWriteFailed(ioe);
+    }
+  }
+
+  @GuardedBy("mJournalLock")
+  private void openJournalWriter(File journalFile) throws IOException {
+    mJournalWriter =
+        new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(journalFile, /* append */ true)));
+  }
+
+  private void appendInsert(JournalEntry entry, boolean flush) {
+    synchronized (mJournalLock) {
+      DataOutputStream writer = mJournalWriter;
+      if (writer == null) {
+        return;
+      }
+      try {
+        writeInsert(writer, entry);
+        if (flush) {
+          writer.flush();
+        }
+        onRecordAppended();
+      } catch (IOException ioe) {
+        onJournalWriteFailed(ioe);
+      }
+    }
+  }
+
+  private void appendTouch(String resourceId, long timestamp) {
+    synchronized (mJournalLock) {
+      DataOutputStream writer = mJournalWriter;
+      if (writer == null) {
+        return;
+      }
+      try {
+        writer.writeByte(OP_TOUCH);
+        writer.writeUTF(resourceId);
+        writer.writeLong(timestamp);
+        onRecordAppended();
+      } catch (IOException ioe) {
+        onJournalWriteFailed(ioe);
+      }
+    }
+  }
+
+  private void appendRemove(String resourceId) {
+    synchronized (mJournalLock) {
+      DataOutputStream writer = mJournalWriter;
+      if (writer == null) {
+        return;
+      }
+      try {
+        writer.writeByte(OP_REMOVE);
+        writer.writeUTF(resourceId);
+        writer.flush();
+        onRecordAppended();
+      } catch (IOException ioe) {
+        onJournalWriteFailed(ioe);
+      }
+    }
+  }
+
+  private static void writeInsert(DataOutputStream out, JournalEntry entry) throws IOException {
+    out.writeByte(OP_INSERT);
+    out.writeUTF(entry.mId);
+    out.writeLong(entry.mSize);
+    out.writeLong(entry.mTimestamp);
+  }
+
+  @GuardedBy("mJournalLock")
+  private void onRecordAppended() {
+    mRecordCount++;
+    if (mRecordCount - mIndex.size() > Math.max(MIN_COMPACTION_RECORDS, mIndex.size())) {
+      rewriteJournal();
+    }
+  }
+
+  /**
+   * The index is still right for this process, but the journal can't be trusted anymore. Delete
+   * it so that the next process rebuilds the index from the delegate.
+   */
+  @GuardedBy("mJournalLock")
+  private void onJournalWriteFailed(IOException ioe) {
+    mCacheErrorLogger.logError(
+        CacheErrorLogger.CacheErrorCategory.GENERIC_IO,
+        TAG,
+        "failed to write the journal, disabling it",
+        ioe);
+    closeJournalWriter();
+    mJournalFileSupplier.get().delete();
+  }
+
+  @GuardedBy("mJournalLock")
+  private void closeJournalWriter() {
+    DataOutputStream writer = mJournalWriter;
+    mJournalWriter = null;
+    closeQuietly(writer);
+  }
+
+  private static void closeQuietly(@Nullable OutputStream out) {
+    try {
+      Closeables.close(out, true);
+    } catch (IOException ioe) {
+      // can't happen, the exception is swallowed
+    }
+  }
+
+  @VisibleForTesting
+  class JournalEntry implements Entry {
+
+    private final String mId;
+    private final long mSize;
+    private final long mTimestamp;
+    /** The timestamp of this entry as of the last journal record. */
+    private final long mRecordedTimestamp;
+
+    private JournalEntry(String id, long size, long timestamp, long recordedTimestamp) {
+      mId = id;
+      mSize = size;
+      mTimestamp = timestamp;
+      mRecordedTimestamp = recordedTimestamp;
+    }
+
+    @Override
+    public String getId() {
+      return mId;
+    }
+
+    @Override
+    public long getTimestamp() {
+      return mTimestamp;
+    }
+
+    @Override
+    public long getSize() {
+      return mSize;
+    }
+
+    /**
+     * @return the resource of the delegate. If its file is gone, the entry is dropped and the
+     *     resource fails to be read, like the resource of a deleted file.
+     */
+    @Override
+    public BinaryResource getResource() {
+      try {
+        BinaryResource resource = mDelegate.getResource(mId, mId);
+        if (resource != null) {
+          return resource;
+        }
+        if (mIndex.remove(mId, this)) {
+          appendRemove(mId);
+        }
+      } catch (IOException ioe) {
+        // reported when the resource is read
+      }
+      return new MissingResource(mId);
+    }
+  }
+
+  /** The resource of an entry whose file is gone. */
+  private static class MissingResource implements BinaryResource {
+
+    private final String mId;
+
+    private MissingResource(String id) {
+      mId = id;
+    }
+
+    @Override
+    public InputStream openStream() throws IOException {
+      throw new FileNotFoundException("no file for " + mId);
+    }
+
+    @Override
+    public byte[] read() throws IOException {
+      throw new FileNotFoundException("no file for " + mId);
+    }
+
+    @Override
+    public long size() {
+      return 0;
+    }
+  }
+
+  private class JournaledInserter implements Inserter {
+
+    private final String mResourceId;
+    private final Inserter mDelegateInserter;
+    private long mSize = -1;
+
+    private JournaledInserter(String resourceId, Inserter delegateInserter) {
+      mResourceId = resourceId;
+      mDelegateInserter = delegateInserter;
+    }
+
+    @Override
+    public void writeData(final WriterCallback callback, Object debugInfo) throws IOException {
+      mDelegateInserter.writeData(
+          new WriterCallback() {
+            @Override
+            public void write(OutputStream os) throws IOException {
+              CountingOutputStream countingStream = new CountingOutputStream(os);
+              callback.write(countingStream);
+              countingStream.flush();
+              mSize = countingStream.getCount();
+            }
+          },
+          debugInfo);
+    }
+
+    @Override
+    public BinaryResource commit(Object debugInfo) throws IOException {
+      return commit(debugInfo, mClock.now());
+    }
+
+    @Override
+    public BinaryResource commit(Object debugInfo, long time) throws IOException {
+      if (mSize < 0) {
+        BinaryResource resource = mDelegateInserter.commit(debugInfo, time);
+        recordInsert(resource.size(), time);
+        return resource;
+      }
+      // record the insert before the file shows up, so that a crash can't leave it untracked
+      recordInsert(mSize, time);
+      try {
+        return mDelegateInserter.commit(debugInfo, time);
+      } catch (IOException ioe) {
+        if (mIndex.remove(mResourceId) != null) {
+          appendRemove(mResourceId);
+        }
+        throw ioe;
+      }
+    }
+
+    private void recordInsert(long size, long time) {
+      JournalEntry entry = new JournalEntry(mResourceId, size, time, time);
+      mIndex.put(mResourceId, entry);
+      appendInsert(entry, true);
+    }
+
+    @Override
+    public boolean cleanUp() {
+      return mDelegateInserter.cleanUp();
+    }
+  }
+}
@@ -0,0 +1,887 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.cache.disk;
+
+import androidx.annotation.VisibleForTesting;
+import com.facebook.binaryresource.BinaryResource;
+import com.facebook.binaryresource.FileChannelBinaryResource;
+import com.facebook.cache.common.CacheErrorLogger;
+import com.facebook.cache.common.WriterCallback;
+import com.facebook.common.file.FileTree;
+import com.facebook.common.file.FileUtils;
+import com.facebook.common.internal.CountingOutputStream;
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.logging.FLog;
+import com.facebook.common.time.Clock;
+import com.facebook.common.time.SystemClock;
+import com.facebook.common.util.ByteConstants;
+import com.facebook.infer.annotation.Nullsafe;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * A {@link DiskStorage} that packs the entries into a few large append-only segment files instead
+ * of writing one file per entry.
+ *
+ * <p>This avoids wasting a filesystem block per small image and an open and close per read. An
+ * in-memory index maps every resource id to its record; it is rebuilt at startup by reading the
+ * record headers of the segments. Reads are positional reads on the segment's {@link FileChannel},
+ * so they don't block each other nor the writer.
+ *
+ * <p>Each record is laid out as a header followed by the data:
+ *
+ * <pre>
+ *   int magic | byte flags | long timestamp | int data length | short id length | id | data
+ * </pre>
+ *
+ * Removing an entry clears its live flag in place. Segments that are mostly dead are compacted
+ * when the cache purges unexpected resources, which {@link DiskStorageCache} does after every
+ * eviction pass: their live records are copied to the current segment and the file is deleted.
+ * The channel of a compacted segment stays open until the reads in progress are done with it.
+ */
+@Nullsafe(Nullsafe.Mode.STRICT)
+public class PackedDiskStorage implements DiskStorage {
+
+  private static final Class<?> TAG = PackedDiskStorage.class;
+
+  public static final int DEFAULT_MAX_SEGMENT_SIZE = 4 * ByteConstants.MB;
+
+  private static final String STORAGE_VERSION_PREFIX = "p1";
+  private static final String SEGMENT_FILE_PREFIX = "segment-";
+  private static final String SEGMENT_FILE_EXTENSION = ".pack";
+  private static final String TEMP_DIRECTORY_NAME = "tmp";
+  private static final String TEMP_FILE_PREFIX = "insert";
+  private static final String TEMP_FILE_EXTENSION = ".tmp";
+
+  private static final Charset ID_CHARSET = Charset.forName("UTF-8");
+
+  private static final int RECORD_MAGIC = 0x46504b52; // "FPKR"
+  private static final byte FLAG_REMOVED = 0;
+  private static final byte FLAG_LIVE = 1;
+  private static final int FLAGS_OFFSET = 4;
+  private static final int TIMESTAMP_OFFSET = 5;
+  private static final int FIXED_HEADER_SIZE = 19;
+
+  /** Segments with less than this fraction of live bytes are compacted. */
+  @VisibleForTesting static final float COMPACTION_LIVE_RATIO = 0.5f;
+
+  /** Accesses closer than this to the stored timestamp of the entry are only kept in memory. */
+  @VisibleForTesting static final long TIMESTAMP_WRITE_GRANULARITY_MS = TimeUnit.MINUTES.toMillis(1);
+
+  private static final int COPY_BUFFER_SIZE = 64 * ByteConstants.KB;
+
+  private final File mRootDirectory;
+  private final File mVersionDirectory;
+  private final File mTempDirectory;
+  private final int mMaxSegmentSize;
+  private final boolean mIsExternal;
+  private final CacheErrorLogger mCacheErrorLogger;
+  private final Clock mClock;
+
+  private final Map<String, RecordEntry> mIndex = new ConcurrentHashMap<>();
+
+  private final Object mLock = new Object();
+
+  private volatile boolean mLoaded;
+
+  @GuardedBy("mLock")
+  private final TreeMap<Integer, Segment> mSegments = new TreeMap<>();
+
+  @GuardedBy("mLock")
+  @Nullable
+  private Segment mActiveSegment;
+
+  public PackedDiskStorage(File rootDirectory, int version, CacheErrorLogger cacheErrorLogger) {
+    this(rootDirectory, version, DEFAULT_MAX_SEGMENT_SIZE, cacheErrorLogger);
+  }
+
+  /**
+   * @param rootDirectory root directory to create the segments under
+   * @param version version of the format used in the entries. Entries written with another version
+   *     are deleted
+   * @param maxSegmentSize size in bytes after which a new segment is started
+   * @param cacheErrorLogger logger for various events
+   */
+  public PackedDiskStorage(
+      File rootDirectory, int version, int maxSegmentSize, CacheErrorLogger cacheErrorLogger) {
+    Preconditions.checkNotNull(rootDirectory);
+    Preconditions.checkArgument(maxSegmentSize > 0);
+    mRootDirectory = rootDirectory;
+    mVersionDirectory =
+        new File(
+            mRootDirectory,
+            String.format((Locale) null, "%s.%d", STORAGE_VERSION_PREFIX, version));
+    mTempDirectory = new File(mVersionDirectory, TEMP_DIRECTORY_NAME);
+    mMaxSegmentSize = maxSegmentSize;
+    mIsExternal = DefaultDiskStorage.isExternal(rootDirectory, cacheErrorLogger);
+    mCacheErrorLogger = cacheErrorLogger;
+    mClock = SystemClock.get();
+  }
+
+  @Override
+  public boolean isEnabled() {
+    return true;
+  }
+
+  @Override
+  public boolean isExternal() {
+    return mIsExternal;
+  }
+
+  @Override
+  public String getStorageName() {
+    String directoryName = mRootDirectory.getAbsolutePath();
+    return "_"
+        + directoryName.substring(directoryName.lastIndexOf('/') + 1)
+        + "_"
+        + directoryName.hashCode();
+  }
+
+  @Override
+  @Nullable
+  public BinaryResource getResource(String resourceId, Object debugInfo) throws IOException {
+    ensureLoaded();
+    RecordEntry entry = mIndex.get(resourceId);
+    if (entry == null) {
+      return null;
+    }
+    onAccessed(entry);
+    return entry.getResource();
+  }
+
+  @Override
+  public boolean contains(String resourceId, Object debugInfo) throws IOException {
+    ensureLoaded();
+    return mIndex.containsKey(resourceId);
+  }
+
+  @Override
+  public boolean touch(String resourceId, Object debugInfo) throws IOException {
+    ensureLoaded();
+    RecordEntry entry = mIndex.get(resourceId);
+    if (entry == null) {
+      return false;
+    }
+    onAccessed(entry);
+    return true;
+  }
+
+  private void onAccessed(RecordEntry entry) {
+    long now = mClock.now();
+    boolean write = now - entry.mStoredTimestamp >= TIMESTAMP_WRITE_GRANULARITY_MS;
+    RecordEntry touched = entry.withTimestamp(now, write ? now : entry.mStoredTimestamp);
+    if (!mIndex.replace(entry.mId, entry, touched)) {
+      // removed, replaced or touched concurrently
+      return;
+    }
+    if (write) {
+      synchronized (mLock) {
+        // compaction may have moved the record and retired its segment since it was looked up
+        RecordEntry current = mIndex.get(entry.mId);
+        if (current == null) {
+          return;
+        }
+        try {
+          ByteBuffer timestamp = ByteBuffer.allocate(8);
+          timestamp.putLong(0, now);
+          writeFully(
+              current.mSegment.mChannel, timestamp, current.mRecordOffset + TIMESTAMP_OFFSET);
+        } catch (IOException ioe) {
+          // the index is right, only the order after a restart is affected
+          FLog.w(TAG, ioe, "failed to update the timestamp of %s", entry.mId);
+        }
+      }
+    }
+  }
+
+  @Override
+  public void purgeUnexpectedResources() {
+    try {
+      ensureLoaded();
+    } catch (IOException ioe) {
+      FLog.e(TAG, "purgeUnexpectedResources", ioe);
+      return;
+    }
+    synchronized (mLock) {
+      purgeUnexpectedFiles();
+      try {
+        compactSegments();
+      } catch (IOException ioe) {
+        mCacheErrorLogger.logError(
+            CacheErrorLogger.CacheErrorCategory.EVICTION, TAG, "compactSegments", ioe);
+      }
+    }
+  }
+
+  @GuardedBy("mLock")
+  private void purgeUnexpectedFiles() {
+    File[] rootFiles = mRootDirectory.listFiles();
+    if (rootFiles != null) {
+      for (File file : rootFiles) {
+        if (!file.equals(mVersionDirectory)) {
+          FileTree.deleteRecursively(file);
+        }
+      }
+    }
+    File[] tempFiles = mTempDirectory.listFiles();
+    if (tempFiles != null) {
+      long threshold = mClock.now() - DefaultDiskStorage.TEMP_FILE_LIFETIME_MS;
+      for (File file : tempFiles) {
+        if (file.lastModified() < threshold) {
+          file.delete();
+        }
+      }
+    }
+  }
+
+  @Override
+  public Inserter insert(String resourceId, Object debugInfo) throws IOException {
+    ensureLoaded();
+    if (!mTempDirectory.exists()) {
+      mkdirs(mTempDirectory, "insert");
+    }
+    File tempFile;
+    try {
+      tempFile = File.createTempFile(TEMP_FILE_PREFIX, TEMP_FILE_EXTENSION, mTempDirectory);
+    } catch (IOException ioe) {
+      mCacheErrorLogger.logError(
+          CacheErrorLogger.CacheErrorCategory.WRITE_CREATE_TEMPFILE, TAG, "insert", ioe);
+      throw ioe;
+    }
+    return new InserterImpl(resourceId, tempFile);
+  }
+
+  @Override
+  public Collection<Entry> getEntries() throws IOException {
+    ensureLoaded();
+    return Collections.<Entry>unmodifiableList(new ArrayList<Entry>(mIndex.values()));
+  }
+
+  @Override
+  public long remove(Entry entry) throws IOException {
+    return remove(entry.getId());
+  }
+
+  @Override
+  public long remove(String resourceId) throws IOException {
+    ensureLoaded();
+    synchronized (mLock) {
+      RecordEntry entry = mIndex.remove(resourceId);
+      if (entry == null) {
+        return 0;
+      }
+      markRemoved(entry);
+      return entry.mSize;
+    }
+  }
+
+  @Override
+  public void clearAll() throws IOException {
+    synchronized (mLock) {
+      for (Segment segment : mSegments.values()) {
+        segment.retire();
+      }
+      mSegments.clear();
+      mActiveSegment = null;
+      mIndex.clear();
+      FileTree.deleteContents(mRootDirectory);
+      mLoaded = false;
+    }
+  }
+
+  @Override
+  public DiskDumpInfo getDumpInfo() throws IOException {
+    DiskDumpInfo dumpInfo = new DiskDumpInfo();
+    for (Entry entry : getEntries()) {
+      RecordEntry recordEntry = (RecordEntry) entry;
+      byte[] bytes = recordEntry.getResource().read();
+      String type = DefaultDiskStorage.typeOfBytes(bytes);
+      String firstBits = "";
+      if (type.equals("undefined") && bytes.length >= 4) {
+        firstBits =
+            String.format(
+                (Locale) null,
+                "0x%02X 0x%02X 0x%02X 0x%02X",
+                bytes[0],
+                bytes[1],
+                bytes[2],
+                bytes[3]);
+      }
+      String path = recordEntry.mSegment.mFile.getPath() + "@" + recordEntry.mRecordOffset;
+      dumpInfo.entries.add(
+          new DiskDumpInfoEntry(recordEntry.mId, path, type, recordEntry.mSize, firstBits));
+      Integer typeCount = dumpInfo.typeCounts.get(type);
+      dumpInfo.typeCounts.put(type, typeCount == null ? 1 : typeCount + 1);
+    }
+    return dumpInfo;
+  }
+
+  @VisibleForTesting
+  int getSegmentCount() {
+    synchronized (mLock) {
+      return mSegments.size();
+    }
+  }
+
+  private void ensureLoaded() throws IOException {
+    if (mLoaded) {
+      return;
+    }
+    synchronized (mLock) {
+      if (mLoaded) {
+        return;
+      }
+      if (mRootDirectory.exists() && !mVersionDirectory.exists()) {
+        // written by another version, nothing to reuse
+        FileTree.deleteRecursively(mRootDirectory);
+      }
+      mkdirs(mVersionDirectory, "ensureLoaded");
+      mkdirs(mTempDirectory, "ensureLoaded");
+      File[] files = mVersionDirectory.listFiles();
+      if (files != null) {
+        for (File file : files) {
+          int segmentId = getSegmentId(file);
+          if (segmentId >= 0) {
+            mSegments.put(segmentId, new Segment(segmentId, file));
+          }
+        }
+      }
+      // segments are scanned in write order, so that the last record of an id wins
+      for (Segment segment : mSegments.values()) {
+        scanSegment(segment);
+      }
+      mActiveSegment = mSegments.isEmpty() ? null : mSegments.lastEntry().getValue();
+      mLoaded = true;
+    }
+  }
+
+  @GuardedBy("mLock")
+  private void scanSegment(Segment segment) throws IOException {
+    long fileLength = segment.mChannel.size();
+    long offset = 0;
+    ByteBuffer header = ByteBuffer.allocate(FIXED_HEADER_SIZE);
+    while (offset + FIXED_HEADER_SIZE <= fileLength) {
+      header.clear();
+      readFully(segment.mChannel, header, offset);
+      int magic = header.getInt(0);
+      byte flags = header.get(FLAGS_OFFSET);
+      long timestamp = header.getLong(TIMESTAMP_OFFSET);
+      int dataLength = header.getInt(TIMESTAMP_OFFSET + 8);
+      int idLength = header.getShort(TIMESTAMP_OFFSET + 12) & 0xFFFF;
+      long dataOffset = offset + FIXED_HEADER_SIZE + idLength;
+      if (magic != RECORD_MAGIC || dataLength < 0 || dataOffset + dataLength > fileLength) {
+        break;
+      }
+      int recordSize = FIXED_HEADER_SIZE + idLength + dataLength;
+      if (flags == FLAG_LIVE) {
+        ByteBuffer id = ByteBuffer.allocate(idLength);
+        readFully(segment.mChannel, id, offset + FIXED_HEADER_SIZE);
+        String resourceId = new String(id.array(), ID_CHARSET);
+        RecordEntry entry =
+            new RecordEntry(
+                resourceId, segment, offset, recordSize, dataLength, timestamp, timestamp);
+        RecordEntry previous = mIndex.put(resourceId, entry);
+        if (previous != null) {
+          // the process died before the replaced record was marked as removed
+          markRemoved(previous);
+        }
+        segment.mLiveBytes += recordSize;
+      }
+      offset += recordSize;
+    }
+    if (offset < fileLength) {
+      FLog.w(TAG, "truncating %s at %d, the end of the file is not a valid record", segment, offset);
+      segment.mChannel.truncate(offset);
+    }
+    segment.mLength = offset;
+  }
+
+  /** Appends the data of the temp file as a new record and makes it the live entry for the id. */
+  private RecordEntry append(String resourceId, File dataFile, long timestamp) throws IOException {
+    byte[] id = resourceId.getBytes(ID_CHARSET);
+    Preconditions.checkArgument(id.length <= 0xFFFF, "resource id too long");
+    long dataLength = dataFile.length();
+    if (dataLength > Integer.MAX_VALUE - FIXED_HEADER_SIZE - id.length) {
+      throw new IOException("entry too large for a segment: " + dataLength);
+    }
+    int recordSize = FIXED_HEADER_SIZE + id.length + (int) dataLength;
+    FileInputStream dataStream = new FileInputStream(dataFile);
+    try {
+      synchronized (mLock) {
+        Segment segment = getSegmentForAppend(recordSize);
+        long offset = segment.mLength;
+        ByteBuffer header = ByteBuffer.allocate(FIXED_HEADER_SIZE + id.length);
+        header.putInt(RECORD_MAGIC);
+        header.put(FLAG_LIVE);
+        header.putLong(timestamp);
+        header.putInt((int) dataLength);
+        header.putShort((short) id.length);
+        header.put(id);
+        header.flip();
+        writeFully(segment.mChannel, header, offset);
+        transferFully(dataStream.getChannel(), 0, segment.mChannel, header.limit() + offset, dataLength);
+        segment.mLength += recordSize;
+        segment.mLiveBytes += recordSize;
+        RecordEntry entry =
+            new RecordEntry(
+                resourceId, segment, offset, recordSize, (int) dataLength, timestamp, timestamp);
+        RecordEntry previous = mIndex.put(resourceId, entry);
+        if (previous != null) {
+          markRemoved(previous);
+        }
+        return entry;
+      }
+    } finally {
+      dataStream.close();
+    }
+  }
+
+  /** @return the segment the next record is appended to unless it is full, if there is one */
+  @GuardedBy("mLock")
+  @Nullable
+  private Segment getAppendSegment() {
+    Segment active = mActiveSegment;
+    if (active == null && !mSegments.isEmpty()) {
+      active = mSegments.lastEntry().getValue();
+    }
+    return active;
+  }
+
+  @GuardedBy("mLock")
+  private Segment getSegmentForAppend(int recordSize) throws IOException {
+    Segment active = getAppendSegment();
+    if (active == null || (active.mLength > 0 && active.mLength + recordSize > mMaxSegmentSize)) {
+      int segmentId = mSegments.isEmpty() ? 0 : mSegments.lastKey() + 1;
+      if (!mVersionDirectory.exists()) {
+        mkdirs(mVersionDirectory, "getSegmentForAppend");
+      }
+      active =
+          new Segment(
+              segmentId,
+              new File(mVersionDirectory, SEGMENT_FILE_PREFIX + segmentId + SEGMENT_FILE_EXTENSION));
+      mSegments.put(segmentId, active);
+    }
+    mActiveSegment = active;
+    return active;
+  }
+
+  @GuardedBy("mLock")
+  private void markRemoved(RecordEntry entry) throws IOException {
+    entry.mSegment.mLiveBytes -= entry.mRecordSize;
+    ByteBuffer flag = ByteBuffer.allocate(1);
+    flag.put(0, FLAG_REMOVED);
+    writeFully(entry.mSegment.mChannel, flag, entry.mRecordOffset + FLAGS_OFFSET);
+  }
+
+  /**
+   * Moves the live records of sparse segments to the active segment and deletes them.
+   *
+   * <p>The segment appended to is never compacted: the records moved out of a sparse segment must
+   * not land in another one that is about to be deleted. Segments started while moving are new,
+   * so they can't be sparse either.
+   */
+  @GuardedBy("mLock")
+  private void compactSegments() throws IOException {
+    Segment appendSegment = getAppendSegment();
+    List<Segment> sparseSegments = new ArrayList<>();
+    for (Segment segment : mSegments.values()) {
+      if (segment != appendSegment
+          && segment.mLiveBytes < segment.mLength * COMPACTION_LIVE_RATIO) {
+        sparseSegments.add(segment);
+      }
+    }
+    if (sparseSegments.isEmpty()) {
+      return;
+    }
+    Map<Segment, List<RecordEntry>> liveRecords = new HashMap<>();
+    for (Segment segment : sparseSegments) {
+      liveRecords.put(segment, new ArrayList<RecordEntry>());
+    }
+    for (RecordEntry entry : mIndex.values()) {
+      List<RecordEntry> records = liveRecords.get(entry.mSegment);
+      if (records != null) {
+        records.add(entry);
+      }
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+    for (Segment segment : sparseSegments) {
+      for (RecordEntry entry : liveRecords.get(segment)) {
+        moveRecord(entry, buffer);
+      }
+      mSegments.remove(segment.mId);
+      if (!segment.mFile.delete()) {
+        FLog.w(TAG, "failed to delete compacted segment %s", segment);
+      }
+      segment.retire();
+    }
+  }
+
+  @GuardedBy("mLock")
+  private void moveRecord(RecordEntry entry, ByteBuffer buffer) throws IOException {
+    Segment target = getSegmentForAppend(entry.mRecordSize);
+    Preconditions.checkState(target != entry.mSegment, "moving a record into its own segment");
+    long targetOffset = target.mLength;
+    long copied = 0;
+    while (copied < entry.mRecordSize) {
+      buffer.clear();
+      buffer.limit((int) Math.min(buffer.capacity(), entry.mRecordSize - copied));
+      readFully(entry.mSegment.mChannel, buffer, entry.mRecordOffset + copied);
+      buffer.flip();
+      writeFully(target.mChannel, buffer, targetOffset + copied);
+      copied += buffer.limit();
+    }
+    target.mLength += entry.mRecordSize;
+    target.mLiveBytes += entry.mRecordSize;
+    // accesses don't take the lock, carry over the latest timestamp
+    RecordEntry current = entry;
+    while (true) {
+      RecordEntry moved = current.movedTo(target, targetOffset);
+      if (mIndex.replace(current.mId, current, moved)) {
+        break;
+      }
+      RecordEntry latest = mIndex.get(current.mId);
+      if (latest == null || latest.mSegment != entry.mSegment) {
+        // removed meanwhile, can't happen as removals hold the lock
+        break;
+      }
+      current = latest;
+    }
+    entry.mSegment.mLiveBytes -= entry.mRecordSize;
+  }
+
+  private void mkdirs(File directory, String message) throws IOException {
+    try {
+      FileUtils.mkdirs(directory);
+    } catch (FileUtils.CreateDirectoryException cde) {
+      mCacheErrorLogger.logError(
+          CacheErrorLogger.CacheErrorCategory.WRITE_CREATE_DIR, TAG, message, cde);
+      throw cde;
+    }
+  }
+
+  private static int getSegmentId(File file) {
+    String name = file.getName();
+    if (!file.isFile()
+        || !name.startsWith(SEGMENT_FILE_PREFIX)
+        || !name.endsWith(SEGMENT_FILE_EXTENSION)) {
+      return -1;
+    }
+    try {
+      return Integer.parseInt(
+          name.substring(
+              SEGMENT_FILE_PREFIX.length(), name.length() - SEGMENT_FILE_EXTENSION.length()));
+    } catch (NumberFormatException nfe) {
+      return -1;
+    }
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, position);
+      if (read < 0) {
+        throw new IOException("unexpected end of segment at " + position);
+      }
+      position += read;
+    }
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buffer, long position)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      position += channel.write(buffer, position);
+    }
+  }
+
+  private static void transferFully(
+      FileChannel source, long sourcePosition, FileChannel target, long position, long count)
+      throws IOException {
+    source.position(sourcePosition);
+    long transferred = 0;
+    while (transferred < count) {
+      long result = target.transferFrom(source, position + transferred, count - transferred);
+      if (result <= 0) {
+        throw new IOException("unexpected end of data after " + transferred + " bytes");
+      }
+      transferred += result;
+    }
+  }
+
+  private static class Segment {
+
+    private final int mId;
+    private final File mFile;
+    private final RandomAccessFile mRandomAccessFile;
+    private final FileChannel mChannel;
+
+    /** Bytes of valid records in the file, new records are appended here. */
+    @GuardedBy("PackedDiskStorage.this.mLock")
+    private long mLength;
+
+    /** Bytes of the records that are still live. */
+    @GuardedBy("PackedDiskStorage.this.mLock")
+    private long mLiveBytes;
+
+    /** Reads in progress, a retired segment is closed once they are all done. */
+    @GuardedBy("this")
+    private int mOpenReads;
+
+    @GuardedBy("this")
+    private boolean mRetired;
+
+    private Segment(int id, File file) throws FileNotFoundException {
+      mId = id;
+      mFile = file;
+      mRandomAccessFile = new RandomAccessFile(file, "rw");
+      mChannel = mRandomAccessFile.getChannel();
+    }
+
+    /** @return false if the segment is retired, its records have to be read from their new one */
+    private synchronized boolean acquireRead() {
+      if (mRetired) {
+        return false;
+      }
+      mOpenReads++;
+      return true;
+    }
+
+    private synchronized void releaseRead() {
+      mOpenReads--;
+      if (mRetired && mOpenReads == 0) {
+        close();
+      }
+    }
+
+    /** Stops new reads of the segment, and closes it once the pending ones are done. */
+    private synchronized void retire() {
+      mRetired = true;
+      if (mOpenReads == 0) {
+        close();
+      }
+    }
+
+    private void close() {
+      try {
+        mRandomAccessFile.close();
+      } catch (IOException ioe) {
+        FLog.w(TAG, ioe, "failed to close %s", this);
+      }
+    }
+
+    @Override
+    public String toString() {
+      return mFile.getName();
+    }
+  }
+
+  /** Immutable location of a live record. A new instance replaces it when it changes. */
+  @VisibleForTesting
+  class RecordEntry implements Entry {
+
+    private final String mId;
+    private final Segment mSegment;
+    private final long mRecordOffset;
+    private final int mRecordSize;
+    private final int mSize;
+    private final long mTimestamp;
+    /** The timestamp written in the record header. */
+    private final long mStoredTimestamp;
+
+    private RecordEntry(
+        String id,
+        Segment segment,
+        long recordOffset,
+        int recordSize,
+        int size,
+        long timestamp,
+        long storedTimestamp) {
+      mId = id;
+      mSegment = segment;
+      mRecordOffset = recordOffset;
+      mRecordSize = recordSize;
+      mSize = size;
+      mTimestamp = timestamp;
+      mStoredTimestamp = storedTimestamp;
+    }
+
+    private RecordEntry withTimestamp(long timestamp, long storedTimestamp) {
+      return new RecordEntry(
+          mId, mSegment, mRecordOffset, mRecordSize, mSize, timestamp, storedTimestamp);
+    }
+
+    private RecordEntry movedTo(Segment segment, long recordOffset) {
+      return new RecordEntry(
+          mId, segment, recordOffset, mRecordSize, mSize, mTimestamp, mStoredTimestamp);
+    }
+
+    @Override
+    public String getId() {
+      return mId;
+    }
+
+    @Override
+    public long getTimestamp() {
+      return mTimestamp;
+    }
+
+    @Override
+    public long getSize() {
+      return mSize;
+    }
+
+    @Override
+    public FileChannelBinaryResource getResource() {
+      return new SegmentResource(this);
+    }
+  }
+
+  /**
+   * Reads a record while holding a read of its segment, so that compaction doesn't close the
+   * segment under it. A record read after its segment was compacted is read from its new location.
+   */
+  private class SegmentResource extends FileChannelBinaryResource {
+
+    private final RecordEntry mEntry;
+
+    private SegmentResource(RecordEntry entry) {
+      super(
+          entry.mSegment.mChannel,
+          entry.mRecordOffset + entry.mRecordSize - entry.mSize,
+          entry.mSize);
+      mEntry = entry;
+    }
+
+    @Override
+    public InputStream openStream() throws IOException {
+      final Segment segment = mEntry.mSegment;
+      if (!segment.acquireRead()) {
+        return getMovedResource().openStream();
+      }
+      return new FilterInputStream(super.openStream()) {
+        private boolean mClosed;
+
+        @Override
+        public void close() throws IOException {
+          if (!mClosed) {
+            mClosed = true;
+            segment.releaseRead();
+          }
+          super.close();
+        }
+      };
+    }
+
+    @Override
+    public byte[] read() throws IOException {
+      final Segment segment = mEntry.mSegment;
+      if (!segment.acquireRead()) {
+        return getMovedResource().read();
+      }
+      try {
+        return super.read();
+      } finally {
+        segment.releaseRead();
+      }
+    }
+
+    private BinaryResource getMovedResource() throws IOException {
+      RecordEntry current = mIndex.get(mEntry.mId);
+      if (current == null || current.mSegment == mEntry.mSegment) {
+        throw new FileNotFoundException("resource removed from the storage: " + mEntry.mId);
+      }
+      return current.getResource();
+    }
+  }
+
+  private class InserterImpl implements Inserter {
+
+    private final String mResourceId;
+    private final File mTemporaryFile;
+
+    private InserterImpl(String resourceId, File temporaryFile) {
+      mResourceId = resourceId;
+      mTemporaryFile = temporaryFile;
+    }
+
+    @Override
+    public void writeData(WriterCallback callback, Object debugInfo) throws IOException {
+      FileOutputStream fileStream;
+      try {
+        fileStream = new FileOutputStream(mTemporaryFile);
+      } catch (FileNotFoundException fne) {
+        mCacheErrorLogger.logError(
+            CacheErrorLogger.CacheErrorCategory.WRITE_UPDATE_FILE_NOT_FOUND,
+            TAG,
+            "updateResource",
+            fne);
+        throw fne;
+      }
+      long length;
+      try {
+        CountingOutputStream countingStream = new CountingOutputStream(fileStream);
+        callback.write(countingStream);
+        countingStream.flush();
+        length = countingStream.getCount();
+      } finally {
+        fileStream.close();
+      }
+      if (mTemporaryFile.length() != length) {
+        throw new IOException(
+            "File was not written completely. Expected: "
+                + length
+                + ", found: "
+                + mTemporaryFile.length());
+      }
+    }
+
+    @Override
+    public BinaryResource commit(Object debugInfo) throws IOException {
+      return commit(debugInfo, mClock.now());
+    }
+
+    @Override
+    public BinaryResource commit(Object debugInfo, long time) throws IOException {
+      RecordEntry entry;
+      try {
+        entry = append(mResourceId, mTemporaryFile, time);
+      } catch (IOException ioe) {
+        mCacheErrorLogger.logError(
+            CacheErrorLogger.CacheErrorCategory.WRITE_RENAME_FILE_OTHER, TAG, "commit", ioe);
+        throw ioe;
+      }
+      mTemporaryFile.delete();
+      return entry.getResource();
+    }
+
+    @Override
+    public boolean cleanUp() {
+      return !mTemporaryFile.exists() || mTemporaryFile.delete();
+    }
+  }
+}
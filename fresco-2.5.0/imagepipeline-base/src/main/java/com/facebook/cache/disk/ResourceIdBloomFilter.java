@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.cache.disk;
+
+import com.facebook.infer.annotation.Nullsafe;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Bloom filter of resource ids, telling the ids that were definitely never added.
+ *
+ * <p>The filter is sized for an expected number of ids and a false positive rate. Ids can be added
+ * and looked up concurrently without locking, but never removed: the filter has to be rebuilt
+ * once enough of its ids are gone, or once more ids than expected were added, as its false
+ * positive rate then grows past the one it was sized for.
+ */
+@ThreadSafe
+@Nullsafe(Nullsafe.Mode.STRICT)
+class ResourceIdBloomFilter {
+
+  private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  private final AtomicLongArray mBits;
+  private final long mBitCount;
+  private final int mHashCount;
+  private final int mExpectedIdCount;
+  private final AtomicInteger mIdCount = new AtomicInteger();
+
+  /**
+   * @param expectedIdCount the number of ids the filter is sized for
+   * @param falsePositiveRate the rate of lookups of absent ids that the filter can't tell absent,
+   *     once it holds the expected number of ids
+   */
+  ResourceIdBloomFilter(int expectedIdCount, double falsePositiveRate) {
+    mExpectedIdCount = Math.max(1, expectedIdCount);
+    final double ln2 = Math.log(2);
+    final long bitCount =
+        (long) Math.ceil(-mExpectedIdCount * Math.log(falsePositiveRate) / (ln2 * ln2));
+    mBits = new AtomicLongArray((int) Math.max(1, (bitCount + 63) / 64));
+    mBitCount = mBits.length() * 64L;
+    mHashCount = (int) Math.max(1, Math.round((double) mBitCount / mExpectedIdCount * ln2));
+  }
+
+  void add(String resourceId) {
+    final long hash = hash(resourceId);
+    final int hash1 = (int) hash;
+    final int hash2 = (int) (hash >>> 32);
+    for (int i = 0; i < mHashCount; i++) {
+      final long bit = bitIndex(hash1, hash2, i);
+      final int word = (int) (bit >>> 6);
+      final long mask = 1L << bit;
+      long value;
+      do {
+        value = mBits.get(word);
+      } while ((value & mask) == 0 && !mBits.compareAndSet(word, value, value | mask));
+    }
+    mIdCount.incrementAndGet();
+  }
+
+  /** @return false if the id was definitely never added, true if it may have been */
+  boolean mightContain(String resourceId) {
+    final long hash = hash(resourceId);
+    final int hash1 = (int) hash;
+    final int hash2 = (int) (hash >>> 32);
+    for (int i = 0; i < mHashCount; i++) {
+      final long bit = bitIndex(hash1, hash2, i);
+      if ((mBits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** @return true if more ids than the filter was sized for were added */
+  boolean isSaturated() {
+    return mIdCount.get() > mExpectedIdCount;
+  }
+
+  int getExpectedIdCount() {
+    return mExpectedIdCount;
+  }
+
+  long getBitCount() {
+    return mBitCount;
+  }
+
+  int getHashCount() {
+    return mHashCount;
+  }
+
+  // derives the k indexes from two hashes, which is as good as k independent hashes
+  private long bitIndex(int hash1, int hash2, int i) {
+    final long combined = (hash1 + (long) i * hash2) & Long.MAX_VALUE;
+    return combined % mBitCount;
+  }
+
+  // FNV-1a, then the finalizer of MurmurHash3 so that both halves are well mixed
+  private static long hash(String resourceId) {
+    long hash = FNV_OFFSET_BASIS;
+    for (int i = 0; i < resourceId.length(); i++) {
+      hash ^= resourceId.charAt(i);
+      hash *= FNV_PRIME;
+    }
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+}
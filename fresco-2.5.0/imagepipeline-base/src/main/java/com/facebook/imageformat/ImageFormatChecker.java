@@ -64,6 +64,13 @@ public class ImageFormatChecker {
     return ImageFormat.UNKNOWN;
   }
 
+  /**
+   *  Number of bytes read from the start of the image to determine its format 
+   */
+  public int getMaxHeaderLength() {
+    return mMaxHeaderLength;
+  }
+
   private void updateMaxHeaderLength() {
     mMaxHeaderLength = mDefaultFormatChecker.getHeaderSize();
     if (mCustomImageFormatCheckers != null) {
@@ -8,6 +8,8 @@ package com.facebook.imagepipeline.animated.factory;
 
 import com.facebook.cache.common.CacheKey;
 import com.facebook.common.executors.SerialExecutorService;
+import com.facebook.common.internal.Supplier;
+import com.facebook.common.memory.MemoryTrimmableRegistry;
 import com.facebook.imagepipeline.bitmaps.PlatformBitmapFactory;
 import com.facebook.imagepipeline.cache.CountingMemoryCache;
 import com.facebook.imagepipeline.core.ExecutorSupplier;
@@ -26,6 +28,31 @@ public class AnimatedFactoryProvider {
   @Nullable
   public static AnimatedFactory getAnimatedFactory(com.facebook.imagepipeline.bitmaps.PlatformBitmapFactory platformBitmapFactory, com.facebook.imagepipeline.core.ExecutorSupplier executorSupplier, com.facebook.imagepipeline.cache.CountingMemoryCache<CacheKey, CloseableImage> backingCache, boolean downscaleFrameToDrawableDimensions, @Nullable ExecutorService serialExecutorService)
   {
+    return getAnimatedFactory(
+        platformBitmapFactory,
+        executorSupplier,
+        backingCache,
+        downscaleFrameToDrawableDimensions,
+        serialExecutorService,
+        null,
+        null);
+  }
+
+  /**
+   * @param cachingStrategySupplier supplies how the animation frames are cached, or null for the
+   *     default of the factory
+   * @param memoryTrimmableRegistry the registry the frame bitmaps shared between the animations are
+   *     trimmed by. Without it, the animations don't share frame bitmaps.
+   */
+  @Nullable
+  public static AnimatedFactory getAnimatedFactory(
+      PlatformBitmapFactory platformBitmapFactory,
+      ExecutorSupplier executorSupplier,
+      CountingMemoryCache<CacheKey, CloseableImage> backingCache,
+      boolean downscaleFrameToDrawableDimensions,
+      @Nullable ExecutorService serialExecutorService,
+      @Nullable Supplier<Integer> cachingStrategySupplier,
+      @Nullable MemoryTrimmableRegistry memoryTrimmableRegistry) {
     if (!sImplLoaded) {
       try {
         final Class<?> clazz =
@@ -36,7 +63,9 @@ public class AnimatedFactoryProvider {
                 ExecutorSupplier.class,
                 CountingMemoryCache.class,
                 Boolean.TYPE,
-                SerialExecutorService.class);
+                SerialExecutorService.class,
+                Supplier.class,
+                MemoryTrimmableRegistry.class);
         sImpl =
             (AnimatedFactory)
                 constructor.newInstance(
@@ -44,7 +73,9 @@ public class AnimatedFactoryProvider {
                     executorSupplier,
                     backingCache,
                     downscaleFrameToDrawableDimensions,
-                    serialExecutorService);
+                    serialExecutorService,
+                    cachingStrategySupplier,
+                    memoryTrimmableRegistry);
       } catch (Throwable e) {
         // Head in the sand
       }
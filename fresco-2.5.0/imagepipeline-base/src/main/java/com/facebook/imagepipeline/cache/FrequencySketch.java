@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import com.facebook.infer.annotation.Nullsafe;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Count-min sketch estimating how often keys were accessed recently, in a few bits per key.
+ *
+ * <p>Each key maps to one 4-bit counter in each of 4 rows, and its frequency is the smallest of
+ * them, so that collisions only ever overestimate it. Counters saturate at 15: the sketch only
+ * needs to tell popular keys from rare ones.
+ *
+ * <p>Once there were ten times as many increments as the sketch is sized for, all the counters
+ * are halved. This ages the frequencies, so that keys that were popular a long time ago don't
+ * stay ahead of the ones popular now.
+ */
+@NotThreadSafe
+@Nullsafe(Nullsafe.Mode.STRICT)
+class FrequencySketch {
+
+  // in a smaller table, the keys of a scan collide enough to look as frequent as popular ones
+  private static final int MIN_CAPACITY = 64;
+  private static final int SAMPLE_SIZE_MULTIPLIER = 10;
+  private static final int MAX_FREQUENCY = 15;
+
+  private static final long[] SEEDS =
+      new long[] {
+        0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+      };
+  // clears the bit each counter gets from its neighbor when the counters are halved
+  private static final long RESET_MASK = 0x7777777777777777L;
+  private static final long ONE_MASK = 0x1111111111111111L;
+
+  // 16 counters per word, each row of a key using a different 4-bit slot
+  private long[] mTable;
+  private int mTableMask;
+  private int mSampleSize;
+  private int mIncrementCount;
+
+  FrequencySketch(int capacity) {
+    mTable = new long[0];
+    ensureCapacity(capacity);
+  }
+
+  /**
+   * Resizes the sketch for the given number of keys, if it is larger than the one it is sized for.
+   * The frequencies are lost when the sketch is resized.
+   */
+  void ensureCapacity(int capacity) {
+    int tableSize = MIN_CAPACITY;
+    while (tableSize < capacity && tableSize < (1 << 30)) {
+      tableSize <<= 1;
+    }
+    if (tableSize <= mTable.length) {
+      return;
+    }
+    mTable = new long[tableSize];
+    mTableMask = tableSize - 1;
+    mSampleSize = SAMPLE_SIZE_MULTIPLIER * tableSize;
+    mIncrementCount = 0;
+  }
+
+  /** Records an access to the key. */
+  void increment(Object key) {
+    final int hash = spread(key.hashCode());
+    final int start = (hash & 3) << 2;
+    boolean added = false;
+    for (int i = 0; i < 4; i++) {
+      added |= incrementAt(indexOf(hash, i), start + i);
+    }
+    if (added && ++mIncrementCount >= mSampleSize) {
+      reset();
+    }
+  }
+
+  /** @return the estimated number of recent accesses to the key, at most 15 */
+  int frequency(Object key) {
+    final int hash = spread(key.hashCode());
+    final int start = (hash & 3) << 2;
+    int frequency = MAX_FREQUENCY;
+    for (int i = 0; i < 4; i++) {
+      final long word = mTable[indexOf(hash, i)];
+      frequency = Math.min(frequency, (int) ((word >>> ((start + i) << 2)) & 0xfL));
+    }
+    return frequency;
+  }
+
+  int getSampleSize() {
+    return mSampleSize;
+  }
+
+  private boolean incrementAt(int index, int counter) {
+    final int offset = counter << 2;
+    final long mask = 0xfL << offset;
+    if ((mTable[index] & mask) != mask) {
+      mTable[index] += 1L << offset;
+      return true;
+    }
+    return false;
+  }
+
+  /** Halves all the counters. */
+  private void reset() {
+    int oddCount = 0;
+    for (int i = 0; i < mTable.length; i++) {
+      oddCount += Long.bitCount(mTable[i] & ONE_MASK);
+      mTable[i] = (mTable[i] >>> 1) & RESET_MASK;
+    }
+    // the halved counters lose their odd increments too
+    mIncrementCount = (mIncrementCount - (oddCount >>> 2)) >>> 1;
+  }
+
+  private int indexOf(int hash, int row) {
+    long h = (hash + SEEDS[row]) * SEEDS[row];
+    h += h >>> 32;
+    return ((int) h) & mTableMask;
+  }
+
+  private static int spread(int x) {
+    x = ((x >>> 16) ^ x) * 0x45d9f3b;
+    x = ((x >>> 16) ^ x) * 0x45d9f3b;
+    return (x >>> 16) ^ x;
+  }
+}
@@ -0,0 +1,744 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+import androidx.annotation.VisibleForTesting;
+import com.facebook.cache.common.HasDebugData;
+import com.facebook.common.internal.Objects;
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.Predicate;
+import com.facebook.common.internal.Supplier;
+import com.facebook.common.memory.MemoryTrimType;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.common.references.ResourceReleaser;
+import com.facebook.infer.annotation.Nullsafe;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Lock-striped variant of {@link LruCountingMemoryCache}.
+ *
+ * <p>The keys are distributed over a fixed number of segments, each of which keeps its own LRU
+ * ordered maps of cached and exclusively owned entries and is guarded by its own lock. Threads
+ * accessing keys in different segments therefore never contend with each other.
+ *
+ * <p>Size and count are accounted globally, so the {@link MemoryCacheParams} constraints and the
+ * trim ratio apply to the cache as a whole and not per segment. When the constraints are exceeded,
+ * the least recently used exclusively owned entries are evicted from the segments in a round-robin
+ * fashion. The eviction order is thus LRU within a segment and only approximately LRU across
+ * segments.
+ *
+ * <p>Only the exclusively owned elements, i.e. the elements not referenced by any client, can be
+ * evicted.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+@ThreadSafe
+@Nullsafe(Nullsafe.Mode.STRICT)
+public class SegmentedCountingMemoryCache<K, V> implements CountingMemoryCache<K, V>, HasDebugData {
+
+  public static final int DEFAULT_SEGMENT_COUNT = 8;
+
+  private static final int MAX_SEGMENT_COUNT = 1 << 8;
+
+  @Nullable private final EntryStateObserver<K> mEntryStateObserver;
+
+  @VisibleForTesting final Segment<K, V>[] mSegments;
+
+  private final int mSegmentMask;
+
+  @VisibleForTesting
+  final Map<Bitmap, Object> mOtherEntries =
+      Collections.synchronizedMap(new WeakHashMap<Bitmap, Object>());
+
+  private final ValueDescriptor<V> mValueDescriptor;
+
+  private final CacheTrimStrategy mCacheTrimStrategy;
+
+  /** Global accounting, updated by the segments while holding their own lock. */
+  private final AtomicInteger mCachedCount = new AtomicInteger();
+
+  private final AtomicInteger mCachedSizeInBytes = new AtomicInteger();
+  private final AtomicInteger mExclusiveCount = new AtomicInteger();
+  private final AtomicInteger mExclusiveSizeInBytes = new AtomicInteger();
+
+  /** Index of the segment the next eviction pass starts from. */
+  private final AtomicInteger mEvictionCursor = new AtomicInteger();
+
+  /** Cache size constraints. */
+  private final Supplier<MemoryCacheParams> mMemoryCacheParamsSupplier;
+
+  private final Object mCacheParamsLock = new Object();
+
+  protected volatile MemoryCacheParams mMemoryCacheParams;
+
+  // written under mCacheParamsLock, read without it to skip the lock until the interval expires
+  private volatile long mLastCacheParamsCheck;
+
+  public SegmentedCountingMemoryCache(
+      ValueDescriptor<V> valueDescriptor,
+      CacheTrimStrategy cacheTrimStrategy,
+      Supplier<MemoryCacheParams> memoryCacheParamsSupplier,
+      @Nullable EntryStateObserver<K> entryStateObserver) {
+    this(
+        valueDescriptor,
+        cacheTrimStrategy,
+        memoryCacheParamsSupplier,
+        entryStateObserver,
+        DEFAULT_SEGMENT_COUNT);
+  }
+
+  @SuppressWarnings("unchecked")
+  public SegmentedCountingMemoryCache(
+      ValueDescriptor<V> valueDescriptor,
+      CacheTrimStrategy cacheTrimStrategy,
+      Supplier<MemoryCacheParams> memoryCacheParamsSupplier,
+      @Nullable EntryStateObserver<K> entryStateObserver,
+      int segmentCount) {
+    Preconditions.checkArgument(segmentCount > 0, "segmentCount must be positive");
+    mValueDescriptor = valueDescriptor;
+    mCacheTrimStrategy = cacheTrimStrategy;
+    mMemoryCacheParamsSupplier = memoryCacheParamsSupplier;
+    mMemoryCacheParams =
+        Preconditions.checkNotNull(
+            mMemoryCacheParamsSupplier.get(), "mMemoryCacheParamsSupplier returned null");
+    mLastCacheParamsCheck = SystemClock.uptimeMillis();
+    mEntryStateObserver = entryStateObserver;
+
+    int actualSegmentCount = 1;
+    while (actualSegmentCount < segmentCount && actualSegmentCount < MAX_SEGMENT_COUNT) {
+      actualSegmentCount <<= 1;
+    }
+    mSegmentMask = actualSegmentCount - 1;
+    mSegments = (Segment<K, V>[]) new Segment[actualSegmentCount];
+    ValueDescriptor<Entry<K, V>> entryValueDescriptor = wrapValueDescriptor(valueDescriptor);
+    for (int i = 0; i < actualSegmentCount; i++) {
+      mSegments[i] = new Segment<>(entryValueDescriptor);
+    }
+  }
+
+  private ValueDescriptor<Entry<K, V>> wrapValueDescriptor(
+      final ValueDescriptor<V> evictableValueDescriptor) {
+    return new ValueDescriptor<Entry<K, V>>() {
+      @Override
+      public int getSizeInBytes(Entry<K, V> entry) {
+        return evictableValueDescriptor.getSizeInBytes(entry.valueRef.get());
+      }
+    };
+  }
+
+  /** Gets the number of segments the keys are distributed over. */
+  public int getSegmentCount() {
+    return mSegments.length;
+  }
+
+  private Segment<K, V> segmentFor(K key) {
+    int h = key.hashCode();
+    // spread the higher bits, as the segment is selected by the lower ones only
+    h ^= (h >>> 16);
+    return mSegments[h & mSegmentMask];
+  }
+
+  /**
+   * Caches the given key-value pair.
+   *
+   * <p>Important: the client should use the returned reference instead of the original one. It is
+   * the caller's responsibility to close the returned reference once not needed anymore.
+   *
+   * @return the new reference to be used, null if the value cannot be cached
+   */
+  @Override
+  @Nullable
+  public CloseableReference<V> cache(final K key, final CloseableReference<V> valueRef) {
+    return cache(key, valueRef, mEntryStateObserver);
+  }
+
+  /**
+   * Caches the given key-value pair.
+   *
+   * <p>Important: the client should use the returned reference instead of the original one. It is
+   * the caller's responsibility to close the returned reference once not needed anymore.
+   *
+   * @return the new reference to be used, null if the value cannot be cached
+   */
+  @Override
+  @Nullable
+  public CloseableReference<V> cache(
+      final K key,
+      final CloseableReference<V> valueRef,
+      @Nullable final EntryStateObserver<K> observer) {
+    Preconditions.checkNotNull(key);
+    Preconditions.checkNotNull(valueRef);
+
+    maybeUpdateCacheParams();
+
+    final Segment<K, V> segment = segmentFor(key);
+    Entry<K, V> oldExclusive;
+    CloseableReference<V> oldRefToClose = null;
+    CloseableReference<V> clientRef = null;
+    synchronized (segment) {
+      // remove the old item (if any) as it is stale now
+      oldExclusive = removeExclusive(segment, key);
+      Entry<K, V> oldEntry = removeCached(segment, key);
+      if (oldEntry != null) {
+        makeOrphan(oldEntry);
+        oldRefToClose = referenceToClose(oldEntry);
+      }
+
+      if (canCacheNewValue(valueRef.get())) {
+        Entry<K, V> newEntry = Entry.of(key, valueRef, observer);
+        putCached(segment, key, newEntry);
+        clientRef = newClientReference(segment, newEntry);
+      }
+    }
+    CloseableReference.closeSafely(oldRefToClose);
+    maybeNotifyExclusiveEntryRemoval(oldExclusive);
+
+    maybeEvictEntries();
+    return clientRef;
+  }
+
+  /**
+   * Checks the cache constraints to determine whether the new value can be cached or not.
+   *
+   * <p>The check is done against the global counters without holding the other segments' locks,
+   * so concurrent insertions into different segments may transiently overshoot the limits by the
+   * size of the values being inserted at the same time.
+   */
+  private boolean canCacheNewValue(V value) {
+    MemoryCacheParams params = mMemoryCacheParams;
+    int newValueSize = mValueDescriptor.getSizeInBytes(value);
+    return (newValueSize <= params.maxCacheEntrySize)
+        && (getInUseCount() <= params.maxCacheEntries - 1)
+        && (getInUseSizeInBytes() <= params.maxCacheSize - newValueSize);
+  }
+
+  /**
+   * Gets the item with the given key, or null if there is no such item.
+   *
+   * <p>It is the caller's responsibility to close the returned reference once not needed anymore.
+   */
+  @Override
+  @Nullable
+  public CloseableReference<V> get(final K key) {
+    Preconditions.checkNotNull(key);
+    final Segment<K, V> segment = segmentFor(key);
+    Entry<K, V> oldExclusive;
+    CloseableReference<V> clientRef = null;
+    synchronized (segment) {
+      oldExclusive = removeExclusive(segment, key);
+      Entry<K, V> entry = segment.mCachedEntries.get(key);
+      if (entry != null) {
+        clientRef = newClientReference(segment, entry);
+      }
+    }
+    maybeNotifyExclusiveEntryRemoval(oldExclusive);
+    maybeUpdateCacheParams();
+    maybeEvictEntries();
+    return clientRef;
+  }
+
+  /**
+   * Probes whether the object corresponding to the key is in the cache. Note that the act of
+   * probing touches the item (if present in cache), thus changing its LRU timestamp.
+   */
+  @Override
+  public void probe(final K key) {
+    Preconditions.checkNotNull(key);
+    final Segment<K, V> segment = segmentFor(key);
+    synchronized (segment) {
+      Entry<K, V> oldExclusive = segment.mExclusiveEntries.remove(key);
+      if (oldExclusive != null) {
+        segment.mExclusiveEntries.put(key, oldExclusive);
+      }
+    }
+  }
+
+  /** Creates a new reference for the client. Must be called while holding the segment lock. */
+  private CloseableReference<V> newClientReference(
+      final Segment<K, V> segment, final Entry<K, V> entry) {
+    increaseClientCount(entry);
+    return CloseableReference.of(
+        entry.valueRef.get(),
+        new ResourceReleaser<V>() {
+          @Override
+          public void release(V unused) {
+            releaseClientReference(segment, entry);
+          }
+        });
+  }
+
+  /** Called when the client closes its reference. */
+  private void releaseClientReference(final Segment<K, V> segment, final Entry<K, V> entry) {
+    Preconditions.checkNotNull(entry);
+    boolean isExclusiveAdded;
+    CloseableReference<V> oldRefToClose;
+    synchronized (segment) {
+      decreaseClientCount(entry);
+      isExclusiveAdded = maybeAddToExclusives(segment, entry);
+      oldRefToClose = referenceToClose(entry);
+    }
+    CloseableReference.closeSafely(oldRefToClose);
+    maybeNotifyExclusiveEntryInsertion(isExclusiveAdded ? entry : null);
+    maybeUpdateCacheParams();
+    maybeEvictEntries();
+  }
+
+  /** Adds the entry to the exclusively owned queue if it is viable for eviction. */
+  private boolean maybeAddToExclusives(Segment<K, V> segment, Entry<K, V> entry) {
+    if (!entry.isOrphan && entry.clientCount == 0) {
+      putExclusive(segment, entry.key, entry);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Gets the value with the given key to be reused, or null if there is no such value.
+   *
+   * <p>The item can be reused only if it is exclusively owned by the cache.
+   */
+  @Override
+  @Nullable
+  public CloseableReference<V> reuse(K key) {
+    Preconditions.checkNotNull(key);
+    final Segment<K, V> segment = segmentFor(key);
+    CloseableReference<V> clientRef = null;
+    Entry<K, V> oldExclusive;
+    synchronized (segment) {
+      oldExclusive = removeExclusive(segment, key);
+      if (oldExclusive != null) {
+        Entry<K, V> entry = removeCached(segment, key);
+        Preconditions.checkNotNull(entry);
+        Preconditions.checkState(entry.clientCount == 0);
+        // optimization: instead of cloning and then closing the original reference,
+        // we just do a move
+        clientRef = entry.valueRef;
+      }
+    }
+    maybeNotifyExclusiveEntryRemoval(oldExclusive);
+    return clientRef;
+  }
+
+  /**
+   * Removes all the items from the cache whose key matches the specified predicate.
+   *
+   * @param predicate returns true if an item with the given key should be removed
+   * @return number of the items removed from the cache
+   */
+  @Override
+  public int removeAll(Predicate<K> predicate) {
+    ArrayList<Entry<K, V>> oldExclusives = new ArrayList<>();
+    ArrayList<Entry<K, V>> oldEntries = new ArrayList<>();
+    for (Segment<K, V> segment : mSegments) {
+      synchronized (segment) {
+        ArrayList<Entry<K, V>> segmentExclusives = segment.mExclusiveEntries.removeAll(predicate);
+        ArrayList<Entry<K, V>> segmentEntries = segment.mCachedEntries.removeAll(predicate);
+        onExclusivesRemoved(segmentExclusives);
+        onCachedRemoved(segmentEntries);
+        makeOrphans(segmentEntries);
+        oldExclusives.addAll(segmentExclusives);
+        oldEntries.addAll(segmentEntries);
+      }
+    }
+    maybeClose(oldEntries);
+    maybeNotifyExclusiveEntryRemoval(oldExclusives);
+    maybeUpdateCacheParams();
+    maybeEvictEntries();
+    return oldEntries.size();
+  }
+
+  /** Removes all the items from the cache. */
+  @Override
+  public void clear() {
+    ArrayList<Entry<K, V>> oldExclusives = new ArrayList<>();
+    ArrayList<Entry<K, V>> oldEntries = new ArrayList<>();
+    for (Segment<K, V> segment : mSegments) {
+      synchronized (segment) {
+        ArrayList<Entry<K, V>> segmentExclusives = segment.mExclusiveEntries.clear();
+        ArrayList<Entry<K, V>> segmentEntries = segment.mCachedEntries.clear();
+        onExclusivesRemoved(segmentExclusives);
+        onCachedRemoved(segmentEntries);
+        makeOrphans(segmentEntries);
+        oldExclusives.addAll(segmentExclusives);
+        oldEntries.addAll(segmentEntries);
+      }
+    }
+    maybeClose(oldEntries);
+    maybeNotifyExclusiveEntryRemoval(oldExclusives);
+    maybeUpdateCacheParams();
+  }
+
+  /**
+   * Check if any items from the cache whose key matches the specified predicate.
+   *
+   * @param predicate returns true if an item with the given key matches
+   * @return true is any items matches from the cache
+   */
+  @Override
+  public boolean contains(Predicate<K> predicate) {
+    for (Segment<K, V> segment : mSegments) {
+      if (!segment.mCachedEntries.getMatchingEntries(predicate).isEmpty()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Check if an item with the given cache key is currently in the cache.
+   *
+   * @param key returns true if an item with the given key matches
+   * @return true is any items matches from the cache
+   */
+  @Override
+  public boolean contains(K key) {
+    return segmentFor(key).mCachedEntries.contains(key);
+  }
+
+  /** Trims the cache according to the specified trimming strategy and the given trim type. */
+  @Override
+  public void trim(MemoryTrimType trimType) {
+    final double trimRatio = mCacheTrimStrategy.getTrimRatio(trimType);
+    int targetCacheSize = (int) (mCachedSizeInBytes.get() * (1 - trimRatio));
+    int targetEvictionQueueSize = Math.max(0, targetCacheSize - getInUseSizeInBytes());
+    ArrayList<Entry<K, V>> oldEntries =
+        trimExclusivelyOwnedEntries(Integer.MAX_VALUE, targetEvictionQueueSize);
+    maybeClose(oldEntries);
+    maybeNotifyExclusiveEntryRemoval(oldEntries);
+    maybeUpdateCacheParams();
+    maybeEvictEntries();
+  }
+
+  /** Updates the cache params (constraints) if enough time has passed since the last update. */
+  private void maybeUpdateCacheParams() {
+    if (!isCacheParamsCheckDue()) {
+      return;
+    }
+    synchronized (mCacheParamsLock) {
+      // another thread may have updated the params while this one waited for the lock
+      if (!isCacheParamsCheckDue()) {
+        return;
+      }
+      mLastCacheParamsCheck = SystemClock.uptimeMillis();
+      mMemoryCacheParams =
+          Preconditions.checkNotNull(
+              mMemoryCacheParamsSupplier.get(), "mMemoryCacheParamsSupplier returned null");
+    }
+  }
+
+  private boolean isCacheParamsCheckDue() {
+    return mLastCacheParamsCheck + mMemoryCacheParams.paramsCheckIntervalMs
+        <= SystemClock.uptimeMillis();
+  }
+
+  @Override
+  public MemoryCacheParams getMemoryCacheParams() {
+    return mMemoryCacheParams;
+  }
+
+  /**
+   * Returns a snapshot of all the cached entries.
+   *
+   * <p>Unlike {@link LruCountingMemoryCache#getCachedEntries()}, the returned map is a copy merged
+   * from all the segments and is not updated by subsequent cache operations.
+   */
+  @Override
+  public CountingLruMap<K, Entry<K, V>> getCachedEntries() {
+    CountingLruMap<K, Entry<K, V>> snapshot =
+        new CountingLruMap<>(wrapValueDescriptor(mValueDescriptor));
+    for (Segment<K, V> segment : mSegments) {
+      synchronized (segment) {
+        for (Map.Entry<K, Entry<K, V>> entry :
+            segment.mCachedEntries.getMatchingEntries(null)) {
+          snapshot.put(entry.getKey(), entry.getValue());
+        }
+      }
+    }
+    return snapshot;
+  }
+
+  @Override
+  public Map<Bitmap, Object> getOtherEntries() {
+    return mOtherEntries;
+  }
+
+  /**
+   * Removes the exclusively owned items until the cache constraints are met.
+   *
+   * <p>This method invokes the external {@link CloseableReference#close} method, so it must not be
+   * called while holding any of the segment locks.
+   */
+  @Override
+  public void maybeEvictEntries() {
+    MemoryCacheParams params = mMemoryCacheParams;
+    int maxCount =
+        Math.min(params.maxEvictionQueueEntries, params.maxCacheEntries - getInUseCount());
+    int maxSize =
+        Math.min(params.maxEvictionQueueSize, params.maxCacheSize - getInUseSizeInBytes());
+    ArrayList<Entry<K, V>> oldEntries = trimExclusivelyOwnedEntries(maxCount, maxSize);
+    maybeClose(oldEntries);
+    maybeNotifyExclusiveEntryRemoval(oldEntries);
+  }
+
+  /**
+   * Removes the exclusively owned items until there is at most <code>count</code> of them and they
+   * occupy no more than <code>size</code> bytes.
+   *
+   * <p>The segments are visited in a round-robin fashion and the least recently used exclusive
+   * entry of each visited segment is removed. Only one segment lock is held at a time.
+   *
+   * <p>This method returns the removed items instead of actually closing them.
+   */
+  @Nullable
+  private ArrayList<Entry<K, V>> trimExclusivelyOwnedEntries(int count, int size) {
+    count = Math.max(count, 0);
+    size = Math.max(size, 0);
+    // fast path without array allocation if no eviction is necessary
+    if (mExclusiveCount.get() <= count && mExclusiveSizeInBytes.get() <= size) {
+      return null;
+    }
+    ArrayList<Entry<K, V>> oldEntries = new ArrayList<>();
+    int emptySegmentsInARow = 0;
+    while ((mExclusiveCount.get() > count || mExclusiveSizeInBytes.get() > size)
+        && emptySegmentsInARow < mSegments.length) {
+      Segment<K, V> segment = mSegments[mEvictionCursor.getAndIncrement() & mSegmentMask];
+      Entry<K, V> evicted = null;
+      synchronized (segment) {
+        @Nullable K key = segment.mExclusiveEntries.getFirstKey();
+        if (key != null) {
+          removeExclusive(segment, key);
+          evicted = removeCached(segment, key);
+          if (evicted != null) {
+            makeOrphan(evicted);
+          }
+        }
+      }
+      if (evicted == null) {
+        emptySegmentsInARow++;
+      } else {
+        emptySegmentsInARow = 0;
+        oldEntries.add(evicted);
+      }
+    }
+    return oldEntries;
+  }
+
+  /**
+   * Notifies the client that the cache no longer tracks the given items.
+   *
+   * <p>This method invokes the external {@link CloseableReference#close} method, so it must not be
+   * called while holding any of the segment locks.
+   */
+  private void maybeClose(@Nullable ArrayList<Entry<K, V>> oldEntries) {
+    if (oldEntries != null) {
+      for (Entry<K, V> oldEntry : oldEntries) {
+        CloseableReference<V> refToClose;
+        synchronized (segmentFor(oldEntry.key)) {
+          refToClose = referenceToClose(oldEntry);
+        }
+        CloseableReference.closeSafely(refToClose);
+      }
+    }
+  }
+
+  private void maybeNotifyExclusiveEntryRemoval(@Nullable ArrayList<Entry<K, V>> entries) {
+    if (entries != null) {
+      for (Entry<K, V> entry : entries) {
+        maybeNotifyExclusiveEntryRemoval(entry);
+      }
+    }
+  }
+
+  private static <K, V> void maybeNotifyExclusiveEntryRemoval(@Nullable Entry<K, V> entry) {
+    if (entry != null && entry.observer != null) {
+      entry.observer.onExclusivityChanged(entry.key, false);
+    }
+  }
+
+  private static <K, V> void maybeNotifyExclusiveEntryInsertion(@Nullable Entry<K, V> entry) {
+    if (entry != null && entry.observer != null) {
+      entry.observer.onExclusivityChanged(entry.key, true);
+    }
+  }
+
+  /*
+   * The following helpers mutate the segment maps and keep the global counters in sync. They must
+   * be called while holding the lock of the given segment.
+   */
+
+  @Nullable
+  private Entry<K, V> removeExclusive(Segment<K, V> segment, K key) {
+    Entry<K, V> removed = segment.mExclusiveEntries.remove(key);
+    if (removed != null) {
+      mExclusiveCount.decrementAndGet();
+      mExclusiveSizeInBytes.addAndGet(-sizeOf(removed));
+    }
+    return removed;
+  }
+
+  private void putExclusive(Segment<K, V> segment, K key, Entry<K, V> entry) {
+    Entry<K, V> old = segment.mExclusiveEntries.put(key, entry);
+    if (old != null) {
+      mExclusiveCount.decrementAndGet();
+      mExclusiveSizeInBytes.addAndGet(-sizeOf(old));
+    }
+    mExclusiveCount.incrementAndGet();
+    mExclusiveSizeInBytes.addAndGet(sizeOf(entry));
+  }
+
+  @Nullable
+  private Entry<K, V> removeCached(Segment<K, V> segment, K key) {
+    Entry<K, V> removed = segment.mCachedEntries.remove(key);
+    if (removed != null) {
+      mCachedCount.decrementAndGet();
+      mCachedSizeInBytes.addAndGet(-sizeOf(removed));
+    }
+    return removed;
+  }
+
+  private void putCached(Segment<K, V> segment, K key, Entry<K, V> entry) {
+    Entry<K, V> old = segment.mCachedEntries.put(key, entry);
+    if (old != null) {
+      mCachedCount.decrementAndGet();
+      mCachedSizeInBytes.addAndGet(-sizeOf(old));
+    }
+    mCachedCount.incrementAndGet();
+    mCachedSizeInBytes.addAndGet(sizeOf(entry));
+  }
+
+  private void onExclusivesRemoved(ArrayList<Entry<K, V>> removed) {
+    for (Entry<K, V> entry : removed) {
+      mExclusiveCount.decrementAndGet();
+      mExclusiveSizeInBytes.addAndGet(-sizeOf(entry));
+    }
+  }
+
+  private void onCachedRemoved(ArrayList<Entry<K, V>> removed) {
+    for (Entry<K, V> entry : removed) {
+      mCachedCount.decrementAndGet();
+      mCachedSizeInBytes.addAndGet(-sizeOf(entry));
+    }
+  }
+
+  private int sizeOf(Entry<K, V> entry) {
+    return mValueDescriptor.getSizeInBytes(entry.valueRef.get());
+  }
+
+  /** Marks the given entries as orphans. */
+  private static <K, V> void makeOrphans(ArrayList<Entry<K, V>> oldEntries) {
+    for (Entry<K, V> oldEntry : oldEntries) {
+      makeOrphan(oldEntry);
+    }
+  }
+
+  /** Marks the entry as orphan. */
+  private static <K, V> void makeOrphan(Entry<K, V> entry) {
+    Preconditions.checkNotNull(entry);
+    Preconditions.checkState(!entry.isOrphan);
+    entry.isOrphan = true;
+  }
+
+  /** Increases the entry's client count. */
+  private static <K, V> void increaseClientCount(Entry<K, V> entry) {
+    Preconditions.checkNotNull(entry);
+    Preconditions.checkState(!entry.isOrphan);
+    entry.clientCount++;
+  }
+
+  /** Decreases the entry's client count. */
+  private static <K, V> void decreaseClientCount(Entry<K, V> entry) {
+    Preconditions.checkNotNull(entry);
+    Preconditions.checkState(entry.clientCount > 0);
+    entry.clientCount--;
+  }
+
+  /** Returns the value reference of the entry if it should be closed, null otherwise. */
+  @Nullable
+  private static <K, V> CloseableReference<V> referenceToClose(Entry<K, V> entry) {
+    Preconditions.checkNotNull(entry);
+    return (entry.isOrphan && entry.clientCount == 0) ? entry.valueRef : null;
+  }
+
+  /** Gets the total number of all currently cached items. */
+  @Override
+  public int getCount() {
+    return mCachedCount.get();
+  }
+
+  /** Gets the total size in bytes of all currently cached items. */
+  @Override
+  public int getSizeInBytes() {
+    return mCachedSizeInBytes.get();
+  }
+
+  /** Gets the number of the cached items that are used by at least one client. */
+  public int getInUseCount() {
+    return mCachedCount.get() - mExclusiveCount.get();
+  }
+
+  /** Gets the total size in bytes of the cached items that are used by at least one client. */
+  @Override
+  public int getInUseSizeInBytes() {
+    return mCachedSizeInBytes.get() - mExclusiveSizeInBytes.get();
+  }
+
+  /** Gets the number of the exclusively owned items. */
+  @Override
+  public int getEvictionQueueCount() {
+    return mExclusiveCount.get();
+  }
+
+  /** Gets the total size in bytes of the exclusively owned items. */
+  @Override
+  public int getEvictionQueueSizeInBytes() {
+    return mExclusiveSizeInBytes.get();
+  }
+
+  @Override
+  @Nullable
+  public String getDebugData() {
+    return Objects.toStringHelper("SegmentedCountingMemoryCache")
+        .add("segment_count", mSegments.length)
+        .add("cached_entries_count", mCachedCount.get())
+        .add("cached_entries_size_bytes", mCachedSizeInBytes.get())
+        .add("exclusive_entries_count", mExclusiveCount.get())
+        .add("exclusive_entries_size_bytes", mExclusiveSizeInBytes.get())
+        .toString();
+  }
+
+  /**
+   * A single stripe of the cache. The segment itself is used as the lock guarding its maps and the
+   * mutable state of its entries.
+   */
+  @VisibleForTesting
+  static final class Segment<K, V> {
+
+    /** Contains the items that are not being used by any client and are hence viable for eviction. */
+    @GuardedBy("this")
+    final CountingLruMap<K, Entry<K, V>> mExclusiveEntries;
+
+    /** Contains all the cached items of this segment including the exclusively owned ones. */
+    @GuardedBy("this")
+    final CountingLruMap<K, Entry<K, V>> mCachedEntries;
+
+    Segment(ValueDescriptor<Entry<K, V>> valueDescriptor) {
+      mExclusiveEntries = new CountingLruMap<>(valueDescriptor);
+      mCachedEntries = new CountingLruMap<>(valueDescriptor);
+    }
+  }
+}
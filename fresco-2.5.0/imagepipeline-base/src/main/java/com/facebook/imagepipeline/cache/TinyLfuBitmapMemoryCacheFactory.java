@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import com.facebook.cache.common.CacheKey;
+import com.facebook.common.internal.Supplier;
+import com.facebook.common.memory.MemoryTrimmableRegistry;
+import com.facebook.imagepipeline.image.CloseableImage;
+import com.facebook.infer.annotation.Nullsafe;
+import javax.annotation.Nullable;
+
+/**
+ * Creates a {@link TinyLfuCountingMemoryCache} for bitmaps. Set it with {@link
+ * com.facebook.imagepipeline.core.ImagePipelineConfig.Builder#setBitmapMemoryCacheFactory} to keep
+ * the bitmaps displayed over and over when scrolling through many images displayed once.
+ */
+@Nullsafe(Nullsafe.Mode.STRICT)
+public class TinyLfuBitmapMemoryCacheFactory implements BitmapMemoryCacheFactory {
+
+  private final int mWindowPercent;
+  private final int mProtectedPercent;
+
+  public TinyLfuBitmapMemoryCacheFactory() {
+    this(
+        TinyLfuCountingMemoryCache.DEFAULT_WINDOW_PERCENT,
+        TinyLfuCountingMemoryCache.DEFAULT_PROTECTED_PERCENT);
+  }
+
+  public TinyLfuBitmapMemoryCacheFactory(int windowPercent, int protectedPercent) {
+    mWindowPercent = windowPercent;
+    mProtectedPercent = protectedPercent;
+  }
+
+  @Override
+  public CountingMemoryCache<CacheKey, CloseableImage> create(
+      Supplier<MemoryCacheParams> bitmapMemoryCacheParamsSupplier,
+      MemoryTrimmableRegistry memoryTrimmableRegistry,
+      MemoryCache.CacheTrimStrategy trimStrategy,
+      @Nullable CountingMemoryCache.EntryStateObserver<CacheKey> observer) {
+
+    ValueDescriptor<CloseableImage> valueDescriptor =
+        new ValueDescriptor<CloseableImage>() {
+          @Override
+          public int getSizeInBytes(CloseableImage value) {
+            return value.getSizeInBytes();
+          }
+        };
+
+    CountingMemoryCache<CacheKey, CloseableImage> countingCache =
+        new TinyLfuCountingMemoryCache<>(
+            valueDescriptor,
+            trimStrategy,
+            bitmapMemoryCacheParamsSupplier,
+            observer,
+            mWindowPercent,
+            mProtectedPercent);
+
+    memoryTrimmableRegistry.registerMemoryTrimmable(countingCache);
+
+    return countingCache;
+  }
+}
@@ -0,0 +1,762 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+import androidx.annotation.VisibleForTesting;
+import com.facebook.cache.common.HasDebugData;
+import com.facebook.common.internal.Objects;
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.Predicate;
+import com.facebook.common.internal.Supplier;
+import com.facebook.common.memory.MemoryTrimType;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.common.references.ResourceReleaser;
+import com.facebook.infer.annotation.Nullsafe;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Counting memory cache that admits entries according to how often their key was accessed
+ * recently, so that one-time accesses don't flush the entries accessed all the time.
+ *
+ * <p>The exclusively owned entries are kept in three LRU regions. New entries enter a small
+ * admission window. The entries pushed out of the window are candidates to the main region, which
+ * is a segmented LRU: entries enter it on probation, and are protected once accessed again there.
+ * When the cache is full, a candidate is only admitted if its key was accessed more often than
+ * the key of the least recently used entry on probation, which is evicted instead. Otherwise the
+ * candidate is evicted. Access frequencies are estimated by a {@link FrequencySketch} of all the
+ * keys hit or cached, including the ones not in the cache anymore.
+ *
+ * <p>Scans of keys accessed once, such as a fast fling through a long feed, then go through the
+ * window without evicting the entries that are displayed over and over.
+ *
+ * <p>Only the exclusively owned elements, i.e. the elements not referenced by any client, can be
+ * evicted.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+@ThreadSafe
+@Nullsafe(Nullsafe.Mode.STRICT)
+public class TinyLfuCountingMemoryCache<K, V> implements CountingMemoryCache<K, V>, HasDebugData {
+
+  /** Share of the eviction queue given to the admission window, in percent. */
+  public static final int DEFAULT_WINDOW_PERCENT = 1;
+
+  /** Share of the main region given to the protected entries, in percent. */
+  public static final int DEFAULT_PROTECTED_PERCENT = 80;
+
+  /**
+   * Number of keys the frequency sketch is sized for at most, as caches limited by size only have
+   * no meaningful entry count limit.
+   */
+  private static final int MAX_SKETCH_CAPACITY = 4096;
+
+  @VisibleForTesting
+  enum Region {
+    WINDOW,
+    PROBATION,
+    PROTECTED
+  }
+
+  @Nullable private final EntryStateObserver<K> mEntryStateObserver;
+
+  /** Contains all the cached items including the exclusively owned ones. */
+  @GuardedBy("this")
+  @VisibleForTesting
+  final CountingLruMap<K, Entry<K, V>> mCachedEntries;
+
+  /** Contains the exclusively owned items of the admission window. */
+  @GuardedBy("this")
+  @VisibleForTesting
+  final CountingLruMap<K, Entry<K, V>> mWindowEntries;
+
+  /** Contains the exclusively owned items of the main region that weren't accessed there yet. */
+  @GuardedBy("this")
+  @VisibleForTesting
+  final CountingLruMap<K, Entry<K, V>> mProbationEntries;
+
+  /** Contains the exclusively owned items of the main region that were accessed there. */
+  @GuardedBy("this")
+  @VisibleForTesting
+  final CountingLruMap<K, Entry<K, V>> mProtectedEntries;
+
+  /** The region of every cached item, so that the ones in use go back to it once released. */
+  @GuardedBy("this")
+  private final Map<K, Region> mRegions = new HashMap<>();
+
+  @GuardedBy("this")
+  private final FrequencySketch mFrequencySketch;
+
+  @GuardedBy("this")
+  @VisibleForTesting
+  final Map<Bitmap, Object> mOtherEntries = new WeakHashMap<>();
+
+  private final ValueDescriptor<V> mValueDescriptor;
+
+  private final CacheTrimStrategy mCacheTrimStrategy;
+
+  private final int mWindowPercent;
+
+  private final int mProtectedPercent;
+
+  /** Cache size constraints. */
+  private final Supplier<MemoryCacheParams> mMemoryCacheParamsSupplier;
+
+  @GuardedBy("this")
+  protected MemoryCacheParams mMemoryCacheParams;
+
+  @GuardedBy("this")
+  private long mLastCacheParamsCheck;
+
+  @GuardedBy("this")
+  private long mAdmittedCount;
+
+  @GuardedBy("this")
+  private long mRejectedCount;
+
+  public TinyLfuCountingMemoryCache(
+      ValueDescriptor<V> valueDescriptor,
+      CacheTrimStrategy cacheTrimStrategy,
+      Supplier<MemoryCacheParams> memoryCacheParamsSupplier,
+      @Nullable EntryStateObserver<K> entryStateObserver) {
+    this(
+        valueDescriptor,
+        cacheTrimStrategy,
+        memoryCacheParamsSupplier,
+        entryStateObserver,
+        DEFAULT_WINDOW_PERCENT,
+        DEFAULT_PROTECTED_PERCENT);
+  }
+
+  public TinyLfuCountingMemoryCache(
+      ValueDescriptor<V> valueDescriptor,
+      CacheTrimStrategy cacheTrimStrategy,
+      Supplier<MemoryCacheParams> memoryCacheParamsSupplier,
+      @Nullable EntryStateObserver<K> entryStateObserver,
+      int windowPercent,
+      int protectedPercent) {
+    Preconditions.checkArgument(
+        windowPercent >= 0 && windowPercent <= 100, "windowPercent must be in [0, 100]");
+    Preconditions.checkArgument(
+        protectedPercent >= 0 && protectedPercent <= 100, "protectedPercent must be in [0, 100]");
+    mValueDescriptor = valueDescriptor;
+    ValueDescriptor<Entry<K, V>> entryValueDescriptor = wrapValueDescriptor(valueDescriptor);
+    mCachedEntries = new CountingLruMap<>(entryValueDescriptor);
+    mWindowEntries = new CountingLruMap<>(entryValueDescriptor);
+    mProbationEntries = new CountingLruMap<>(entryValueDescriptor);
+    mProtectedEntries = new CountingLruMap<>(entryValueDescriptor);
+    mCacheTrimStrategy = cacheTrimStrategy;
+    mMemoryCacheParamsSupplier = memoryCacheParamsSupplier;
+    mMemoryCacheParams =
+        Preconditions.checkNotNull(
+            mMemoryCacheParamsSupplier.get(), "mMemoryCacheParamsSupplier returned null");
+    mLastCacheParamsCheck = SystemClock.uptimeMillis();
+    mEntryStateObserver = entryStateObserver;
+    mWindowPercent = windowPercent;
+    mProtectedPercent = protectedPercent;
+    mFrequencySketch = new FrequencySketch(getSketchCapacity(mMemoryCacheParams));
+  }
+
+  private ValueDescriptor<Entry<K, V>> wrapValueDescriptor(
+      final ValueDescriptor<V> evictableValueDescriptor) {
+    return new ValueDescriptor<Entry<K, V>>() {
+      @Override
+      public int getSizeInBytes(Entry<K, V> entry) {
+        return evictableValueDescriptor.getSizeInBytes(entry.valueRef.get());
+      }
+    };
+  }
+
+  /**
+   * Caches the given key-value pair.
+   *
+   * <p>Important: the client should use the returned reference instead of the original one. It is
+   * the caller's responsibility to close the returned reference once not needed anymore.
+   *
+   * @return the new reference to be used, null if the value cannot be cached
+   */
+  @Override
+  @Nullable
+  public CloseableReference<V> cache(final K key, final CloseableReference<V> valueRef) {
+    return cache(key, valueRef, mEntryStateObserver);
+  }
+
+  /**
+   * Caches the given key-value pair.
+   *
+   * <p>A new key enters the admission window. A key that is already cached keeps its region.
+   *
+   * <p>Important: the client should use the returned reference instead of the original one. It is
+   * the caller's responsibility to close the returned reference once not needed anymore.
+   *
+   * @return the new reference to be used, null if the value cannot be cached
+   */
+  @Override
+  @Nullable
+  public CloseableReference<V> cache(
+      final K key,
+      final CloseableReference<V> valueRef,
+      @Nullable final EntryStateObserver<K> observer) {
+    Preconditions.checkNotNull(key);
+    Preconditions.checkNotNull(valueRef);
+
+    maybeUpdateCacheParams();
+
+    Entry<K, V> oldExclusive;
+    CloseableReference<V> oldRefToClose = null;
+    CloseableReference<V> clientRef = null;
+    synchronized (this) {
+      mFrequencySketch.increment(key);
+      // remove the old item (if any) as it is stale now
+      oldExclusive = removeExclusive(key);
+      Region region = mRegions.remove(key);
+      Entry<K, V> oldEntry = mCachedEntries.remove(key);
+      if (oldEntry != null) {
+        makeOrphan(oldEntry);
+        oldRefToClose = referenceToClose(oldEntry);
+      }
+
+      if (canCacheNewValue(valueRef.get())) {
+        Entry<K, V> newEntry = Entry.of(key, valueRef, observer);
+        mCachedEntries.put(key, newEntry);
+        mRegions.put(key, region != null ? region : Region.WINDOW);
+        clientRef = newClientReference(newEntry);
+      }
+    }
+    CloseableReference.closeSafely(oldRefToClose);
+    maybeNotifyExclusiveEntryRemoval(oldExclusive);
+
+    maybeEvictEntries();
+    return clientRef;
+  }
+
+  /** Checks the cache constraints to determine whether the new value can be cached or not. */
+  private synchronized boolean canCacheNewValue(V value) {
+    int newValueSize = mValueDescriptor.getSizeInBytes(value);
+    return (newValueSize <= mMemoryCacheParams.maxCacheEntrySize)
+        && (getInUseCount() <= mMemoryCacheParams.maxCacheEntries - 1)
+        && (getInUseSizeInBytes() <= mMemoryCacheParams.maxCacheSize - newValueSize);
+  }
+
+  /**
+   * Gets the item with the given key, or null if there is no such item. A hit is recorded, and
+   * protects the item if it was on probation. A miss is recorded once the value is cached, so that
+   * the usual lookup and cache of a missing key counts as a single access.
+   *
+   * <p>It is the caller's responsibility to close the returned reference once not needed anymore.
+   */
+  @Override
+  @Nullable
+  public CloseableReference<V> get(final K key) {
+    Preconditions.checkNotNull(key);
+    Entry<K, V> oldExclusive;
+    CloseableReference<V> clientRef = null;
+    synchronized (this) {
+      oldExclusive = removeExclusive(key);
+      Entry<K, V> entry = mCachedEntries.get(key);
+      if (entry != null) {
+        mFrequencySketch.increment(key);
+        if (mRegions.get(key) == Region.PROBATION) {
+          mRegions.put(key, Region.PROTECTED);
+        }
+        clientRef = newClientReference(entry);
+      }
+    }
+    maybeNotifyExclusiveEntryRemoval(oldExclusive);
+    maybeUpdateCacheParams();
+    maybeEvictEntries();
+    return clientRef;
+  }
+
+  /**
+   * Probes whether the object corresponding to the key is in the cache. Note that the act of
+   * probing touches the item (if present in cache), thus changing its LRU timestamp.
+   */
+  @Override
+  public void probe(final K key) {
+    Preconditions.checkNotNull(key);
+    synchronized (this) {
+      Region region = mRegions.get(key);
+      if (region != null) {
+        CountingLruMap<K, Entry<K, V>> exclusives = exclusivesOf(region);
+        Entry<K, V> oldExclusive = exclusives.remove(key);
+        if (oldExclusive != null) {
+          exclusives.put(key, oldExclusive);
+        }
+      }
+    }
+  }
+
+  /** Creates a new reference for the client. */
+  private synchronized CloseableReference<V> newClientReference(final Entry<K, V> entry) {
+    increaseClientCount(entry);
+    return CloseableReference.of(
+        entry.valueRef.get(),
+        new ResourceReleaser<V>() {
+          @Override
+          public void release(V unused) {
+            releaseClientReference(entry);
+          }
+        });
+  }
+
+  /** Called when the client closes its reference. */
+  private void releaseClientReference(final Entry<K, V> entry) {
+    Preconditions.checkNotNull(entry);
+    boolean isExclusiveAdded;
+    CloseableReference<V> oldRefToClose;
+    synchronized (this) {
+      decreaseClientCount(entry);
+      isExclusiveAdded = maybeAddToExclusives(entry);
+      oldRefToClose = referenceToClose(entry);
+    }
+    CloseableReference.closeSafely(oldRefToClose);
+    maybeNotifyExclusiveEntryInsertion(isExclusiveAdded ? entry : null);
+    maybeUpdateCacheParams();
+    maybeEvictEntries();
+  }
+
+  /** Adds the entry to the exclusively owned items of its region if it is viable for eviction. */
+  private synchronized boolean maybeAddToExclusives(Entry<K, V> entry) {
+    if (!entry.isOrphan && entry.clientCount == 0) {
+      Region region = Preconditions.checkNotNull(mRegions.get(entry.key));
+      exclusivesOf(region).put(entry.key, entry);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Gets the value with the given key to be reused, or null if there is no such value.
+   *
+   * <p>The item can be reused only if it is exclusively owned by the cache.
+   */
+  @Override
+  @Nullable
+  public CloseableReference<V> reuse(K key) {
+    Preconditions.checkNotNull(key);
+    CloseableReference<V> clientRef = null;
+    Entry<K, V> oldExclusive;
+    synchronized (this) {
+      oldExclusive = removeExclusive(key);
+      if (oldExclusive != null) {
+        mRegions.remove(key);
+        Entry<K, V> entry = mCachedEntries.remove(key);
+        Preconditions.checkNotNull(entry);
+        Preconditions.checkState(entry.clientCount == 0);
+        // optimization: instead of cloning and then closing the original reference,
+        // we just do a move
+        clientRef = entry.valueRef;
+      }
+    }
+    maybeNotifyExclusiveEntryRemoval(oldExclusive);
+    return clientRef;
+  }
+
+  /**
+   * Removes all the items from the cache whose key matches the specified predicate.
+   *
+   * @param predicate returns true if an item with the given key should be removed
+   * @return number of the items removed from the cache
+   */
+  @Override
+  public int removeAll(Predicate<K> predicate) {
+    ArrayList<Entry<K, V>> oldExclusives;
+    ArrayList<Entry<K, V>> oldEntries;
+    synchronized (this) {
+      oldExclusives = mWindowEntries.removeAll(predicate);
+      oldExclusives.addAll(mProbationEntries.removeAll(predicate));
+      oldExclusives.addAll(mProtectedEntries.removeAll(predicate));
+      oldEntries = mCachedEntries.removeAll(predicate);
+      for (Entry<K, V> oldEntry : oldEntries) {
+        mRegions.remove(oldEntry.key);
+      }
+      makeOrphans(oldEntries);
+    }
+    maybeClose(oldEntries);
+    maybeNotifyExclusiveEntryRemoval(oldExclusives);
+    maybeUpdateCacheParams();
+    maybeEvictEntries();
+    return oldEntries.size();
+  }
+
+  /** Removes all the items from the cache. The access frequencies are kept. */
+  @Override
+  public void clear() {
+    ArrayList<Entry<K, V>> oldExclusives;
+    ArrayList<Entry<K, V>> oldEntries;
+    synchronized (this) {
+      oldExclusives = mWindowEntries.clear();
+      oldExclusives.addAll(mProbationEntries.clear());
+      oldExclusives.addAll(mProtectedEntries.clear());
+      oldEntries = mCachedEntries.clear();
+      mRegions.clear();
+      makeOrphans(oldEntries);
+    }
+    maybeClose(oldEntries);
+    maybeNotifyExclusiveEntryRemoval(oldExclusives);
+    maybeUpdateCacheParams();
+  }
+
+  /**
+   * Check if any items from the cache whose key matches the specified predicate.
+   *
+   * @param predicate returns true if an item with the given key matches
+   * @return true is any items matches from the cache
+   */
+  @Override
+  public synchronized boolean contains(Predicate<K> predicate) {
+    return !mCachedEntries.getMatchingEntries(predicate).isEmpty();
+  }
+
+  /**
+   * Check if an item with the given cache key is currently in the cache.
+   *
+   * @param key returns true if an item with the given key matches
+   * @return true is any items matches from the cache
+   */
+  @Override
+  public synchronized boolean contains(K key) {
+    return mCachedEntries.contains(key);
+  }
+
+  /** Trims the cache according to the specified trimming strategy and the given trim type. */
+  @Override
+  public void trim(MemoryTrimType trimType) {
+    ArrayList<Entry<K, V>> oldEntries;
+    final double trimRatio = mCacheTrimStrategy.getTrimRatio(trimType);
+    synchronized (this) {
+      int targetCacheSize = (int) (mCachedEntries.getSizeInBytes() * (1 - trimRatio));
+      int targetEvictionQueueSize = Math.max(0, targetCacheSize - getInUseSizeInBytes());
+      oldEntries = trimExclusivelyOwnedEntries(Integer.MAX_VALUE, targetEvictionQueueSize);
+      makeOrphans(oldEntries);
+    }
+    maybeClose(oldEntries);
+    maybeNotifyExclusiveEntryRemoval(oldEntries);
+    maybeUpdateCacheParams();
+    maybeEvictEntries();
+  }
+
+  /** Updates the cache params (constraints) if enough time has passed since the last update. */
+  private synchronized void maybeUpdateCacheParams() {
+    if (mLastCacheParamsCheck + mMemoryCacheParams.paramsCheckIntervalMs
+        > SystemClock.uptimeMillis()) {
+      return;
+    }
+    mLastCacheParamsCheck = SystemClock.uptimeMillis();
+    mMemoryCacheParams =
+        Preconditions.checkNotNull(
+            mMemoryCacheParamsSupplier.get(), "mMemoryCacheParamsSupplier returned null");
+    mFrequencySketch.ensureCapacity(getSketchCapacity(mMemoryCacheParams));
+  }
+
+  private static int getSketchCapacity(MemoryCacheParams params) {
+    return Math.min(params.maxCacheEntries, MAX_SKETCH_CAPACITY);
+  }
+
+  @Override
+  public MemoryCacheParams getMemoryCacheParams() {
+    return mMemoryCacheParams;
+  }
+
+  @Override
+  public CountingLruMap<K, Entry<K, V>> getCachedEntries() {
+    return mCachedEntries;
+  }
+
+  @Override
+  public Map<Bitmap, Object> getOtherEntries() {
+    return mOtherEntries;
+  }
+
+  /**
+   * Removes the exclusively owned items until the cache constraints are met.
+   *
+   * <p>This method invokes the external {@link CloseableReference#close} method, so it must not be
+   * called while holding the <code>this</code> lock.
+   */
+  @Override
+  public void maybeEvictEntries() {
+    ArrayList<Entry<K, V>> oldEntries;
+    synchronized (this) {
+      int maxCount =
+          Math.min(
+              mMemoryCacheParams.maxEvictionQueueEntries,
+              mMemoryCacheParams.maxCacheEntries - getInUseCount());
+      int maxSize =
+          Math.min(
+              mMemoryCacheParams.maxEvictionQueueSize,
+              mMemoryCacheParams.maxCacheSize - getInUseSizeInBytes());
+      oldEntries = trimExclusivelyOwnedEntries(maxCount, maxSize);
+      makeOrphans(oldEntries);
+    }
+    maybeClose(oldEntries);
+    maybeNotifyExclusiveEntryRemoval(oldEntries);
+  }
+
+  /**
+   * Removes the exclusively owned items until there is at most <code>count</code> of them and they
+   * occupy no more than <code>size</code> bytes.
+   *
+   * <p>The items pushed out of the admission window become candidates on probation. While the
+   * constraints are not met, the oldest candidate is compared to the least recently used item on
+   * probation, and the one whose key was accessed less often is removed. If there is no candidate
+   * left, the least recently used item of the window becomes one.
+   *
+   * <p>This method returns the removed items instead of actually closing them, so it is safe to be
+   * called while holding the <code>this</code> lock.
+   */
+  @Nullable
+  private synchronized ArrayList<Entry<K, V>> trimExclusivelyOwnedEntries(int count, int size) {
+    count = Math.max(count, 0);
+    size = Math.max(size, 0);
+    // rounded up, so that even a small cache has an admission window
+    final int windowCount = count - (int) ((long) count * (100 - mWindowPercent) / 100);
+    final int windowSize = size - (int) ((long) size * (100 - mWindowPercent) / 100);
+    final int protectedCount = (int) ((long) (count - windowCount) * mProtectedPercent / 100);
+    final int protectedSize = (int) ((long) (size - windowSize) * mProtectedPercent / 100);
+    // fast path without array allocation if no eviction is necessary
+    if (getEvictionQueueCount() <= count
+        && getEvictionQueueSizeInBytes() <= size
+        && mWindowEntries.getCount() <= windowCount
+        && mWindowEntries.getSizeInBytes() <= windowSize
+        && mProtectedEntries.getCount() <= protectedCount
+        && mProtectedEntries.getSizeInBytes() <= protectedSize) {
+      return null;
+    }
+
+    ArrayDeque<K> candidates = new ArrayDeque<>();
+    while (mWindowEntries.getCount() > windowCount
+        || mWindowEntries.getSizeInBytes() > windowSize) {
+      K key = Preconditions.checkNotNull(mWindowEntries.getFirstKey());
+      moveExclusive(key, mWindowEntries, mProbationEntries, Region.PROBATION);
+      candidates.add(key);
+    }
+    while (mProtectedEntries.getCount() > protectedCount
+        || mProtectedEntries.getSizeInBytes() > protectedSize) {
+      K key = Preconditions.checkNotNull(mProtectedEntries.getFirstKey());
+      moveExclusive(key, mProtectedEntries, mProbationEntries, Region.PROBATION);
+    }
+
+    ArrayList<Entry<K, V>> oldEntries = new ArrayList<>();
+    while (getEvictionQueueCount() > count || getEvictionQueueSizeInBytes() > size) {
+      if (candidates.isEmpty() && mWindowEntries.getCount() > 0) {
+        // make room for the items in use, which enter the window once released
+        K key = Preconditions.checkNotNull(mWindowEntries.getFirstKey());
+        moveExclusive(key, mWindowEntries, mProbationEntries, Region.PROBATION);
+        candidates.add(key);
+      }
+      @Nullable K victim = mProbationEntries.getFirstKey();
+      @Nullable K candidate = candidates.peekFirst();
+      K key;
+      if (victim == null) {
+        // only protected items left
+        key = Preconditions.checkNotNull(mProtectedEntries.getFirstKey());
+      } else if (candidate == null) {
+        key = victim;
+      } else if (candidate.equals(victim)) {
+        // all the older items on probation are gone already
+        key = candidates.pollFirst();
+        mRejectedCount++;
+      } else if (mFrequencySketch.frequency(candidate) > mFrequencySketch.frequency(victim)) {
+        key = victim;
+      } else {
+        key = candidates.pollFirst();
+        mRejectedCount++;
+      }
+      oldEntries.add(removeEvicted(key));
+    }
+    mAdmittedCount += candidates.size();
+    return oldEntries;
+  }
+
+  private void moveExclusive(
+      K key,
+      CountingLruMap<K, Entry<K, V>> from,
+      CountingLruMap<K, Entry<K, V>> to,
+      Region region) {
+    Entry<K, V> entry = Preconditions.checkNotNull(from.remove(key));
+    to.put(key, entry);
+    mRegions.put(key, region);
+  }
+
+  private Entry<K, V> removeEvicted(K key) {
+    Region region = Preconditions.checkNotNull(mRegions.remove(key));
+    exclusivesOf(region).remove(key);
+    return Preconditions.checkNotNull(mCachedEntries.remove(key));
+  }
+
+  @Nullable
+  private Entry<K, V> removeExclusive(K key) {
+    Region region = mRegions.get(key);
+    return region == null ? null : exclusivesOf(region).remove(key);
+  }
+
+  private CountingLruMap<K, Entry<K, V>> exclusivesOf(Region region) {
+    switch (region) {
+      case WINDOW:
+        return mWindowEntries;
+      case PROBATION:
+        return mProbationEntries;
+      default:
+        return mProtectedEntries;
+    }
+  }
+
+  /**
+   * Notifies the client that the cache no longer tracks the given items.
+   *
+   * <p>This method invokes the external {@link CloseableReference#close} method, so it must not be
+   * called while holding the <code>this</code> lock.
+   */
+  private void maybeClose(@Nullable ArrayList<Entry<K, V>> oldEntries) {
+    if (oldEntries != null) {
+      for (Entry<K, V> oldEntry : oldEntries) {
+        CloseableReference.closeSafely(referenceToClose(oldEntry));
+      }
+    }
+  }
+
+  private void maybeNotifyExclusiveEntryRemoval(@Nullable ArrayList<Entry<K, V>> entries) {
+    if (entries != null) {
+      for (Entry<K, V> entry : entries) {
+        maybeNotifyExclusiveEntryRemoval(entry);
+      }
+    }
+  }
+
+  private static <K, V> void maybeNotifyExclusiveEntryRemoval(@Nullable Entry<K, V> entry) {
+    if (entry != null && entry.observer != null) {
+      entry.observer.onExclusivityChanged(entry.key, false);
+    }
+  }
+
+  private static <K, V> void maybeNotifyExclusiveEntryInsertion(@Nullable Entry<K, V> entry) {
+    if (entry != null && entry.observer != null) {
+      entry.observer.onExclusivityChanged(entry.key, true);
+    }
+  }
+
+  /** Marks the given entries as orphans. */
+  private synchronized void makeOrphans(@Nullable ArrayList<Entry<K, V>> oldEntries) {
+    if (oldEntries != null) {
+      for (Entry<K, V> oldEntry : oldEntries) {
+        makeOrphan(oldEntry);
+      }
+    }
+  }
+
+  /** Marks the entry as orphan. */
+  private synchronized void makeOrphan(Entry<K, V> entry) {
+    Preconditions.checkNotNull(entry);
+    Preconditions.checkState(!entry.isOrphan);
+    entry.isOrphan = true;
+  }
+
+  /** Increases the entry's client count. */
+  private synchronized void increaseClientCount(Entry<K, V> entry) {
+    Preconditions.checkNotNull(entry);
+    Preconditions.checkState(!entry.isOrphan);
+    entry.clientCount++;
+  }
+
+  /** Decreases the entry's client count. */
+  private synchronized void decreaseClientCount(Entry<K, V> entry) {
+    Preconditions.checkNotNull(entry);
+    Preconditions.checkState(entry.clientCount > 0);
+    entry.clientCount--;
+  }
+
+  /** Returns the value reference of the entry if it should be closed, null otherwise. */
+  @Nullable
+  private synchronized CloseableReference<V> referenceToClose(Entry<K, V> entry) {
+    Preconditions.checkNotNull(entry);
+    return (entry.isOrphan && entry.clientCount == 0) ? entry.valueRef : null;
+  }
+
+  /** Gets the total number of all currently cached items. */
+  @Override
+  public synchronized int getCount() {
+    return mCachedEntries.getCount();
+  }
+
+  /** Gets the total size in bytes of all currently cached items. */
+  @Override
+  public synchronized int getSizeInBytes() {
+    return mCachedEntries.getSizeInBytes();
+  }
+
+  /** Gets the number of the cached items that are used by at least one client. */
+  public synchronized int getInUseCount() {
+    return mCachedEntries.getCount() - getEvictionQueueCount();
+  }
+
+  /** Gets the total size in bytes of the cached items that are used by at least one client. */
+  @Override
+  public synchronized int getInUseSizeInBytes() {
+    return mCachedEntries.getSizeInBytes() - getEvictionQueueSizeInBytes();
+  }
+
+  /** Gets the number of the exclusively owned items. */
+  @Override
+  public synchronized int getEvictionQueueCount() {
+    return mWindowEntries.getCount() + mProbationEntries.getCount() + mProtectedEntries.getCount();
+  }
+
+  /** Gets the total size in bytes of the exclusively owned items. */
+  @Override
+  public synchronized int getEvictionQueueSizeInBytes() {
+    return mWindowEntries.getSizeInBytes()
+        + mProbationEntries.getSizeInBytes()
+        + mProtectedEntries.getSizeInBytes();
+  }
+
+  /** Gets the number of candidates from the admission window that entered the main region. */
+  public synchronized long getAdmittedCount() {
+    return mAdmittedCount;
+  }
+
+  /** Gets the number of candidates from the admission window that were evicted instead. */
+  public synchronized long getRejectedCount() {
+    return mRejectedCount;
+  }
+
+  @VisibleForTesting
+  @Nullable
+  synchronized Region getRegion(K key) {
+    return mRegions.get(key);
+  }
+
+  @VisibleForTesting
+  synchronized int getFrequency(K key) {
+    return mFrequencySketch.frequency(key);
+  }
+
+  @Override
+  @Nullable
+  public synchronized String getDebugData() {
+    return Objects.toStringHelper("TinyLfuCountingMemoryCache")
+        .add("cached_entries_count", mCachedEntries.getCount())
+        .add("cached_entries_size_bytes", mCachedEntries.getSizeInBytes())
+        .add("window_entries_count", mWindowEntries.getCount())
+        .add("probation_entries_count", mProbationEntries.getCount())
+        .add("protected_entries_count", mProtectedEntries.getCount())
+        .add("admitted_count", mAdmittedCount)
+        .add("rejected_count", mRejectedCount)
+        .toString();
+  }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.core;
+
+import android.os.Process;
+import com.facebook.infer.annotation.Nullsafe;
+
+/**
+ * {@link ExecutorSupplier} that decodes with a {@link PriorityExecutor}, and is otherwise the same
+ * as {@link DefaultExecutorSupplier}.
+ *
+ * <p>The decodes of the visible images then don't wait behind those of earlier prefetches or
+ * lower priority requests, and the decodes of cancelled requests are withdrawn before they run.
+ * This doesn't depend on the decode cancellation experiment: without it, only the decodes that
+ * already started are run to the end.
+ */
+@Nullsafe(Nullsafe.Mode.STRICT)
+public class PriorityDecodeExecutorSupplier extends DefaultExecutorSupplier {
+
+  private final PriorityExecutor mDecodeExecutor;
+
+  public PriorityDecodeExecutorSupplier(int numCpuBoundThreads) {
+    super(numCpuBoundThreads);
+    mDecodeExecutor =
+        new PriorityExecutor(
+            numCpuBoundThreads,
+            new PriorityThreadFactory(
+                Process.THREAD_PRIORITY_BACKGROUND, "FrescoDecodeExecutor", true));
+  }
+
+  @Override
+  public PriorityExecutor forDecode() {
+    return mDecodeExecutor;
+  }
+}
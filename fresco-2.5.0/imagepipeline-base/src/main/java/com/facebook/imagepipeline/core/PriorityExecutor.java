@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.core;
+
+import android.os.SystemClock;
+import com.facebook.imagepipeline.common.Priority;
+import com.facebook.infer.annotation.Nullsafe;
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Executor with a fixed number of threads that runs the queued tasks by order of priority, rather
+ * than by order of submission.
+ *
+ * <p>Tasks that are not for a prefetch run first, then the tasks of higher {@link Priority}, then
+ * the tasks that were submitted first. Tasks given to {@link #execute} have a {@link
+ * Priority#MEDIUM} priority. The {@link Task} returned by {@link #submit} can change the priority
+ * of the task, or withdraw it, while it is queued.
+ */
+@ThreadSafe
+@Nullsafe(Nullsafe.Mode.STRICT)
+public class PriorityExecutor implements Executor {
+
+  private final PriorityBlockingQueue<Runnable> mQueue;
+  private final ThreadPoolExecutor mThreadPoolExecutor;
+
+  private volatile boolean mAreThreadsStarted;
+
+  private final AtomicLong mSequenceNumber = new AtomicLong();
+  private final AtomicLong mExecutedTaskCount = new AtomicLong();
+  private final AtomicLong mCancelledTaskCount = new AtomicLong();
+  private final AtomicLong mTotalWaitTimeMs = new AtomicLong();
+  private final AtomicLong mMaxWaitTimeMs = new AtomicLong();
+
+  public PriorityExecutor(int numThreads, ThreadFactory threadFactory) {
+    mQueue = new PriorityBlockingQueue<>();
+    mThreadPoolExecutor =
+        new ThreadPoolExecutor(
+            numThreads, numThreads, 0L, TimeUnit.MILLISECONDS, mQueue, threadFactory);
+  }
+
+  @Override
+  public void execute(Runnable runnable) {
+    submit(runnable, Priority.MEDIUM, false);
+  }
+
+  /**
+   * Queues a task.
+   *
+   * @param runnable the task
+   * @param priority the priority of the request the task is for
+   * @param isPrefetch whether the request the task is for is a prefetch
+   * @return the handle to update or cancel the task while it is queued
+   */
+  public Task submit(Runnable runnable, Priority priority, boolean isPrefetch) {
+    final Task task = createTask(runnable, priority, isPrefetch);
+    submit(task);
+    return task;
+  }
+
+  /**
+   * Creates a task without queuing it, so that the caller can keep its handle before it may run.
+   * The task is queued by {@link #submit(Task)}.
+   */
+  public Task createTask(Runnable runnable, Priority priority, boolean isPrefetch) {
+    return new Task(runnable, priority, isPrefetch);
+  }
+
+  /** Queues a task created by {@link #createTask}. */
+  public void submit(Task task) {
+    if (!mAreThreadsStarted) {
+      // otherwise the first tasks would be handed to new threads without going through the queue
+      mThreadPoolExecutor.prestartAllCoreThreads();
+      mAreThreadsStarted = true;
+    }
+    mThreadPoolExecutor.execute(task);
+  }
+
+  /** @return the number of tasks waiting for a thread */
+  public int getQueueDepth() {
+    return mQueue.size();
+  }
+
+  /** @return the number of tasks that have started to run */
+  public long getExecutedTaskCount() {
+    return mExecutedTaskCount.get();
+  }
+
+  /** @return the number of tasks withdrawn before they ran */
+  public long getCancelledTaskCount() {
+    return mCancelledTaskCount.get();
+  }
+
+  /** @return the total time the tasks that have started to run waited for a thread */
+  public long getTotalWaitTimeMs() {
+    return mTotalWaitTimeMs.get();
+  }
+
+  /** @return the longest time a task waited for a thread */
+  public long getMaxWaitTimeMs() {
+    return mMaxWaitTimeMs.get();
+  }
+
+  private void onTaskStarted(long waitTimeMs) {
+    mExecutedTaskCount.incrementAndGet();
+    mTotalWaitTimeMs.addAndGet(waitTimeMs);
+    long maxWaitTimeMs;
+    do {
+      maxWaitTimeMs = mMaxWaitTimeMs.get();
+    } while (waitTimeMs > maxWaitTimeMs
+        && !mMaxWaitTimeMs.compareAndSet(maxWaitTimeMs, waitTimeMs));
+  }
+
+  /** A task queued on the executor. */
+  public class Task implements Runnable, Comparable<Task> {
+
+    private final Runnable mRunnable;
+    private final long mSequenceNumber;
+    private final long mSubmitTimeMs;
+
+    // only changed while the task is out of the queue, so that the queue stays ordered
+    private volatile Priority mPriority;
+    private volatile boolean mIsPrefetch;
+
+    @GuardedBy("this")
+    private boolean mIsCancelled;
+
+    private Task(Runnable runnable, Priority priority, boolean isPrefetch) {
+      mRunnable = runnable;
+      mPriority = priority;
+      mIsPrefetch = isPrefetch;
+      mSequenceNumber = PriorityExecutor.this.mSequenceNumber.getAndIncrement();
+      mSubmitTimeMs = SystemClock.uptimeMillis();
+    }
+
+    /**
+     * Moves the task in the queue according to its new priority. Does nothing if the task has
+     * already started or been cancelled.
+     */
+    public synchronized void setPriority(Priority priority, boolean isPrefetch) {
+      if (mIsCancelled || (priority == mPriority && isPrefetch == mIsPrefetch)) {
+        return;
+      }
+      if (mQueue.remove(this)) {
+        mPriority = priority;
+        mIsPrefetch = isPrefetch;
+        mQueue.offer(this);
+      }
+    }
+
+    /**
+     * Withdraws the task from the queue.
+     *
+     * @return true if the task won't run, false if it has already started
+     */
+    public synchronized boolean cancel() {
+      if (!mIsCancelled && mThreadPoolExecutor.remove(this)) {
+        mIsCancelled = true;
+        mCancelledTaskCount.incrementAndGet();
+      }
+      return mIsCancelled;
+    }
+
+    public Priority getPriority() {
+      return mPriority;
+    }
+
+    public boolean isPrefetch() {
+      return mIsPrefetch;
+    }
+
+    @Override
+    public void run() {
+      onTaskStarted(SystemClock.uptimeMillis() - mSubmitTimeMs);
+      mRunnable.run();
+    }
+
+    @Override
+    public int compareTo(Task other) {
+      if (mIsPrefetch != other.mIsPrefetch) {
+        return mIsPrefetch ? 1 : -1;
+      }
+      if (mPriority != other.mPriority) {
+        return other.mPriority.ordinal() - mPriority.ordinal();
+      }
+      if (mSequenceNumber != other.mSequenceNumber) {
+        return mSequenceNumber < other.mSequenceNumber ? -1 : 1;
+      }
+      return 0;
+    }
+  }
+}
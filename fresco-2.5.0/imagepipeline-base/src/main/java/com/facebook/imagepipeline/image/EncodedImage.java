@@ -377,7 +377,7 @@ public class EncodedImage extends Closeable {
    *  Sets the encoded image meta data if needed. 
    */
   private void parseMetadataIfNeeded() {
-    if (mWidth < 0 || mHeight < 0) {
+    if ((mWidth < 0 || mHeight < 0) && !mHasParsedMetadata) {
       parseMetaData();
     }
   }
@@ -395,6 +395,35 @@ public class EncodedImage extends Closeable {
     mHasParsedMetadata = true;
   }
 
+  /**
+   * Parses the meta data for an {@link IncrementalMetaDataParser}. The image is then considered
+   * parsed even if the data was incomplete, so the getters don't parse it again.
+   */
+  void parseMetaDataOnce() {
+    internalParseMetaData();
+    mHasParsedMetadata = true;
+  }
+
+  /**
+   * Sets meta data parsed by an {@link IncrementalMetaDataParser}, possibly incomplete. The image is
+   * then considered parsed, so the getters don't parse it again.
+   */
+  void setParsedMetaData(
+      com.facebook.imageformat.ImageFormat imageFormat,
+      int width,
+      int height,
+      int rotationAngle,
+      int exifOrientation,
+      @Nullable ColorSpace colorSpace) {
+    mImageFormat = imageFormat;
+    mWidth = width;
+    mHeight = height;
+    mRotationAngle = rotationAngle;
+    mExifOrientation = exifOrientation;
+    mColorSpace = colorSpace;
+    mHasParsedMetadata = true;
+  }
+
   /**
    *  Sets the encoded image meta data. 
    */
@@ -534,7 +563,7 @@ public class EncodedImage extends Closeable {
     sUseCachedMetadata = useCachedMetadata;
   }
 
-  protected boolean hasParsedMetaData() {
+  public boolean hasParsedMetaData() {
     return mHasParsedMetadata;
   }
 
@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.image;
+
+import android.graphics.ColorSpace;
+import android.media.ExifInterface;
+import com.facebook.common.memory.PooledByteBuffer;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.imageformat.DefaultImageFormats;
+import com.facebook.imageformat.ImageFormat;
+import com.facebook.imageformat.ImageFormatChecker;
+import com.facebook.imageutils.JfifUtil;
+import com.facebook.infer.annotation.Nullsafe;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Parses the meta data of the successive results of one download, each holding all the data
+ * received so far, without parsing it again from the start for every result.
+ *
+ * <p>{@link EncodedImage#parseMetaData()} reads the format, the dimensions, the orientation and the
+ * color space from the beginning of the data. This parser only lets it do so once it can succeed:
+ *
+ * <ul>
+ *   <li>the format is determined once, as soon as there are enough bytes for the format checkers;
+ *   <li>for JPEGs, the markers are scanned from where the previous result left off, skipping the
+ *       segments, until the header of the first scan is received. The decoders read the tables up
+ *       to it before reporting the dimensions, which come with the EXIF data before it;
+ *   <li>for the other formats, whose headers are small, the data is parsed again only after it has
+ *       doubled in size.
+ * </ul>
+ *
+ * <p>Once the meta data is complete it is copied to the following results as it is. Results that
+ * arrive before that only get the format, and are marked as parsed so that the getters of {@link
+ * EncodedImage} don't parse them anyway. The last result is always fully parsed.
+ */
+@NotThreadSafe
+@Nullsafe(Nullsafe.Mode.LOCAL)
+public class IncrementalMetaDataParser {
+
+  private @Nullable ImageFormat mImageFormat;
+  private boolean mIsComplete;
+
+  private int mWidth = EncodedImage.UNKNOWN_WIDTH;
+  private int mHeight = EncodedImage.UNKNOWN_HEIGHT;
+  private int mRotationAngle = EncodedImage.UNKNOWN_ROTATION_ANGLE;
+  private int mExifOrientation = ExifInterface.ORIENTATION_UNDEFINED;
+  private @Nullable ColorSpace mColorSpace;
+
+  /** offset of the next JPEG marker to read, after the SOI one */
+  private int mJpegMarkerOffset = 2;
+
+  /** number of bytes needed before parsing the meta data, 0 until it is known */
+  private int mParseAtSize;
+
+  /**
+   * Sets the meta data of the next result of the download.
+   *
+   * @param encodedImage the result, with all the data received so far
+   * @param isLast whether this is the last result, which is then always fully parsed
+   */
+  public void parseMetaData(EncodedImage encodedImage, boolean isLast) {
+    if (!mIsComplete) {
+      final int size = encodedImage.getSize();
+      if (isLast || shouldParse(encodedImage, size)) {
+        encodedImage.parseMetaDataOnce();
+        onParsed(encodedImage, size, isLast);
+        return;
+      }
+    }
+    encodedImage.setParsedMetaData(
+        mImageFormat == null ? ImageFormat.UNKNOWN : mImageFormat,
+        mWidth,
+        mHeight,
+        mRotationAngle,
+        mExifOrientation,
+        mColorSpace);
+  }
+
+  /** @return whether the meta data is complete, and won't be parsed again */
+  public boolean isComplete() {
+    return mIsComplete;
+  }
+
+  /**
+   * Determines the format once there is enough data, then the size at which to parse the meta
+   * data, and whether it has been reached.
+   */
+  private boolean shouldParse(EncodedImage encodedImage, int size) {
+    if (mImageFormat == null) {
+      if (size < ImageFormatChecker.getInstance().getMaxHeaderLength()) {
+        return false;
+      }
+      mImageFormat =
+          ImageFormatChecker.getImageFormat_WrapIOException(encodedImage.getInputStream());
+      if (mImageFormat != DefaultImageFormats.JPEG) {
+        mParseAtSize = size;
+      }
+    }
+    if (mImageFormat == DefaultImageFormats.JPEG && mParseAtSize == 0) {
+      scanJpegMarkers(encodedImage, size);
+    }
+    return mParseAtSize > 0 && size >= mParseAtSize;
+  }
+
+  /**
+   * Walks the JPEG markers from {@link #mJpegMarkerOffset}, and sets {@link #mParseAtSize} to the
+   * end of the SOS segment when it is found. If the data ends early or doesn't look like a JPEG,
+   * it is parsed right away instead.
+   */
+  private void scanJpegMarkers(EncodedImage encodedImage, int size) {
+    final CloseableReference<PooledByteBuffer> bufferRef = encodedImage.getByteBufferRef();
+    if (bufferRef == null) {
+      mParseAtSize = size;
+      return;
+    }
+    try {
+      final PooledByteBuffer buffer = bufferRef.get();
+      int offset = mJpegMarkerOffset;
+      while (offset + 4 <= size) {
+        if ((buffer.read(offset) & 0xFF) != JfifUtil.MARKER_FIRST_BYTE) {
+          // not where a marker should be: let the full parser deal with it
+          mParseAtSize = size;
+          return;
+        }
+        final int marker = buffer.read(offset + 1) & 0xFF;
+        if (marker == JfifUtil.MARKER_FIRST_BYTE) {
+          // fill byte
+          offset++;
+          continue;
+        }
+        if (marker == JfifUtil.MARKER_SOI || marker == JfifUtil.MARKER_TEM) {
+          offset += 2;
+          continue;
+        }
+        if (marker == JfifUtil.MARKER_EOI) {
+          mParseAtSize = size;
+          return;
+        }
+        final int segmentLength =
+            ((buffer.read(offset + 2) & 0xFF) << 8) | (buffer.read(offset + 3) & 0xFF);
+        final int segmentEnd = offset + 2 + segmentLength;
+        if (marker == JfifUtil.MARKER_SOS) {
+          mParseAtSize = segmentEnd;
+          return;
+        }
+        offset = segmentEnd;
+      }
+      mJpegMarkerOffset = offset;
+    } finally {
+      bufferRef.close();
+    }
+  }
+
+  private void onParsed(EncodedImage encodedImage, int size, boolean isLast) {
+    mImageFormat = encodedImage.getImageFormat();
+    mWidth = encodedImage.getWidth();
+    mHeight = encodedImage.getHeight();
+    mRotationAngle = encodedImage.getRotationAngle();
+    mExifOrientation = encodedImage.getExifOrientation();
+    mColorSpace = encodedImage.getColorSpace();
+    mIsComplete = isLast || EncodedImage.isMetaDataAvailable(encodedImage);
+    if (!mIsComplete) {
+      // The header was there but didn't have everything, try again when the data has doubled
+      mParseAtSize = Math.max(mParseAtSize, size) * 2;
+    }
+  }
+}
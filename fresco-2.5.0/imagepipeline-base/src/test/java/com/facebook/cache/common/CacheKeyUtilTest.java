@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.cache.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+
+import com.facebook.common.util.SecureHashUtil;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/** Tests for {@link CacheKeyUtil} */
+@RunWith(RobolectricTestRunner.class)
+public class CacheKeyUtilTest {
+
+  private static String sha1(String key) throws Exception {
+    return SecureHashUtil.makeSHA1HashBase64(key.getBytes("UTF-8"));
+  }
+
+  @Test
+  public void testDefaultIdsAreUnchanged() throws Exception {
+    SimpleCacheKey key = new SimpleCacheKey("http://test.uri");
+    assertEquals(sha1("http://test.uri"), CacheKeyUtil.getResourceIds(key).get(0));
+    assertEquals(sha1("http://test.uri"), CacheKeyUtil.getFirstResourceId(key));
+    assertEquals(
+        "http://debug.uri",
+        CacheKeyUtil.getResourceIds(new SimpleCacheKey("http://debug.uri", true)).get(0));
+  }
+
+  @Test
+  public void testIdsAreMemoized() {
+    SimpleCacheKey key = new SimpleCacheKey("http://test.uri");
+    List<String> ids = CacheKeyUtil.getResourceIds(key);
+    assertSame(ids, CacheKeyUtil.getResourceIds(key));
+    assertSame(ids.get(0), CacheKeyUtil.getFirstResourceId(key));
+
+    List<CacheKey> keys = new ArrayList<>();
+    keys.add(key);
+    keys.add(new SimpleCacheKey("http://other.uri"));
+    MultiCacheKey multiCacheKey = new MultiCacheKey(keys);
+    List<String> multiIds = CacheKeyUtil.getResourceIds(multiCacheKey);
+    assertEquals(2, multiIds.size());
+    assertSame(ids.get(0), multiIds.get(0));
+    assertSame(multiIds, CacheKeyUtil.getResourceIds(multiCacheKey));
+  }
+
+  @Test
+  public void testIdsAreMemoizedPerGenerator() throws Exception {
+    SimpleCacheKey key = new SimpleCacheKey("http://test.uri");
+    ResourceIdGenerator murmur3 = Murmur3ResourceIdGenerator.getInstance();
+    String sha1Id = CacheKeyUtil.getFirstResourceId(key);
+    String murmur3Id = CacheKeyUtil.getFirstResourceId(key, murmur3);
+
+    assertNotEquals(sha1Id, murmur3Id);
+    assertEquals(sha1("http://test.uri"), CacheKeyUtil.getFirstResourceId(key));
+    assertEquals(murmur3Id, CacheKeyUtil.getResourceIds(key, murmur3).get(0));
+  }
+
+  @Test
+  public void testMurmur3Ids() {
+    ResourceIdGenerator murmur3 = Murmur3ResourceIdGenerator.getInstance();
+    assertEquals("AAAAAAAAAAAAAAAAAAAAAA", murmur3.getResourceId(new SimpleCacheKey("")));
+    assertEquals("1tmXeNr8wH48KmQv56Y7nQ", murmur3.getResourceId(new SimpleCacheKey("http://x")));
+    assertEquals(1, murmur3.getVersion());
+    assertEquals(0, Sha1ResourceIdGenerator.getInstance().getVersion());
+  }
+}
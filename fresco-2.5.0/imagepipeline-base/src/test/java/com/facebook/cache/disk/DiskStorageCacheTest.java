@@ -15,9 +15,11 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
@@ -46,8 +48,10 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.TimeUnit;
 import org.junit.Before;
@@ -56,6 +60,8 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.InOrder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PowerMockIgnore;
 import org.powermock.core.classloader.annotations.PrepareOnlyThisForTest;
@@ -495,6 +501,46 @@ public class DiskStorageCacheTest {
     t2.join(1000);
   }
 
+  @Test
+  public void testReadsAreNotBlockedByEvictionPass() throws Exception {
+    CacheKey key = putOneThingInCache();
+    final CountDownLatch evictionStarted = new CountDownLatch(1);
+    final CountDownLatch finishEviction = new CountDownLatch(1);
+    DiskStorage blockingStorage = spy(mStorage);
+    doAnswer(
+            new Answer<Collection<DiskStorage.Entry>>() {
+              @Override
+              public Collection<DiskStorage.Entry> answer(InvocationOnMock invocation)
+                  throws Throwable {
+                evictionStarted.countDown();
+                finishEviction.await(10, TimeUnit.SECONDS);
+                return mStorage.getEntries();
+              }
+            })
+        .when(blockingStorage)
+        .getEntries();
+    final DiskStorageCache cache = createDiskCache(blockingStorage, false);
+    // the eviction pass holds the cache lock while it walks the entries
+    Thread evictionThread =
+        new Thread(
+            new Runnable() {
+              @Override
+              public void run() {
+                cache.clearOldEntries(Long.MAX_VALUE);
+              }
+            });
+    evictionThread.start();
+    assertTrue(evictionStarted.await(10, TimeUnit.SECONDS));
+
+    assertNotNull(cache.getResource(key));
+    assertTrue(cache.probe(key));
+    assertTrue(cache.hasKeySync(key));
+    assertTrue(cache.hasKey(key));
+
+    finishEviction.countDown();
+    evictionThread.join(1000);
+  }
+
   @Test
   public void testIsEnabled() throws Exception {
     DiskStorage storageMock = mock(DiskStorage.class);
@@ -666,6 +712,57 @@ public class DiskStorageCacheTest {
     assertFalse(mCache.hasKey(key));
   }
 
+  @Test
+  public void testNoDefiniteMissWithoutPopulateAtStartup() throws Exception {
+    CacheKey key = new SimpleCacheKey("bar");
+    putOneThingInCache();
+    assertFalse(mCache.isDefiniteMissSync(key));
+    assertEquals(0, mCache.getFilteredLookupCount());
+  }
+
+  @Test
+  public void testDefiniteMissWithPopulateAtStartup() throws Exception {
+    DiskStorageCache cache = createDiskCache(mStorage, true);
+    CacheKey missingKey = new SimpleCacheKey("bar");
+    // the index is not complete yet
+    assertFalse(cache.isDefiniteMissSync(missingKey));
+    mBackgroundExecutor.runUntilIdle();
+
+    CacheKey key = putOneThingInCache(cache);
+    assertFalse(cache.isDefiniteMissSync(key));
+    assertTrue(cache.isDefiniteMissSync(missingKey));
+    assertNull(cache.getResource(missingKey));
+    assertFalse(cache.hasKey(missingKey));
+    assertEquals(3, cache.getFilteredLookupCount());
+    assertEquals(0, cache.getFilterFalsePositiveCount());
+    assertNotNull(cache.getResource(key));
+  }
+
+  @Test
+  public void testDefiniteMissAfterEviction() throws Exception {
+    DiskStorageCache cache = createDiskCache(mStorage, true);
+    mBackgroundExecutor.runUntilIdle();
+    when(mClock.now()).thenReturn(5l);
+    CacheKey key = putOneThingInCache(cache);
+    when(mClock.now()).thenReturn(10l);
+    cache.clearOldEntries(4);
+    assertTrue(cache.isDefiniteMissSync(key));
+    assertNull(cache.getResource(key));
+  }
+
+  @Test
+  public void testFilterFalsePositives() throws Exception {
+    DiskStorageCache cache = createDiskCache(mStorage, true);
+    mBackgroundExecutor.runUntilIdle();
+    CacheKey key = putOneThingInCache(cache);
+    // removing a single entry leaves it in the filter
+    cache.remove(key);
+    assertFalse(cache.isDefiniteMissSync(key));
+    assertNull(cache.getResource(key));
+    assertEquals(1, cache.getFilterFalsePositiveCount());
+    assertEquals(1.0, cache.getFilterFalsePositiveRate(), 0);
+  }
+
   private CacheKey putOneThingInCache() throws IOException {
     return putOneThingInCache(mCache);
   }
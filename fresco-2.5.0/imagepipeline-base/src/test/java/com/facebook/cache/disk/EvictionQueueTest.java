@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.cache.disk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.facebook.binaryresource.BinaryResource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/** Tests for {@link EvictionQueue} */
+@RunWith(RobolectricTestRunner.class)
+public class EvictionQueueTest {
+
+  private static final long RANDOM_SEED = 42;
+
+  @Test
+  public void testPollsInComparatorOrder() {
+    Random random = new Random(RANDOM_SEED);
+    List<DiskStorage.Entry> entries = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      entries.add(createEntry("id" + i, random.nextInt(1000), random.nextInt(100000)));
+    }
+    Comparator<DiskStorage.Entry> comparator =
+        new ScoreBasedEvictionComparatorSupplier(1f, 0.5f).get();
+    EvictionQueue queue = new EvictionQueue();
+    queue.rebuild(entries, comparator, Long.MAX_VALUE);
+    Collections.sort(entries, comparator);
+
+    for (DiskStorage.Entry entry : entries) {
+      assertEquals(0, comparator.compare(entry, queue.poll()));
+    }
+    assertNull(queue.poll());
+  }
+
+  @Test
+  public void testIncrementalUpdates() {
+    EvictionQueue queue = new EvictionQueue();
+    queue.rebuild(
+        Arrays.asList(createEntry("a", 10, 100), createEntry("b", 20, 200)),
+        new DefaultEntryEvictionComparatorSupplier().get(),
+        Long.MAX_VALUE);
+    queue.put("c", createResource(30), 50);
+    queue.touch("c", 300);
+    queue.touch("a", 250);
+    queue.touch("b", 150);
+    assertTrue(queue.remove("b"));
+
+    assertEquals(2, queue.size());
+    assertEquals(40, queue.getTotalSize());
+    assertEquals("a", queue.poll().getId());
+    assertEquals("c", queue.poll().getId());
+    assertFalse(queue.remove("b"));
+  }
+
+  @Test
+  public void testTouchKeepsNewestTimestamp() {
+    EvictionQueue queue = new EvictionQueue();
+    queue.put("a", createResource(10), 100);
+    queue.put("b", createResource(10), 200);
+    queue.touch("b", 50);
+    assertEquals("a", queue.poll().getId());
+  }
+
+  @Test
+  public void testFutureTimestampsAreEvictedFirst() {
+    EvictionQueue queue = new EvictionQueue();
+    queue.rebuild(
+        Arrays.asList(
+            createEntry("past", 10, 100), createEntry("future", 10, 10000), createEntry("x", 1, 1)),
+        new DefaultEntryEvictionComparatorSupplier().get(),
+        5000);
+    assertEquals("future", queue.poll().getId());
+    assertEquals("x", queue.poll().getId());
+
+    queue.rebuild(
+        Arrays.asList(createEntry("past", 10, 100), createEntry("future", 10, 10000)),
+        new DefaultEntryEvictionComparatorSupplier().get(),
+        5000);
+    queue.touch("future", 200);
+    assertEquals("past", queue.poll().getId());
+  }
+
+  @Test
+  public void testPolledEntriesHaveTheirResource() {
+    DiskStorage.Entry listed = createEntry("listed", 10, 100);
+    BinaryResource listedResource = mock(BinaryResource.class);
+    when(listed.getResource()).thenReturn(listedResource);
+    BinaryResource writtenResource = createResource(20);
+    EvictionQueue queue = new EvictionQueue();
+    queue.rebuild(
+        Arrays.asList(listed), new DefaultEntryEvictionComparatorSupplier().get(), Long.MAX_VALUE);
+    queue.put("written", writtenResource, 200);
+
+    assertSame(listedResource, queue.poll().getResource());
+    assertSame(writtenResource, queue.poll().getResource());
+  }
+
+  private static BinaryResource createResource(long size) {
+    BinaryResource resource = mock(BinaryResource.class);
+    when(resource.size()).thenReturn(size);
+    return resource;
+  }
+
+  private static DiskStorage.Entry createEntry(String id, long size, long time) {
+    DiskStorage.Entry entry = mock(DiskStorage.Entry.class);
+    when(entry.getId()).thenReturn(id);
+    when(entry.getSize()).thenReturn(size);
+    when(entry.getTimestamp()).thenReturn(time);
+    return entry;
+  }
+}
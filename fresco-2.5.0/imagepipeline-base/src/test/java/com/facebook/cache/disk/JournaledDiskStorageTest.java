@@ -0,0 +1,271 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.cache.disk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.facebook.cache.common.CacheErrorLogger;
+import com.facebook.cache.common.WriterCallbacks;
+import com.facebook.common.file.FileTree;
+import com.facebook.common.internal.Suppliers;
+import com.facebook.common.time.SystemClock;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareOnlyThisForTest;
+import org.powermock.modules.junit4.rule.PowerMockRule;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+/** Tests for {@link JournaledDiskStorage} */
+@RunWith(RobolectricTestRunner.class)
+@PowerMockIgnore({"org.mockito.*", "org.robolectric.*", "androidx.*", "android.*"})
+@PrepareOnlyThisForTest({SystemClock.class})
+public class JournaledDiskStorageTest {
+
+  private static final int VERSION = 1;
+
+  @Rule public PowerMockRule rule = new PowerMockRule();
+
+  private File mDirectory;
+  private File mJournalFile;
+  private SystemClock mClock;
+
+  @Before
+  public void setUp() {
+    mClock = mock(SystemClock.class);
+    PowerMockito.mockStatic(SystemClock.class);
+    PowerMockito.when(SystemClock.get()).thenReturn(mClock);
+    File baseDirectory =
+        new File(RuntimeEnvironment.application.getCacheDir(), "journaled-disk-storage-test");
+    FileTree.deleteRecursively(baseDirectory);
+    assertTrue(baseDirectory.mkdirs());
+    mDirectory = new File(baseDirectory, "cache");
+    mJournalFile = new File(baseDirectory, "cache.journal");
+  }
+
+  private DiskStorage createDelegate() {
+    return new DefaultDiskStorage(mDirectory, VERSION, mock(CacheErrorLogger.class));
+  }
+
+  private JournaledDiskStorage createStorage(DiskStorage delegate) {
+    return new JournaledDiskStorage(
+        delegate, Suppliers.of(mJournalFile), VERSION, mock(CacheErrorLogger.class));
+  }
+
+  private JournaledDiskStorage createStorage() {
+    return createStorage(createDelegate());
+  }
+
+  private static void insert(DiskStorage storage, String resourceId, int size) throws IOException {
+    DiskStorage.Inserter inserter = storage.insert(resourceId, resourceId);
+    inserter.writeData(WriterCallbacks.from(new byte[size]), resourceId);
+    inserter.commit(resourceId);
+  }
+
+  private static Map<String, DiskStorage.Entry> entries(DiskStorage storage) throws IOException {
+    Map<String, DiskStorage.Entry> entries = new HashMap<>();
+    for (DiskStorage.Entry entry : storage.getEntries()) {
+      entries.put(entry.getId(), entry);
+    }
+    return entries;
+  }
+
+  @Test
+  public void testIndexIsReplayedFromJournal() throws Exception {
+    when(mClock.now()).thenReturn(1000L);
+    JournaledDiskStorage storage = createStorage();
+    insert(storage, "a", 10);
+    insert(storage, "b", 20);
+    insert(storage, "c", 30);
+    assertTrue(storage.remove("b") > 0);
+
+    DiskStorage delegate = spy(createDelegate());
+    JournaledDiskStorage reopened = createStorage(delegate);
+    Map<String, DiskStorage.Entry> entries = entries(reopened);
+
+    assertEquals(2, entries.size());
+    assertEquals(10, entries.get("a").getSize());
+    assertEquals(1000, entries.get("a").getTimestamp());
+    assertEquals(30, entries.get("c").getSize());
+    verify(delegate, times(0)).getEntries();
+  }
+
+  @Test
+  public void testRecordsAreAppendedAfterReplay() throws Exception {
+    when(mClock.now()).thenReturn(1000L);
+    JournaledDiskStorage storage = createStorage();
+    insert(storage, "a", 10);
+    insert(storage, "b", 20);
+
+    JournaledDiskStorage reopened = createStorage();
+    insert(reopened, "c", 30);
+    assertTrue(reopened.remove("a") > 0);
+    assertEquals(4, reopened.getJournalRecordCount());
+
+    DiskStorage delegate = spy(createDelegate());
+    Map<String, DiskStorage.Entry> entries = entries(createStorage(delegate));
+    assertEquals(2, entries.size());
+    assertFalse(entries.containsKey("a"));
+    assertEquals(20, entries.get("b").getSize());
+    assertEquals(30, entries.get("c").getSize());
+    verify(delegate, times(0)).getEntries();
+  }
+
+  @Test
+  public void testTouchesAreRecordedAtGranularity() throws Exception {
+    when(mClock.now()).thenReturn(1000L);
+    JournaledDiskStorage storage = createStorage();
+    insert(storage, "a", 10);
+    int records = storage.getJournalRecordCount();
+
+    when(mClock.now()).thenReturn(1001L);
+    assertTrue(storage.touch("a", "a"));
+    assertEquals(1001, entries(storage).get("a").getTimestamp());
+    assertEquals(records, storage.getJournalRecordCount());
+
+    long later = 1000L + JournaledDiskStorage.TOUCH_RECORD_GRANULARITY_MS;
+    when(mClock.now()).thenReturn(later);
+    assertNotNull(storage.getResource("a", "a"));
+    assertEquals(records + 1, storage.getJournalRecordCount());
+  }
+
+  @Test
+  public void testCorruptJournalFallsBackToDirectoryWalk() throws Exception {
+    JournaledDiskStorage storage = createStorage();
+    insert(storage, "a", 10);
+    insert(storage, "b", 20);
+
+    RandomAccessFile journal = new RandomAccessFile(mJournalFile, "rw");
+    try {
+      journal.writeInt(0);
+    } finally {
+      journal.close();
+    }
+
+    DiskStorage delegate = spy(createDelegate());
+    Map<String, DiskStorage.Entry> entries = entries(createStorage(delegate));
+    assertEquals(2, entries.size());
+    assertEquals(20, entries.get("b").getSize());
+    verify(delegate).getEntries();
+  }
+
+  @Test
+  public void testTornLastRecordIsIgnored() throws Exception {
+    JournaledDiskStorage storage = createStorage();
+    insert(storage, "a", 10);
+
+    FileOutputStream journal = new FileOutputStream(mJournalFile, true);
+    try {
+      journal.write(new byte[] {1, 0, 8, 'b'});
+    } finally {
+      journal.close();
+    }
+
+    DiskStorage delegate = spy(createDelegate());
+    JournaledDiskStorage reopened = createStorage(delegate);
+    assertEquals(1, reopened.getEntries().size());
+    assertEquals(1, reopened.getJournalRecordCount());
+    verify(delegate, times(0)).getEntries();
+  }
+
+  @Test
+  public void testMissingFileIsDroppedFromIndex() throws Exception {
+    JournaledDiskStorage storage = createStorage();
+    insert(storage, "a", 10);
+    createDelegate().remove("a");
+
+    assertFalse(storage.contains("a", "a"));
+    assertTrue(storage.getEntries().isEmpty());
+    assertTrue(createStorage().getEntries().isEmpty());
+  }
+
+  @Test
+  public void testUnindexedFileIsReportedMissing() throws Exception {
+    JournaledDiskStorage storage = createStorage();
+    assertTrue(storage.getEntries().isEmpty());
+    insert(createDelegate(), "a", 10);
+
+    assertFalse(storage.contains("a", "a"));
+    assertNull(storage.getResource("a", "a"));
+    insert(storage, "a", 10);
+    assertTrue(storage.contains("a", "a"));
+    assertNotNull(storage.getResource("a", "a"));
+  }
+
+  @Test
+  public void testEntryWithoutFileIsDroppedWhenRead() throws Exception {
+    JournaledDiskStorage storage = createStorage();
+    insert(storage, "a", 10);
+    DiskStorage.Entry entry = entries(storage).get("a");
+    createDelegate().remove("a");
+
+    try {
+      entry.getResource().read();
+      fail();
+    } catch (FileNotFoundException expected) {
+    }
+    assertTrue(storage.getEntries().isEmpty());
+    assertTrue(createStorage().getEntries().isEmpty());
+  }
+
+  @Test
+  public void testJournalIsCompacted() throws Exception {
+    JournaledDiskStorage storage = createStorage();
+    for (int i = 0; i < JournaledDiskStorage.MIN_COMPACTION_RECORDS * 2; i++) {
+      insert(storage, "key" + (i % 10), 10);
+    }
+    assertTrue(storage.getJournalRecordCount() <= JournaledDiskStorage.MIN_COMPACTION_RECORDS + 10);
+    assertEquals(10, entries(createStorage()).size());
+  }
+
+  @Test
+  public void testPurgeIsRateLimited() throws Exception {
+    when(mClock.now()).thenReturn(1000L);
+    DiskStorage delegate = spy(createDelegate());
+    JournaledDiskStorage storage = createStorage(delegate);
+    storage.purgeUnexpectedResources();
+    storage.purgeUnexpectedResources();
+    verify(delegate, times(1)).purgeUnexpectedResources();
+
+    when(mClock.now()).thenReturn(1000L + JournaledDiskStorage.PURGE_INTERVAL_MS);
+    storage.purgeUnexpectedResources();
+    verify(delegate, times(2)).purgeUnexpectedResources();
+  }
+
+  @Test
+  public void testClearAll() throws Exception {
+    JournaledDiskStorage storage = createStorage();
+    insert(storage, "a", 10);
+    storage.clearAll();
+
+    assertTrue(storage.getEntries().isEmpty());
+    assertNull(storage.getResource("a", "a"));
+    assertTrue(createStorage().getEntries().isEmpty());
+  }
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.cache.disk;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.facebook.binaryresource.BinaryResource;
+import com.facebook.cache.common.CacheErrorLogger;
+import com.facebook.cache.common.WriterCallbacks;
+import com.facebook.common.file.FileTree;
+import com.facebook.common.time.SystemClock;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareOnlyThisForTest;
+import org.powermock.modules.junit4.rule.PowerMockRule;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+/** Tests for {@link PackedDiskStorage} */
+@RunWith(RobolectricTestRunner.class)
+@PowerMockIgnore({"org.mockito.*", "org.robolectric.*", "androidx.*", "android.*"})
+@PrepareOnlyThisForTest({SystemClock.class})
+public class PackedDiskStorageTest {
+
+  private static final int VERSION = 1;
+  private static final int MAX_SEGMENT_SIZE = 1000;
+
+  @Rule public PowerMockRule rule = new PowerMockRule();
+
+  private File mDirectory;
+  private SystemClock mClock;
+
+  @Before
+  public void setUp() {
+    mClock = mock(SystemClock.class);
+    PowerMockito.mockStatic(SystemClock.class);
+    PowerMockito.when(SystemClock.get()).thenReturn(mClock);
+    mDirectory = new File(RuntimeEnvironment.application.getCacheDir(), "packed-disk-storage-test");
+    FileTree.deleteRecursively(mDirectory);
+  }
+
+  private PackedDiskStorage createStorage(int version) {
+    return new PackedDiskStorage(
+        mDirectory, version, MAX_SEGMENT_SIZE, mock(CacheErrorLogger.class));
+  }
+
+  private PackedDiskStorage createStorage() {
+    return createStorage(VERSION);
+  }
+
+  private static byte[] data(String resourceId, int size) {
+    byte[] data = new byte[size];
+    for (int i = 0; i < size; i++) {
+      data[i] = (byte) (resourceId.hashCode() + i);
+    }
+    return data;
+  }
+
+  private static void insert(DiskStorage storage, String resourceId, int size)
+      throws IOException {
+    DiskStorage.Inserter inserter = storage.insert(resourceId, resourceId);
+    inserter.writeData(WriterCallbacks.from(data(resourceId, size)), resourceId);
+    inserter.commit(resourceId);
+  }
+
+  private static Map<String, DiskStorage.Entry> entries(DiskStorage storage) throws IOException {
+    Map<String, DiskStorage.Entry> entries = new HashMap<>();
+    for (DiskStorage.Entry entry : storage.getEntries()) {
+      entries.put(entry.getId(), entry);
+    }
+    return entries;
+  }
+
+  @Test
+  public void testInsertAndRead() throws Exception {
+    PackedDiskStorage storage = createStorage();
+    insert(storage, "a", 100);
+    insert(storage, "b", 200);
+
+    assertTrue(storage.contains("a", "a"));
+    BinaryResource resource = storage.getResource("b", "b");
+    assertEquals(200, resource.size());
+    assertArrayEquals(data("b", 200), resource.read());
+    assertNull(storage.getResource("c", "c"));
+  }
+
+  @Test
+  public void testStreamReadsOnlyTheRecord() throws Exception {
+    PackedDiskStorage storage = createStorage();
+    insert(storage, "a", 10);
+    insert(storage, "b", 10);
+
+    InputStream stream = storage.getResource("a", "a").openStream();
+    byte[] expected = data("a", 10);
+    assertEquals(8, stream.skip(8));
+    assertEquals(2, stream.available());
+    assertEquals(expected[8] & 0xFF, stream.read());
+    assertEquals(expected[9] & 0xFF, stream.read());
+    assertEquals(-1, stream.read());
+  }
+
+  @Test
+  public void testIndexIsRebuiltFromSegments() throws Exception {
+    when(mClock.now()).thenReturn(1000L);
+    PackedDiskStorage storage = createStorage();
+    for (int i = 0; i < 20; i++) {
+      insert(storage, "key" + i, 100);
+    }
+    insert(storage, "key3", 50);
+    assertEquals(100, storage.remove("key4"));
+    assertEquals(0, storage.remove("key4"));
+    assertTrue(storage.getSegmentCount() > 1);
+
+    Map<String, DiskStorage.Entry> entries = entries(createStorage());
+    assertEquals(19, entries.size());
+    assertFalse(entries.containsKey("key4"));
+    assertEquals(50, entries.get("key3").getSize());
+    assertEquals(1000, entries.get("key3").getTimestamp());
+  }
+
+  @Test
+  public void testAccessTimestampIsPersistedAtGranularity() throws Exception {
+    when(mClock.now()).thenReturn(1000L);
+    PackedDiskStorage storage = createStorage();
+    insert(storage, "a", 10);
+
+    when(mClock.now()).thenReturn(1001L);
+    assertTrue(storage.touch("a", "a"));
+    assertEquals(1001, entries(storage).get("a").getTimestamp());
+    assertEquals(1000, entries(createStorage()).get("a").getTimestamp());
+
+    long later = 1000L + PackedDiskStorage.TIMESTAMP_WRITE_GRANULARITY_MS;
+    when(mClock.now()).thenReturn(later);
+    storage.getResource("a", "a");
+    assertEquals(later, entries(createStorage()).get("a").getTimestamp());
+  }
+
+  @Test
+  public void testTornRecordIsTruncated() throws Exception {
+    PackedDiskStorage storage = createStorage();
+    insert(storage, "a", 10);
+    insert(storage, "b", 10);
+
+    File segment = new File(new File(mDirectory, "p1." + VERSION), "segment-0.pack");
+    long length = segment.length();
+    FileOutputStream stream = new FileOutputStream(segment, true);
+    try {
+      stream.write(new byte[] {0x46, 0x50, 0x4b, 0x52, 1, 0, 0});
+    } finally {
+      stream.close();
+    }
+
+    PackedDiskStorage reopened = createStorage();
+    assertEquals(2, reopened.getEntries().size());
+    assertEquals(length, segment.length());
+    insert(reopened, "c", 10);
+    assertEquals(3, createStorage().getEntries().size());
+  }
+
+  @Test
+  public void testSparseSegmentsAreCompacted() throws Exception {
+    PackedDiskStorage storage = createStorage();
+    for (int i = 0; i < 20; i++) {
+      insert(storage, "key" + i, 100);
+    }
+    int segmentCount = storage.getSegmentCount();
+    for (int i = 0; i < 15; i++) {
+      storage.remove("key" + i);
+    }
+
+    storage.purgeUnexpectedResources();
+
+    assertTrue(storage.getSegmentCount() < segmentCount);
+    for (int i = 15; i < 20; i++) {
+      assertArrayEquals(data("key" + i, 100), storage.getResource("key" + i, "key" + i).read());
+    }
+    assertEquals(5, createStorage().getEntries().size());
+  }
+
+  @Test
+  public void testReadWhileSegmentIsCompacted() throws Exception {
+    PackedDiskStorage storage = createStorage();
+    for (int i = 0; i < 20; i++) {
+      insert(storage, "key" + i, 100);
+    }
+    BinaryResource streamedResource = storage.getResource("key0", "key0");
+    BinaryResource readResource = storage.getResource("key0", "key0");
+    byte[] expected = data("key0", 100);
+    InputStream stream = streamedResource.openStream();
+    assertEquals(expected[0] & 0xFF, stream.read());
+    for (int i = 1; i < 8; i++) {
+      storage.remove("key" + i);
+    }
+    int segmentCount = storage.getSegmentCount();
+
+    storage.purgeUnexpectedResources();
+
+    assertTrue(storage.getSegmentCount() < segmentCount);
+    byte[] rest = new byte[99];
+    assertEquals(99, stream.read(rest, 0, 99));
+    assertArrayEquals(Arrays.copyOfRange(expected, 1, 100), rest);
+    stream.close();
+    assertArrayEquals(expected, readResource.read());
+    storage.purgeUnexpectedResources();
+    assertArrayEquals(expected, storage.getResource("key0", "key0").read());
+  }
+
+  @Test
+  public void testCompactionAfterReopen() throws Exception {
+    PackedDiskStorage storage = createStorage();
+    for (int i = 0; i < 20; i++) {
+      insert(storage, "key" + i, 100);
+    }
+    int segmentCount = storage.getSegmentCount();
+
+    PackedDiskStorage reopened = createStorage();
+    for (int i = 0; i < 7; i++) {
+      reopened.remove("key" + i);
+    }
+    for (int i = 17; i < 20; i++) {
+      reopened.remove("key" + i);
+    }
+    reopened.purgeUnexpectedResources();
+
+    assertTrue(reopened.getSegmentCount() < segmentCount);
+    for (int i = 7; i < 17; i++) {
+      assertArrayEquals(data("key" + i, 100), reopened.getResource("key" + i, "key" + i).read());
+    }
+    insert(reopened, "key20", 100);
+    assertArrayEquals(data("key20", 100), reopened.getResource("key20", "key20").read());
+    Map<String, DiskStorage.Entry> entries = entries(createStorage());
+    assertEquals(11, entries.size());
+    assertTrue(entries.containsKey("key7"));
+    assertTrue(entries.containsKey("key16"));
+  }
+
+  @Test
+  public void testOtherVersionIsDeleted() throws Exception {
+    insert(createStorage(VERSION), "a", 10);
+
+    PackedDiskStorage storage = createStorage(VERSION + 1);
+    assertTrue(storage.getEntries().isEmpty());
+    assertTrue(createStorage(VERSION).getEntries().isEmpty());
+  }
+
+  @Test
+  public void testClearAll() throws Exception {
+    PackedDiskStorage storage = createStorage();
+    insert(storage, "a", 10);
+    storage.clearAll();
+
+    assertTrue(storage.getEntries().isEmpty());
+    assertNull(storage.getResource("a", "a"));
+    insert(storage, "b", 10);
+    assertEquals(1, createStorage().getEntries().size());
+  }
+}
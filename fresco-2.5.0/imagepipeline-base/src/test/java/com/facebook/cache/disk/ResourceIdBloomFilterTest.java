@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.cache.disk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.UUID;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/** Tests for {@link ResourceIdBloomFilter} */
+@RunWith(RobolectricTestRunner.class)
+public class ResourceIdBloomFilterTest {
+
+  private static final int ID_COUNT = 10000;
+  private static final double FALSE_POSITIVE_RATE = 0.01;
+
+  @Test
+  public void testSizing() {
+    ResourceIdBloomFilter filter = new ResourceIdBloomFilter(ID_COUNT, FALSE_POSITIVE_RATE);
+    // about 9.6 bits per id, and 7 hashes
+    assertTrue(filter.getBitCount() >= 95851);
+    assertTrue(filter.getBitCount() < 95851 + 64);
+    assertEquals(7, filter.getHashCount());
+  }
+
+  @Test
+  public void testNoFalseNegatives() {
+    ResourceIdBloomFilter filter = new ResourceIdBloomFilter(ID_COUNT, FALSE_POSITIVE_RATE);
+    for (int i = 0; i < ID_COUNT; i++) {
+      filter.add(resourceId(i));
+    }
+    for (int i = 0; i < ID_COUNT; i++) {
+      assertTrue(filter.mightContain(resourceId(i)));
+    }
+  }
+
+  @Test
+  public void testFalsePositiveRate() {
+    ResourceIdBloomFilter filter = new ResourceIdBloomFilter(ID_COUNT, FALSE_POSITIVE_RATE);
+    for (int i = 0; i < ID_COUNT; i++) {
+      filter.add(resourceId(i));
+    }
+    int falsePositives = 0;
+    for (int i = ID_COUNT; i < 2 * ID_COUNT; i++) {
+      if (filter.mightContain(resourceId(i))) {
+        falsePositives++;
+      }
+    }
+    assertTrue(falsePositives < ID_COUNT * FALSE_POSITIVE_RATE * 2);
+  }
+
+  @Test
+  public void testEmpty() {
+    ResourceIdBloomFilter filter = new ResourceIdBloomFilter(0, FALSE_POSITIVE_RATE);
+    assertFalse(filter.mightContain(resourceId(0)));
+    assertFalse(filter.isSaturated());
+  }
+
+  @Test
+  public void testSaturation() {
+    ResourceIdBloomFilter filter = new ResourceIdBloomFilter(2, FALSE_POSITIVE_RATE);
+    filter.add(resourceId(0));
+    filter.add(resourceId(1));
+    assertFalse(filter.isSaturated());
+    filter.add(resourceId(2));
+    assertTrue(filter.isSaturated());
+  }
+
+  // resource ids are hashes of the cache keys, like these
+  private static String resourceId(int i) {
+    return UUID.nameUUIDFromBytes(String.valueOf(i).getBytes()).toString();
+  }
+}
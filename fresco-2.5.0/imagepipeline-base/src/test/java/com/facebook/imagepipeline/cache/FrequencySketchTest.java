@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/** Tests for {@link FrequencySketch} */
+@RunWith(RobolectricTestRunner.class)
+public class FrequencySketchTest {
+
+  private static final String KEY = "KEY";
+
+  @Test
+  public void testIncrement() {
+    FrequencySketch sketch = new FrequencySketch(64);
+    assertEquals(0, sketch.frequency(KEY));
+    sketch.increment(KEY);
+    sketch.increment(KEY);
+    sketch.increment(KEY);
+    assertEquals(3, sketch.frequency(KEY));
+  }
+
+  @Test
+  public void testFrequencySaturates() {
+    FrequencySketch sketch = new FrequencySketch(64);
+    for (int i = 0; i < 20; i++) {
+      sketch.increment(KEY);
+    }
+    assertEquals(15, sketch.frequency(KEY));
+  }
+
+  @Test
+  public void testFrequenciesAreOverestimatedOnly() {
+    FrequencySketch sketch = new FrequencySketch(512);
+    for (int i = 0; i < 512; i++) {
+      for (int j = 0; j <= i % 4; j++) {
+        sketch.increment("k" + i);
+      }
+    }
+    for (int i = 0; i < 512; i++) {
+      assertTrue(sketch.frequency("k" + i) >= i % 4 + 1);
+    }
+  }
+
+  @Test
+  public void testFrequenciesAreHalvedAfterSampleSize() {
+    FrequencySketch sketch = new FrequencySketch(64);
+    for (int i = 0; i < 15; i++) {
+      sketch.increment(KEY);
+    }
+    // enough increments of other keys to reach the sample size once
+    for (int i = 0; i < sketch.getSampleSize() - 15; i++) {
+      sketch.increment("k" + i);
+    }
+    assertTrue(sketch.frequency(KEY) < 15);
+    assertTrue(sketch.frequency(KEY) >= 7);
+  }
+
+  @Test
+  public void testEnsureCapacity() {
+    FrequencySketch sketch = new FrequencySketch(10);
+    assertEquals(640, sketch.getSampleSize());
+    sketch.increment(KEY);
+    sketch.ensureCapacity(100);
+    assertEquals(1280, sketch.getSampleSize());
+    assertEquals(0, sketch.frequency(KEY));
+    sketch.increment(KEY);
+    sketch.ensureCapacity(64);
+    assertEquals(1280, sketch.getSampleSize());
+    assertEquals(1, sketch.frequency(KEY));
+  }
+}
@@ -0,0 +1,329 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.os.SystemClock;
+import com.facebook.common.internal.Predicate;
+import com.facebook.common.internal.Supplier;
+import com.facebook.common.memory.MemoryTrimType;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.common.references.ResourceReleaser;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.rule.PowerMockRule;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@PrepareForTest({SystemClock.class})
+@PowerMockIgnore({"org.mockito.*", "org.robolectric.*", "androidx.*", "android.*"})
+@Config(manifest = Config.NONE)
+public class SegmentedCountingMemoryCacheTest {
+
+  private static final int CACHE_MAX_SIZE = 1200;
+  private static final int CACHE_MAX_COUNT = 4;
+  private static final int CACHE_EVICTION_QUEUE_MAX_SIZE = 1100;
+  private static final int CACHE_EVICTION_QUEUE_MAX_COUNT = 3;
+  private static final int CACHE_ENTRY_MAX_SIZE = 1000;
+  private static final long PARAMS_CHECK_INTERVAL_MS = TimeUnit.MINUTES.toMillis(5);
+  private static final int SEGMENT_COUNT = 4;
+
+  @Mock public ResourceReleaser<Integer> mReleaser;
+  @Mock public MemoryCache.CacheTrimStrategy mCacheTrimStrategy;
+  @Mock public Supplier<MemoryCacheParams> mParamsSupplier;
+
+  @Rule public PowerMockRule rule = new PowerMockRule();
+
+  private ValueDescriptor<Integer> mValueDescriptor;
+  private MemoryCacheParams mParams;
+  private SegmentedCountingMemoryCache<String, Integer> mCache;
+
+  private static final String KEY = "KEY";
+  private static final String[] KEYS =
+      new String[] {"k0", "k1", "k2", "k3", "k4", "k5", "k6", "k7", "k8", "k9"};
+
+  @Before
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+    PowerMockito.mockStatic(SystemClock.class);
+    PowerMockito.when(SystemClock.uptimeMillis()).thenReturn(0L);
+    mValueDescriptor =
+        new ValueDescriptor<Integer>() {
+          @Override
+          public int getSizeInBytes(Integer value) {
+            return value;
+          }
+        };
+    mParams =
+        new MemoryCacheParams(
+            CACHE_MAX_SIZE,
+            CACHE_MAX_COUNT,
+            CACHE_EVICTION_QUEUE_MAX_SIZE,
+            CACHE_EVICTION_QUEUE_MAX_COUNT,
+            CACHE_ENTRY_MAX_SIZE,
+            PARAMS_CHECK_INTERVAL_MS);
+    when(mParamsSupplier.get()).thenReturn(mParams);
+    mCache =
+        new SegmentedCountingMemoryCache<>(
+            mValueDescriptor, mCacheTrimStrategy, mParamsSupplier, null, SEGMENT_COUNT);
+  }
+
+  @Test
+  public void testSegmentCountIsRoundedUpToPowerOfTwo() {
+    SegmentedCountingMemoryCache<String, Integer> cache =
+        new SegmentedCountingMemoryCache<>(
+            mValueDescriptor, mCacheTrimStrategy, mParamsSupplier, null, 5);
+    assertEquals(8, cache.getSegmentCount());
+  }
+
+  @Test
+  public void testCache() {
+    cache(KEY, 100);
+    assertTotalSize(1, 100);
+    assertExclusivelyOwnedSize(0, 0);
+    assertTrue(mCache.contains(KEY));
+    verify(mReleaser, never()).release(anyInt());
+  }
+
+  @Test
+  public void testClosingClientReference() {
+    CloseableReference<Integer> cachedRef = cache(KEY, 100);
+    cachedRef.close();
+    assertTotalSize(1, 100);
+    assertExclusivelyOwnedSize(1, 100);
+    verify(mReleaser, never()).release(anyInt());
+  }
+
+  @Test
+  public void testGetMakesEntryShared() {
+    cache(KEY, 100).close();
+    CloseableReference<Integer> ref = mCache.get(KEY);
+    assertNotNull(ref);
+    assertEquals(100, (int) ref.get());
+    assertExclusivelyOwnedSize(0, 0);
+    ref.close();
+    assertExclusivelyOwnedSize(1, 100);
+  }
+
+  @Test
+  public void testReuseExclusive() {
+    cache(KEY, 100).close();
+    CloseableReference<Integer> reused = mCache.reuse(KEY);
+    assertNotNull(reused);
+    assertTotalSize(0, 0);
+    assertExclusivelyOwnedSize(0, 0);
+    reused.close();
+    verify(mReleaser).release(100);
+  }
+
+  @Test
+  public void testCantReuseNonExclusive() {
+    CloseableReference<Integer> cachedRef = cache(KEY, 100);
+    assertNull(mCache.reuse(KEY));
+    assertTotalSize(1, 100);
+    cachedRef.close();
+  }
+
+  @Test
+  public void testDoesNotCacheBigValues() {
+    assertNull(mCache.cache(KEY, newReference(CACHE_ENTRY_MAX_SIZE + 1)));
+  }
+
+  @Test
+  public void testEviction_ByTotalSizeAcrossSegments() {
+    cache(KEYS[1], 400).close();
+    cache(KEYS[2], 500).close();
+    assertTotalSize(2, 900);
+    // does not fit the cache unless some of the exclusive items from other segments are evicted
+    CloseableReference<Integer> valueRef3 = cache(KEYS[3], 500);
+    assertNotNull(valueRef3);
+    assertTrue(mCache.getSizeInBytes() <= CACHE_MAX_SIZE);
+    assertTrue(mCache.contains(KEYS[3]));
+    valueRef3.close();
+  }
+
+  @Test
+  public void testEviction_ByEvictionQueueCount() {
+    for (int i = 0; i < 5; i++) {
+      CloseableReference<Integer> ref = mCache.cache(KEYS[i], newReference(10));
+      if (ref != null) {
+        ref.close();
+      }
+    }
+    assertTrue(mCache.getEvictionQueueCount() <= CACHE_EVICTION_QUEUE_MAX_COUNT);
+    assertTrue(mCache.getCount() <= CACHE_MAX_COUNT);
+  }
+
+  @Test
+  public void testInUseItemsAreNotEvicted() {
+    CloseableReference<Integer> ref1 = cache(KEYS[1], 500);
+    CloseableReference<Integer> ref2 = cache(KEYS[2], 500);
+    // in-use items occupy 1000 bytes, so this one can't be cached
+    assertNull(cache(KEYS[3], 500));
+    assertTotalSize(2, 1000);
+    ref1.close();
+    ref2.close();
+  }
+
+  @Test
+  public void testTrimDropsAllExclusives() {
+    when(mCacheTrimStrategy.getTrimRatio(MemoryTrimType.OnSystemLowMemoryWhileAppInForeground))
+        .thenReturn(1.0);
+    cache(KEYS[1], 100).close();
+    cache(KEYS[2], 200).close();
+    CloseableReference<Integer> inUse = cache(KEYS[3], 300);
+    mCache.trim(MemoryTrimType.OnSystemLowMemoryWhileAppInForeground);
+    assertTotalSize(1, 300);
+    assertExclusivelyOwnedSize(0, 0);
+    verify(mReleaser).release(100);
+    verify(mReleaser).release(200);
+    inUse.close();
+  }
+
+  @Test
+  public void testRemoveAll() {
+    cache(KEYS[1], 110).close();
+    cache(KEYS[2], 120).close();
+    CloseableReference<Integer> ref3 = cache(KEYS[3], 130);
+    int removed =
+        mCache.removeAll(
+            new Predicate<String>() {
+              @Override
+              public boolean apply(String key) {
+                return !key.equals(KEYS[2]);
+              }
+            });
+    assertEquals(2, removed);
+    assertTotalSize(1, 120);
+    assertExclusivelyOwnedSize(1, 120);
+    verify(mReleaser).release(110);
+    verify(mReleaser, never()).release(130);
+    ref3.close();
+    verify(mReleaser).release(130);
+  }
+
+  @Test
+  public void testClear() {
+    cache(KEYS[1], 110).close();
+    CloseableReference<Integer> ref2 = cache(KEYS[2], 120);
+    mCache.clear();
+    assertTotalSize(0, 0);
+    assertExclusivelyOwnedSize(0, 0);
+    assertFalse(mCache.contains(KEYS[1]));
+    verify(mReleaser).release(110);
+    ref2.close();
+    verify(mReleaser).release(120);
+  }
+
+  @Test
+  public void testGetCachedEntriesMergesSegments() {
+    cache(KEYS[1], 110).close();
+    cache(KEYS[2], 120).close();
+    CountingLruMap<String, CountingMemoryCache.Entry<String, Integer>> entries =
+        mCache.getCachedEntries();
+    assertEquals(2, entries.getCount());
+    assertEquals(230, entries.getSizeInBytes());
+  }
+
+  @Test
+  public void testConcurrentAccessKeepsAccounting() throws Exception {
+    final MemoryCacheParams params =
+        new MemoryCacheParams(10000, 50, 5000, 40, 100, PARAMS_CHECK_INTERVAL_MS);
+    when(mParamsSupplier.get()).thenReturn(params);
+    final SegmentedCountingMemoryCache<String, Integer> cache =
+        new SegmentedCountingMemoryCache<>(
+            mValueDescriptor, mCacheTrimStrategy, mParamsSupplier, null, 8);
+    final AtomicInteger created = new AtomicInteger();
+    final CountDownLatch done = new CountDownLatch(4);
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      final Random random = new Random(t);
+      threads.add(
+          new Thread(
+              new Runnable() {
+                @Override
+                public void run() {
+                  for (int i = 0; i < 5000; i++) {
+                    String key = "k" + random.nextInt(200);
+                    CloseableReference<Integer> ref = cache.get(key);
+                    if (ref == null) {
+                      created.incrementAndGet();
+                      CloseableReference<Integer> original =
+                          newReference(1 + random.nextInt(100));
+                      ref = cache.cache(key, original);
+                      original.close();
+                    }
+                    CloseableReference.closeSafely(ref);
+                  }
+                  done.countDown();
+                }
+              }));
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    assertTrue(done.await(30, TimeUnit.SECONDS));
+
+    assertEquals(0, cache.getInUseCount());
+    assertTrue(cache.getSizeInBytes() <= params.maxCacheSize);
+    assertTrue(cache.getCount() <= params.maxCacheEntries);
+    CountingLruMap<String, CountingMemoryCache.Entry<String, Integer>> entries =
+        cache.getCachedEntries();
+    assertEquals(entries.getCount(), cache.getCount());
+    assertEquals(entries.getSizeInBytes(), cache.getSizeInBytes());
+
+    cache.clear();
+    verify(mReleaser, times(created.get())).release(anyInt());
+  }
+
+  /** Caches a new value and closes the original reference, returning the client reference. */
+  private CloseableReference<Integer> cache(String key, int size) {
+    CloseableReference<Integer> original = newReference(size);
+    CloseableReference<Integer> cachedRef = mCache.cache(key, original);
+    original.close();
+    return cachedRef;
+  }
+
+  private CloseableReference<Integer> newReference(int size) {
+    return CloseableReference.of(size, mReleaser);
+  }
+
+  private void assertTotalSize(int count, int bytes) {
+    assertEquals("total cache count mismatch", count, mCache.getCount());
+    assertEquals("total cache size mismatch", bytes, mCache.getSizeInBytes());
+  }
+
+  private void assertExclusivelyOwnedSize(int count, int bytes) {
+    assertEquals("total exclusives count mismatch", count, mCache.getEvictionQueueCount());
+    assertEquals("total exclusives size mismatch", bytes, mCache.getEvictionQueueSizeInBytes());
+  }
+}
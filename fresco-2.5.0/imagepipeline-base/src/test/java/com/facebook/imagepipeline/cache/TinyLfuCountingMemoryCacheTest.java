@@ -0,0 +1,346 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.os.SystemClock;
+import com.facebook.common.internal.Predicate;
+import com.facebook.common.internal.Supplier;
+import com.facebook.common.memory.MemoryTrimType;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.common.references.ResourceReleaser;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.rule.PowerMockRule;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@PrepareForTest({SystemClock.class})
+@PowerMockIgnore({"org.mockito.*", "org.robolectric.*", "androidx.*", "android.*"})
+@Config(manifest = Config.NONE)
+public class TinyLfuCountingMemoryCacheTest {
+
+  private static final int CACHE_MAX_SIZE = 1200;
+  private static final int CACHE_MAX_COUNT = 4;
+  private static final int CACHE_EVICTION_QUEUE_MAX_SIZE = 1100;
+  private static final int CACHE_EVICTION_QUEUE_MAX_COUNT = 3;
+  private static final int CACHE_ENTRY_MAX_SIZE = 1000;
+  private static final long PARAMS_CHECK_INTERVAL_MS = TimeUnit.MINUTES.toMillis(5);
+
+  @Mock public ResourceReleaser<Integer> mReleaser;
+  @Mock public MemoryCache.CacheTrimStrategy mCacheTrimStrategy;
+  @Mock public Supplier<MemoryCacheParams> mParamsSupplier;
+
+  @Rule public PowerMockRule rule = new PowerMockRule();
+
+  private ValueDescriptor<Integer> mValueDescriptor;
+  private MemoryCacheParams mParams;
+  private TinyLfuCountingMemoryCache<String, Integer> mCache;
+
+  private static final String KEY = "KEY";
+  private static final String[] KEYS =
+      new String[] {"k0", "k1", "k2", "k3", "k4", "k5", "k6", "k7", "k8", "k9"};
+
+  @Before
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+    PowerMockito.mockStatic(SystemClock.class);
+    PowerMockito.when(SystemClock.uptimeMillis()).thenReturn(0L);
+    mValueDescriptor =
+        new ValueDescriptor<Integer>() {
+          @Override
+          public int getSizeInBytes(Integer value) {
+            return value;
+          }
+        };
+    mParams =
+        new MemoryCacheParams(
+            CACHE_MAX_SIZE,
+            CACHE_MAX_COUNT,
+            CACHE_EVICTION_QUEUE_MAX_SIZE,
+            CACHE_EVICTION_QUEUE_MAX_COUNT,
+            CACHE_ENTRY_MAX_SIZE,
+            PARAMS_CHECK_INTERVAL_MS);
+    when(mParamsSupplier.get()).thenReturn(mParams);
+    // the eviction queue has room for 1 item in the window, 1 on probation and 1 protected
+    mCache =
+        new TinyLfuCountingMemoryCache<>(
+            mValueDescriptor, mCacheTrimStrategy, mParamsSupplier, null);
+  }
+
+  @Test
+  public void testCache() {
+    cache(KEY, 10);
+    assertTotalSize(1, 10);
+    assertExclusivelyOwnedSize(0, 0);
+    assertTrue(mCache.contains(KEY));
+    assertEquals(TinyLfuCountingMemoryCache.Region.WINDOW, mCache.getRegion(KEY));
+    verify(mReleaser, never()).release(anyInt());
+  }
+
+  @Test
+  public void testClosingClientReference() {
+    CloseableReference<Integer> cachedRef = cache(KEY, 10);
+    cachedRef.close();
+    assertTotalSize(1, 10);
+    assertExclusivelyOwnedSize(1, 10);
+    verify(mReleaser, never()).release(anyInt());
+  }
+
+  @Test
+  public void testGetRecordsHitsOnly() {
+    assertNull(mCache.get(KEY));
+    assertEquals(0, mCache.getFrequency(KEY));
+    cache(KEY, 10).close();
+    assertEquals(1, mCache.getFrequency(KEY));
+    CloseableReference<Integer> ref = mCache.get(KEY);
+    assertNotNull(ref);
+    assertEquals(10, (int) ref.get());
+    assertEquals(2, mCache.getFrequency(KEY));
+    assertExclusivelyOwnedSize(0, 0);
+    ref.close();
+    assertExclusivelyOwnedSize(1, 10);
+  }
+
+  @Test
+  public void testWindowOverflowGoesOnProbation() {
+    cache(KEYS[1], 10).close();
+    cache(KEYS[2], 10).close();
+    assertEquals(TinyLfuCountingMemoryCache.Region.PROBATION, mCache.getRegion(KEYS[1]));
+    assertEquals(TinyLfuCountingMemoryCache.Region.WINDOW, mCache.getRegion(KEYS[2]));
+    assertEquals(1, mCache.getAdmittedCount());
+    assertEquals(0, mCache.getRejectedCount());
+  }
+
+  @Test
+  public void testGetProtectsItemOnProbation() {
+    cache(KEYS[1], 10).close();
+    cache(KEYS[2], 10).close();
+    mCache.get(KEYS[1]).close();
+    assertEquals(TinyLfuCountingMemoryCache.Region.PROTECTED, mCache.getRegion(KEYS[1]));
+    assertEquals(1, mCache.mProtectedEntries.getCount());
+    assertEquals(0, mCache.mProbationEntries.getCount());
+    // caching a new value keeps the region
+    cache(KEYS[1], 20).close();
+    assertEquals(TinyLfuCountingMemoryCache.Region.PROTECTED, mCache.getRegion(KEYS[1]));
+    assertTotalSize(2, 30);
+  }
+
+  @Test
+  public void testRejectsCandidateAccessedLessOften() {
+    cache(KEYS[1], 10).close();
+    mCache.get(KEYS[1]).close();
+    mCache.get(KEYS[1]).close();
+    cache(KEYS[2], 10).close();
+    cache(KEYS[3], 10).close();
+    // k3 is pushed out of the window, but k1 on probation was accessed more often
+    cache(KEYS[4], 10).close();
+    assertTrue(mCache.contains(KEYS[1]));
+    assertTrue(mCache.contains(KEYS[2]));
+    assertFalse(mCache.contains(KEYS[3]));
+    assertTrue(mCache.contains(KEYS[4]));
+    assertEquals(2, mCache.getAdmittedCount());
+    assertEquals(1, mCache.getRejectedCount());
+    assertExclusivelyOwnedSize(3, 30);
+  }
+
+  @Test
+  public void testAdmitsCandidateAccessedMoreOften() {
+    cache(KEYS[1], 10).close();
+    cache(KEYS[2], 10).close();
+    cache(KEYS[3], 10).close();
+    mCache.get(KEYS[3]).close();
+    mCache.get(KEYS[3]).close();
+    // k3 is pushed out of the window, and evicts k1 from probation
+    cache(KEYS[4], 10).close();
+    assertFalse(mCache.contains(KEYS[1]));
+    assertTrue(mCache.contains(KEYS[2]));
+    assertTrue(mCache.contains(KEYS[3]));
+    assertTrue(mCache.contains(KEYS[4]));
+    assertEquals(3, mCache.getAdmittedCount());
+    assertEquals(0, mCache.getRejectedCount());
+  }
+
+  @Test
+  public void testScanDoesNotEvictFrequentItems() {
+    MemoryCacheParams params =
+        new MemoryCacheParams(10000, 10, 10000, 10, 1000, PARAMS_CHECK_INTERVAL_MS);
+    when(mParamsSupplier.get()).thenReturn(params);
+    mCache =
+        new TinyLfuCountingMemoryCache<>(
+            mValueDescriptor, mCacheTrimStrategy, mParamsSupplier, null);
+    for (int i = 0; i < 5; i++) {
+      cache(KEYS[i], 10).close();
+      mCache.get(KEYS[i]).close();
+    }
+    for (int i = 0; i < 5; i++) {
+      mCache.get(KEYS[i]).close();
+    }
+    for (int i = 0; i < 100; i++) {
+      cache("scan" + i, 10).close();
+    }
+    for (int i = 0; i < 5; i++) {
+      assertTrue(mCache.contains(KEYS[i]));
+    }
+    assertTrue(mCache.getRejectedCount() > 0);
+    assertTrue(mCache.getEvictionQueueCount() <= 10);
+  }
+
+  @Test
+  public void testReuseExclusive() {
+    cache(KEY, 100).close();
+    CloseableReference<Integer> reused = mCache.reuse(KEY);
+    assertNotNull(reused);
+    assertTotalSize(0, 0);
+    assertExclusivelyOwnedSize(0, 0);
+    assertNull(mCache.getRegion(KEY));
+    reused.close();
+    verify(mReleaser).release(100);
+  }
+
+  @Test
+  public void testCantReuseNonExclusive() {
+    CloseableReference<Integer> cachedRef = cache(KEY, 100);
+    assertNull(mCache.reuse(KEY));
+    assertTotalSize(1, 100);
+    cachedRef.close();
+  }
+
+  @Test
+  public void testDoesNotCacheBigValues() {
+    assertNull(mCache.cache(KEY, newReference(CACHE_ENTRY_MAX_SIZE + 1)));
+  }
+
+  @Test
+  public void testEviction_ByTotalSize() {
+    cache(KEYS[1], 400).close();
+    cache(KEYS[2], 500).close();
+    assertTotalSize(2, 900);
+    // does not fit the cache unless some of the exclusive items are evicted
+    CloseableReference<Integer> valueRef3 = cache(KEYS[3], 500);
+    assertNotNull(valueRef3);
+    assertTrue(mCache.getSizeInBytes() <= CACHE_MAX_SIZE);
+    assertTrue(mCache.contains(KEYS[3]));
+    valueRef3.close();
+  }
+
+  @Test
+  public void testEviction_ByEvictionQueueCount() {
+    for (int i = 0; i < 5; i++) {
+      cache(KEYS[i], 10).close();
+    }
+    assertExclusivelyOwnedSize(CACHE_EVICTION_QUEUE_MAX_COUNT, 30);
+    assertTotalSize(CACHE_EVICTION_QUEUE_MAX_COUNT, 30);
+    assertEquals(2, mCache.getRejectedCount());
+  }
+
+  @Test
+  public void testInUseItemsAreNotEvicted() {
+    CloseableReference<Integer> ref1 = cache(KEYS[1], 500);
+    CloseableReference<Integer> ref2 = cache(KEYS[2], 500);
+    // in-use items occupy 1000 bytes, so this one can't be cached
+    assertNull(cache(KEYS[3], 500));
+    assertTotalSize(2, 1000);
+    ref1.close();
+    ref2.close();
+  }
+
+  @Test
+  public void testTrimDropsAllExclusives() {
+    when(mCacheTrimStrategy.getTrimRatio(MemoryTrimType.OnSystemLowMemoryWhileAppInForeground))
+        .thenReturn(1.0);
+    cache(KEYS[1], 100).close();
+    cache(KEYS[2], 200).close();
+    mCache.get(KEYS[1]).close();
+    CloseableReference<Integer> inUse = cache(KEYS[3], 300);
+    mCache.trim(MemoryTrimType.OnSystemLowMemoryWhileAppInForeground);
+    assertTotalSize(1, 300);
+    assertExclusivelyOwnedSize(0, 0);
+    verify(mReleaser).release(100);
+    verify(mReleaser).release(200);
+    inUse.close();
+  }
+
+  @Test
+  public void testRemoveAll() {
+    cache(KEYS[1], 110).close();
+    cache(KEYS[2], 120).close();
+    CloseableReference<Integer> ref3 = cache(KEYS[3], 130);
+    int removed =
+        mCache.removeAll(
+            new Predicate<String>() {
+              @Override
+              public boolean apply(String key) {
+                return !key.equals(KEYS[2]);
+              }
+            });
+    assertEquals(2, removed);
+    assertTotalSize(1, 120);
+    assertExclusivelyOwnedSize(1, 120);
+    assertNull(mCache.getRegion(KEYS[1]));
+    verify(mReleaser).release(110);
+    verify(mReleaser, never()).release(130);
+    ref3.close();
+    verify(mReleaser).release(130);
+  }
+
+  @Test
+  public void testClear() {
+    cache(KEYS[1], 110).close();
+    CloseableReference<Integer> ref2 = cache(KEYS[2], 120);
+    mCache.clear();
+    assertTotalSize(0, 0);
+    assertExclusivelyOwnedSize(0, 0);
+    assertFalse(mCache.contains(KEYS[1]));
+    verify(mReleaser).release(110);
+    ref2.close();
+    verify(mReleaser).release(120);
+    // the access frequencies outlive the items
+    assertEquals(1, mCache.getFrequency(KEYS[1]));
+  }
+
+  /** Caches a new value and closes the original reference, returning the client reference. */
+  private CloseableReference<Integer> cache(String key, int size) {
+    CloseableReference<Integer> original = newReference(size);
+    CloseableReference<Integer> cachedRef = mCache.cache(key, original);
+    original.close();
+    return cachedRef;
+  }
+
+  private CloseableReference<Integer> newReference(int size) {
+    return CloseableReference.of(size, mReleaser);
+  }
+
+  private void assertTotalSize(int count, int bytes) {
+    assertEquals("total cache count mismatch", count, mCache.getCount());
+    assertEquals("total cache size mismatch", bytes, mCache.getSizeInBytes());
+  }
+
+  private void assertExclusivelyOwnedSize(int count, int bytes) {
+    assertEquals("total exclusives count mismatch", count, mCache.getEvictionQueueCount());
+    assertEquals("total exclusives size mismatch", bytes, mCache.getEvictionQueueSizeInBytes());
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.imagepipeline.common.Priority;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/** Tests for {@link PriorityExecutor} */
+@RunWith(RobolectricTestRunner.class)
+public class PriorityExecutorTest {
+
+  private PriorityExecutor mExecutor;
+  private CountDownLatch mBlockingTaskStarted;
+  private CountDownLatch mBlockingTaskReleased;
+  private List<String> mRunOrder;
+
+  @Before
+  public void setUp() throws InterruptedException {
+    mExecutor = new PriorityExecutor(1, Executors.defaultThreadFactory());
+    mBlockingTaskStarted = new CountDownLatch(1);
+    mBlockingTaskReleased = new CountDownLatch(1);
+    mRunOrder = Collections.synchronizedList(new ArrayList<String>());
+    // keeps the only thread busy, so that the tasks submitted next stay queued
+    mExecutor.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            mBlockingTaskStarted.countDown();
+            try {
+              mBlockingTaskReleased.await();
+            } catch (InterruptedException e) {
+              throw new RuntimeException(e);
+            }
+          }
+        });
+    assertTrue(mBlockingTaskStarted.await(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testRunsByPriority() throws InterruptedException {
+    submit("prefetch", Priority.HIGH, true);
+    submit("low", Priority.LOW, false);
+    submit("medium1", Priority.MEDIUM, false);
+    submit("high", Priority.HIGH, false);
+    submit("medium2", Priority.MEDIUM, false);
+    assertEquals(5, mExecutor.getQueueDepth());
+
+    runQueuedTasks(5);
+
+    assertEquals(Arrays.asList("high", "medium1", "medium2", "low", "prefetch"), mRunOrder);
+    assertEquals(0, mExecutor.getQueueDepth());
+    assertEquals(7, mExecutor.getExecutedTaskCount());
+  }
+
+  @Test
+  public void testSetPriorityReordersQueuedTask() throws InterruptedException {
+    PriorityExecutor.Task prefetch = submit("prefetch", Priority.LOW, true);
+    submit("medium", Priority.MEDIUM, false);
+    PriorityExecutor.Task low = submit("low", Priority.LOW, false);
+
+    low.setPriority(Priority.HIGH, false);
+    prefetch.setPriority(Priority.LOW, false);
+    assertEquals(Priority.HIGH, low.getPriority());
+    assertFalse(prefetch.isPrefetch());
+
+    runQueuedTasks(3);
+
+    assertEquals(Arrays.asList("low", "medium", "prefetch"), mRunOrder);
+  }
+
+  @Test
+  public void testCancelWithdrawsQueuedTask() throws InterruptedException {
+    submit("first", Priority.MEDIUM, false);
+    PriorityExecutor.Task cancelled = submit("cancelled", Priority.HIGH, false);
+    submit("last", Priority.LOW, false);
+
+    assertTrue(cancelled.cancel());
+    assertTrue(cancelled.cancel());
+    assertEquals(2, mExecutor.getQueueDepth());
+    assertEquals(1, mExecutor.getCancelledTaskCount());
+
+    runQueuedTasks(2);
+
+    assertEquals(Arrays.asList("first", "last"), mRunOrder);
+    assertEquals(4, mExecutor.getExecutedTaskCount());
+  }
+
+  @Test
+  public void testCancelAfterStartFails() throws InterruptedException {
+    PriorityExecutor.Task task = submit("task", Priority.MEDIUM, false);
+    runQueuedTasks(1);
+
+    assertFalse(task.cancel());
+    assertEquals(0, mExecutor.getCancelledTaskCount());
+  }
+
+  private PriorityExecutor.Task submit(final String name, Priority priority, boolean isPrefetch) {
+    return mExecutor.submit(
+        new Runnable() {
+          @Override
+          public void run() {
+            mRunOrder.add(name);
+          }
+        },
+        priority,
+        isPrefetch);
+  }
+
+  /** Releases the thread and waits for the queued tasks, and a last one added here, to run */
+  private void runQueuedTasks(int count) throws InterruptedException {
+    final CountDownLatch done = new CountDownLatch(1);
+    mExecutor.submit(
+        new Runnable() {
+          @Override
+          public void run() {
+            done.countDown();
+          }
+        },
+        Priority.LOW,
+        true);
+    mBlockingTaskReleased.countDown();
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals(count, mRunOrder.size());
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.image;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.common.internal.ByteStreams;
+import com.facebook.common.memory.PooledByteBuffer;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.imageformat.DefaultImageFormats;
+import com.facebook.imageformat.ImageFormat;
+import com.facebook.imagepipeline.testing.TrivialPooledByteBuffer;
+import java.io.IOException;
+import java.util.Arrays;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/** Tests for {@link IncrementalMetaDataParser} */
+@RunWith(RobolectricTestRunner.class)
+public class IncrementalMetaDataParserTest {
+
+  /** end of the SOS segment of images/image.jpg, which starts at 832 and is 12 bytes long */
+  private static final int JPEG_SOS_END = 846;
+
+  private IncrementalMetaDataParser mParser;
+  private byte[] mJpegBytes;
+
+  @Before
+  public void setUp() throws IOException {
+    mParser = new IncrementalMetaDataParser();
+    mJpegBytes =
+        ByteStreams.toByteArray(
+            IncrementalMetaDataParserTest.class.getResourceAsStream("images/image.jpg"));
+  }
+
+  @Test
+  public void testJpegParsedOnceAtEndOfScanHeader() {
+    CountingEncodedImage header = parse(mJpegBytes, 4, false);
+    assertEquals(0, header.mParseCount);
+    assertSame(ImageFormat.UNKNOWN, header.getImageFormat());
+
+    CountingEncodedImage beforeSos = parse(mJpegBytes, JPEG_SOS_END - 1, false);
+    assertEquals(0, beforeSos.mParseCount);
+    assertTrue(beforeSos.hasParsedMetaData());
+    assertSame(DefaultImageFormats.JPEG, beforeSos.getImageFormat());
+    assertEquals(EncodedImage.UNKNOWN_WIDTH, beforeSos.getWidth());
+    assertEquals(EncodedImage.UNKNOWN_HEIGHT, beforeSos.getHeight());
+    // the getters didn't parse it either
+    assertEquals(0, beforeSos.mParseCount);
+    assertFalse(mParser.isComplete());
+
+    CountingEncodedImage atSos = parse(mJpegBytes, JPEG_SOS_END, false);
+    assertEquals(1, atSos.mParseCount);
+    assertJpegMetaData(atSos);
+    assertTrue(mParser.isComplete());
+
+    CountingEncodedImage afterSos = parse(mJpegBytes, 2000, false);
+    assertEquals(0, afterSos.mParseCount);
+    assertJpegMetaData(afterSos);
+
+    CountingEncodedImage last = parse(mJpegBytes, mJpegBytes.length, true);
+    assertEquals(0, last.mParseCount);
+    assertJpegMetaData(last);
+  }
+
+  @Test
+  public void testJpegMarkersScannedAcrossResults() {
+    for (int size = 1; size < JPEG_SOS_END; size += 13) {
+      assertEquals(0, parse(mJpegBytes, size, false).mParseCount);
+    }
+    assertJpegMetaData(parse(mJpegBytes, JPEG_SOS_END + 13, false));
+    assertTrue(mParser.isComplete());
+  }
+
+  @Test
+  public void testLastResultAlwaysParsed() {
+    parse(mJpegBytes, 100, false);
+    CountingEncodedImage last = parse(mJpegBytes, mJpegBytes.length, true);
+    assertEquals(1, last.mParseCount);
+    assertJpegMetaData(last);
+    assertTrue(mParser.isComplete());
+  }
+
+  @Test
+  public void testJpegWithoutFrameParsedAtScan() {
+    byte[] noFrame =
+        new byte[] {
+          (byte) 0xff, (byte) 0xd8, (byte) 0xff, (byte) 0xe0, 0, 4, 0, 0,
+          (byte) 0xff, (byte) 0xda, 0, 2, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0
+        };
+    assertEquals(1, parse(noFrame, noFrame.length, false).mParseCount);
+    assertFalse(mParser.isComplete());
+  }
+
+  @Test
+  public void testUnknownFormatParsedWhenDataDoubles() {
+    byte[] unknown = new byte[1000];
+    assertEquals(1, parse(unknown, 100, false).mParseCount);
+    assertEquals(0, parse(unknown, 150, false).mParseCount);
+    assertEquals(0, parse(unknown, 199, false).mParseCount);
+    assertEquals(1, parse(unknown, 200, false).mParseCount);
+    assertEquals(0, parse(unknown, 300, false).mParseCount);
+    assertEquals(1, parse(unknown, 400, false).mParseCount);
+    assertFalse(mParser.isComplete());
+  }
+
+  private CountingEncodedImage parse(byte[] data, int size, boolean isLast) {
+    CountingEncodedImage encodedImage =
+        new CountingEncodedImage(
+            CloseableReference.<PooledByteBuffer>of(
+                new TrivialPooledByteBuffer(Arrays.copyOf(data, size))));
+    mParser.parseMetaData(encodedImage, isLast);
+    return encodedImage;
+  }
+
+  private static void assertJpegMetaData(EncodedImage encodedImage) {
+    assertSame(DefaultImageFormats.JPEG, encodedImage.getImageFormat());
+    assertEquals(550, encodedImage.getWidth());
+    assertEquals(468, encodedImage.getHeight());
+    assertEquals(0, encodedImage.getRotationAngle());
+    assertEquals(0, encodedImage.getExifOrientation());
+  }
+
+  private static class CountingEncodedImage extends EncodedImage {
+
+    private int mParseCount;
+
+    CountingEncodedImage(CloseableReference<PooledByteBuffer> pooledByteBufferRef) {
+      super(pooledByteBufferRef);
+    }
+
+    @Override
+    void parseMetaDataOnce() {
+      mParseCount++;
+      super.parseMetaDataOnce();
+    }
+  }
+}
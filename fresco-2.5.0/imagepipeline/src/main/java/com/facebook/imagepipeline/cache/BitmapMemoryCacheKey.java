@@ -92,6 +92,22 @@ public class BitmapMemoryCacheKey implements CacheKey {
     return mSourceString;
   }
 
+  public @Nullable ResizeOptions getResizeOptions() {
+    return mResizeOptions;
+  }
+
+  public RotationOptions getRotationOptions() {
+    return mRotationOptions;
+  }
+
+  public ImageDecodeOptions getImageDecodeOptions() {
+    return mImageDecodeOptions;
+  }
+
+  public @Nullable CacheKey getPostprocessorCacheKey() {
+    return mPostprocessorCacheKey;
+  }
+
   @Nullable
   public String getPostprocessorName() {
     return mPostprocessorName;
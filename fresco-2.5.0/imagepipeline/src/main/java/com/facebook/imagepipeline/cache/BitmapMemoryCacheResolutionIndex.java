@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import androidx.annotation.VisibleForTesting;
+import com.facebook.common.internal.Objects;
+import com.facebook.imagepipeline.common.ResizeOptions;
+import com.facebook.infer.annotation.Nullsafe;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Index of the sizes of the bitmaps put into the bitmap memory cache, by source.
+ *
+ * <p>{@link BitmapMemoryCacheKey}s include the resize options of the request, so a request for a
+ * smaller size of an image misses the cache even when a larger bitmap of that image is there. This
+ * index finds such bitmaps. It is only a hint: its entries may have been evicted from the cache
+ * since, and are then removed as they are found missing.
+ */
+@ThreadSafe
+@Nullsafe(Nullsafe.Mode.LOCAL)
+public class BitmapMemoryCacheResolutionIndex {
+
+  private static final int DEFAULT_MAX_SOURCES = 256;
+  private static final int DEFAULT_MAX_ENTRIES_PER_SOURCE = 4;
+
+  private final int mMaxSources;
+  private final int mMaxEntriesPerSource;
+
+  // access ordered, so that the least recently used sources are dropped first
+  @GuardedBy("this")
+  private final LinkedHashMap<String, List<Entry>> mEntriesBySource;
+
+  public BitmapMemoryCacheResolutionIndex() {
+    this(DEFAULT_MAX_SOURCES, DEFAULT_MAX_ENTRIES_PER_SOURCE);
+  }
+
+  public BitmapMemoryCacheResolutionIndex(int maxSources, int maxEntriesPerSource) {
+    mMaxSources = maxSources;
+    mMaxEntriesPerSource = maxEntriesPerSource;
+    mEntriesBySource = new LinkedHashMap<>(16, 0.75f, true);
+  }
+
+  /** Records the size of the bitmap cached for the key. */
+  public synchronized void put(BitmapMemoryCacheKey key, int width, int height) {
+    List<Entry> entries = mEntriesBySource.get(key.getUriString());
+    if (entries == null) {
+      entries = new ArrayList<>(mMaxEntriesPerSource);
+      mEntriesBySource.put(key.getUriString(), entries);
+      trimToMaxSources();
+    }
+    removeEntry(entries, key);
+    if (entries.size() >= mMaxEntriesPerSource) {
+      entries.remove(0);
+    }
+    entries.add(new Entry(key, width, height));
+  }
+
+  /** Forgets the key, for example after its bitmap was found evicted. */
+  public synchronized void remove(BitmapMemoryCacheKey key) {
+    List<Entry> entries = mEntriesBySource.get(key.getUriString());
+    if (entries != null) {
+      removeEntry(entries, key);
+      if (entries.isEmpty()) {
+        mEntriesBySource.remove(key.getUriString());
+      }
+    }
+  }
+
+  /**
+   * Finds the keys that may serve the requested key with a larger bitmap: those for the same
+   * source, rotation, decode options and postprocessor, with a bitmap at least as large as the
+   * requested size.
+   *
+   * @return the matching keys, smallest bitmap first
+   */
+  public synchronized List<Entry> findLarger(BitmapMemoryCacheKey requestedKey) {
+    final ResizeOptions resizeOptions = requestedKey.getResizeOptions();
+    final List<Entry> entries = mEntriesBySource.get(requestedKey.getUriString());
+    final List<Entry> larger = new ArrayList<>();
+    if (resizeOptions == null || entries == null) {
+      return larger;
+    }
+    for (Entry entry : entries) {
+      if (entry.width >= resizeOptions.width
+          && entry.height >= resizeOptions.height
+          && isCompatible(entry.key, requestedKey)) {
+        int i = larger.size();
+        while (i > 0 && larger.get(i - 1).getArea() > entry.getArea()) {
+          i--;
+        }
+        larger.add(i, entry);
+      }
+    }
+    return larger;
+  }
+
+  @VisibleForTesting
+  synchronized int getSourceCount() {
+    return mEntriesBySource.size();
+  }
+
+  private static boolean isCompatible(
+      BitmapMemoryCacheKey key, BitmapMemoryCacheKey requestedKey) {
+    return !key.equals(requestedKey)
+        && key.getRotationOptions().equals(requestedKey.getRotationOptions())
+        && key.getImageDecodeOptions().equals(requestedKey.getImageDecodeOptions())
+        && Objects.equal(key.getPostprocessorCacheKey(), requestedKey.getPostprocessorCacheKey())
+        && Objects.equal(key.getPostprocessorName(), requestedKey.getPostprocessorName());
+  }
+
+  private static void removeEntry(List<Entry> entries, BitmapMemoryCacheKey key) {
+    for (Iterator<Entry> iterator = entries.iterator(); iterator.hasNext(); ) {
+      if (iterator.next().key.equals(key)) {
+        iterator.remove();
+        return;
+      }
+    }
+  }
+
+  @GuardedBy("this")
+  private void trimToMaxSources() {
+    Iterator<Map.Entry<String, List<Entry>>> iterator = mEntriesBySource.entrySet().iterator();
+    while (mEntriesBySource.size() > mMaxSources && iterator.hasNext()) {
+      iterator.next();
+      iterator.remove();
+    }
+  }
+
+  /** A bitmap cached for a key, with the size it had once oriented. */
+  public static class Entry {
+
+    public final BitmapMemoryCacheKey key;
+    public final int width;
+    public final int height;
+
+    private Entry(BitmapMemoryCacheKey key, int width, int height) {
+      this.key = key;
+      this.width = width;
+      this.height = height;
+    }
+
+    private long getArea() {
+      return (long) width * height;
+    }
+  }
+}
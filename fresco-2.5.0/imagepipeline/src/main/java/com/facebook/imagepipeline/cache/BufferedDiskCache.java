@@ -20,6 +20,7 @@ import com.facebook.common.memory.PooledByteStreams;
 import com.facebook.common.references.CloseableReference;
 import com.facebook.imagepipeline.image.EncodedImage;
 import com.facebook.imagepipeline.instrumentation.FrescoInstrumenter;
+import com.facebook.imagepipeline.memory.MappedPooledByteBuffer;
 import com.facebook.imagepipeline.systrace.FrescoSystrace;
 import com.facebook.infer.annotation.Nullsafe;
 import java.io.IOException;
@@ -46,6 +47,8 @@ public class BufferedDiskCache {
   private final Executor mWriteExecutor;
   private final StagingArea mStagingArea;
   private final ImageCacheStatsTracker mImageCacheStatsTracker;
+  private final boolean mMappedReadsEnabled;
+  private final int mMappedReadMinSizeBytes;
 
   public BufferedDiskCache(
       FileCache fileCache,
@@ -54,12 +57,38 @@ public class BufferedDiskCache {
       Executor readExecutor,
       Executor writeExecutor,
       ImageCacheStatsTracker imageCacheStatsTracker) {
+    this(
+        fileCache,
+        pooledByteBufferFactory,
+        pooledByteStreams,
+        readExecutor,
+        writeExecutor,
+        imageCacheStatsTracker,
+        false,
+        0);
+  }
+
+  /**
+   * @param mappedReadsEnabled if true, cache hits of at least {@code mappedReadMinSizeBytes} are
+   *     memory-mapped instead of being copied into a pooled buffer
+   */
+  public BufferedDiskCache(
+      FileCache fileCache,
+      PooledByteBufferFactory pooledByteBufferFactory,
+      PooledByteStreams pooledByteStreams,
+      Executor readExecutor,
+      Executor writeExecutor,
+      ImageCacheStatsTracker imageCacheStatsTracker,
+      boolean mappedReadsEnabled,
+      int mappedReadMinSizeBytes) {
     mFileCache = fileCache;
     mPooledByteBufferFactory = pooledByteBufferFactory;
     mPooledByteStreams = pooledByteStreams;
     mReadExecutor = readExecutor;
     mWriteExecutor = writeExecutor;
     mImageCacheStatsTracker = imageCacheStatsTracker;
+    mMappedReadsEnabled = mappedReadsEnabled;
+    mMappedReadMinSizeBytes = mappedReadMinSizeBytes;
     mStagingArea = StagingArea.getInstance();
   }
 
@@ -87,6 +116,9 @@ public class BufferedDiskCache {
     if (containsSync(key)) {
       return Task.forResult(true);
     }
+    if (mFileCache.isDefiniteMissSync(key)) {
+      return Task.forResult(false);
+    }
     return containsAsync(key);
   }
 
@@ -127,13 +159,16 @@ public class BufferedDiskCache {
     if (containsSync(key)) {
       return true;
     }
+    if (mFileCache.isDefiniteMissSync(key)) {
+      return false;
+    }
     return checkInStagingAreaAndFileCache(key);
   }
 
   /**
    * Performs key-value look up in disk cache. If value is not found in disk cache staging area then
-   * disk cache read is scheduled on background thread. Any error manifests itself as cache miss,
-   * i.e. the returned task resolves to null.
+   * disk cache read is scheduled on background thread, unless the file cache can tell the key is
+   * not on disk. Any error manifests itself as cache miss, i.e. the returned task resolves to null.
    *
    * @param key
    * @return Task that resolves to cached element or null if one cannot be retrieved; returned task
@@ -148,6 +183,13 @@ public class BufferedDiskCache {
       if (pinnedImage != null) {
         return foundPinnedImage(key, pinnedImage);
       }
+      if (mFileCache.isDefiniteMissSync(key)) {
+        // the image is neither being written nor on disk, no need to schedule a read
+        FLog.v(TAG, "Disk cache read skipped for %s, not in the index", key.getUriString());
+        mImageCacheStatsTracker.onStagingAreaMiss(key);
+        mImageCacheStatsTracker.onDiskCacheMiss(key);
+        return Task.forResult(null);
+      }
       return getAsync(key, isCancelled);
     } finally {
       if (FrescoSystrace.isTracing()) {
@@ -418,12 +460,17 @@ public class BufferedDiskCache {
         mImageCacheStatsTracker.onDiskCacheHit(key);
       }
 
-      PooledByteBuffer byteBuffer;
-      final InputStream is = diskCacheResource.openStream();
-      try {
-        byteBuffer = mPooledByteBufferFactory.newByteBuffer(is, (int) diskCacheResource.size());
-      } finally {
-        is.close();
+      PooledByteBuffer byteBuffer = null;
+      if (mMappedReadsEnabled && diskCacheResource.size() >= mMappedReadMinSizeBytes) {
+        byteBuffer = mapDiskCacheResource(key, diskCacheResource);
+      }
+      if (byteBuffer == null) {
+        final InputStream is = diskCacheResource.openStream();
+        try {
+          byteBuffer = mPooledByteBufferFactory.newByteBuffer(is, (int) diskCacheResource.size());
+        } finally {
+          is.close();
+        }
       }
 
       FLog.v(TAG, "Successful read from disk cache for %s", key.getUriString());
@@ -438,6 +485,18 @@ public class BufferedDiskCache {
     }
   }
 
+  /** Maps the resource without copying it. Returns null if it can't be mapped. */
+  private @Nullable PooledByteBuffer mapDiskCacheResource(
+      final CacheKey key, final BinaryResource diskCacheResource) {
+    try {
+      return MappedPooledByteBuffer.map(diskCacheResource);
+    } catch (IOException ioe) {
+      // for example when running out of address space, the resource can still be copied
+      FLog.w(TAG, ioe, "Failed to map disk cache resource for %s", key.getUriString());
+      return null;
+    }
+  }
+
   /**
    * Writes to disk cache
    *
@@ -29,6 +29,17 @@ public interface ImageCacheStatsTracker {
   /** Called on a bitmap cache miss. */
   void onBitmapCacheMiss(CacheKey cacheKey);
 
+  /**
+   * Called when a bitmap cache miss is served from a larger bitmap of the same image.
+   *
+   * @param cacheKey the key that missed
+   * @param wasDownscaled whether the larger bitmap was downscaled, rather than served as it is
+   */
+  void onBitmapCacheLargerSizeHit(CacheKey cacheKey, boolean wasDownscaled);
+
+  /** Called when no larger bitmap of the same image can serve a bitmap cache miss. */
+  void onBitmapCacheLargerSizeMiss(CacheKey cacheKey);
+
   /** Called whenever encoded images are put into the encoded memory cache. */
   void onMemoryCachePut(CacheKey cacheKey);
 
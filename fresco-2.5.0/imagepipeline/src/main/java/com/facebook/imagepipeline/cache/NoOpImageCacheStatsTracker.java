@@ -34,6 +34,12 @@ public class NoOpImageCacheStatsTracker implements ImageCacheStatsTracker {
   @Override
   public void onBitmapCacheMiss(CacheKey cacheKey) {}
 
+  @Override
+  public void onBitmapCacheLargerSizeHit(CacheKey cacheKey, boolean wasDownscaled) {}
+
+  @Override
+  public void onBitmapCacheLargerSizeMiss(CacheKey cacheKey) {}
+
   @Override
   public void onMemoryCachePut(CacheKey cacheKey) {}
 
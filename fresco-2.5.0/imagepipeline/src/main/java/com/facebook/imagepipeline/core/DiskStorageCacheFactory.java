@@ -48,11 +48,27 @@ public class DiskStorageCacheFactory implements FileCacheFactory {
         diskCacheConfig.getCacheErrorLogger(),
         diskCacheConfig.getDiskTrimmableRegistry(),
         executorForBackgroundInit,
-        diskCacheConfig.getIndexPopulateAtStartupEnabled());
+        diskCacheConfig.getIndexPopulateAtStartupEnabled(),
+        diskCacheConfig.getResourceIdGenerator());
   }
 
   @Override
   public FileCache get(DiskCacheConfig diskCacheConfig) {
-    return buildDiskStorageCache(diskCacheConfig, mDiskStorageFactory.get(diskCacheConfig));
+    return buildDiskStorageCache(
+        diskCacheConfig, getDiskStorageFactory(diskCacheConfig).get(diskCacheConfig));
+  }
+
+  private DiskStorageFactory getDiskStorageFactory(DiskCacheConfig diskCacheConfig) {
+    switch (diskCacheConfig.getStorageType()) {
+      case PACKED:
+        return new PackedDiskStorageFactory(mDiskStorageFactory);
+      case JOURNALED:
+        // don't journal a storage that already keeps its own journal
+        return mDiskStorageFactory instanceof JournaledDiskStorageFactory
+            ? mDiskStorageFactory
+            : new JournaledDiskStorageFactory(mDiskStorageFactory);
+      default:
+        return mDiskStorageFactory;
+    }
   }
 }
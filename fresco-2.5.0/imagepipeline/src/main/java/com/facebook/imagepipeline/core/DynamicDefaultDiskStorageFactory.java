@@ -19,7 +19,7 @@ public class DynamicDefaultDiskStorageFactory implements DiskStorageFactory {
   @Override
   public DiskStorage get(DiskCacheConfig diskCacheConfig) {
     return new DynamicDefaultDiskStorage(
-        diskCacheConfig.getVersion(),
+        diskCacheConfig.getStorageVersion(),
         diskCacheConfig.getBaseDirectoryPathSupplier(),
         diskCacheConfig.getBaseDirectoryName(),
         diskCacheConfig.getCacheErrorLogger());
@@ -25,6 +25,7 @@ import com.facebook.imagepipeline.decoder.ImageDecoder;
 import com.facebook.imagepipeline.decoder.ProgressiveJpegConfig;
 import com.facebook.imagepipeline.image.CloseableImage;
 import com.facebook.imageutils.BitmapUtil;
+import javax.annotation.Nullable;
 
 /**
  * Encapsulates additional elements of the {@link ImagePipelineConfig} which are currently in an
@@ -64,6 +65,11 @@ public class ImagePipelineExperiments {
   private final int mTrackedKeysSize;
   private final boolean mUseCombinedNetworkAndCacheProducer;
   private final boolean mAllowDelay;
+  private final boolean mMappedDiskCacheReadsEnabled;
+  private final int mMappedDiskCacheReadMinSizeBytes;
+  private final boolean mResolutionAwareBitmapCacheEnabled;
+  private final float mResolutionAwareBitmapCacheMaxServedSizeRatio;
+  @Nullable private final Supplier<Integer> mAnimatedCachingStrategySupplier;
 
   private ImagePipelineExperiments(Builder builder) {
     mWebpSupportEnabled = builder.mWebpSupportEnabled;
@@ -99,6 +105,12 @@ public class ImagePipelineExperiments {
     mTrackedKeysSize = builder.mTrackedKeysSize;
     mUseCombinedNetworkAndCacheProducer = builder.mUseCombinedNetworkAndCacheProducer;
     mAllowDelay = builder.mAllowDelay;
+    mMappedDiskCacheReadsEnabled = builder.mMappedDiskCacheReadsEnabled;
+    mMappedDiskCacheReadMinSizeBytes = builder.mMappedDiskCacheReadMinSizeBytes;
+    mResolutionAwareBitmapCacheEnabled = builder.mResolutionAwareBitmapCacheEnabled;
+    mResolutionAwareBitmapCacheMaxServedSizeRatio =
+        builder.mResolutionAwareBitmapCacheMaxServedSizeRatio;
+    mAnimatedCachingStrategySupplier = builder.mAnimatedCachingStrategySupplier;
   }
 
   public boolean isEncodedCacheEnabled() {
@@ -222,6 +234,27 @@ public class ImagePipelineExperiments {
     return mAllowDelay;
   }
 
+  public boolean isMappedDiskCacheReadsEnabled() {
+    return mMappedDiskCacheReadsEnabled;
+  }
+
+  public int getMappedDiskCacheReadMinSizeBytes() {
+    return mMappedDiskCacheReadMinSizeBytes;
+  }
+
+  public boolean isResolutionAwareBitmapCacheEnabled() {
+    return mResolutionAwareBitmapCacheEnabled;
+  }
+
+  public float getResolutionAwareBitmapCacheMaxServedSizeRatio() {
+    return mResolutionAwareBitmapCacheMaxServedSizeRatio;
+  }
+
+  @Nullable
+  public Supplier<Integer> getAnimatedCachingStrategySupplier() {
+    return mAnimatedCachingStrategySupplier;
+  }
+
   public static class Builder {
 
     private final ImagePipelineConfig.Builder mConfigBuilder;
@@ -254,6 +287,11 @@ public class ImagePipelineExperiments {
     private int mTrackedKeysSize = 20;
     private boolean mUseCombinedNetworkAndCacheProducer = false;
     private boolean mAllowDelay = false;
+    private boolean mMappedDiskCacheReadsEnabled = false;
+    private int mMappedDiskCacheReadMinSizeBytes = 0;
+    private boolean mResolutionAwareBitmapCacheEnabled = false;
+    private float mResolutionAwareBitmapCacheMaxServedSizeRatio = 1.5f;
+    @Nullable private Supplier<Integer> mAnimatedCachingStrategySupplier;
 
     public Builder(ImagePipelineConfig.Builder configBuilder) {
       mConfigBuilder = configBuilder;
@@ -452,6 +490,52 @@ public class ImagePipelineExperiments {
       return mConfigBuilder;
     }
 
+    /**
+     * If enabled, disk cache hits are memory-mapped and wrapped as they are instead of being
+     * copied into a pooled buffer before decoding.
+     *
+     * @param mappedDiskCacheReadsEnabled set true for mapping disk cache hits
+     * @param minSizeBytes cache entries smaller than this are still copied, as mapping them costs
+     *     more than the copy
+     * @return The Builder itself for chaining
+     */
+    public ImagePipelineConfig.Builder setMappedDiskCacheReadsEnabled(
+        boolean mappedDiskCacheReadsEnabled, int minSizeBytes) {
+      mMappedDiskCacheReadsEnabled = mappedDiskCacheReadsEnabled;
+      mMappedDiskCacheReadMinSizeBytes = minSizeBytes;
+      return mConfigBuilder;
+    }
+
+    /**
+     * If enabled, a request missing the bitmap memory cache is served from a larger bitmap of the
+     * same image in the cache, if any, instead of decoding the image again.
+     *
+     * @param resolutionAwareBitmapCacheEnabled set true for serving requests from larger bitmaps
+     * @param maxServedSizeRatio larger bitmaps up to this many times the requested size are served
+     *     as they are; larger ones are downscaled to the requested size first
+     * @return The Builder itself for chaining
+     */
+    public ImagePipelineConfig.Builder setResolutionAwareBitmapCacheEnabled(
+        boolean resolutionAwareBitmapCacheEnabled, float maxServedSizeRatio) {
+      mResolutionAwareBitmapCacheEnabled = resolutionAwareBitmapCacheEnabled;
+      mResolutionAwareBitmapCacheMaxServedSizeRatio = maxServedSizeRatio;
+      return mConfigBuilder;
+    }
+
+    /**
+     * Sets how the frames of the animations created by the animated factory are cached.
+     *
+     * @param animatedCachingStrategySupplier supplies one of the {@code CACHING_STRATEGY_}
+     *     constants of {@code ExperimentalBitmapAnimationDrawableFactory}. If not set, the frames
+     *     are kept in the Fresco cache without reusing their bitmaps.
+     * @return The Builder itself for chaining
+     */
+    public ImagePipelineConfig.Builder setAnimatedCachingStrategySupplier(
+        Supplier<Integer> animatedCachingStrategySupplier) {
+      mAnimatedCachingStrategySupplier = animatedCachingStrategySupplier;
+      return mConfigBuilder;
+    }
+
     public ImagePipelineExperiments build() {
       return new ImagePipelineExperiments(this);
     }
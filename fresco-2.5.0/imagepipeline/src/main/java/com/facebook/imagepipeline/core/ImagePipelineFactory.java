@@ -179,7 +179,9 @@ public class ImagePipelineFactory {
               mConfig.getExecutorSupplier(),
               getBitmapCountingMemoryCache(),
               mConfig.getExperiments().shouldDownscaleFrameToDrawableDimensions(),
-              mConfig.getExecutorServiceForAnimatedImages());
+              mConfig.getExecutorServiceForAnimatedImages(),
+              mConfig.getExperiments().getAnimatedCachingStrategySupplier(),
+              mConfig.getMemoryTrimmableRegistry());
     }
     return mAnimatedFactory;
   }
@@ -278,7 +280,9 @@ public class ImagePipelineFactory {
               mConfig.getPoolFactory().getPooledByteStreams(),
               mConfig.getExecutorSupplier().forLocalStorageRead(),
               mConfig.getExecutorSupplier().forLocalStorageWrite(),
-              mConfig.getImageCacheStatsTracker());
+              mConfig.getImageCacheStatsTracker(),
+              mConfig.getExperiments().isMappedDiskCacheReadsEnabled(),
+              mConfig.getExperiments().getMappedDiskCacheReadMinSizeBytes());
     }
     return mMainBufferedDiskCache;
   }
@@ -398,7 +402,10 @@ public class ImagePipelineFactory {
               mConfig.getExperiments().isEncodedMemoryCacheProbingEnabled(),
               mConfig.getExperiments().isDiskCacheProbingEnabled(),
               mConfig.getExperiments().shouldUseCombinedNetworkAndCacheProducer(),
-              mConfig.getExperiments().allowDelay());
+              mConfig.getExperiments().allowDelay(),
+              mConfig.getExperiments().isResolutionAwareBitmapCacheEnabled(),
+              mConfig.getExperiments().getResolutionAwareBitmapCacheMaxServedSizeRatio(),
+              mConfig.getImageCacheStatsTracker());
     }
     return mProducerSequenceFactory;
   }
@@ -424,7 +431,9 @@ public class ImagePipelineFactory {
               mConfig.getPoolFactory().getPooledByteStreams(),
               mConfig.getExecutorSupplier().forLocalStorageRead(),
               mConfig.getExecutorSupplier().forLocalStorageWrite(),
-              mConfig.getImageCacheStatsTracker());
+              mConfig.getImageCacheStatsTracker(),
+              mConfig.getExperiments().isMappedDiskCacheReadsEnabled(),
+              mConfig.getExperiments().getMappedDiskCacheReadMinSizeBytes());
     }
     return mSmallImageBufferedDiskCache;
   }
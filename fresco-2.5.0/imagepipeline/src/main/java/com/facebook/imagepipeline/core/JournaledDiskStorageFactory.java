@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.core;
+
+import com.facebook.cache.disk.DiskCacheConfig;
+import com.facebook.cache.disk.DiskStorage;
+import com.facebook.cache.disk.JournaledDiskStorage;
+import com.facebook.common.internal.Supplier;
+import com.facebook.infer.annotation.Nullsafe;
+import java.io.File;
+
+/**
+ * Factory for a {@link JournaledDiskStorage} on top of the default storage. Use it with {@link
+ * DiskStorageCacheFactory} and {@link ImagePipelineConfig.Builder#setFileCacheFactory} to keep the
+ * disk cache index in a journal instead of walking the cache directory. {@link
+ * DiskStorageCacheFactory} also uses it for the caches configured with {@link
+ * DiskCacheConfig.StorageType#JOURNALED}.
+ */
+@Nullsafe(Nullsafe.Mode.LOCAL)
+public class JournaledDiskStorageFactory implements DiskStorageFactory {
+
+  private static final String JOURNAL_FILE_SUFFIX = ".journal";
+
+  private final DiskStorageFactory mDelegateFactory;
+
+  public JournaledDiskStorageFactory() {
+    this(new DynamicDefaultDiskStorageFactory());
+  }
+
+  public JournaledDiskStorageFactory(DiskStorageFactory delegateFactory) {
+    mDelegateFactory = delegateFactory;
+  }
+
+  @Override
+  public DiskStorage get(final DiskCacheConfig diskCacheConfig) {
+    // the journal sits next to the cache directory, since the storage purges unknown files in it
+    Supplier<File> journalFileSupplier =
+        new Supplier<File>() {
+          @Override
+          public File get() {
+            return new File(
+                diskCacheConfig.getBaseDirectoryPathSupplier().get(),
+                diskCacheConfig.getBaseDirectoryName() + JOURNAL_FILE_SUFFIX);
+          }
+        };
+    return new JournaledDiskStorage(
+        mDelegateFactory.get(diskCacheConfig),
+        journalFileSupplier,
+        diskCacheConfig.getStorageVersion(),
+        diskCacheConfig.getCacheErrorLogger());
+  }
+}
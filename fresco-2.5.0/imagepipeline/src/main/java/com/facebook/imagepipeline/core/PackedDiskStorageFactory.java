@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.core;
+
+import com.facebook.cache.common.CacheErrorLogger;
+import com.facebook.cache.disk.DiskCacheConfig;
+import com.facebook.cache.disk.DiskStorage;
+import com.facebook.cache.disk.DynamicDefaultDiskStorage;
+import com.facebook.cache.disk.PackedDiskStorage;
+import com.facebook.infer.annotation.Nullsafe;
+import java.io.File;
+
+/**
+ * Factory for a {@link PackedDiskStorage} in the cache directory. {@link DiskStorageCacheFactory}
+ * uses it for the caches configured with {@link DiskCacheConfig.StorageType#PACKED}.
+ *
+ * <p>Like {@link DynamicDefaultDiskStorageFactory}, the cache directory is only resolved when the
+ * storage is first used, and the storage is recreated if the directory is deleted.
+ *
+ * <p>A packed storage replaces the one the delegate factory would build rather than decorating it,
+ * so the delegate is only used when it is not the default one: an application that injected its
+ * own factory keeps the storage it chose.
+ */
+@Nullsafe(Nullsafe.Mode.LOCAL)
+public class PackedDiskStorageFactory implements DiskStorageFactory {
+
+  private final DiskStorageFactory mDelegateFactory;
+
+  public PackedDiskStorageFactory() {
+    this(new DynamicDefaultDiskStorageFactory());
+  }
+
+  public PackedDiskStorageFactory(DiskStorageFactory delegateFactory) {
+    mDelegateFactory = delegateFactory;
+  }
+
+  @Override
+  public DiskStorage get(DiskCacheConfig diskCacheConfig) {
+    if (mDelegateFactory.getClass() != DynamicDefaultDiskStorageFactory.class) {
+      return mDelegateFactory.get(diskCacheConfig);
+    }
+    return new DynamicDefaultDiskStorage(
+        diskCacheConfig.getStorageVersion(),
+        diskCacheConfig.getBaseDirectoryPathSupplier(),
+        diskCacheConfig.getBaseDirectoryName(),
+        diskCacheConfig.getCacheErrorLogger()) {
+      @Override
+      protected DiskStorage createDiskStorage(
+          File rootDirectory, int version, CacheErrorLogger cacheErrorLogger) {
+        return new PackedDiskStorage(rootDirectory, version, cacheErrorLogger);
+      }
+    };
+  }
+}
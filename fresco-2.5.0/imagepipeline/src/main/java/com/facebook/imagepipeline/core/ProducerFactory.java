@@ -19,9 +19,11 @@ import com.facebook.common.memory.PooledByteBuffer;
 import com.facebook.common.memory.PooledByteBufferFactory;
 import com.facebook.common.references.CloseableReference;
 import com.facebook.imagepipeline.bitmaps.PlatformBitmapFactory;
+import com.facebook.imagepipeline.cache.BitmapMemoryCacheResolutionIndex;
 import com.facebook.imagepipeline.cache.BoundedLinkedHashSet;
 import com.facebook.imagepipeline.cache.BufferedDiskCache;
 import com.facebook.imagepipeline.cache.CacheKeyFactory;
+import com.facebook.imagepipeline.cache.ImageCacheStatsTracker;
 import com.facebook.imagepipeline.cache.MemoryCache;
 import com.facebook.imagepipeline.decoder.ImageDecoder;
 import com.facebook.imagepipeline.decoder.ProgressiveJpegConfig;
@@ -57,6 +59,7 @@ import com.facebook.imagepipeline.producers.PostprocessorProducer;
 import com.facebook.imagepipeline.producers.Producer;
 import com.facebook.imagepipeline.producers.QualifiedResourceFetchProducer;
 import com.facebook.imagepipeline.producers.ResizeAndRotateProducer;
+import com.facebook.imagepipeline.producers.ResolutionAwareBitmapMemoryCacheProducer;
 import com.facebook.imagepipeline.producers.SwallowResultProducer;
 import com.facebook.imagepipeline.producers.ThreadHandoffProducer;
 import com.facebook.imagepipeline.producers.ThreadHandoffProducerQueue;
@@ -97,6 +100,7 @@ public class ProducerFactory {
   protected final CacheKeyFactory mCacheKeyFactory;
   protected final BoundedLinkedHashSet<CacheKey> mEncodedMemoryCacheHistory;
   protected final BoundedLinkedHashSet<CacheKey> mDiskCacheHistory;
+  protected final BitmapMemoryCacheResolutionIndex mBitmapMemoryCacheResolutionIndex;
 
   // Postproc dependencies
   protected final PlatformBitmapFactory mPlatformBitmapFactory;
@@ -158,6 +162,7 @@ public class ProducerFactory {
     mPlatformBitmapFactory = platformBitmapFactory;
     mEncodedMemoryCacheHistory = new BoundedLinkedHashSet<>(trackedKeysSize);
     mDiskCacheHistory = new BoundedLinkedHashSet<>(trackedKeysSize);
+    mBitmapMemoryCacheResolutionIndex = new BitmapMemoryCacheResolutionIndex();
 
     mBitmapPrepareToDrawMinSizeBytes = bitmapPrepareToDrawMinSizeBytes;
     mBitmapPrepareToDrawMaxSizeBytes = bitmapPrepareToDrawMaxSizeBytes;
@@ -189,6 +194,20 @@ public class ProducerFactory {
     return new BitmapMemoryCacheProducer(mBitmapMemoryCache, mCacheKeyFactory, inputProducer);
   }
 
+  public ResolutionAwareBitmapMemoryCacheProducer newResolutionAwareBitmapMemoryCacheProducer(
+      Producer<CloseableReference<CloseableImage>> inputProducer,
+      ImageCacheStatsTracker imageCacheStatsTracker,
+      float maxServedSizeRatio) {
+    return new ResolutionAwareBitmapMemoryCacheProducer(
+        mBitmapMemoryCache,
+        mCacheKeyFactory,
+        mBitmapMemoryCacheResolutionIndex,
+        mPlatformBitmapFactory,
+        imageCacheStatsTracker,
+        maxServedSizeRatio,
+        inputProducer);
+  }
+
   public static BranchOnSeparateImagesProducer newBranchOnSeparateImagesProducer(
       Producer<EncodedImage> inputProducer1, Producer<EncodedImage> inputProducer2) {
     return new BranchOnSeparateImagesProducer(inputProducer1, inputProducer2);
@@ -25,6 +25,7 @@ import com.facebook.common.media.MediaUtils;
 import com.facebook.common.memory.PooledByteBuffer;
 import com.facebook.common.references.CloseableReference;
 import com.facebook.common.webp.WebpSupportStatus;
+import com.facebook.imagepipeline.cache.ImageCacheStatsTracker;
 import com.facebook.imagepipeline.image.CloseableImage;
 import com.facebook.imagepipeline.image.EncodedImage;
 import com.facebook.imagepipeline.producers.BitmapMemoryCacheGetProducer;
@@ -74,6 +75,9 @@ public class ProducerSequenceFactory {
   private final boolean mIsDiskCacheProbingEnabled;
   private final boolean mUseCombinedNetworkAndCacheProducer;
   private final boolean mAllowDelay;
+  private final boolean mResolutionAwareBitmapCacheEnabled;
+  private final float mResolutionAwareBitmapCacheMaxServedSizeRatio;
+  private final ImageCacheStatsTracker mImageCacheStatsTracker;
 
   // Saved sequences
   @VisibleForTesting @Nullable Producer<CloseableReference<CloseableImage>> mNetworkFetchSequence;
@@ -147,7 +151,10 @@ public class ProducerSequenceFactory {
       boolean isEncodedMemoryCacheProbingEnabled,
       boolean isDiskCacheProbingEnabled,
       boolean useCombinedNetworkAndCacheProducer,
-      boolean allowDelay) {
+      boolean allowDelay,
+      boolean resolutionAwareBitmapCacheEnabled,
+      float resolutionAwareBitmapCacheMaxServedSizeRatio,
+      ImageCacheStatsTracker imageCacheStatsTracker) {
     mContentResolver = contentResolver;
     mProducerFactory = producerFactory;
     mNetworkFetcher = networkFetcher;
@@ -166,6 +173,9 @@ public class ProducerSequenceFactory {
     mIsEncodedMemoryCacheProbingEnabled = isEncodedMemoryCacheProbingEnabled;
     mIsDiskCacheProbingEnabled = isDiskCacheProbingEnabled;
     mAllowDelay = allowDelay;
+    mResolutionAwareBitmapCacheEnabled = resolutionAwareBitmapCacheEnabled;
+    mResolutionAwareBitmapCacheMaxServedSizeRatio = resolutionAwareBitmapCacheMaxServedSizeRatio;
+    mImageCacheStatsTracker = imageCacheStatsTracker;
   }
 
   /**
@@ -837,7 +847,8 @@ public class ProducerSequenceFactory {
   }
 
   /**
-   * Bitmap cache get -> thread hand off -> multiplex -> bitmap cache
+   * Bitmap cache get -> thread hand off -> multiplex -> [resolution aware bitmap cache] -> bitmap
+   * cache
    *
    * @param inputProducer producer providing the input to the bitmap cache
    * @return bitmap cache get to bitmap cache sequence
@@ -846,8 +857,16 @@ public class ProducerSequenceFactory {
       Producer<CloseableReference<CloseableImage>> inputProducer) {
     BitmapMemoryCacheProducer bitmapMemoryCacheProducer =
         mProducerFactory.newBitmapMemoryCacheProducer(inputProducer);
+    Producer<CloseableReference<CloseableImage>> bitmapCacheProducer = bitmapMemoryCacheProducer;
+    if (mResolutionAwareBitmapCacheEnabled) {
+      bitmapCacheProducer =
+          mProducerFactory.newResolutionAwareBitmapMemoryCacheProducer(
+              bitmapMemoryCacheProducer,
+              mImageCacheStatsTracker,
+              mResolutionAwareBitmapCacheMaxServedSizeRatio);
+    }
     BitmapMemoryCacheKeyMultiplexProducer bitmapKeyMultiplexProducer =
-        mProducerFactory.newBitmapMemoryCacheKeyMultiplexProducer(bitmapMemoryCacheProducer);
+        mProducerFactory.newBitmapMemoryCacheKeyMultiplexProducer(bitmapCacheProducer);
     Producer<CloseableReference<CloseableImage>> threadHandoffProducer =
         mProducerFactory.newBackgroundThreadHandoffProducer(
             bitmapKeyMultiplexProducer, mThreadHandoffProducerQueue);
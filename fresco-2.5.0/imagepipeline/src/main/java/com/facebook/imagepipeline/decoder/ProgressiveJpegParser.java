@@ -7,11 +7,14 @@
 
 package com.facebook.imagepipeline.decoder;
 
+import androidx.annotation.VisibleForTesting;
 import com.facebook.common.internal.Closeables;
 import com.facebook.common.internal.Preconditions;
 import com.facebook.common.internal.Throwables;
 import com.facebook.common.memory.ByteArrayPool;
 import com.facebook.common.memory.PooledByteArrayBufferedInputStream;
+import com.facebook.common.memory.PooledByteBuffer;
+import com.facebook.common.references.CloseableReference;
 import com.facebook.common.util.StreamUtil;
 import com.facebook.imagepipeline.image.EncodedImage;
 import com.facebook.imageutils.JfifUtil;
@@ -27,6 +30,10 @@ import java.io.InputStream;
  *
  * <p>Users should call parseMoreData method each time new chunk of data is received. The buffer
  * passed as a parameter should include entire image data received so far.
+ *
+ * <p>Images backed by a {@link PooledByteBuffer} are scanned in bulk, straight from the buffer:
+ * only the new bytes are read, entropy coded data is searched for the next 0xFF without going
+ * through the state machine, and the content of segments is skipped without being read.
  */
 @Nullsafe(Nullsafe.Mode.LOCAL)
 public class ProgressiveJpegParser {
@@ -82,8 +89,17 @@ public class ProgressiveJpegParser {
 
   private final ByteArrayPool mByteArrayPool;
 
+  /** whether images backed by a buffer are scanned from the buffer rather than from a stream */
+  private final boolean mScanBufferDirectly;
+
   public ProgressiveJpegParser(ByteArrayPool byteArrayPool) {
+    this(byteArrayPool, true);
+  }
+
+  @VisibleForTesting
+  ProgressiveJpegParser(ByteArrayPool byteArrayPool, boolean scanBufferDirectly) {
     mByteArrayPool = Preconditions.checkNotNull(byteArrayPool);
+    mScanBufferDirectly = scanBufferDirectly;
     mBytesParsed = 0;
     mLastByteRead = 0;
     mNextFullScanNumber = 0;
@@ -117,6 +133,19 @@ public class ProgressiveJpegParser {
       return false;
     }
 
+    if (mScanBufferDirectly) {
+      final CloseableReference<PooledByteBuffer> bufferRef = encodedImage.getByteBufferRef();
+      if (bufferRef != null) {
+        final byte[] chunk = mByteArrayPool.get(BUFFER_SIZE);
+        try {
+          return doParseMoreData(bufferRef.get(), dataBufferSize, chunk);
+        } finally {
+          mByteArrayPool.release(chunk);
+          bufferRef.close();
+        }
+      }
+    }
+
     final InputStream bufferedDataStream =
         new PooledByteArrayBufferedInputStream(
             encodedImage.getInputStreamOrThrow(), mByteArrayPool.get(BUFFER_SIZE), mByteArrayPool);
@@ -227,6 +256,120 @@ public class ProgressiveJpegParser {
     return mParserState != NOT_A_JPEG && mBestScanNumber != oldBestScanNumber;
   }
 
+  /**
+   * Parses the data of {@code buffer} from {@code mBytesParsed} to {@code size}, reading it in
+   * chunks of up to {@code chunk.length} bytes. Follows the same state machine as {@link
+   * #doParseMoreData(InputStream)}.
+   */
+  private boolean doParseMoreData(final PooledByteBuffer buffer, final int size, final byte[] chunk) {
+    final int oldBestScanNumber = mBestScanNumber;
+    // offset in the buffer of the next byte to parse; it goes past the end of the chunk, or even of
+    // the buffer, when a segment is skipped
+    int offset = mBytesParsed;
+    while (mParserState != NOT_A_JPEG && offset < size) {
+      final int chunkStart = offset;
+      final int chunkEnd =
+          chunkStart + buffer.read(chunkStart, chunk, 0, Math.min(chunk.length, size - chunkStart));
+      while (mParserState != NOT_A_JPEG && offset < chunkEnd) {
+        if (mEndMarkerRead) {
+          // There should be no more data after the EOI marker, just in case there is lets
+          // bail out instead of trying to parse the unknown data
+          mBytesParsed = offset + 1;
+          mParserState = NOT_A_JPEG;
+          mEndMarkerRead = false;
+          return false;
+        }
+        if (mParserState == READ_MARKER_FIRST_BYTE_OR_ENTROPY_DATA) {
+          // Nothing happens until the next 0xFF, jump right to it
+          final int markerIndex =
+              indexOfMarkerFirstByte(chunk, offset - chunkStart, chunkEnd - chunkStart);
+          if (markerIndex < 0) {
+            offset = chunkEnd;
+            break;
+          }
+          offset = chunkStart + markerIndex;
+        }
+
+        final int nextByte = chunk[offset - chunkStart] & 0xFF;
+        offset++;
+        switch (mParserState) {
+          case READ_FIRST_JPEG_BYTE:
+            mParserState =
+                nextByte == JfifUtil.MARKER_FIRST_BYTE ? READ_SECOND_JPEG_BYTE : NOT_A_JPEG;
+            break;
+
+          case READ_SECOND_JPEG_BYTE:
+            mParserState =
+                nextByte == JfifUtil.MARKER_SOI
+                    ? READ_MARKER_FIRST_BYTE_OR_ENTROPY_DATA
+                    : NOT_A_JPEG;
+            break;
+
+          case READ_MARKER_FIRST_BYTE_OR_ENTROPY_DATA:
+            // only reached with the 0xFF found above
+            mParserState = READ_MARKER_SECOND_BYTE;
+            break;
+
+          case READ_MARKER_SECOND_BYTE:
+            if (nextByte == JfifUtil.MARKER_FIRST_BYTE) {
+              mParserState = READ_MARKER_SECOND_BYTE;
+            } else if (nextByte == JfifUtil.MARKER_ESCAPE_BYTE) {
+              mParserState = READ_MARKER_FIRST_BYTE_OR_ENTROPY_DATA;
+            } else if (nextByte == JfifUtil.MARKER_EOI) {
+              mEndMarkerRead = true;
+              newScanOrImageEndFound(offset - 2);
+              mParserState = READ_MARKER_FIRST_BYTE_OR_ENTROPY_DATA;
+            } else {
+              if (nextByte == JfifUtil.MARKER_SOS) {
+                newScanOrImageEndFound(offset - 2);
+              }
+              mParserState =
+                  doesMarkerStartSegment(nextByte)
+                      ? READ_SIZE_FIRST_BYTE
+                      : READ_MARKER_FIRST_BYTE_OR_ENTROPY_DATA;
+            }
+            break;
+
+          case READ_SIZE_FIRST_BYTE:
+            mParserState = READ_SIZE_SECOND_BYTE;
+            break;
+
+          case READ_SIZE_SECOND_BYTE:
+            final int bytesToSkip = (mLastByteRead << 8) + nextByte - 2;
+            if (bytesToSkip < 0) {
+              // A segment can't be shorter than its size field
+              mParserState = NOT_A_JPEG;
+              break;
+            }
+            // The skipped bytes are never read; if the segment ends past the current chunk, the
+            // next one is read from its end, and if it ends past the available data, parsing
+            // resumes from there once enough data has been received.
+            offset += bytesToSkip;
+            mParserState = READ_MARKER_FIRST_BYTE_OR_ENTROPY_DATA;
+            break;
+
+          case NOT_A_JPEG:
+          default:
+            Preconditions.checkState(false);
+        }
+
+        mLastByteRead = nextByte;
+      }
+    }
+    mBytesParsed = offset;
+    return mParserState != NOT_A_JPEG && mBestScanNumber != oldBestScanNumber;
+  }
+
+  /** @return index of the first 0xFF in {@code chunk} between {@code from} and {@code to}, or -1 */
+  private static int indexOfMarkerFirstByte(final byte[] chunk, final int from, final int to) {
+    for (int i = from; i < to; i++) {
+      if (chunk[i] == (byte) JfifUtil.MARKER_FIRST_BYTE) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
   /** Not every marker is followed by associated segment */
   private static boolean doesMarkerStartSegment(int markerSecondByte) {
     if (markerSecondByte == JfifUtil.MARKER_TEM) {
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.listener;
+
+import com.facebook.infer.annotation.Nullsafe;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Histogram of durations in milliseconds, with fixed log-linear buckets.
+ *
+ * <p>Durations below 8 ms have a bucket each. Every larger power of two range is split into 8
+ * buckets, so that a duration is known within 12.5%. Durations are capped at about 24 days.
+ *
+ * <p>Recording a duration is lock-free and doesn't allocate.
+ */
+@ThreadSafe
+@Nullsafe(Nullsafe.Mode.STRICT)
+public class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  private static final long MAX_VALUE = Integer.MAX_VALUE;
+  static final int BUCKET_COUNT = getBucketIndex(MAX_VALUE) + 1;
+
+  private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+  private final AtomicLong mCount = new AtomicLong();
+  private final AtomicLong mSum = new AtomicLong();
+  private final AtomicLong mMax = new AtomicLong();
+
+  /** Records a duration. Negative durations are recorded as 0. */
+  public void record(long durationMs) {
+    final long value = Math.min(Math.max(durationMs, 0), MAX_VALUE);
+    mBuckets.incrementAndGet(getBucketIndex(value));
+    mCount.incrementAndGet();
+    mSum.addAndGet(value);
+    long max = mMax.get();
+    while (value > max && !mMax.compareAndSet(max, value)) {
+      max = mMax.get();
+    }
+  }
+
+  /**
+   * Copies the recorded durations. Durations recorded concurrently may be missing from some of the
+   * values of the snapshot.
+   */
+  public Snapshot getSnapshot() {
+    final long[] buckets = new long[BUCKET_COUNT];
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      buckets[i] = mBuckets.get(i);
+    }
+    return new Snapshot(buckets, mCount.get(), mSum.get(), mMax.get());
+  }
+
+  /** Forgets all the recorded durations. */
+  public void reset() {
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      mBuckets.set(i, 0);
+    }
+    mCount.set(0);
+    mSum.set(0);
+    mMax.set(0);
+  }
+
+  static int getBucketIndex(long value) {
+    if (value < SUB_BUCKET_COUNT) {
+      return (int) value;
+    }
+    final int exponent = 63 - Long.numberOfLeadingZeros(value);
+    final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+    return SUB_BUCKET_COUNT + (exponent - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT + subBucket;
+  }
+
+  /** @return the largest duration that falls in the bucket */
+  static long getBucketUpperBound(int index) {
+    if (index < SUB_BUCKET_COUNT) {
+      return index;
+    }
+    final int exponent = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT + SUB_BUCKET_BITS;
+    final int subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_COUNT;
+    final long lowerBound = (1L << exponent) + ((long) subBucket << (exponent - SUB_BUCKET_BITS));
+    return lowerBound + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+  }
+
+  /** Recorded durations at some point in time. */
+  @Immutable
+  public static class Snapshot {
+
+    private final long[] mBuckets;
+    private final long mCount;
+    private final long mSum;
+    private final long mMax;
+
+    Snapshot(long[] buckets, long count, long sum, long max) {
+      mBuckets = buckets;
+      mCount = count;
+      mSum = sum;
+      mMax = max;
+    }
+
+    public long getCount() {
+      return mCount;
+    }
+
+    public long getMax() {
+      return mMax;
+    }
+
+    public double getMean() {
+      return mCount == 0 ? 0 : (double) mSum / mCount;
+    }
+
+    /**
+     * @param percentile the percentile, between 0 and 100
+     * @return an upper bound of the duration at the given percentile, 0 if nothing was recorded
+     */
+    public long getPercentile(double percentile) {
+      long total = 0;
+      for (long bucket : mBuckets) {
+        total += bucket;
+      }
+      if (total == 0) {
+        return 0;
+      }
+      final long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+      long seen = 0;
+      for (int i = 0; i < mBuckets.length; i++) {
+        seen += mBuckets[i];
+        if (seen >= rank) {
+          return Math.min(getBucketUpperBound(i), mMax);
+        }
+      }
+      return mMax;
+    }
+
+    @Override
+    public String toString() {
+      return "count="
+          + mCount
+          + ", mean="
+          + Math.round(getMean())
+          + ", p50="
+          + getPercentile(50)
+          + ", p90="
+          + getPercentile(90)
+          + ", p99="
+          + getPercentile(99)
+          + ", max="
+          + mMax;
+    }
+  }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.listener;
+
+import com.facebook.common.internal.Objects;
+import com.facebook.infer.annotation.Nullsafe;
+import javax.annotation.concurrent.Immutable;
+
+/** Metrics of one producer, as recorded by {@link ProducerMetricsRequestListener}. */
+@Immutable
+@Nullsafe(Nullsafe.Mode.STRICT)
+public class ProducerMetrics {
+
+  private final String mProducerName;
+  private final long mStartCount;
+  private final long mSuccessCount;
+  private final long mFailureCount;
+  private final long mCancellationCount;
+  private final long mUltimateSuccessCount;
+  private final long mUltimateFailureCount;
+  private final long mDroppedCount;
+  private final LatencyHistogram.Snapshot mExecutionTime;
+  private final LatencyHistogram.Snapshot mQueueTime;
+
+  ProducerMetrics(
+      String producerName,
+      long startCount,
+      long successCount,
+      long failureCount,
+      long cancellationCount,
+      long ultimateSuccessCount,
+      long ultimateFailureCount,
+      long droppedCount,
+      LatencyHistogram.Snapshot executionTime,
+      LatencyHistogram.Snapshot queueTime) {
+    mProducerName = producerName;
+    mStartCount = startCount;
+    mSuccessCount = successCount;
+    mFailureCount = failureCount;
+    mCancellationCount = cancellationCount;
+    mUltimateSuccessCount = ultimateSuccessCount;
+    mUltimateFailureCount = ultimateFailureCount;
+    mDroppedCount = droppedCount;
+    mExecutionTime = executionTime;
+    mQueueTime = queueTime;
+  }
+
+  public String getProducerName() {
+    return mProducerName;
+  }
+
+  public long getStartCount() {
+    return mStartCount;
+  }
+
+  public long getSuccessCount() {
+    return mSuccessCount;
+  }
+
+  public long getFailureCount() {
+    return mFailureCount;
+  }
+
+  public long getCancellationCount() {
+    return mCancellationCount;
+  }
+
+  /**
+   * Number of times the producer created the final result of a request. For the cache producers,
+   * this is the number of cache hits.
+   */
+  public long getUltimateSuccessCount() {
+    return mUltimateSuccessCount;
+  }
+
+  /**
+   * Number of times the producer was the last one able to create the final result of a request,
+   * but failed to. For the bitmap memory cache producers, this is the number of misses of the
+   * requests limited to the bitmap memory cache.
+   */
+  public long getUltimateFailureCount() {
+    return mUltimateFailureCount;
+  }
+
+  /**
+   * Ratio of the successful finishes in which the producer created the final result. For the cache
+   * producers, this is the hit ratio of the cache.
+   */
+  public double getUltimateSuccessRatio() {
+    return mSuccessCount == 0 ? 0 : (double) mUltimateSuccessCount / mSuccessCount;
+  }
+
+  /**
+   * Number of executions whose time wasn't recorded, because too many of them were running at
+   * once.
+   */
+  public long getDroppedCount() {
+    return mDroppedCount;
+  }
+
+  /** Time between the start and the finish of the producer, whatever the outcome. */
+  public LatencyHistogram.Snapshot getExecutionTime() {
+    return mExecutionTime;
+  }
+
+  /**
+   * Time the work of the producer waited in a queue, as reported in its extra map. Empty unless
+   * queue times are recorded.
+   */
+  public LatencyHistogram.Snapshot getQueueTime() {
+    return mQueueTime;
+  }
+
+  @Override
+  public String toString() {
+    return Objects.toStringHelper(this)
+        .add("producer", mProducerName)
+        .add("starts", mStartCount)
+        .add("successes", mSuccessCount)
+        .add("failures", mFailureCount)
+        .add("cancellations", mCancellationCount)
+        .add("ultimate_successes", mUltimateSuccessCount)
+        .add("dropped", mDroppedCount)
+        .add("execution_time", mExecutionTime)
+        .add("queue_time", mQueueTime)
+        .toString();
+  }
+}
@@ -0,0 +1,367 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.listener;
+
+import androidx.annotation.NonNull;
+import com.facebook.common.time.AwakeTimeSinceBootClock;
+import com.facebook.common.time.MonotonicClock;
+import com.facebook.imagepipeline.producers.ProducerContext;
+import com.facebook.infer.annotation.Nullsafe;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Request listener that records metrics of every producer, by producer name: how often it ran and
+ * how each run ended, how often it created the final result of the request, e.g. cache hits, and
+ * histograms of its execution time. The total time of the requests is recorded too.
+ *
+ * <p>The metrics are read with {@link #getProducerMetrics()}, and can be added to the pipeline with
+ * {@code ImagePipelineConfig.Builder#setRequestListener2s}.
+ *
+ * <p>Recording is lock-free, and doesn't allocate once every producer ran once. The start times of
+ * the running producers are kept in a small fixed table per producer, by a key hashed from the
+ * context, so a missed finish callback doesn't keep the context alive. If too many runs of the same
+ * producer overlap, the time of some of them is dropped.
+ *
+ * <p>The queue times of the producers are only reported in their extra maps, e.g. by {@code
+ * DecodeProducer} and the network fetchers. Recording them makes the producers create these maps,
+ * so it is off by default. Note that {@code ThreadHandoffProducer} finishes once its work starts
+ * running on the background thread, so its execution time is a queue time.
+ */
+@ThreadSafe
+@Nullsafe(Nullsafe.Mode.STRICT)
+public class ProducerMetricsRequestListener extends BaseRequestListener2 {
+
+  // the extra map keys of the queue times, used by JobScheduler and the network fetchers
+  private static final String EXTRA_QUEUE_TIME = "queueTime";
+  private static final String EXTRA_NETWORK_QUEUE_TIME = "queue_time";
+
+  private static final int START_TIMES_CAPACITY = 64;
+  private static final int REQUEST_START_TIMES_CAPACITY = 256;
+
+  private final MonotonicClock mClock;
+  private final boolean mRecordQueueTimes;
+  private final ConcurrentHashMap<String, ProducerStats> mProducerStats = new ConcurrentHashMap<>();
+  private final StartTimes mRequestStartTimes = new StartTimes(REQUEST_START_TIMES_CAPACITY);
+  private final LatencyHistogram mRequestTime = new LatencyHistogram();
+
+  public ProducerMetricsRequestListener() {
+    this(AwakeTimeSinceBootClock.get(), false);
+  }
+
+  /**
+   * @param clock the clock the times are measured with
+   * @param recordQueueTimes whether to request the extra maps of the producers, to record the queue
+   *     times reported there
+   */
+  public ProducerMetricsRequestListener(MonotonicClock clock, boolean recordQueueTimes) {
+    mClock = clock;
+    mRecordQueueTimes = recordQueueTimes;
+  }
+
+  @Override
+  public void onRequestStart(@NonNull ProducerContext producerContext) {
+    mRequestStartTimes.put(producerContext, mClock.now());
+  }
+
+  @Override
+  public void onRequestSuccess(@NonNull ProducerContext producerContext) {
+    onRequestFinish(producerContext);
+  }
+
+  @Override
+  public void onRequestFailure(@NonNull ProducerContext producerContext, Throwable throwable) {
+    onRequestFinish(producerContext);
+  }
+
+  @Override
+  public void onRequestCancellation(@NonNull ProducerContext producerContext) {
+    onRequestFinish(producerContext);
+  }
+
+  private void onRequestFinish(ProducerContext producerContext) {
+    final long startTime = mRequestStartTimes.remove(producerContext);
+    if (startTime != StartTimes.NO_START_TIME) {
+      mRequestTime.record(mClock.now() - startTime);
+    }
+  }
+
+  @Override
+  public void onProducerStart(
+      @NonNull ProducerContext producerContext, @NonNull String producerName) {
+    final ProducerStats stats = getOrCreateStats(producerName);
+    stats.mStartCount.incrementAndGet();
+    if (!stats.mStartTimes.put(producerContext, mClock.now())) {
+      stats.mDroppedCount.incrementAndGet();
+    }
+  }
+
+  @Override
+  public void onProducerFinishWithSuccess(
+      @NonNull ProducerContext producerContext,
+      @NonNull String producerName,
+      @Nullable Map<String, String> extraMap) {
+    final ProducerStats stats = onProducerFinish(producerContext, producerName, extraMap);
+    stats.mSuccessCount.incrementAndGet();
+  }
+
+  @Override
+  public void onProducerFinishWithFailure(
+      @NonNull ProducerContext producerContext,
+      String producerName,
+      Throwable t,
+      @Nullable Map<String, String> extraMap) {
+    final ProducerStats stats = onProducerFinish(producerContext, producerName, extraMap);
+    stats.mFailureCount.incrementAndGet();
+  }
+
+  @Override
+  public void onProducerFinishWithCancellation(
+      @NonNull ProducerContext producerContext,
+      @NonNull String producerName,
+      @Nullable Map<String, String> extraMap) {
+    final ProducerStats stats = onProducerFinish(producerContext, producerName, extraMap);
+    stats.mCancellationCount.incrementAndGet();
+  }
+
+  private ProducerStats onProducerFinish(
+      ProducerContext producerContext,
+      String producerName,
+      @Nullable Map<String, String> extraMap) {
+    final ProducerStats stats = getOrCreateStats(producerName);
+    final long startTime = stats.mStartTimes.remove(producerContext);
+    if (startTime != StartTimes.NO_START_TIME) {
+      stats.mExecutionTime.record(mClock.now() - startTime);
+    }
+    if (mRecordQueueTimes && extraMap != null) {
+      final long queueTime = parseQueueTime(extraMap);
+      if (queueTime >= 0) {
+        stats.mQueueTime.record(queueTime);
+      }
+    }
+    return stats;
+  }
+
+  @Override
+  public void onUltimateProducerReached(
+      @NonNull ProducerContext producerContext, @NonNull String producerName, boolean successful) {
+    final ProducerStats stats = getOrCreateStats(producerName);
+    if (successful) {
+      stats.mUltimateSuccessCount.incrementAndGet();
+    } else {
+      stats.mUltimateFailureCount.incrementAndGet();
+    }
+  }
+
+  @Override
+  public boolean requiresExtraMap(
+      @NonNull ProducerContext producerContext, @NonNull String producerName) {
+    return mRecordQueueTimes;
+  }
+
+  /** @return the metrics of all the producers that ran so far, by producer name */
+  public Map<String, ProducerMetrics> getProducerMetrics() {
+    final Map<String, ProducerMetrics> metrics = new HashMap<>();
+    for (Map.Entry<String, ProducerStats> entry : mProducerStats.entrySet()) {
+      metrics.put(entry.getKey(), entry.getValue().getMetrics(entry.getKey()));
+    }
+    return metrics;
+  }
+
+  /** @return the metrics of the producer, or null if it didn't run so far */
+  @Nullable
+  public ProducerMetrics getProducerMetrics(String producerName) {
+    final ProducerStats stats = mProducerStats.get(producerName);
+    return stats == null ? null : stats.getMetrics(producerName);
+  }
+
+  /** @return the time between the start of the requests and their success, failure or cancel */
+  public LatencyHistogram.Snapshot getRequestTime() {
+    return mRequestTime.getSnapshot();
+  }
+
+  /** Forgets the metrics recorded so far. The producers and requests running are still timed. */
+  public void reset() {
+    for (ProducerStats stats : mProducerStats.values()) {
+      stats.reset();
+    }
+    mRequestTime.reset();
+  }
+
+  private ProducerStats getOrCreateStats(String producerName) {
+    ProducerStats stats = mProducerStats.get(producerName);
+    if (stats == null) {
+      stats = new ProducerStats();
+      final ProducerStats previous = mProducerStats.putIfAbsent(producerName, stats);
+      if (previous != null) {
+        stats = previous;
+      }
+    }
+    return stats;
+  }
+
+  /** @return the queue time reported in the extra map, or -1 if there is none */
+  private static long parseQueueTime(Map<String, String> extraMap) {
+    String value = extraMap.get(EXTRA_QUEUE_TIME);
+    if (value == null) {
+      value = extraMap.get(EXTRA_NETWORK_QUEUE_TIME);
+    }
+    if (value == null) {
+      return -1;
+    }
+    try {
+      return Long.parseLong(value);
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  private static class ProducerStats {
+
+    final AtomicLong mStartCount = new AtomicLong();
+    final AtomicLong mSuccessCount = new AtomicLong();
+    final AtomicLong mFailureCount = new AtomicLong();
+    final AtomicLong mCancellationCount = new AtomicLong();
+    final AtomicLong mUltimateSuccessCount = new AtomicLong();
+    final AtomicLong mUltimateFailureCount = new AtomicLong();
+    final AtomicLong mDroppedCount = new AtomicLong();
+    final LatencyHistogram mExecutionTime = new LatencyHistogram();
+    final LatencyHistogram mQueueTime = new LatencyHistogram();
+    final StartTimes mStartTimes = new StartTimes(START_TIMES_CAPACITY);
+
+    ProducerMetrics getMetrics(String producerName) {
+      return new ProducerMetrics(
+          producerName,
+          mStartCount.get(),
+          mSuccessCount.get(),
+          mFailureCount.get(),
+          mCancellationCount.get(),
+          mUltimateSuccessCount.get(),
+          mUltimateFailureCount.get(),
+          mDroppedCount.get(),
+          mExecutionTime.getSnapshot(),
+          mQueueTime.getSnapshot());
+    }
+
+    void reset() {
+      mStartCount.set(0);
+      mSuccessCount.set(0);
+      mFailureCount.set(0);
+      mCancellationCount.set(0);
+      mUltimateSuccessCount.set(0);
+      mUltimateFailureCount.set(0);
+      mDroppedCount.set(0);
+      mExecutionTime.reset();
+      mQueueTime.reset();
+    }
+  }
+
+  /**
+   * Start times by producer context, in a fixed open addressing table. Only a key hashed from the
+   * request id and the identity of the context is kept, so that a context is not held if it never
+   * finishes. A context is looked up in a few slots only, so that a slot can be freed without
+   * tombstones, and a start time is dropped if they are all taken. A slot whose start time is older
+   * than {@link #STALE_START_TIME_MS} is assumed to have missed its finish, and is taken over.
+   */
+  static class StartTimes {
+
+    static final long NO_START_TIME = Long.MIN_VALUE;
+    static final long STALE_START_TIME_MS = 60_000;
+    private static final int PROBE_COUNT = 4;
+    private static final long NO_KEY = 0;
+    // held by a slot while its time is written, so that the time is set before the key shows
+    private static final long RESERVED_KEY = -1;
+
+    private final AtomicLongArray mKeys;
+    private final AtomicLongArray mTimes;
+    private final int mMask;
+
+    /** @param capacity the size of the table, a power of two */
+    StartTimes(int capacity) {
+      mKeys = new AtomicLongArray(capacity);
+      mTimes = new AtomicLongArray(capacity);
+      mMask = capacity - 1;
+    }
+
+    /** @return false if the start time was dropped */
+    boolean put(ProducerContext context, long time) {
+      final long key = keyOf(context);
+      final int start = indexOf(key);
+      for (int i = 0; i < PROBE_COUNT; i++) {
+        final int index = (start + i) & mMask;
+        if (mKeys.get(index) == key && claim(index, key, key, time)) {
+          // started again without finishing first
+          return true;
+        }
+      }
+      for (int i = 0; i < PROBE_COUNT; i++) {
+        final int index = (start + i) & mMask;
+        if (claim(index, NO_KEY, key, time)) {
+          return true;
+        }
+      }
+      for (int i = 0; i < PROBE_COUNT; i++) {
+        final int index = (start + i) & mMask;
+        final long staleKey = mKeys.get(index);
+        if (staleKey != NO_KEY
+            && staleKey != RESERVED_KEY
+            && time - mTimes.get(index) > STALE_START_TIME_MS
+            && claim(index, staleKey, key, time)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * Takes the slot if it holds {@code expectedKey}. The slot is reserved while the time is
+     * written, so that nobody sees the key with the time of the previous occupant.
+     */
+    private boolean claim(int index, long expectedKey, long key, long time) {
+      if (!mKeys.compareAndSet(index, expectedKey, RESERVED_KEY)) {
+        return false;
+      }
+      mTimes.set(index, time);
+      mKeys.set(index, key);
+      return true;
+    }
+
+    /** @return the start time of the context, or {@link #NO_START_TIME} if it was dropped */
+    long remove(ProducerContext context) {
+      final long key = keyOf(context);
+      final int start = indexOf(key);
+      for (int i = 0; i < PROBE_COUNT; i++) {
+        final int index = (start + i) & mMask;
+        if (mKeys.get(index) == key) {
+          final long time = mTimes.get(index);
+          if (mKeys.compareAndSet(index, key, NO_KEY)) {
+            return time;
+          }
+        }
+      }
+      return NO_START_TIME;
+    }
+
+    private int indexOf(long key) {
+      final int hash = (int) (key ^ (key >>> 32));
+      return (hash ^ (hash >>> 16)) & mMask;
+    }
+
+    private static long keyOf(ProducerContext context) {
+      final long key =
+          ((long) context.getId().hashCode() << 32)
+              | (System.identityHashCode(context) & 0xFFFFFFFFL);
+      return key == NO_KEY || key == RESERVED_KEY ? 1 : key;
+    }
+  }
+}
@@ -19,10 +19,13 @@ import com.facebook.common.memory.MemoryTrimmableRegistry;
 import com.facebook.common.memory.Pool;
 import com.facebook.infer.annotation.Nullsafe;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.NotThreadSafe;
@@ -104,11 +107,24 @@ import javax.annotation.concurrent.NotThreadSafe;
  *       simply controls the release path. If the BucketSizes parameter is null, then the pool will
  *       dynamically create buckets on demand.
  * </ul>
+ *
+ * <p>Concurrency By default, all the state of the pool is guarded by the pool itself. With {@link
+ * PoolParams#concurrent} set (and fixed bucket sizes), the pool lock only guards the {@link
+ * Counter}s, each bucket is guarded by its own lock, and each thread keeps a small {@link
+ * PoolMagazine} of free values that it can reuse without taking any shared lock. Values in the
+ * magazines are accounted as used, so the soft and hard caps apply to them as before; they are
+ * given back when the pool is trimmed, or when an allocation would otherwise exceed the hard cap.
+ * Locks are always taken in pool, bucket order.
  */
 @Nullsafe(Nullsafe.Mode.STRICT)
 public abstract class BasePool<V> implements com.facebook.common.memory.Pool<> {
   private final Class<?> TAG =  this.getClass();
 
+  /**
+   *  Each per-thread magazine holds at most this fraction of the soft cap 
+   */
+  private static final int MAGAZINE_SOFT_CAP_DIVISOR =  16;
+
   /**
    *  The memory manager to register with 
    */
@@ -202,6 +218,27 @@ public abstract class BasePool<V> implements com.facebook.common.memory.Pool<> {
 
   private boolean mIgnoreHardCap;
 
+  /**
+   *  Whether the pool uses per-bucket locks and per-thread magazines, see {@link PoolParams#concurrent}
+   */
+  private final boolean mConcurrent;
+
+  /**
+   *  The magazine of the current thread, only used by concurrent pools
+   */
+  private final ThreadLocal<PoolMagazine<V>> mMagazine;
+
+  /**
+   *  All the magazines handed out, so that the pool can take their values back
+   */
+  private final List<PoolMagazine<V>> mMagazines;
+
+  /**
+   * Last known state of the soft cap, readable without the pool lock. Concurrent pools don't park
+   * released values in magazines while it is set.
+   */
+  private volatile boolean mSoftCapExceeded;
+
   /**
    * Creates a new instance of the pool.
    * 
@@ -221,7 +258,15 @@ public abstract class BasePool<V> implements com.facebook.common.memory.Pool<> {
       legacyInitBuckets(new SparseIntArray(0));
     }
 
-    mInUseValues = Sets.newIdentityHashSet();
+    // a concurrent pool can't create or replace buckets, they are read without the pool lock
+    mConcurrent = mPoolParams.concurrent && mPoolParams.bucketSizes != null;
+    // pooled values don't override equals, so the concurrent set tracks them by reference too
+    mInUseValues =
+        mConcurrent
+            ? Collections.newSetFromMap(new ConcurrentHashMap<V, Boolean>())
+            : Sets.<V>newIdentityHashSet();
+    mMagazine = new ThreadLocal<>();
+    mMagazines = new CopyOnWriteArrayList<>();
 
     mFree = new Counter();
     mUsed = new Counter();
@@ -240,8 +285,13 @@ public abstract class BasePool<V> implements com.facebook.common.memory.Pool<> {
     mPoolStatsTracker.setBasePool(this);
   }
 
+  /**
+   * Takes a value out of the bucket's free list. Callers hold the pool lock, or the bucket lock for
+   * concurrent pools. Concurrent pools also take the values parked in the magazine of the current
+   * thread through here, so that subclasses prepare all the reused values the same way.
+   */
   @Nullable
-  protected synchronized V getValue(Bucket<V> bucket) {
+  protected V getValue(Bucket<V> bucket) {
     //noinspection deprecation
     return bucket.get();
   }
@@ -258,6 +308,9 @@ public abstract class BasePool<V> implements com.facebook.common.memory.Pool<> {
    * @throws InvalidSizeException
    */
   public V get(int size) {
+    if (mConcurrent) {
+      return getConcurrent(size);
+    }
     ensurePoolSizeInvariant();
 
     int bucketedSize = getBucketedSize(size);
@@ -359,6 +412,10 @@ public abstract class BasePool<V> implements com.facebook.common.memory.Pool<> {
   @Override
   public void release(V value) {
     Preconditions.checkNotNull(value);
+    if (mConcurrent) {
+      releaseConcurrent(value);
+      return;
+    }
 
     final int bucketedSize = getBucketedSizeForValue(value);
     final int sizeInBytes = getSizeInBytes(bucketedSize);
@@ -420,6 +477,213 @@ public abstract class BasePool<V> implements com.facebook.common.memory.Pool<> {
     }
   }
 
+  /**
+   * {@link #get(int)} for concurrent pools. Values come from the thread's magazine first, then from
+   * the bucket's free list, and are allocated otherwise.
+   */
+  private V getConcurrent(int size) {
+    int bucketedSize = getBucketedSize(size);
+    final int bucketIndex = mBuckets.indexOfKey(bucketedSize);
+    final Bucket<V> bucket = bucketIndex >= 0 ? mBuckets.valueAt(bucketIndex) : null;
+
+    if (bucket != null) {
+      // parked values are still accounted as used
+      V value = getValue(getMagazine().getBucket(bucketIndex, bucket.mItemSize));
+      if (value != null) {
+        Preconditions.checkState(mInUseValues.add(value));
+        mPoolStatsTracker.onValueReuse(bucket.mItemSize);
+        return value;
+      }
+
+      synchronized (bucket) {
+        value = getValue(bucket);
+      }
+      if (value != null) {
+        Preconditions.checkState(mInUseValues.add(value));
+        final int sizeInBytes = getSizeInBytes(getBucketedSizeForValue(value));
+        synchronized (this) {
+          mUsed.increment(sizeInBytes);
+          mFree.decrement(sizeInBytes);
+          mPoolStatsTracker.onValueReuse(sizeInBytes);
+        }
+        return value;
+      }
+    }
+
+    final int sizeInBytes = getSizeInBytes(bucketedSize);
+    reserveConcurrent(sizeInBytes);
+    if (bucket != null) {
+      synchronized (bucket) {
+        bucket.incrementInUseCount();
+      }
+    }
+
+    V value = null;
+    try {
+      value = alloc(bucketedSize);
+    } catch (Throwable e) {
+      synchronized (this) {
+        mUsed.decrement(sizeInBytes);
+      }
+      if (bucket != null) {
+        synchronized (bucket) {
+          bucket.decrementInUseCount();
+        }
+      }
+      Throwables.propagateIfPossible(e);
+    }
+
+    Preconditions.checkState(mInUseValues.add(value));
+    final boolean softCapExceeded;
+    synchronized (this) {
+      trimToSoftCap();
+      softCapExceeded = (mUsed.mNumBytes + mFree.mNumBytes) > mPoolParams.maxSizeSoftCap;
+      mSoftCapExceeded = softCapExceeded;
+      mPoolStatsTracker.onAlloc(sizeInBytes);
+    }
+    if (softCapExceeded) {
+      // the free lists are empty, what's left to give back is parked in magazines
+      drainMagazines();
+    }
+    return value;
+  }
+
+  /**
+   * Accounts for a new value of the given size as used, or throws if that would exceed the hard cap
+   * even after giving back the values parked in magazines.
+   */
+  private void reserveConcurrent(int sizeInBytes) {
+    synchronized (this) {
+      if (canAllocate(sizeInBytes)) {
+        mUsed.increment(sizeInBytes);
+        return;
+      }
+    }
+    drainMagazines();
+    synchronized (this) {
+      if (!canAllocate(sizeInBytes)) {
+        throw new PoolSizeViolationException(
+            mPoolParams.maxSizeHardCap, mUsed.mNumBytes, mFree.mNumBytes, sizeInBytes);
+      }
+      mUsed.increment(sizeInBytes);
+    }
+  }
+
+  /** {@link #release(Object)} for concurrent pools. */
+  private void releaseConcurrent(V value) {
+    final int bucketedSize = getBucketedSizeForValue(value);
+    final int sizeInBytes = getSizeInBytes(bucketedSize);
+    final int bucketIndex = mBuckets.indexOfKey(bucketedSize);
+    final Bucket<V> bucket = bucketIndex >= 0 ? mBuckets.valueAt(bucketIndex) : null;
+
+    if (!mInUseValues.remove(value)) {
+      FLog.e(
+          TAG,
+          "release (free, value unrecognized) (object, size) = (%x, %s)",
+          System.identityHashCode(value),
+          bucketedSize);
+      free(value);
+      mPoolStatsTracker.onFree(sizeInBytes);
+      return;
+    }
+
+    if (bucket != null && isReusable(value)) {
+      if (!mSoftCapExceeded && getMagazine().push(bucketIndex, value, sizeInBytes)) {
+        mPoolStatsTracker.onValueRelease(sizeInBytes);
+        return;
+      }
+      if (releaseToBucket(bucket, value, sizeInBytes)) {
+        mPoolStatsTracker.onValueRelease(sizeInBytes);
+        return;
+      }
+    } else if (bucket != null) {
+      synchronized (bucket) {
+        bucket.decrementInUseCount();
+      }
+    }
+
+    free(value);
+    synchronized (this) {
+      mUsed.decrement(sizeInBytes);
+      mPoolStatsTracker.onFree(sizeInBytes);
+    }
+  }
+
+  /**
+   * Adds a released value to the bucket's free list, unless the pool or the bucket is over its
+   * cap. If the value isn't added, it is only removed from the bucket's in-use count.
+   *
+   * @return true if the value was added to the free list
+   */
+  private boolean releaseToBucket(Bucket<V> bucket, V value, int sizeInBytes) {
+    // the value is accounted as free before it is on the free list, so that a concurrent trim never
+    // pops a value that mFree doesn't know about
+    final boolean softCapExceeded;
+    synchronized (this) {
+      softCapExceeded = isMaxSizeSoftCapExceeded();
+      mSoftCapExceeded = softCapExceeded;
+      if (!softCapExceeded) {
+        mUsed.decrement(sizeInBytes);
+        mFree.increment(sizeInBytes);
+      }
+    }
+
+    synchronized (bucket) {
+      if (!softCapExceeded && !bucket.isMaxLengthExceeded()) {
+        bucket.release(value);
+        return true;
+      }
+      bucket.decrementInUseCount();
+    }
+
+    if (!softCapExceeded) {
+      synchronized (this) {
+        mFree.decrement(sizeInBytes);
+        mUsed.increment(sizeInBytes);
+      }
+    }
+    return false;
+  }
+
+  private PoolMagazine<V> getMagazine() {
+    PoolMagazine<V> magazine = mMagazine.get();
+    if (magazine == null) {
+      magazine =
+          new PoolMagazine<>(
+              mBuckets.size(), mPoolParams.maxSizeSoftCap / MAGAZINE_SOFT_CAP_DIVISOR);
+      mMagazine.set(magazine);
+      mMagazines.add(magazine);
+    }
+    return magazine;
+  }
+
+  /**
+   * Frees the values parked in the magazines of all threads, and forgets the magazines of threads
+   * that are gone.
+   */
+  private void drainMagazines() {
+    for (PoolMagazine<V> magazine : mMagazines) {
+      if (!magazine.isOwnerAlive()) {
+        mMagazines.remove(magazine);
+      }
+      List<V> values = magazine.drain();
+      for (int i = 0; i < values.size(); ++i) {
+        final V value = values.get(i);
+        final int bucketedSize = getBucketedSizeForValue(value);
+        final int sizeInBytes = getSizeInBytes(bucketedSize);
+        final Bucket<V> bucket = Preconditions.checkNotNull(mBuckets.get(bucketedSize));
+        synchronized (bucket) {
+          bucket.decrementInUseCount();
+        }
+        free(value);
+        synchronized (this) {
+          mUsed.decrement(sizeInBytes);
+          mPoolStatsTracker.onFree(sizeInBytes);
+        }
+      }
+    }
+  }
+
   /**
    * Trims the pool in response to low-memory states (invoked from MemoryManager) For now, we'll do
    * the simplest thing, and simply clear out the entire pool. We may consider more sophisticated
@@ -602,6 +866,10 @@ public abstract class BasePool<V> implements com.facebook.common.memory.Pool<> {
    */
   @VisibleForTesting
   void trimToNothing() {
+    if (mConcurrent) {
+      trimToNothingConcurrent();
+      return;
+    }
     final List<Bucket<V>> bucketsToTrim;
 
     synchronized (this) {
@@ -648,6 +916,36 @@ public abstract class BasePool<V> implements com.facebook.common.memory.Pool<> {
     }
   }
 
+  /**
+   * {@link #trimToNothing()} for concurrent pools. Their buckets are never replaced, the free lists
+   * are emptied in place instead.
+   */
+  private void trimToNothingConcurrent() {
+    drainMagazines();
+
+    final List<V> values = new ArrayList<>();
+    synchronized (this) {
+      for (int i = 0; i < mBuckets.size(); ++i) {
+        final Bucket<V> bucket = Preconditions.checkNotNull(mBuckets.valueAt(i));
+        synchronized (bucket) {
+          V value;
+          while ((value = bucket.pop()) != null) {
+            values.add(value);
+            mFree.decrement(bucket.mItemSize);
+          }
+        }
+      }
+      mSoftCapExceeded = false;
+      logStats();
+    }
+
+    onParamsChanged();
+
+    for (int i = 0; i < values.size(); ++i) {
+      free(values.get(i));
+    }
+  }
+
   /**
    * Trim the (free portion of the) pool so that the pool size is at or below the soft cap. This
    * will try to free up values in the free portion of the pool, until (a) the pool size is now
@@ -698,7 +996,11 @@ public abstract class BasePool<V> implements com.facebook.common.memory.Pool<> {
       }
       Bucket<V> bucket = Preconditions.checkNotNull(mBuckets.valueAt(i));
       while (bytesToFree > 0) {
-        V value = bucket.pop();
+        V value;
+        // concurrent pools update the free lists under the bucket lock only
+        synchronized (bucket) {
+          value = bucket.pop();
+        }
         if (value == null) {
           break;
         }
@@ -841,7 +1143,9 @@ public abstract class BasePool<V> implements com.facebook.common.memory.Pool<> {
       final Bucket<V> bucket = Preconditions.checkNotNull(mBuckets.valueAt(i));
       final String BUCKET_USED_KEY =
           PoolStatsTracker.BUCKETS_USED_PREFIX + getSizeInBytes(bucketedSize);
-      stats.put(BUCKET_USED_KEY, bucket.getInUseCount());
+      synchronized (bucket) {
+        stats.put(BUCKET_USED_KEY, bucket.getInUseCount());
+      }
     }
 
     stats.put(PoolStatsTracker.SOFT_CAP, mPoolParams.maxSizeSoftCap);
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.memory;
+
+import androidx.annotation.VisibleForTesting;
+import com.facebook.binaryresource.BinaryResource;
+import com.facebook.binaryresource.FileBinaryResource;
+import com.facebook.binaryresource.FileChannelBinaryResource;
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.memory.PooledByteBuffer;
+import com.facebook.infer.annotation.Nullsafe;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * An implementation of {@link PooledByteBuffer} backed by a read-only memory mapping of a file.
+ *
+ * <p>This lets an {@link com.facebook.imagepipeline.image.EncodedImage} wrap a disk cache entry
+ * without copying it into pooled memory first: pages are only read from the file when the decoder
+ * touches them. Nothing is pooled; the mapping is released when the buffer is garbage collected.
+ *
+ * <p>The mapped file may be deleted or replaced meanwhile, as the disk storages do, but must not be
+ * truncated.
+ */
+@ThreadSafe
+@Nullsafe(Nullsafe.Mode.LOCAL)
+public class MappedPooledByteBuffer implements PooledByteBuffer {
+
+  private final int mSize;
+
+  @GuardedBy("this")
+  @Nullable
+  private ByteBuffer mBuffer;
+
+  @VisibleForTesting
+  MappedPooledByteBuffer(ByteBuffer buffer) {
+    Preconditions.checkNotNull(buffer);
+    mBuffer = buffer;
+    mSize = buffer.capacity();
+  }
+
+  /**
+   * Maps the content of a disk cache resource.
+   *
+   * @return the mapped buffer, or null if the resource is not backed by a file that can be mapped
+   */
+  @Nullable
+  public static MappedPooledByteBuffer map(BinaryResource resource) throws IOException {
+    if (resource instanceof FileBinaryResource) {
+      RandomAccessFile file = new RandomAccessFile(((FileBinaryResource) resource).getFile(), "r");
+      try {
+        FileChannel channel = file.getChannel();
+        return new MappedPooledByteBuffer(
+            channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+      } finally {
+        // the mapping stays valid after the file is closed
+        file.close();
+      }
+    }
+    if (resource instanceof FileChannelBinaryResource) {
+      FileChannelBinaryResource channelResource = (FileChannelBinaryResource) resource;
+      return new MappedPooledByteBuffer(
+          channelResource
+              .getChannel()
+              .map(
+                  FileChannel.MapMode.READ_ONLY,
+                  channelResource.getOffset(),
+                  channelResource.size()));
+    }
+    return null;
+  }
+
+  @Override
+  public synchronized int size() {
+    ensureValid();
+    return mSize;
+  }
+
+  @Override
+  public synchronized byte read(int offset) {
+    Preconditions.checkArgument(offset >= 0);
+    Preconditions.checkArgument(offset < mSize);
+    return getBuffer().get(offset);
+  }
+
+  @Override
+  public synchronized int read(int offset, byte[] buffer, int bufferOffset, int length) {
+    Preconditions.checkNotNull(buffer);
+    ByteBuffer mapped = getBuffer();
+    final int actualCount = MemoryChunkUtil.adjustByteCount(offset, length, mSize);
+    MemoryChunkUtil.checkBounds(offset, buffer.length, bufferOffset, actualCount, mSize);
+    mapped.position(offset);
+    mapped.get(buffer, bufferOffset, actualCount);
+    return actualCount;
+  }
+
+  @Override
+  public long getNativePtr() {
+    throw new UnsupportedOperationException("Cannot get the pointer of a MappedPooledByteBuffer");
+  }
+
+  @Override
+  @Nullable
+  public synchronized ByteBuffer getByteBuffer() {
+    return mBuffer;
+  }
+
+  @Override
+  public synchronized boolean isClosed() {
+    return mBuffer == null;
+  }
+
+  /** Drops the reference to the mapping. It is not an error to close an already closed buffer. */
+  @Override
+  public synchronized void close() {
+    mBuffer = null;
+  }
+
+  private synchronized ByteBuffer getBuffer() {
+    ensureValid();
+    return Preconditions.checkNotNull(mBuffer);
+  }
+
+  private synchronized void ensureValid() {
+    if (isClosed()) {
+      throw new ClosedException();
+    }
+  }
+}
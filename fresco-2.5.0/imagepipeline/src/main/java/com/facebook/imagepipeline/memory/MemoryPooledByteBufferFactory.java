@@ -30,9 +30,23 @@ public class MemoryPooledByteBufferFactory implements com.facebook.common.memory
    */
   private final MemoryChunkPool mPool;
 
+  /**
+   *  size of the segments of the streams created without an initial capacity, or 0 to grow them by reallocation 
+   */
+  private final int mUnsizedOutputStreamSegmentSize;
+
   public MemoryPooledByteBufferFactory(MemoryChunkPool pool, com.facebook.common.memory.PooledByteStreams pooledByteStreams) {
+    this(pool, pooledByteStreams, 0);
+  }
+
+  /**
+   * @param unsizedOutputStreamSegmentSize if positive, {@link #newOutputStream()} returns a {@link
+   *     SegmentedPooledByteBufferOutputStream} with segments of this size
+   */
+  public MemoryPooledByteBufferFactory(MemoryChunkPool pool, com.facebook.common.memory.PooledByteStreams pooledByteStreams, int unsizedOutputStreamSegmentSize) {
     mPool = pool;
     mPooledByteStreams = pooledByteStreams;
+    mUnsizedOutputStreamSegmentSize = unsizedOutputStreamSegmentSize;
   }
 
   @Override
@@ -98,7 +112,10 @@ public class MemoryPooledByteBufferFactory implements com.facebook.common.memory
   }
 
   @Override
-  public MemoryPooledByteBufferOutputStream newOutputStream() {
+  public com.facebook.common.memory.PooledByteBufferOutputStream newOutputStream() {
+    if (mUnsizedOutputStreamSegmentSize > 0) {
+      return new SegmentedPooledByteBufferOutputStream(mPool, mUnsizedOutputStreamSegmentSize);
+    }
     return new MemoryPooledByteBufferOutputStream(mPool);
   }
 
@@ -52,6 +52,8 @@ public class PoolConfig {
 
   private final boolean mIgnoreBitmapPoolHardCap;
 
+  private final int mUnsizedOutputStreamSegmentSize;
+
   private PoolConfig(PoolConfig.Builder builder) {
     if (FrescoSystrace.isTracing()) {
       FrescoSystrace.beginSection("PoolConfig()");
@@ -101,6 +103,7 @@ public class PoolConfig {
       FrescoSystrace.endSection();
     }
     mIgnoreBitmapPoolHardCap = builder.mIgnoreBitmapPoolHardCap;
+    mUnsizedOutputStreamSegmentSize = builder.mUnsizedOutputStreamSegmentSize;
   }
 
   public static class Builder {
@@ -139,6 +142,8 @@ public class PoolConfig {
 
     public boolean mIgnoreBitmapPoolHardCap;
 
+    private int mUnsizedOutputStreamSegmentSize;
+
     private Builder() {
     }
 
@@ -211,6 +216,16 @@ public class PoolConfig {
       return this;
     }
 
+    /**
+     * If positive, output streams created without an expected size, such as the ones for downloads
+     * without a Content-Length, are made of segments of this size that are never reallocated. See
+     * {@link SegmentedPooledByteBufferOutputStream}.
+     */
+    public PoolConfig.Builder setUnsizedOutputStreamSegmentSize(int unsizedOutputStreamSegmentSize) {
+      mUnsizedOutputStreamSegmentSize = unsizedOutputStreamSegmentSize;
+      return this;
+    }
+
   }
 
   public PoolParams getBitmapPoolParams() {
@@ -265,6 +280,10 @@ public class PoolConfig {
     return mIgnoreBitmapPoolHardCap;
   }
 
+  public int getUnsizedOutputStreamSegmentSize() {
+    return mUnsizedOutputStreamSegmentSize;
+  }
+
   public static PoolConfig.Builder newBuilder()
   {
     return new Builder();
@@ -224,7 +224,10 @@ public class PoolFactory {
       Preconditions.checkNotNull(
           memoryChunkPool, "failed to get pool for chunk type: " + memoryChunkType);
       mPooledByteBufferFactory =
-          new MemoryPooledByteBufferFactory(memoryChunkPool, getPooledByteStreams());
+          new MemoryPooledByteBufferFactory(
+              memoryChunkPool,
+              getPooledByteStreams(),
+              mConfig.getUnsizedOutputStreamSegmentSize());
     }
     return mPooledByteBufferFactory;
   }
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.memory;
+
+import androidx.annotation.VisibleForTesting;
+import com.facebook.infer.annotation.Nullsafe;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A small per-thread cache of free values for a concurrent {@link BasePool}, holding a short stack
+ * of values for each bucket of the pool.
+ *
+ * <p>Values parked in a magazine stay accounted as used by the pool, so moving values in and out
+ * of the magazine of the current thread doesn't touch any state shared with other threads. The
+ * magazine is synchronized on itself: on the fast path only the owning thread takes that lock, the
+ * pool takes it to drain the magazine when it needs the memory back.
+ */
+@Nullsafe(Nullsafe.Mode.STRICT)
+@ThreadSafe
+class PoolMagazine<V> {
+
+  /** Max number of values held for each bucket */
+  @VisibleForTesting static final int VALUES_PER_BUCKET = 4;
+
+  private final WeakReference<Thread> mOwner;
+  private final Object[][] mValues;
+  private final int[] mCounts;
+  private final @Nullable Bucket<V>[] mBuckets;
+  private final int mMaxSizeInBytes;
+  private int mSizeInBytes;
+
+  /**
+   * @param numBuckets number of buckets of the pool
+   * @param maxSizeInBytes max total size of the values held by this magazine
+   */
+  @SuppressWarnings("unchecked")
+  PoolMagazine(int numBuckets, int maxSizeInBytes) {
+    mOwner = new WeakReference<>(Thread.currentThread());
+    mValues = new Object[numBuckets][VALUES_PER_BUCKET];
+    mCounts = new int[numBuckets];
+    mBuckets = (Bucket<V>[]) new Bucket[numBuckets];
+    mMaxSizeInBytes = maxSizeInBytes;
+  }
+
+  /**
+   * Takes a value of the given bucket out of the magazine
+   *
+   * @param bucketIndex index of the bucket in the pool
+   * @param sizeInBytes size of the values of that bucket
+   * @return the most recently parked value of the bucket, or null if there is none
+   */
+  @Nullable
+  synchronized V pop(int bucketIndex, int sizeInBytes) {
+    int count = mCounts[bucketIndex];
+    if (count == 0) {
+      return null;
+    }
+    count--;
+    @SuppressWarnings("unchecked")
+    V value = (V) mValues[bucketIndex][count];
+    mValues[bucketIndex][count] = null;
+    mCounts[bucketIndex] = count;
+    mSizeInBytes -= sizeInBytes;
+    return value;
+  }
+
+  /**
+   * Parks a value in the magazine, if there is room for it
+   *
+   * @param bucketIndex index of the value's bucket in the pool
+   * @param value the value
+   * @param sizeInBytes size of the value
+   * @return true if the value was parked, false if the magazine is full
+   */
+  synchronized boolean push(int bucketIndex, V value, int sizeInBytes) {
+    final int count = mCounts[bucketIndex];
+    if (count == VALUES_PER_BUCKET || sizeInBytes > mMaxSizeInBytes - mSizeInBytes) {
+      return false;
+    }
+    mValues[bucketIndex][count] = value;
+    mCounts[bucketIndex] = count + 1;
+    mSizeInBytes += sizeInBytes;
+    return true;
+  }
+
+  /**
+   * Gets the values of a bucket parked in the magazine as a {@link Bucket}, so that the pool takes
+   * them out through {@link BasePool#getValue} like the values of its own buckets. Only called by
+   * the owning thread.
+   *
+   * @param bucketIndex index of the bucket in the pool
+   * @param itemSize size of the values of that bucket
+   */
+  Bucket<V> getBucket(int bucketIndex, int itemSize) {
+    Bucket<V> bucket = mBuckets[bucketIndex];
+    if (bucket == null) {
+      bucket = new MagazineBucket(bucketIndex, itemSize);
+      mBuckets[bucketIndex] = bucket;
+    }
+    return bucket;
+  }
+
+  /** Empties the magazine, returning all the values that were parked in it */
+  synchronized List<V> drain() {
+    List<V> values = new ArrayList<>();
+    for (int i = 0; i < mValues.length; i++) {
+      for (int j = 0; j < mCounts[i]; j++) {
+        @SuppressWarnings("unchecked")
+        V value = (V) mValues[i][j];
+        values.add(value);
+        mValues[i][j] = null;
+      }
+      mCounts[i] = 0;
+    }
+    mSizeInBytes = 0;
+    return values;
+  }
+
+  /** Whether the thread this magazine was created for is still running */
+  boolean isOwnerAlive() {
+    Thread owner = mOwner.get();
+    return owner != null && owner.isAlive();
+  }
+
+  @VisibleForTesting
+  synchronized int getSizeInBytes() {
+    return mSizeInBytes;
+  }
+
+  /**
+   * Hands out the values of one bucket parked in the magazine. They are already counted as in use
+   * by the pool's bucket, so this one doesn't count them.
+   */
+  private class MagazineBucket extends Bucket<V> {
+
+    private final int mBucketIndex;
+
+    private MagazineBucket(int bucketIndex, int itemSize) {
+      super(itemSize, VALUES_PER_BUCKET, 0, false);
+      mBucketIndex = bucketIndex;
+    }
+
+    @Override
+    @Nullable
+    public V get() {
+      return pop();
+    }
+
+    @Override
+    @Nullable
+    public V pop() {
+      return PoolMagazine.this.pop(mBucketIndex, mItemSize);
+    }
+  }
+}
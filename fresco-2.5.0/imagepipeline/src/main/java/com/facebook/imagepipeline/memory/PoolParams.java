@@ -57,6 +57,12 @@ public class PoolParams {
 
   public boolean fixBucketsReinitialization;
 
+  /**
+   * Use per-bucket locks and small per-thread caches of free values instead of a single pool-wide
+   * lock. Only supported by pools with fixed {@link #bucketSizes}, other pools ignore it.
+   */
+  public boolean concurrent;
+
   /**
    * The maximum number of threads that may be accessing this pool.
    * 
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.memory;
+
+import androidx.annotation.VisibleForTesting;
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.memory.PooledByteBuffer;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.infer.annotation.Nullsafe;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * An implementation of {@link PooledByteBuffer} that stores its data in a list of {@link
+ * MemoryChunk}s of the same size, as written by {@link SegmentedPooledByteBufferOutputStream}.
+ *
+ * <p>Reads are split over the segments, so {@link
+ * com.facebook.common.memory.PooledByteBufferInputStream} and the decoders that read the buffer
+ * work as with a {@link MemoryPooledByteBuffer}. A buffer with more than one segment has no
+ * contiguous memory to expose though: {@link #getByteBuffer()} then returns a direct copy of the
+ * data, made on the first call, for the decoders that need one.
+ */
+@ThreadSafe
+@Nullsafe(Nullsafe.Mode.LOCAL)
+public class SegmentedPooledByteBuffer implements PooledByteBuffer {
+
+  private final int mSegmentSize;
+  private final int mSize;
+
+  @GuardedBy("this")
+  @Nullable
+  private List<CloseableReference<MemoryChunk>> mSegments;
+
+  @GuardedBy("this")
+  @Nullable
+  private ByteBuffer mContiguousCopy;
+
+  /**
+   * @param segments the segments holding the data, cloned by this buffer. All of them hold at
+   *     least {@code segmentSize} bytes
+   * @param segmentSize number of bytes of data in each segment but the last one
+   * @param size total number of bytes of data
+   */
+  public SegmentedPooledByteBuffer(
+      List<CloseableReference<MemoryChunk>> segments, int segmentSize, int size) {
+    Preconditions.checkArgument(segmentSize > 0);
+    Preconditions.checkArgument(
+        size >= 0 && size <= (long) segments.size() * segmentSize,
+        "size %s doesn't fit in %s segments of %s bytes",
+        size,
+        segments.size(),
+        segmentSize);
+    mSegments = new ArrayList<>(segments.size());
+    for (CloseableReference<MemoryChunk> segment : segments) {
+      Preconditions.checkArgument(segment.get().getSize() >= segmentSize);
+      mSegments.add(segment.clone());
+    }
+    mSegmentSize = segmentSize;
+    mSize = size;
+  }
+
+  @Override
+  public synchronized int size() {
+    ensureValid();
+    return mSize;
+  }
+
+  @Override
+  public synchronized byte read(int offset) {
+    Preconditions.checkArgument(offset >= 0);
+    Preconditions.checkArgument(offset < mSize);
+    return getSegment(offset / mSegmentSize).read(offset % mSegmentSize);
+  }
+
+  @Override
+  public synchronized int read(int offset, byte[] buffer, int bufferOffset, int length) {
+    ensureValid();
+    final int actualCount = MemoryChunkUtil.adjustByteCount(offset, length, mSize);
+    MemoryChunkUtil.checkBounds(offset, buffer.length, bufferOffset, actualCount, mSize);
+    int copied = 0;
+    while (copied < actualCount) {
+      final int position = offset + copied;
+      final int segmentOffset = position % mSegmentSize;
+      final int count = Math.min(actualCount - copied, mSegmentSize - segmentOffset);
+      getSegment(position / mSegmentSize)
+          .read(segmentOffset, buffer, bufferOffset + copied, count);
+      copied += count;
+    }
+    return actualCount;
+  }
+
+  /**
+   * Gets the pointer to the native memory of a buffer with a single segment.
+   *
+   * @throws UnsupportedOperationException if the buffer has several segments, or its segment is not
+   *     in native memory
+   */
+  @Override
+  public synchronized long getNativePtr() {
+    ensureValid();
+    if (getSegmentCount() != 1) {
+      throw new UnsupportedOperationException(
+          "Cannot get the pointer of a SegmentedPooledByteBuffer with several segments");
+    }
+    return getSegment(0).getNativePtr();
+  }
+
+  /**
+   * Gets the ByteBuffer of a buffer with a single segment, or a direct copy of the data of a buffer
+   * with several segments. The copy is only made once, and released when the buffer is closed.
+   */
+  @Override
+  @Nullable
+  public synchronized ByteBuffer getByteBuffer() {
+    if (isClosed()) {
+      return null;
+    }
+    if (getSegmentCount() == 1) {
+      return getSegment(0).getByteBuffer();
+    }
+    if (mContiguousCopy == null) {
+      byte[] chunk = new byte[mSegmentSize];
+      ByteBuffer copy = ByteBuffer.allocateDirect(mSize);
+      for (int offset = 0; offset < mSize; offset += mSegmentSize) {
+        int count = read(offset, chunk, 0, Math.min(mSegmentSize, mSize - offset));
+        copy.put(chunk, 0, count);
+      }
+      copy.flip();
+      mContiguousCopy = copy;
+    }
+    return mContiguousCopy;
+  }
+
+  @Override
+  public synchronized boolean isClosed() {
+    return mSegments == null;
+  }
+
+  /**
+   * Closes this instance, and releases the segments to the pool. It is not an error to close an
+   * already closed buffer.
+   */
+  @Override
+  public synchronized void close() {
+    if (mSegments != null) {
+      CloseableReference.closeSafely(mSegments);
+      mSegments = null;
+    }
+    mContiguousCopy = null;
+  }
+
+  @VisibleForTesting
+  synchronized int getSegmentCount() {
+    ensureValid();
+    return Preconditions.checkNotNull(mSegments).size();
+  }
+
+  private synchronized MemoryChunk getSegment(int index) {
+    ensureValid();
+    return Preconditions.checkNotNull(mSegments).get(index).get();
+  }
+
+  private synchronized void ensureValid() {
+    if (isClosed()) {
+      throw new ClosedException();
+    }
+  }
+}
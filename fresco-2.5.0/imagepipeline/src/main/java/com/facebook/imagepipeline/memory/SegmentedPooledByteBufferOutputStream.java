@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.memory;
+
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.memory.PooledByteBufferOutputStream;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.infer.annotation.Nullsafe;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * An implementation of {@link PooledByteBufferOutputStream} that produces a {@link
+ * SegmentedPooledByteBuffer}.
+ *
+ * <p>Unlike {@link MemoryPooledByteBufferOutputStream}, this stream never reallocates: when the
+ * last segment is full, a new one of the same size is taken from the pool and appended. This is
+ * meant for content of unknown length, which would otherwise be copied over and over into larger
+ * chunks as it grows.
+ */
+@NotThreadSafe
+@Nullsafe(Nullsafe.Mode.LOCAL)
+public class SegmentedPooledByteBufferOutputStream extends PooledByteBufferOutputStream {
+
+  /** the pool to allocate the segments from */
+  private final MemoryChunkPool mPool;
+
+  /** number of bytes written to each segment before moving on to the next one */
+  private final int mSegmentSize;
+
+  /** the segments written so far, null once the stream is closed */
+  @Nullable private List<CloseableReference<MemoryChunk>> mSegments;
+
+  /** number of bytes written to the stream */
+  private int mCount;
+
+  /**
+   * Construct a new instance of this output stream
+   *
+   * @param pool the pool to use
+   * @param segmentSize size of the segments to get from the pool
+   */
+  public SegmentedPooledByteBufferOutputStream(MemoryChunkPool pool, int segmentSize) {
+    super();
+    Preconditions.checkArgument(segmentSize > 0);
+    mPool = Preconditions.checkNotNull(pool);
+    mSegmentSize = segmentSize;
+    mSegments = new ArrayList<>();
+    mCount = 0;
+  }
+
+  /**
+   * Gets a PooledByteBuffer from the current contents. The segments are shared with the buffer, not
+   * copied. If the stream has already been closed, then an InvalidStreamException is thrown.
+   *
+   * @return a PooledByteBuffer instance for the contents of the stream
+   * @throws MemoryPooledByteBufferOutputStream.InvalidStreamException if the stream is invalid
+   */
+  @Override
+  public SegmentedPooledByteBuffer toByteBuffer() {
+    return new SegmentedPooledByteBuffer(getSegments(), mSegmentSize, mCount);
+  }
+
+  @Override
+  public int size() {
+    return mCount;
+  }
+
+  @Override
+  public void write(int oneByte) throws IOException {
+    byte[] buf = new byte[1];
+    buf[0] = (byte) oneByte;
+    this.write(buf);
+  }
+
+  /**
+   * Writes {@code count} bytes from the byte array {@code buffer} starting at position {@code
+   * offset} to this stream, appending segments as needed. The underlying stream MUST be valid
+   *
+   * @throws IndexOutOfBoundsException if {@code offset < 0} or {@code count < 0}, or if {@code
+   *     offset + count} is bigger than the length of {@code buffer}.
+   * @throws MemoryPooledByteBufferOutputStream.InvalidStreamException if the stream is invalid
+   */
+  @Override
+  public void write(byte[] buffer, int offset, int count) throws IOException {
+    if (offset < 0 || count < 0 || offset + count > buffer.length) {
+      throw new ArrayIndexOutOfBoundsException(
+          "length=" + buffer.length + "; regionStart=" + offset + "; regionLength=" + count);
+    }
+    List<CloseableReference<MemoryChunk>> segments = getSegments();
+    int written = 0;
+    while (written < count) {
+      int segmentOffset = mCount % mSegmentSize;
+      if (segmentOffset == 0 && mCount == segments.size() * mSegmentSize) {
+        segments.add(CloseableReference.of(mPool.get(mSegmentSize), mPool));
+      }
+      int toWrite = Math.min(count - written, mSegmentSize - segmentOffset);
+      segments
+          .get(segments.size() - 1)
+          .get()
+          .write(segmentOffset, buffer, offset + written, toWrite);
+      written += toWrite;
+      mCount += toWrite;
+    }
+  }
+
+  /** Closes the stream and releases the segments that are not used by a buffer to the pool. */
+  @Override
+  public void close() {
+    CloseableReference.closeSafely(mSegments);
+    mSegments = null;
+    mCount = -1;
+    super.close();
+  }
+
+  private List<CloseableReference<MemoryChunk>> getSegments() {
+    if (mSegments == null) {
+      throw new MemoryPooledByteBufferOutputStream.InvalidStreamException();
+    }
+    return mSegments;
+  }
+}
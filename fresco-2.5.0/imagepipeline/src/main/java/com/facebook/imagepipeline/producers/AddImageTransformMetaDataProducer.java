@@ -43,7 +43,8 @@ public class AddImageTransformMetaDataProducer implements Producer<EncodedImage>
         getConsumer().onNewResult(null, status);
         return;
       }
-      if (!EncodedImage.isMetaDataAvailable(newResult)) {
+      // Results whose meta data has already been parsed, maybe partially, are left as they are
+      if (!EncodedImage.isMetaDataAvailable(newResult) && !newResult.hasParsedMetaData()) {
         newResult.parseMetaData();
       }
       getConsumer().onNewResult(newResult, status);
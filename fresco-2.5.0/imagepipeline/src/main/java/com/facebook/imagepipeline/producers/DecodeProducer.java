@@ -199,7 +199,9 @@ public class DecodeProducer implements Producer<CloseableReference<CloseableImag
               }
             }
           };
-      mJobScheduler = new JobScheduler(mExecutor, job, mImageDecodeOptions.minDecodeIntervalMs);
+      mJobScheduler =
+          new JobScheduler(
+              mExecutor, job, mImageDecodeOptions.minDecodeIntervalMs, mProducerContext);
       mProducerContext.addCallbacks(
           new BaseProducerContextCallbacks() {
             @Override
@@ -213,6 +215,9 @@ public class DecodeProducer implements Producer<CloseableReference<CloseableImag
             public void onCancellationRequested() {
               if (decodeCancellationEnabled) {
                 handleCancellation();
+              } else if (mJobScheduler.withdrawQueuedJob()) {
+                // the decode had not started yet, there's nothing to finish
+                handleCancellation();
               }
             }
           });
@@ -10,6 +10,7 @@ package com.facebook.imagepipeline.producers;
 import android.net.Uri;
 import com.facebook.imagepipeline.common.BytesRange;
 import com.facebook.imagepipeline.image.EncodedImage;
+import com.facebook.imagepipeline.image.IncrementalMetaDataParser;
 import com.facebook.infer.annotation.Nullsafe;
 import com.facebook.infer.annotation.OkToExtend;
 import javax.annotation.Nullable;
@@ -28,6 +29,7 @@ public class FetchState {
   private long mLastIntermediateResultTimeMs;
   private int mOnNewResultStatusFlags;
   private @Nullable BytesRange mResponseBytesRange;
+  private @Nullable IncrementalMetaDataParser mMetaDataParser;
 
   public FetchState(Consumer<EncodedImage> consumer, ProducerContext context) {
     mConsumer = consumer;
@@ -88,4 +90,12 @@ public class FetchState {
   public void setResponseBytesRange(BytesRange bytesRange) {
     mResponseBytesRange = bytesRange;
   }
+
+  /** Parses the meta data of the successive results of this fetch, without starting over. */
+  public IncrementalMetaDataParser getMetaDataParser() {
+    if (mMetaDataParser == null) {
+      mMetaDataParser = new IncrementalMetaDataParser();
+    }
+    return mMetaDataParser;
+  }
 }
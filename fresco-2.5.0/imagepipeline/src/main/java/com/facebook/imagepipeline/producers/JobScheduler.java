@@ -9,6 +9,7 @@ package com.facebook.imagepipeline.producers;
 
 import android.os.SystemClock;
 import androidx.annotation.VisibleForTesting;
+import com.facebook.imagepipeline.core.PriorityExecutor;
 import com.facebook.imagepipeline.image.EncodedImage;
 import com.facebook.imagepipeline.instrumentation.FrescoInstrumenter;
 import com.facebook.infer.annotation.FalseOnNull;
@@ -51,6 +52,7 @@ public class JobScheduler {
   private final Runnable mDoJobRunnable;
   private final Runnable mSubmitJobRunnable;
   private final int mMinimumJobIntervalMs;
+  private final @Nullable ProducerContext mProducerContext;
 
   @VisibleForTesting
   enum JobState {
@@ -84,10 +86,29 @@ public class JobScheduler {
   @VisibleForTesting
   long mJobStartTime;
 
+  // the job queued on a PriorityExecutor, until it starts
+  @GuardedBy("this")
+  @Nullable
+  private PriorityExecutor.Task mQueuedTask;
+
   public JobScheduler(Executor executor, JobRunnable jobRunnable, int minimumJobIntervalMs) {
+    this(executor, jobRunnable, minimumJobIntervalMs, null);
+  }
+
+  /**
+   * @param producerContext context of the request the jobs are for. If the executor is a {@link
+   *     PriorityExecutor}, the jobs are queued with the priority of the request, and follow its
+   *     changes
+   */
+  public JobScheduler(
+      Executor executor,
+      JobRunnable jobRunnable,
+      int minimumJobIntervalMs,
+      @Nullable ProducerContext producerContext) {
     mExecutor = executor;
     mJobRunnable = jobRunnable;
     mMinimumJobIntervalMs = minimumJobIntervalMs;
+    mProducerContext = executor instanceof PriorityExecutor ? producerContext : null;
     mDoJobRunnable =
         new Runnable() {
           @Override
@@ -107,13 +128,27 @@ public class JobScheduler {
     mJobState = JobState.IDLE;
     mJobSubmitTime = 0;
     mJobStartTime = 0;
+    if (mProducerContext != null) {
+      mProducerContext.addCallbacks(
+          new BaseProducerContextCallbacks() {
+            @Override
+            public void onPriorityChanged() {
+              updateQueuedTaskPriority();
+            }
+
+            @Override
+            public void onIsPrefetchChanged() {
+              updateQueuedTaskPriority();
+            }
+          });
+    }
   }
 
   /**
    * Clears the currently set job.
    *
    * <p>In case the currently set job has been scheduled but not started yet, the job won't be
-   * executed.
+   * executed. If it is queued on a {@link PriorityExecutor}, it is withdrawn from its queue.
    */
   public void clearJob() {
     EncodedImage oldEncodedImage;
@@ -121,8 +156,34 @@ public class JobScheduler {
       oldEncodedImage = mEncodedImage;
       mEncodedImage = null;
       mStatus = 0;
+      if (mQueuedTask != null && mQueuedTask.cancel()) {
+        mQueuedTask = null;
+        mJobState = JobState.IDLE;
+      }
+    }
+    EncodedImage.closeSafely(oldEncodedImage);
+  }
+
+  /**
+   * Clears the currently set job if it is queued on a {@link PriorityExecutor} and has not started
+   * yet.
+   *
+   * @return true if the job was withdrawn from the queue, false if there was no such job
+   */
+  public boolean withdrawQueuedJob() {
+    EncodedImage oldEncodedImage;
+    synchronized (this) {
+      if (mQueuedTask == null || !mQueuedTask.cancel()) {
+        return false;
+      }
+      mQueuedTask = null;
+      mJobState = JobState.IDLE;
+      oldEncodedImage = mEncodedImage;
+      mEncodedImage = null;
+      mStatus = 0;
     }
     EncodedImage.closeSafely(oldEncodedImage);
+    return true;
   }
 
   /**
@@ -206,8 +267,27 @@ public class JobScheduler {
   }
 
   private void submitJob() {
-    mExecutor.execute(
-        FrescoInstrumenter.decorateRunnable(mDoJobRunnable, "JobScheduler_submitJob"));
+    final Runnable doJobRunnable =
+        FrescoInstrumenter.decorateRunnable(mDoJobRunnable, "JobScheduler_submitJob");
+    if (mProducerContext != null) {
+      final PriorityExecutor executor = (PriorityExecutor) mExecutor;
+      synchronized (this) {
+        // kept before the task is queued, so that it never refers to a task that already started
+        final PriorityExecutor.Task task =
+            executor.createTask(
+                doJobRunnable, mProducerContext.getPriority(), mProducerContext.isPrefetch());
+        mQueuedTask = task;
+        executor.submit(task);
+      }
+    } else {
+      mExecutor.execute(doJobRunnable);
+    }
+  }
+
+  private synchronized void updateQueuedTaskPriority() {
+    if (mQueuedTask != null && mProducerContext != null) {
+      mQueuedTask.setPriority(mProducerContext.getPriority(), mProducerContext.isPrefetch());
+    }
   }
 
   private void doJob() {
@@ -221,6 +301,7 @@ public class JobScheduler {
       mStatus = 0;
       mJobState = JobState.RUNNING;
       mJobStartTime = now;
+      mQueuedTask = null;
     }
 
     try {
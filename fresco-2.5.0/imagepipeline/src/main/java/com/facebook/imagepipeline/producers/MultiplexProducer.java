@@ -17,10 +17,10 @@ import com.facebook.imagepipeline.systrace.FrescoSystrace;
 import com.facebook.infer.annotation.Nullsafe;
 import java.io.Closeable;
 import java.io.IOException;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArraySet;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
@@ -45,17 +45,17 @@ public abstract class MultiplexProducer<K, T extends Closeable> implements Produ
   public static final String EXTRAS_STARTED_AS_PREFETCH = "started_as_prefetch";
 
   /**
-   * Map of multiplexers guarded by "this" lock. The lock should be used only to synchronize
-   * accesses to this map. In particular, no callbacks or third party code should be run under
-   * "this" lock.
+   * Concurrent map of multiplexers, so that requests for different keys never wait on each other.
+   * Entries are only ever added with putIfAbsent and removed by (key, multiplexer) pair, and a
+   * multiplexer is only removed while holding its own lock. Together with the membership check in
+   * {@link Multiplexer#addNewConsumer}, this makes attaching and detaching a consumer atomic per
+   * key without any map-wide lock.
    *
    * <p>The map might contain entries in progress, entries in progress for which cancellation has
    * been requested and ignored, or cancelled entries for which onCancellation has not been called
    * yet.
    */
-  @GuardedBy("this")
-  @VisibleForTesting
-  final Map<K, Multiplexer> mMultiplexers;
+  @VisibleForTesting final ConcurrentMap<K, Multiplexer> mMultiplexers;
 
   private final Producer<T> mInputProducer;
 
@@ -77,7 +77,7 @@ public abstract class MultiplexProducer<K, T extends Closeable> implements Produ
       @ProducerContext.ExtraKeys String dedupedRequestsCountKey,
       boolean keepCancelledFetchAsLowPriority) {
     mInputProducer = inputProducer;
-    mMultiplexers = new HashMap<>();
+    mMultiplexers = new ConcurrentHashMap<>();
     mKeepCancelledFetchAsLowPriority = keepCancelledFetchAsLowPriority;
     mProducerName = producerName;
     mDedupedRequestsCountKey = dedupedRequestsCountKey;
@@ -95,22 +95,23 @@ public abstract class MultiplexProducer<K, T extends Closeable> implements Produ
       K key = getKey(context);
       Multiplexer multiplexer;
       boolean createdNewMultiplexer;
-      // We do want to limit scope of this lock to guard only accesses to mMultiplexers map.
-      // However what we would like to do here is to atomically lookup mMultiplexers, add new
-      // consumer to consumers set associated with the map's entry and call consumer's callback with
-      // last intermediate result. We should not do all of those things under this lock.
+      // What we would like to do here is to atomically lookup mMultiplexers, add new consumer to
+      // consumers set associated with the map's entry and call consumer's callback with last
+      // intermediate result. We should not do all of those things under a single lock.
       do {
         createdNewMultiplexer = false;
-        synchronized (this) {
-          multiplexer = getExistingMultiplexer(key);
+        multiplexer = getExistingMultiplexer(key);
+        if (multiplexer == null) {
+          Multiplexer newMultiplexer = new Multiplexer(key);
+          multiplexer = mMultiplexers.putIfAbsent(key, newMultiplexer);
           if (multiplexer == null) {
-            multiplexer = createAndPutNewMultiplexer(key);
+            multiplexer = newMultiplexer;
             createdNewMultiplexer = true;
           }
         }
-        // addNewConsumer may call consumer's onNewResult method immediately. For this reason
-        // we release "this" lock. If multiplexer is removed from mMultiplexers in the meantime,
-        // which is not very probable, then addNewConsumer will fail and we will be able to retry.
+        // addNewConsumer may call consumer's onNewResult method immediately. If multiplexer is
+        // removed from mMultiplexers in the meantime, which is not very probable, then
+        // addNewConsumer will fail and we will be able to retry.
       } while (!multiplexer.addNewConsumer(consumer, context));
 
       if (createdNewMultiplexer) {
@@ -124,20 +125,12 @@ public abstract class MultiplexProducer<K, T extends Closeable> implements Produ
     }
   }
 
-  protected synchronized @Nullable Multiplexer getExistingMultiplexer(K key) {
+  protected @Nullable Multiplexer getExistingMultiplexer(K key) {
     return mMultiplexers.get(key);
   }
 
-  private synchronized Multiplexer createAndPutNewMultiplexer(K key) {
-    Multiplexer multiplexer = new Multiplexer(key);
-    mMultiplexers.put(key, multiplexer);
-    return multiplexer;
-  }
-
-  protected synchronized void removeMultiplexer(K key, Multiplexer multiplexer) {
-    if (mMultiplexers.get(key) == multiplexer) {
-      mMultiplexers.remove(key);
-    }
+  protected void removeMultiplexer(K key, Multiplexer multiplexer) {
+    mMultiplexers.remove(key, multiplexer);
   }
 
   protected abstract K getKey(ProducerContext producerContext);
@@ -17,6 +17,7 @@ import com.facebook.common.references.CloseableReference;
 import com.facebook.imagepipeline.common.BytesRange;
 import com.facebook.imagepipeline.image.EncodedImage;
 import com.facebook.imagepipeline.image.EncodedImageOrigin;
+import com.facebook.imagepipeline.image.IncrementalMetaDataParser;
 import com.facebook.imagepipeline.systrace.FrescoSystrace;
 import com.facebook.infer.annotation.Nullsafe;
 import java.io.IOException;
@@ -153,7 +154,8 @@ public class NetworkFetchProducer implements Producer<EncodedImage> {
           fetchState.getOnNewResultStatusFlags(),
           fetchState.getResponseBytesRange(),
           fetchState.getConsumer(),
-          fetchState.getContext());
+          fetchState.getContext(),
+          fetchState.getMetaDataParser());
     }
   }
 
@@ -169,7 +171,8 @@ public class NetworkFetchProducer implements Producer<EncodedImage> {
         Consumer.IS_LAST | fetchState.getOnNewResultStatusFlags(),
         fetchState.getResponseBytesRange(),
         fetchState.getConsumer(),
-        fetchState.getContext());
+        fetchState.getContext(),
+        fetchState.getMetaDataParser());
   }
 
   protected static void notifyConsumer(
@@ -178,13 +181,31 @@ public class NetworkFetchProducer implements Producer<EncodedImage> {
       @Nullable BytesRange responseBytesRange,
       Consumer<EncodedImage> consumer,
       ProducerContext context) {
+    notifyConsumer(pooledOutputStream, status, responseBytesRange, consumer, context, null);
+  }
+
+  /**
+   * @param metaDataParser parser of the meta data of all the results of the fetch, or null to parse
+   *     each result from scratch
+   */
+  protected static void notifyConsumer(
+      PooledByteBufferOutputStream pooledOutputStream,
+      @Consumer.Status int status,
+      @Nullable BytesRange responseBytesRange,
+      Consumer<EncodedImage> consumer,
+      ProducerContext context,
+      @Nullable IncrementalMetaDataParser metaDataParser) {
     CloseableReference<PooledByteBuffer> result =
         CloseableReference.of(pooledOutputStream.toByteBuffer());
     EncodedImage encodedImage = null;
     try {
       encodedImage = new EncodedImage(result);
       encodedImage.setBytesRange(responseBytesRange);
-      encodedImage.parseMetaData();
+      if (metaDataParser != null) {
+        metaDataParser.parseMetaData(encodedImage, BaseConsumer.isLast(status));
+      } else {
+        encodedImage.parseMetaData();
+      }
       context.setEncodedImageOrigin(EncodedImageOrigin.NETWORK);
       consumer.onNewResult(encodedImage, status);
     } finally {
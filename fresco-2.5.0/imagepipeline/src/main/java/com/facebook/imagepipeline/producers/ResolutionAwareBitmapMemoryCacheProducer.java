@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.producers;
+
+import android.graphics.Bitmap;
+import com.facebook.cache.common.CacheKey;
+import com.facebook.common.internal.ImmutableMap;
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.imagepipeline.bitmaps.PlatformBitmapFactory;
+import com.facebook.imagepipeline.cache.BitmapMemoryCacheKey;
+import com.facebook.imagepipeline.cache.BitmapMemoryCacheResolutionIndex;
+import com.facebook.imagepipeline.cache.CacheKeyFactory;
+import com.facebook.imagepipeline.cache.ImageCacheStatsTracker;
+import com.facebook.imagepipeline.cache.MemoryCache;
+import com.facebook.imagepipeline.common.ResizeOptions;
+import com.facebook.imagepipeline.image.CloseableImage;
+import com.facebook.imagepipeline.image.CloseableStaticBitmap;
+import com.facebook.imagepipeline.request.ImageRequest;
+import com.facebook.imagepipeline.systrace.FrescoSystrace;
+import com.facebook.infer.annotation.Nullsafe;
+import javax.annotation.Nullable;
+
+/**
+ * Bitmap memory cache producer that serves requests missing the cache from a larger bitmap of the
+ * same image that is in the cache.
+ *
+ * <p>Bitmap cache keys include the resize options of the request, so requesting an image at a
+ * smaller size than the one already decoded would otherwise read and decode it again. When the
+ * larger bitmap is at most {@code maxServedSizeRatio} times the requested size, it is served as it
+ * is. Otherwise it is downscaled, and the downscaled bitmap is cached for the requested key.
+ *
+ * <p>The larger bitmaps are found through a {@link BitmapMemoryCacheResolutionIndex}, which this
+ * producer fills with the static bitmaps its input produces. It is meant to sit in front of the
+ * {@link BitmapMemoryCacheProducer}, where the exact key is looked up.
+ */
+@Nullsafe(Nullsafe.Mode.LOCAL)
+public class ResolutionAwareBitmapMemoryCacheProducer
+    implements Producer<CloseableReference<CloseableImage>> {
+
+  public static final String PRODUCER_NAME = "ResolutionAwareBitmapMemoryCacheProducer";
+  public static final String EXTRA_CACHED_VALUE_FOUND = ProducerConstants.EXTRA_CACHED_VALUE_FOUND;
+  public static final String EXTRA_DOWNSCALED = "downscaled";
+
+  private static final String ORIGIN_SUBCATEGORY = "pipe_resized";
+
+  private final MemoryCache<CacheKey, CloseableImage> mMemoryCache;
+  private final CacheKeyFactory mCacheKeyFactory;
+  private final BitmapMemoryCacheResolutionIndex mResolutionIndex;
+  private final PlatformBitmapFactory mPlatformBitmapFactory;
+  private final ImageCacheStatsTracker mImageCacheStatsTracker;
+  private final float mMaxServedSizeRatio;
+  private final Producer<CloseableReference<CloseableImage>> mInputProducer;
+
+  public ResolutionAwareBitmapMemoryCacheProducer(
+      MemoryCache<CacheKey, CloseableImage> memoryCache,
+      CacheKeyFactory cacheKeyFactory,
+      BitmapMemoryCacheResolutionIndex resolutionIndex,
+      PlatformBitmapFactory platformBitmapFactory,
+      ImageCacheStatsTracker imageCacheStatsTracker,
+      float maxServedSizeRatio,
+      Producer<CloseableReference<CloseableImage>> inputProducer) {
+    mMemoryCache = memoryCache;
+    mCacheKeyFactory = cacheKeyFactory;
+    mResolutionIndex = resolutionIndex;
+    mPlatformBitmapFactory = platformBitmapFactory;
+    mImageCacheStatsTracker = imageCacheStatsTracker;
+    mMaxServedSizeRatio = maxServedSizeRatio;
+    mInputProducer = inputProducer;
+  }
+
+  @Override
+  public void produceResults(
+      final Consumer<CloseableReference<CloseableImage>> consumer,
+      final ProducerContext producerContext) {
+    try {
+      if (FrescoSystrace.isTracing()) {
+        FrescoSystrace.beginSection("ResolutionAwareBitmapMemoryCacheProducer#produceResults");
+      }
+      final ProducerListener2 listener = producerContext.getProducerListener();
+      listener.onProducerStart(producerContext, PRODUCER_NAME);
+      final ImageRequest imageRequest = producerContext.getImageRequest();
+      final Object callerContext = producerContext.getCallerContext();
+      final CacheKey cacheKey = mCacheKeyFactory.getBitmapCacheKey(imageRequest, callerContext);
+
+      if (!(cacheKey instanceof BitmapMemoryCacheKey)) {
+        listener.onProducerFinishWithSuccess(producerContext, PRODUCER_NAME, null);
+        mInputProducer.produceResults(consumer, producerContext);
+        return;
+      }
+      final BitmapMemoryCacheKey bitmapCacheKey = (BitmapMemoryCacheKey) cacheKey;
+      final boolean isMemoryCacheEnabled = imageRequest.isMemoryCacheEnabled();
+
+      if (bitmapCacheKey.getResizeOptions() != null && !mMemoryCache.contains(cacheKey)) {
+        CloseableReference<CloseableImage> largerReference = getLarger(bitmapCacheKey);
+        if (largerReference == null) {
+          mImageCacheStatsTracker.onBitmapCacheLargerSizeMiss(cacheKey);
+        } else {
+          try {
+            serveFromLarger(
+                consumer, producerContext, bitmapCacheKey, largerReference, isMemoryCacheEnabled);
+          } finally {
+            CloseableReference.closeSafely(largerReference);
+          }
+          return;
+        }
+      }
+
+      listener.onProducerFinishWithSuccess(
+          producerContext,
+          PRODUCER_NAME,
+          listener.requiresExtraMap(producerContext, PRODUCER_NAME)
+              ? ImmutableMap.of(EXTRA_CACHED_VALUE_FOUND, "false")
+              : null);
+      mInputProducer.produceResults(
+          isMemoryCacheEnabled ? new IndexingConsumer(consumer, bitmapCacheKey) : consumer,
+          producerContext);
+    } finally {
+      if (FrescoSystrace.isTracing()) {
+        FrescoSystrace.endSection();
+      }
+    }
+  }
+
+  /** @return the smallest cached static bitmap of full quality that can serve the key, if any */
+  private @Nullable CloseableReference<CloseableImage> getLarger(BitmapMemoryCacheKey cacheKey) {
+    for (BitmapMemoryCacheResolutionIndex.Entry entry : mResolutionIndex.findLarger(cacheKey)) {
+      CloseableReference<CloseableImage> reference = mMemoryCache.get(entry.key);
+      if (reference == null) {
+        mResolutionIndex.remove(entry.key);
+        continue;
+      }
+      CloseableImage image = reference.get();
+      if (image instanceof CloseableStaticBitmap && image.getQualityInfo().isOfFullQuality()) {
+        return reference;
+      }
+      reference.close();
+    }
+    return null;
+  }
+
+  private void serveFromLarger(
+      Consumer<CloseableReference<CloseableImage>> consumer,
+      ProducerContext producerContext,
+      BitmapMemoryCacheKey cacheKey,
+      CloseableReference<CloseableImage> largerReference,
+      boolean isMemoryCacheEnabled) {
+    final CloseableStaticBitmap largerImage = (CloseableStaticBitmap) largerReference.get();
+    final ResizeOptions resizeOptions = Preconditions.checkNotNull(cacheKey.getResizeOptions());
+    final float scale =
+        Math.min(
+            (float) largerImage.getWidth() / resizeOptions.width,
+            (float) largerImage.getHeight() / resizeOptions.height);
+    final boolean downscale = scale > mMaxServedSizeRatio;
+
+    CloseableReference<CloseableImage> result;
+    if (downscale) {
+      result = downscale(largerImage, scale, producerContext.getCallerContext());
+      if (isMemoryCacheEnabled) {
+        CloseableReference<CloseableImage> cachedResult = mMemoryCache.cache(cacheKey, result);
+        if (cachedResult != null) {
+          result.close();
+          result = cachedResult;
+          mResolutionIndex.put(cacheKey, result.get().getWidth(), result.get().getHeight());
+        }
+      }
+    } else {
+      result = largerReference.clone();
+    }
+    mImageCacheStatsTracker.onBitmapCacheLargerSizeHit(cacheKey, downscale);
+
+    final ProducerListener2 listener = producerContext.getProducerListener();
+    try {
+      producerContext.putExtras(largerImage.getExtras());
+      listener.onProducerFinishWithSuccess(
+          producerContext,
+          PRODUCER_NAME,
+          listener.requiresExtraMap(producerContext, PRODUCER_NAME)
+              ? ImmutableMap.of(
+                  EXTRA_CACHED_VALUE_FOUND, "true", EXTRA_DOWNSCALED, String.valueOf(downscale))
+              : null);
+      listener.onUltimateProducerReached(producerContext, PRODUCER_NAME, true);
+      producerContext.putOriginExtra("memory_bitmap", ORIGIN_SUBCATEGORY);
+      consumer.onProgressUpdate(1f);
+      consumer.onNewResult(result, Consumer.IS_LAST);
+    } finally {
+      result.close();
+    }
+  }
+
+  private CloseableReference<CloseableImage> downscale(
+      CloseableStaticBitmap image, float scale, @Nullable Object callerContext) {
+    final Bitmap bitmap = image.getUnderlyingBitmap();
+    final CloseableReference<Bitmap> scaledBitmapReference =
+        mPlatformBitmapFactory.createScaledBitmap(
+            bitmap,
+            Math.max(1, Math.round(bitmap.getWidth() / scale)),
+            Math.max(1, Math.round(bitmap.getHeight() / scale)),
+            true,
+            callerContext);
+    try {
+      return CloseableReference.<CloseableImage>of(
+          new CloseableStaticBitmap(
+              scaledBitmapReference,
+              image.getQualityInfo(),
+              image.getRotationAngle(),
+              image.getExifOrientation()));
+    } finally {
+      scaledBitmapReference.close();
+    }
+  }
+
+  /** Indexes the size of the final static bitmaps, which the bitmap memory cache keeps. */
+  private class IndexingConsumer
+      extends DelegatingConsumer<
+          CloseableReference<CloseableImage>, CloseableReference<CloseableImage>> {
+
+    private final BitmapMemoryCacheKey mCacheKey;
+
+    IndexingConsumer(
+        Consumer<CloseableReference<CloseableImage>> consumer, BitmapMemoryCacheKey cacheKey) {
+      super(consumer);
+      mCacheKey = cacheKey;
+    }
+
+    @Override
+    protected void onNewResultImpl(
+        @Nullable CloseableReference<CloseableImage> newResult, @Status int status) {
+      if (newResult != null && isLast(status) && !statusHasFlag(status, IS_PARTIAL_RESULT)) {
+        CloseableImage image = newResult.get();
+        if (image instanceof CloseableStaticBitmap
+            && !image.isStateful()
+            && image.getQualityInfo().isOfFullQuality()) {
+          mResolutionIndex.put(mCacheKey, image.getWidth(), image.getHeight());
+        }
+      }
+      getConsumer().onNewResult(newResult, status);
+    }
+  }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.cache.common.SimpleCacheKey;
+import com.facebook.imagepipeline.common.ImageDecodeOptions;
+import com.facebook.imagepipeline.common.ResizeOptions;
+import com.facebook.imagepipeline.common.RotationOptions;
+import java.util.List;
+import javax.annotation.Nullable;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/** Tests for {@link BitmapMemoryCacheResolutionIndex} */
+@RunWith(RobolectricTestRunner.class)
+public class BitmapMemoryCacheResolutionIndexTest {
+
+  private static final String SOURCE = "http://fresco/image.jpg";
+
+  private BitmapMemoryCacheResolutionIndex mIndex;
+
+  @Before
+  public void setUp() {
+    mIndex = new BitmapMemoryCacheResolutionIndex(2, 3);
+  }
+
+  @Test
+  public void testFindsLargerBitmapsSmallestFirst() {
+    BitmapMemoryCacheKey full = newKey(SOURCE, null);
+    BitmapMemoryCacheKey large = newKey(SOURCE, new ResizeOptions(400, 400));
+    BitmapMemoryCacheKey small = newKey(SOURCE, new ResizeOptions(100, 100));
+    mIndex.put(full, 1000, 800);
+    mIndex.put(large, 500, 400);
+    mIndex.put(small, 125, 100);
+
+    List<BitmapMemoryCacheResolutionIndex.Entry> larger =
+        mIndex.findLarger(newKey(SOURCE, new ResizeOptions(200, 200)));
+
+    assertEquals(2, larger.size());
+    assertSame(large, larger.get(0).key);
+    assertEquals(500, larger.get(0).width);
+    assertEquals(400, larger.get(0).height);
+    assertSame(full, larger.get(1).key);
+  }
+
+  @Test
+  public void testIgnoresBitmapsSmallerInEitherDimension() {
+    mIndex.put(newKey(SOURCE, new ResizeOptions(400, 400)), 400, 150);
+
+    assertTrue(mIndex.findLarger(newKey(SOURCE, new ResizeOptions(200, 200))).isEmpty());
+  }
+
+  @Test
+  public void testIgnoresIncompatibleKeys() {
+    mIndex.put(newKey("http://fresco/other.jpg", null), 1000, 800);
+    mIndex.put(
+        new BitmapMemoryCacheKey(
+            SOURCE,
+            null,
+            RotationOptions.disableRotation(),
+            ImageDecodeOptions.defaults(),
+            null,
+            null,
+            null),
+        1000,
+        800);
+    mIndex.put(
+        new BitmapMemoryCacheKey(
+            SOURCE,
+            null,
+            RotationOptions.autoRotate(),
+            ImageDecodeOptions.defaults(),
+            new SimpleCacheKey("blur"),
+            "BlurPostprocessor",
+            null),
+        1000,
+        800);
+
+    assertTrue(mIndex.findLarger(newKey(SOURCE, new ResizeOptions(200, 200))).isEmpty());
+  }
+
+  @Test
+  public void testNothingLargerThanFullSize() {
+    BitmapMemoryCacheKey full = newKey(SOURCE, null);
+    mIndex.put(full, 1000, 800);
+
+    assertTrue(mIndex.findLarger(full).isEmpty());
+    assertTrue(mIndex.findLarger(newKey(SOURCE, null)).isEmpty());
+  }
+
+  @Test
+  public void testRemove() {
+    BitmapMemoryCacheKey full = newKey(SOURCE, null);
+    mIndex.put(full, 1000, 800);
+    mIndex.remove(full);
+
+    assertTrue(mIndex.findLarger(newKey(SOURCE, new ResizeOptions(200, 200))).isEmpty());
+    assertEquals(0, mIndex.getSourceCount());
+  }
+
+  @Test
+  public void testPutReplacesEntryOfSameKey() {
+    BitmapMemoryCacheKey large = newKey(SOURCE, new ResizeOptions(400, 400));
+    mIndex.put(large, 500, 400);
+    mIndex.put(large, 600, 480);
+
+    List<BitmapMemoryCacheResolutionIndex.Entry> larger =
+        mIndex.findLarger(newKey(SOURCE, new ResizeOptions(200, 200)));
+    assertEquals(1, larger.size());
+    assertEquals(600, larger.get(0).width);
+  }
+
+  @Test
+  public void testBoundedPerSource() {
+    for (int size = 100; size <= 400; size += 100) {
+      mIndex.put(newKey(SOURCE, new ResizeOptions(size, size)), size, size);
+    }
+
+    List<BitmapMemoryCacheResolutionIndex.Entry> larger =
+        mIndex.findLarger(newKey(SOURCE, new ResizeOptions(50, 50)));
+    assertEquals(3, larger.size());
+    assertEquals(200, larger.get(0).width);
+  }
+
+  @Test
+  public void testDropsLeastRecentlyUsedSource() {
+    mIndex.put(newKey("http://fresco/1.jpg", null), 100, 100);
+    mIndex.put(newKey("http://fresco/2.jpg", null), 100, 100);
+    mIndex.findLarger(newKey("http://fresco/1.jpg", new ResizeOptions(50, 50)));
+    mIndex.put(newKey("http://fresco/3.jpg", null), 100, 100);
+
+    assertEquals(2, mIndex.getSourceCount());
+    ResizeOptions resizeOptions = new ResizeOptions(50, 50);
+    assertEquals(1, mIndex.findLarger(newKey("http://fresco/1.jpg", resizeOptions)).size());
+    assertTrue(mIndex.findLarger(newKey("http://fresco/2.jpg", resizeOptions)).isEmpty());
+  }
+
+  private static BitmapMemoryCacheKey newKey(
+      String sourceString, @Nullable ResizeOptions resizeOptions) {
+    return new BitmapMemoryCacheKey(
+        sourceString,
+        resizeOptions,
+        RotationOptions.autoRotate(),
+        ImageDecodeOptions.defaults(),
+        null,
+        null,
+        null);
+  }
+}
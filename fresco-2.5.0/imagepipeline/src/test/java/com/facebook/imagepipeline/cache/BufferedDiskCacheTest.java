@@ -8,10 +8,13 @@
 package com.facebook.imagepipeline.cache;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyInt;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
@@ -23,6 +26,7 @@ import static org.powermock.api.mockito.PowerMockito.mockStatic;
 
 import bolts.Task;
 import com.facebook.binaryresource.BinaryResource;
+import com.facebook.binaryresource.FileBinaryResource;
 import com.facebook.cache.common.CacheKey;
 import com.facebook.cache.common.MultiCacheKey;
 import com.facebook.cache.common.SimpleCacheKey;
@@ -33,8 +37,11 @@ import com.facebook.common.memory.PooledByteBufferFactory;
 import com.facebook.common.memory.PooledByteStreams;
 import com.facebook.common.references.CloseableReference;
 import com.facebook.imagepipeline.image.EncodedImage;
+import com.facebook.imagepipeline.memory.MappedPooledByteBuffer;
 import com.facebook.imagepipeline.testing.FakeClock;
 import com.facebook.imagepipeline.testing.TestExecutorService;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
@@ -54,6 +61,7 @@ import org.powermock.core.classloader.annotations.PowerMockIgnore;
 import org.powermock.core.classloader.annotations.PrepareOnlyThisForTest;
 import org.powermock.modules.junit4.rule.PowerMockRule;
 import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
 import org.robolectric.annotation.Config;
 
 @RunWith(RobolectricTestRunner.class)
@@ -150,6 +158,59 @@ public class BufferedDiskCacheTest {
     assertSame(mPooledByteBuffer, result.getByteBufferRef().get());
   }
 
+  @Test
+  public void testMapsDiskCacheHit() throws Exception {
+    byte[] bytes = new byte[] {1, 2, 3, 4};
+    File file = new File(RuntimeEnvironment.application.getCacheDir(), "buffered-disk-cache-test");
+    FileOutputStream stream = new FileOutputStream(file);
+    try {
+      stream.write(bytes);
+    } finally {
+      stream.close();
+    }
+    when(mFileCache.getResource(eq(mCacheKey))).thenReturn(FileBinaryResource.create(file));
+    BufferedDiskCache bufferedDiskCache =
+        new BufferedDiskCache(
+            mFileCache,
+            mByteBufferFactory,
+            mPooledByteStreams,
+            mReadPriorityExecutor,
+            mWritePriorityExecutor,
+            mImageCacheStatsTracker,
+            true,
+            bytes.length);
+
+    Task<EncodedImage> readTask = bufferedDiskCache.get(mCacheKey, mIsCancelled);
+    mReadPriorityExecutor.runUntilIdle();
+
+    PooledByteBuffer buffer = readTask.getResult().getByteBufferRef().get();
+    assertTrue(buffer instanceof MappedPooledByteBuffer);
+    byte[] read = new byte[bytes.length];
+    buffer.read(0, read, 0, bytes.length);
+    assertArrayEquals(bytes, read);
+    verify(mByteBufferFactory, never()).newByteBuffer(any(InputStream.class), anyInt());
+  }
+
+  @Test
+  public void testCopiesDiskCacheHitThatCantBeMapped() throws Exception {
+    when(mFileCache.getResource(eq(mCacheKey))).thenReturn(mBinaryResource);
+    BufferedDiskCache bufferedDiskCache =
+        new BufferedDiskCache(
+            mFileCache,
+            mByteBufferFactory,
+            mPooledByteStreams,
+            mReadPriorityExecutor,
+            mWritePriorityExecutor,
+            mImageCacheStatsTracker,
+            true,
+            0);
+
+    Task<EncodedImage> readTask = bufferedDiskCache.get(mCacheKey, mIsCancelled);
+    mReadPriorityExecutor.runUntilIdle();
+
+    assertSame(mPooledByteBuffer, readTask.getResult().getByteBufferRef().get());
+  }
+
   @Test
   public void testCacheGetCancellation() throws Exception {
     when(mFileCache.getResource(mCacheKey)).thenReturn(mBinaryResource);
@@ -204,6 +265,32 @@ public class BufferedDiskCacheTest {
     assertNull(readTask.getResult());
   }
 
+  @Test
+  public void testDefiniteMissSkipsDiskCache() throws Exception {
+    when(mFileCache.isDefiniteMissSync(mCacheKey)).thenReturn(true);
+    Task<EncodedImage> readTask = mBufferedDiskCache.get(mCacheKey, mIsCancelled);
+    Task<Boolean> containsTask = mBufferedDiskCache.contains(mCacheKey);
+    assertTrue(readTask.isCompleted());
+    assertNull(readTask.getResult());
+    assertTrue(containsTask.isCompleted());
+    assertFalse(containsTask.getResult());
+    mReadPriorityExecutor.runUntilIdle();
+    verify(mFileCache, never()).getResource(mCacheKey);
+    verify(mFileCache, never()).hasKey(mCacheKey);
+    verify(mImageCacheStatsTracker).onDiskCacheMiss(mCacheKey);
+  }
+
+  @Test
+  public void testDefiniteMissDoesNotSkipStagingArea() throws Exception {
+    when(mFileCache.isDefiniteMissSync(mCacheKey)).thenReturn(true);
+    when(mStagingArea.get(mCacheKey)).thenReturn(mEncodedImage);
+    when(mStagingArea.containsKey(mCacheKey)).thenReturn(true);
+    Task<EncodedImage> readTask = mBufferedDiskCache.get(mCacheKey, mIsCancelled);
+    assertTrue(EncodedImage.isValid(readTask.getResult()));
+    readTask.getResult().close();
+    assertTrue(mBufferedDiskCache.contains(mCacheKey).getResult());
+  }
+
   @Test
   public void testPutBumpsRefCountBeforeSubmit() {
     mBufferedDiskCache.put(mCacheKey, mEncodedImage);
@@ -28,6 +28,7 @@ import com.facebook.common.memory.PooledByteBuffer;
 import com.facebook.common.references.CloseableReference;
 import com.facebook.common.util.UriUtil;
 import com.facebook.imageformat.ImageFormat;
+import com.facebook.imagepipeline.cache.NoOpImageCacheStatsTracker;
 import com.facebook.imagepipeline.image.CloseableImage;
 import com.facebook.imagepipeline.producers.Producer;
 import com.facebook.imagepipeline.request.ImageRequest;
@@ -90,7 +91,10 @@ public class ProducerSequenceFactoryTest {
             false,
             false,
             false,
-            false);
+            false,
+            false,
+            1f,
+            NoOpImageCacheStatsTracker.getInstance());
 
     when(mImageRequest.getLowestPermittedRequestLevel())
         .thenReturn(ImageRequest.RequestLevel.FULL_FETCH);
@@ -330,6 +334,9 @@ public class ProducerSequenceFactoryTest {
             false,
             false,
             false,
-            false);
+            false,
+            false,
+            1f,
+            NoOpImageCacheStatsTracker.getInstance());
   }
 }
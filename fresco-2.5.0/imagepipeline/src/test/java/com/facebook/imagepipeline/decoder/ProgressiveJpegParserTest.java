@@ -30,6 +30,7 @@ public class ProgressiveJpegParserTest {
 
   @Mock public ResourceReleaser mResourceReleaser;
 
+  private ByteArrayPool mByteArrayPool;
   private ProgressiveJpegParser mProgressiveJpegParser;
   private byte[] mWebpBytes;
   private byte[] mPartialWebpBytes;
@@ -38,9 +39,9 @@ public class ProgressiveJpegParserTest {
   @Before
   public void setUp() throws IOException {
     MockitoAnnotations.initMocks(this);
-    ByteArrayPool byteArrayPool = mock(ByteArrayPool.class);
-    when(byteArrayPool.get(anyInt())).thenReturn(new byte[10]);
-    mProgressiveJpegParser = new ProgressiveJpegParser(byteArrayPool);
+    mByteArrayPool = mock(ByteArrayPool.class);
+    when(mByteArrayPool.get(anyInt())).thenReturn(new byte[10]);
+    mProgressiveJpegParser = new ProgressiveJpegParser(mByteArrayPool);
 
     mJpegBytes =
         ByteStreams.toByteArray(
@@ -114,6 +115,39 @@ public class ProgressiveJpegParserTest {
     testFirstNBytes(mJpegBytes, mJpegBytes.length, true, 10, 32844);
   }
 
+  @Test
+  public void testBufferScanMatchesStreamScan() {
+    byte[] jpegWithTrailingData = Arrays.copyOf(mJpegBytes, mJpegBytes.length + 3);
+    for (int step : new int[] {1, 7, 100, 4096}) {
+      ProgressiveJpegParser bufferParser = new ProgressiveJpegParser(mByteArrayPool, true);
+      ProgressiveJpegParser streamParser = new ProgressiveJpegParser(mByteArrayPool, false);
+      for (int n = step; n < jpegWithTrailingData.length + step; n += step) {
+        byte[] data =
+            Arrays.copyOf(jpegWithTrailingData, Math.min(n, jpegWithTrailingData.length));
+        assertEquals(
+            streamParser.parseMoreData(buildEncodedImage(new TrivialPooledByteBuffer(data))),
+            bufferParser.parseMoreData(buildEncodedImage(new TrivialPooledByteBuffer(data))));
+        assertEquals(streamParser.isJpeg(), bufferParser.isJpeg());
+        assertEquals(streamParser.isEndMarkerRead(), bufferParser.isEndMarkerRead());
+        assertEquals(streamParser.getBestScanNumber(), bufferParser.getBestScanNumber());
+        assertEquals(streamParser.getBestScanEndOffset(), bufferParser.getBestScanEndOffset());
+      }
+      assertFalse(bufferParser.isJpeg());
+      assertEquals(10, bufferParser.getBestScanNumber());
+    }
+  }
+
+  @Test
+  public void testOnSegmentShorterThanItsSize() {
+    final TrivialPooledByteBuffer byteBuffer =
+        new TrivialPooledByteBuffer(
+            new byte[] {
+              (byte) 0xff, (byte) 0xd8, (byte) 0xff, (byte) 0xe0, (byte) 0x00, (byte) 0x01
+            });
+    assertFalse(mProgressiveJpegParser.parseMoreData(buildEncodedImage(byteBuffer)));
+    assertFalse(mProgressiveJpegParser.isJpeg());
+  }
+
   /**
    * Feeds mProgressiveJpegParser with n initial bytes from byteArray and checks that
    *
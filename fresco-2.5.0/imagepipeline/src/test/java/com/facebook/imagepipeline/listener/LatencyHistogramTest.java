@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.listener;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/** Tests for {@link LatencyHistogram} */
+@RunWith(RobolectricTestRunner.class)
+public class LatencyHistogramTest {
+
+  @Test
+  public void testBuckets() {
+    for (long value = 0; value < 100_000; value++) {
+      int index = LatencyHistogram.getBucketIndex(value);
+      assertTrue(value <= LatencyHistogram.getBucketUpperBound(index));
+      if (index > 0) {
+        assertTrue(value > LatencyHistogram.getBucketUpperBound(index - 1));
+      }
+    }
+    assertEquals(
+        LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.getBucketIndex(Integer.MAX_VALUE));
+  }
+
+  @Test
+  public void testBucketsAreWithinAnEighth() {
+    for (int index = 8; index < LatencyHistogram.BUCKET_COUNT; index++) {
+      long lowerBound = LatencyHistogram.getBucketUpperBound(index - 1) + 1;
+      long upperBound = LatencyHistogram.getBucketUpperBound(index);
+      assertTrue(upperBound - lowerBound < lowerBound / 8);
+    }
+  }
+
+  @Test
+  public void testSnapshot() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 1; i <= 100; i++) {
+      histogram.record(i);
+    }
+    LatencyHistogram.Snapshot snapshot = histogram.getSnapshot();
+    assertEquals(100, snapshot.getCount());
+    assertEquals(100, snapshot.getMax());
+    assertEquals(50.5, snapshot.getMean(), 0.001);
+    assertEquals(1, snapshot.getPercentile(0));
+    assertTrue(snapshot.getPercentile(50) >= 50 && snapshot.getPercentile(50) <= 50 * 9 / 8);
+    assertTrue(snapshot.getPercentile(90) >= 90 && snapshot.getPercentile(90) <= 90 * 9 / 8);
+    assertEquals(100, snapshot.getPercentile(100));
+  }
+
+  @Test
+  public void testNegativeDurations() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(-5);
+    assertEquals(1, histogram.getSnapshot().getCount());
+    assertEquals(0, histogram.getSnapshot().getPercentile(99));
+  }
+
+  @Test
+  public void testEmpty() {
+    LatencyHistogram.Snapshot snapshot = new LatencyHistogram().getSnapshot();
+    assertEquals(0, snapshot.getCount());
+    assertEquals(0, snapshot.getMean(), 0);
+    assertEquals(0, snapshot.getPercentile(50));
+  }
+
+  @Test
+  public void testReset() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(10);
+    histogram.reset();
+    LatencyHistogram.Snapshot snapshot = histogram.getSnapshot();
+    assertEquals(0, snapshot.getCount());
+    assertEquals(0, snapshot.getMax());
+    assertEquals(0, snapshot.getPercentile(50));
+  }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.listener;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.facebook.common.internal.ImmutableMap;
+import com.facebook.common.time.MonotonicClock;
+import com.facebook.imagepipeline.producers.ProducerContext;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/** Tests for {@link ProducerMetricsRequestListener} */
+@RunWith(RobolectricTestRunner.class)
+public class ProducerMetricsRequestListenerTest {
+
+  private static final String PRODUCER_NAME = "DecodeProducer";
+  private static final String CACHE_PRODUCER_NAME = "BitmapMemoryCacheProducer";
+
+  private MonotonicClock mClock;
+  private ProducerContext mProducerContext;
+  private ProducerMetricsRequestListener mListener;
+
+  @Before
+  public void setUp() {
+    mClock = mock(MonotonicClock.class);
+    mProducerContext = mockContext("0");
+    mListener = new ProducerMetricsRequestListener(mClock, false);
+  }
+
+  @Test
+  public void testExecutionTime() {
+    when(mClock.now()).thenReturn(100L);
+    mListener.onProducerStart(mProducerContext, PRODUCER_NAME);
+    when(mClock.now()).thenReturn(130L);
+    mListener.onProducerFinishWithSuccess(mProducerContext, PRODUCER_NAME, null);
+
+    ProducerMetrics metrics = mListener.getProducerMetrics(PRODUCER_NAME);
+    assertEquals(PRODUCER_NAME, metrics.getProducerName());
+    assertEquals(1, metrics.getStartCount());
+    assertEquals(1, metrics.getSuccessCount());
+    assertEquals(1, metrics.getExecutionTime().getCount());
+    assertEquals(30, metrics.getExecutionTime().getMax());
+    assertEquals(0, metrics.getQueueTime().getCount());
+  }
+
+  @Test
+  public void testOutcomes() {
+    ProducerContext otherContext = mockContext("1");
+    when(mClock.now()).thenReturn(0L);
+    mListener.onProducerStart(mProducerContext, PRODUCER_NAME);
+    mListener.onProducerStart(otherContext, PRODUCER_NAME);
+    mListener.onProducerFinishWithFailure(
+        mProducerContext, PRODUCER_NAME, new RuntimeException(), null);
+    mListener.onProducerFinishWithCancellation(otherContext, PRODUCER_NAME, null);
+
+    ProducerMetrics metrics = mListener.getProducerMetrics(PRODUCER_NAME);
+    assertEquals(2, metrics.getStartCount());
+    assertEquals(0, metrics.getSuccessCount());
+    assertEquals(1, metrics.getFailureCount());
+    assertEquals(1, metrics.getCancellationCount());
+    assertEquals(2, metrics.getExecutionTime().getCount());
+  }
+
+  @Test
+  public void testCacheHits() {
+    when(mClock.now()).thenReturn(0L);
+    for (int i = 0; i < 4; i++) {
+      mListener.onProducerStart(mProducerContext, CACHE_PRODUCER_NAME);
+      mListener.onProducerFinishWithSuccess(mProducerContext, CACHE_PRODUCER_NAME, null);
+    }
+    mListener.onUltimateProducerReached(mProducerContext, CACHE_PRODUCER_NAME, true);
+
+    ProducerMetrics metrics = mListener.getProducerMetrics(CACHE_PRODUCER_NAME);
+    assertEquals(1, metrics.getUltimateSuccessCount());
+    assertEquals(0, metrics.getUltimateFailureCount());
+    assertEquals(0.25, metrics.getUltimateSuccessRatio(), 0.001);
+  }
+
+  @Test
+  public void testQueueTimes() {
+    mListener = new ProducerMetricsRequestListener(mClock, true);
+    assertTrue(mListener.requiresExtraMap(mProducerContext, PRODUCER_NAME));
+    when(mClock.now()).thenReturn(0L);
+    mListener.onProducerStart(mProducerContext, PRODUCER_NAME);
+    Map<String, String> extraMap = ImmutableMap.of("queueTime", "12");
+    mListener.onProducerFinishWithSuccess(mProducerContext, PRODUCER_NAME, extraMap);
+    mListener.onProducerStart(mProducerContext, PRODUCER_NAME);
+    mListener.onProducerFinishWithSuccess(
+        mProducerContext, PRODUCER_NAME, ImmutableMap.of("queueTime", "not a number"));
+
+    LatencyHistogram.Snapshot queueTime =
+        mListener.getProducerMetrics(PRODUCER_NAME).getQueueTime();
+    assertEquals(1, queueTime.getCount());
+    assertEquals(12, queueTime.getMax());
+  }
+
+  @Test
+  public void testDoesNotRequireExtraMapByDefault() {
+    assertFalse(mListener.requiresExtraMap(mProducerContext, PRODUCER_NAME));
+  }
+
+  @Test
+  public void testRequestTime() {
+    when(mClock.now()).thenReturn(10L);
+    mListener.onRequestStart(mProducerContext);
+    when(mClock.now()).thenReturn(60L);
+    mListener.onRequestSuccess(mProducerContext);
+    // not started
+    mListener.onRequestCancellation(mockContext("1"));
+
+    assertEquals(1, mListener.getRequestTime().getCount());
+    assertEquals(50, mListener.getRequestTime().getMax());
+  }
+
+  @Test
+  public void testDropsStartTimesWhenTooManyOverlap() {
+    when(mClock.now()).thenReturn(0L);
+    ProducerContext[] contexts = new ProducerContext[200];
+    for (int i = 0; i < contexts.length; i++) {
+      contexts[i] = mockContext(String.valueOf(i));
+      mListener.onProducerStart(contexts[i], PRODUCER_NAME);
+    }
+    for (ProducerContext context : contexts) {
+      mListener.onProducerFinishWithSuccess(context, PRODUCER_NAME, null);
+    }
+
+    ProducerMetrics metrics = mListener.getProducerMetrics(PRODUCER_NAME);
+    assertEquals(200, metrics.getSuccessCount());
+    assertTrue(metrics.getDroppedCount() > 0);
+    assertEquals(200, metrics.getExecutionTime().getCount() + metrics.getDroppedCount());
+  }
+
+  @Test
+  public void testReset() {
+    when(mClock.now()).thenReturn(0L);
+    mListener.onProducerStart(mProducerContext, PRODUCER_NAME);
+    mListener.reset();
+    // still timed after the reset
+    when(mClock.now()).thenReturn(5L);
+    mListener.onProducerFinishWithSuccess(mProducerContext, PRODUCER_NAME, null);
+
+    ProducerMetrics metrics = mListener.getProducerMetrics(PRODUCER_NAME);
+    assertEquals(0, metrics.getStartCount());
+    assertEquals(1, metrics.getSuccessCount());
+    assertEquals(5, metrics.getExecutionTime().getMax());
+    assertNull(mListener.getProducerMetrics("UnknownProducer"));
+    assertEquals(1, mListener.getProducerMetrics().size());
+  }
+
+  @Test
+  public void testTakesOverStaleStartTimes() {
+    ProducerMetricsRequestListener.StartTimes startTimes =
+        new ProducerMetricsRequestListener.StartTimes(4);
+    for (int i = 0; i < 4; i++) {
+      // never finished
+      assertTrue(startTimes.put(mockContext(String.valueOf(i)), 0));
+    }
+    ProducerContext context = mockContext("4");
+    assertFalse(startTimes.put(context, 10));
+
+    final long time = ProducerMetricsRequestListener.StartTimes.STALE_START_TIME_MS + 1;
+    assertTrue(startTimes.put(context, time));
+    assertEquals(time, startTimes.remove(context));
+    assertEquals(
+        ProducerMetricsRequestListener.StartTimes.NO_START_TIME, startTimes.remove(context));
+  }
+
+  private static ProducerContext mockContext(String id) {
+    ProducerContext context = mock(ProducerContext.class);
+    when(context.getId()).thenReturn(id);
+    return context;
+  }
+}
@@ -14,6 +14,8 @@ import com.facebook.common.internal.ImmutableMap;
 import com.facebook.common.internal.Preconditions;
 import com.facebook.common.memory.MemoryTrimmableRegistry;
 import com.facebook.imagepipeline.memory.BasePool.PoolSizeViolationException;
+import java.util.ArrayList;
+import java.util.List;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -442,6 +444,150 @@ public class BasePoolTest {
     Assert.assertFalse(pool.canAllocate(4));
   }
 
+  @Test
+  public void testConcurrent_ReuseFromMagazine() throws Exception {
+    TestPool pool = newConcurrentPool(160, 160, makeBucketSizeArray(2, 10, 4, 10));
+
+    byte[] b1 = pool.get(2);
+    pool.release(b1);
+    // parked values stay accounted as used
+    Assert.assertEquals(1, pool.mUsed.mCount);
+    Assert.assertEquals(2, pool.mUsed.mNumBytes);
+    Assert.assertEquals(0, pool.mFree.mNumBytes);
+    Assert.assertTrue(pool.mInUseValues.isEmpty());
+
+    Assert.assertSame(b1, pool.get(2));
+    Assert.assertEquals(2, pool.mUsed.mNumBytes);
+    Assert.assertTrue(pool.mInUseValues.contains(b1));
+  }
+
+  @Test
+  public void testConcurrent_ReuseFromMagazineThroughGetValue() throws Exception {
+    PoolParams poolParams = new PoolParams(160, 160, makeBucketSizeArray(2, 10, 4, 10));
+    poolParams.concurrent = true;
+    final List<byte[]> reusedValues = new ArrayList<>();
+    TestPool pool =
+        new TestPool(poolParams) {
+          @Override
+          protected byte[] getValue(Bucket<byte[]> bucket) {
+            byte[] value = super.getValue(bucket);
+            if (value != null) {
+              reusedValues.add(value);
+            }
+            return value;
+          }
+        };
+
+    byte[] b1 = pool.get(2);
+    pool.release(b1);
+
+    Assert.assertSame(b1, pool.get(2));
+    Assert.assertEquals(1, reusedValues.size());
+    Assert.assertSame(b1, reusedValues.get(0));
+  }
+
+  @Test
+  public void testConcurrent_ReleaseToBucketWhenMagazineIsFull() throws Exception {
+    TestPool pool = newConcurrentPool(160, 160, makeBucketSizeArray(2, 10, 4, 10));
+
+    byte[][] values = new byte[PoolMagazine.VALUES_PER_BUCKET + 1][];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = pool.get(2);
+    }
+    for (byte[] value : values) {
+      pool.release(value);
+    }
+    Assert.assertEquals(PoolMagazine.VALUES_PER_BUCKET * 2, pool.mUsed.mNumBytes);
+    Assert.assertEquals(1, pool.mFree.mCount);
+    Assert.assertEquals(2, pool.mFree.mNumBytes);
+    Assert.assertEquals(PoolMagazine.VALUES_PER_BUCKET, pool.getBucket(2).getInUseCount());
+    Assert.assertEquals(1, pool.getBucket(2).getFreeListSize());
+
+    pool.trimToNothing();
+    Assert.assertEquals(0, pool.mUsed.mNumBytes);
+    Assert.assertEquals(0, pool.mFree.mNumBytes);
+    Assert.assertEquals(0, pool.getBucket(2).getInUseCount());
+    Assert.assertEquals(0, pool.getBucket(2).getFreeListSize());
+  }
+
+  @Test
+  public void testConcurrent_HardCapDrainsMagazines() throws Exception {
+    TestPool pool = newConcurrentPool(160, 160, makeBucketSizeArray(2, 10, 10, 10));
+
+    pool.release(pool.get(10));
+    Assert.assertEquals(10, pool.mUsed.mNumBytes);
+
+    // only fits once the parked value is given back
+    Assert.assertEquals(152, pool.get(152).length);
+    Assert.assertEquals(1, pool.mUsed.mCount);
+    Assert.assertEquals(152, pool.mUsed.mNumBytes);
+    Assert.assertEquals(0, pool.getBucket(10).getInUseCount());
+
+    try {
+      pool.get(10);
+      Assert.fail();
+    } catch (PoolSizeViolationException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testConcurrent_UnknownValueIsFreed() throws Exception {
+    TestPool pool = newConcurrentPool(160, 160, makeBucketSizeArray(2, 10));
+
+    pool.release(new byte[2]);
+    Assert.assertEquals(0, pool.mUsed.mNumBytes);
+    Assert.assertEquals(0, pool.mFree.mNumBytes);
+  }
+
+  @Test
+  public void testConcurrent_AccountingSurvivesManyThreads() throws Exception {
+    final TestPool pool =
+        newConcurrentPool(1024, 4096, makeBucketSizeArray(2, 16, 4, 16, 8, 16, 16, 16));
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      final int seed = t;
+      threads[t] =
+          new Thread(
+              new Runnable() {
+                @Override
+                public void run() {
+                  java.util.Random random = new java.util.Random(seed);
+                  for (int i = 0; i < 10000; i++) {
+                    byte[] first = pool.get(1 + random.nextInt(16));
+                    byte[] second = pool.get(1 + random.nextInt(16));
+                    pool.release(first);
+                    pool.release(second);
+                    if (i % 1000 == 0) {
+                      pool.trimToNothing();
+                    }
+                  }
+                }
+              });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    Assert.assertTrue(pool.mInUseValues.isEmpty());
+    pool.trimToNothing();
+    Assert.assertEquals(0, pool.mUsed.mCount);
+    Assert.assertEquals(0, pool.mUsed.mNumBytes);
+    Assert.assertEquals(0, pool.mFree.mCount);
+    Assert.assertEquals(0, pool.mFree.mNumBytes);
+    for (int i = 0; i < pool.mBuckets.size(); i++) {
+      Assert.assertEquals(0, pool.mBuckets.valueAt(i).getInUseCount());
+    }
+  }
+
+  private static TestPool newConcurrentPool(
+      int maxPoolSizeSoftCap, int maxPoolSizeHardCap, SparseIntArray bucketSizes) {
+    PoolParams poolParams = new PoolParams(maxPoolSizeSoftCap, maxPoolSizeHardCap, bucketSizes);
+    poolParams.concurrent = true;
+    return new TestPool(poolParams);
+  }
+
   /**
    * A simple test pool that allocates byte arrays, and always allocates buffers of double the size
    * requested
@@ -454,10 +600,11 @@ public class BasePoolTest {
     }
 
     public TestPool(int maxPoolSizeSoftCap, int maxPoolSizeHardCap, SparseIntArray bucketSizes) {
-      super(
-          mock(MemoryTrimmableRegistry.class),
-          new PoolParams(maxPoolSizeSoftCap, maxPoolSizeHardCap, bucketSizes),
-          mock(PoolStatsTracker.class));
+      this(new PoolParams(maxPoolSizeSoftCap, maxPoolSizeHardCap, bucketSizes));
+    }
+
+    public TestPool(PoolParams poolParams) {
+      super(mock(MemoryTrimmableRegistry.class), poolParams, mock(PoolStatsTracker.class));
       mIsReusable = true;
       initialize();
     }
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.memory;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+
+import com.facebook.binaryresource.BinaryResource;
+import com.facebook.binaryresource.FileBinaryResource;
+import com.facebook.binaryresource.FileChannelBinaryResource;
+import com.facebook.common.memory.PooledByteBuffer;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+/** Tests for {@link MappedPooledByteBuffer} */
+@RunWith(RobolectricTestRunner.class)
+public class MappedPooledByteBufferTest {
+
+  private static final byte[] BYTES = new byte[] {1, 4, 5, 0, 100, 34, 0, 1, -1, -1};
+
+  private File mFile;
+
+  @Before
+  public void setUp() throws Exception {
+    mFile = new File(RuntimeEnvironment.application.getCacheDir(), "mapped-pooled-byte-buffer");
+    FileOutputStream stream = new FileOutputStream(mFile);
+    try {
+      stream.write(BYTES);
+    } finally {
+      stream.close();
+    }
+  }
+
+  @Test
+  public void testMapsFile() throws Exception {
+    MappedPooledByteBuffer buffer = MappedPooledByteBuffer.map(FileBinaryResource.create(mFile));
+    assertEquals(BYTES.length, buffer.size());
+    for (int i = 0; i < BYTES.length; i++) {
+      assertEquals(BYTES[i], buffer.read(i));
+    }
+    byte[] read = new byte[BYTES.length + 2];
+    assertEquals(4, buffer.read(6, read, 1, 10));
+    assertEquals(BYTES[6], read[1]);
+    assertEquals(BYTES[9], read[4]);
+    assertTrue(buffer.getByteBuffer().isDirect());
+  }
+
+  @Test
+  public void testMappingOutlivesFile() throws Exception {
+    MappedPooledByteBuffer buffer = MappedPooledByteBuffer.map(FileBinaryResource.create(mFile));
+    assertTrue(mFile.delete());
+    assertEquals(BYTES[4], buffer.read(4));
+  }
+
+  @Test
+  public void testMapsRegionOfChannel() throws Exception {
+    RandomAccessFile file = new RandomAccessFile(mFile, "r");
+    try {
+      MappedPooledByteBuffer buffer =
+          MappedPooledByteBuffer.map(new FileChannelBinaryResource(file.getChannel(), 2, 5));
+      assertEquals(5, buffer.size());
+      assertEquals(BYTES[2], buffer.read(0));
+      assertEquals(BYTES[6], buffer.read(4));
+    } finally {
+      file.close();
+    }
+  }
+
+  @Test
+  public void testOtherResourcesAreNotMapped() throws Exception {
+    assertNull(MappedPooledByteBuffer.map(mock(BinaryResource.class)));
+  }
+
+  @Test
+  public void testClose() throws Exception {
+    MappedPooledByteBuffer buffer = MappedPooledByteBuffer.map(FileBinaryResource.create(mFile));
+    buffer.close();
+    assertTrue(buffer.isClosed());
+    assertNull(buffer.getByteBuffer());
+    try {
+      buffer.size();
+      fail();
+    } catch (PooledByteBuffer.ClosedException e) {
+      // expected
+    }
+    // closing twice is fine
+    buffer.close();
+  }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.memory;
+
+import static org.junit.Assert.*;
+
+import android.util.SparseIntArray;
+import com.facebook.common.memory.NoOpMemoryTrimmableRegistry;
+import com.facebook.common.memory.PooledByteBuffer;
+import com.facebook.common.memory.PooledByteBufferInputStream;
+import java.nio.ByteBuffer;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/** Tests for {@link SegmentedPooledByteBufferOutputStream} and {@link SegmentedPooledByteBuffer} */
+@RunWith(RobolectricTestRunner.class)
+public class SegmentedPooledByteBufferOutputStreamTest {
+
+  private static final int SEGMENT_SIZE = 16;
+
+  private BufferMemoryChunkPool mPool;
+  private byte[] mData;
+
+  @Before
+  public void setUp() {
+    SparseIntArray bucketSizes = new SparseIntArray();
+    bucketSizes.put(SEGMENT_SIZE, 10);
+    mPool =
+        new BufferMemoryChunkPool(
+            NoOpMemoryTrimmableRegistry.getInstance(),
+            new PoolParams(1024, bucketSizes),
+            NoOpPoolStatsTracker.getInstance());
+    mData = new byte[SEGMENT_SIZE * 3 + 5];
+    for (int i = 0; i < mData.length; i++) {
+      mData[i] = (byte) i;
+    }
+  }
+
+  @Test
+  public void testWriteAppendsSegments() throws Exception {
+    SegmentedPooledByteBufferOutputStream os =
+        new SegmentedPooledByteBufferOutputStream(mPool, SEGMENT_SIZE);
+    os.write(mData, 0, 10);
+    os.write(mData, 10, mData.length - 11);
+    os.write(mData[mData.length - 1]);
+    assertEquals(mData.length, os.size());
+    assertEquals(4, mPool.mUsed.mCount);
+
+    SegmentedPooledByteBuffer buffer = os.toByteBuffer();
+    assertEquals(4, buffer.getSegmentCount());
+    assertEquals(mData.length, buffer.size());
+    for (int i = 0; i < mData.length; i++) {
+      assertEquals(mData[i], buffer.read(i));
+    }
+
+    // the segments stay in use until both the stream and the buffer are closed
+    os.close();
+    assertEquals(4, mPool.mUsed.mCount);
+    buffer.close();
+    assertEquals(0, mPool.mUsed.mCount);
+    assertTrue(buffer.isClosed());
+  }
+
+  @Test
+  public void testReadAcrossSegments() throws Exception {
+    PooledByteBuffer buffer = writeAll();
+    byte[] read = new byte[SEGMENT_SIZE * 2 + 2];
+    assertEquals(SEGMENT_SIZE * 2, buffer.read(SEGMENT_SIZE - 3, read, 1, SEGMENT_SIZE * 2));
+    for (int i = 0; i < SEGMENT_SIZE * 2; i++) {
+      assertEquals(mData[SEGMENT_SIZE - 3 + i], read[i + 1]);
+    }
+    // reads past the end are truncated
+    assertEquals(5, buffer.read(SEGMENT_SIZE * 3, read, 0, 10));
+    buffer.close();
+  }
+
+  @Test
+  public void testInputStream() throws Exception {
+    PooledByteBuffer buffer = writeAll();
+    PooledByteBufferInputStream is = new PooledByteBufferInputStream(buffer);
+    byte[] read = new byte[mData.length];
+    int offset = 0;
+    int count;
+    while ((count = is.read(read, offset, Math.min(7, read.length - offset))) > 0) {
+      offset += count;
+    }
+    assertArrayEquals(mData, read);
+    buffer.close();
+  }
+
+  @Test
+  public void testGetByteBuffer() throws Exception {
+    PooledByteBuffer buffer = writeAll();
+    ByteBuffer byteBuffer = buffer.getByteBuffer();
+    assertTrue(byteBuffer.isDirect());
+    assertEquals(mData.length, byteBuffer.remaining());
+    byte[] read = new byte[mData.length];
+    byteBuffer.get(read);
+    assertArrayEquals(mData, read);
+    buffer.close();
+    assertNull(buffer.getByteBuffer());
+  }
+
+  @Test
+  public void testSingleSegmentExposesChunk() throws Exception {
+    SegmentedPooledByteBufferOutputStream os =
+        new SegmentedPooledByteBufferOutputStream(mPool, SEGMENT_SIZE);
+    os.write(mData, 0, SEGMENT_SIZE);
+    SegmentedPooledByteBuffer buffer = os.toByteBuffer();
+    os.close();
+    assertEquals(1, buffer.getSegmentCount());
+    assertEquals(SEGMENT_SIZE, buffer.getByteBuffer().capacity());
+    buffer.close();
+  }
+
+  @Test(expected = MemoryPooledByteBufferOutputStream.InvalidStreamException.class)
+  public void testWriteAfterClose() throws Exception {
+    SegmentedPooledByteBufferOutputStream os =
+        new SegmentedPooledByteBufferOutputStream(mPool, SEGMENT_SIZE);
+    os.close();
+    os.write(mData, 0, 1);
+  }
+
+  @Test
+  public void testFactoryUsesSegmentsForUnsizedStreams() {
+    MemoryPooledByteBufferFactory factory =
+        new MemoryPooledByteBufferFactory(mPool, null, SEGMENT_SIZE);
+    assertTrue(factory.newOutputStream() instanceof SegmentedPooledByteBufferOutputStream);
+    assertTrue(factory.newOutputStream(10) instanceof MemoryPooledByteBufferOutputStream);
+    assertTrue(
+        new MemoryPooledByteBufferFactory(mPool, null).newOutputStream()
+            instanceof MemoryPooledByteBufferOutputStream);
+  }
+
+  private SegmentedPooledByteBuffer writeAll() throws Exception {
+    SegmentedPooledByteBufferOutputStream os =
+        new SegmentedPooledByteBufferOutputStream(mPool, SEGMENT_SIZE);
+    try {
+      os.write(mData);
+      return os.toByteBuffer();
+    } finally {
+      os.close();
+    }
+  }
+}
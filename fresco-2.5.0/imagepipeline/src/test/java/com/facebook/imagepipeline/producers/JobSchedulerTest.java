@@ -14,23 +14,32 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.fail;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.powermock.api.mockito.PowerMockito.mock;
 
 import android.os.SystemClock;
 import com.facebook.common.memory.PooledByteBuffer;
 import com.facebook.common.references.CloseableReference;
+import com.facebook.imagepipeline.common.Priority;
+import com.facebook.imagepipeline.core.PriorityExecutor;
 import com.facebook.imagepipeline.image.EncodedImage;
 import com.facebook.imagepipeline.testing.FakeClock;
 import com.facebook.imagepipeline.testing.TestExecutorService;
 import com.facebook.imagepipeline.testing.TestScheduledExecutorService;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.MockitoAnnotations;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
@@ -395,6 +404,140 @@ public class JobSchedulerTest {
     assertEquals(0, mTestJobRunnable.jobs.size());
   }
 
+  @Test
+  public void testPriorityExecutor_thenQueuedJobFollowsRequestPriority() throws Exception {
+    final CountDownLatch blockingTaskReleased = new CountDownLatch(1);
+    PriorityExecutor executor = createBlockedPriorityExecutor(blockingTaskReleased);
+    final List<String> runOrder = Collections.synchronizedList(new ArrayList<String>());
+    ProducerContext producerContext = createProducerContext(Priority.LOW, true);
+    JobScheduler jobScheduler =
+        new JobScheduler(
+            executor,
+            new JobScheduler.JobRunnable() {
+              @Override
+              public void run(EncodedImage encodedImage, @Consumer.Status int status) {
+                runOrder.add("job");
+              }
+            },
+            0,
+            producerContext);
+    ProducerContextCallbacks callbacks = captureCallbacks(producerContext);
+
+    jobScheduler.updateJob(fakeEncodedImage(), Consumer.IS_LAST);
+    jobScheduler.scheduleJob();
+    executor.submit(
+        new Runnable() {
+          @Override
+          public void run() {
+            runOrder.add("other");
+          }
+        },
+        Priority.MEDIUM,
+        false);
+    when(producerContext.getPriority()).thenReturn(Priority.HIGH);
+    callbacks.onPriorityChanged();
+    when(producerContext.isPrefetch()).thenReturn(false);
+    callbacks.onIsPrefetchChanged();
+    runQueuedTasks(executor, blockingTaskReleased);
+
+    assertEquals(Arrays.asList("job", "other"), runOrder);
+    assertEquals(JobScheduler.JobState.IDLE, jobScheduler.mJobState);
+  }
+
+  @Test
+  public void testPriorityExecutor_whenCleared_thenQueuedJobIsCancelled() throws Exception {
+    final CountDownLatch blockingTaskReleased = new CountDownLatch(1);
+    PriorityExecutor executor = createBlockedPriorityExecutor(blockingTaskReleased);
+    JobScheduler jobScheduler =
+        new JobScheduler(
+            executor, mTestJobRunnable, 0, createProducerContext(Priority.MEDIUM, false));
+
+    jobScheduler.updateJob(fakeEncodedImage(), Consumer.IS_LAST);
+    jobScheduler.scheduleJob();
+    assertEquals(1, executor.getQueueDepth());
+    jobScheduler.clearJob();
+
+    assertEquals(0, executor.getQueueDepth());
+    assertEquals(1, executor.getCancelledTaskCount());
+    assertEquals(JobScheduler.JobState.IDLE, jobScheduler.mJobState);
+    runQueuedTasks(executor, blockingTaskReleased);
+    assertEquals(0, mTestJobRunnable.jobs.size());
+  }
+
+  @Test
+  public void testPriorityExecutor_whenWithdrawn_thenQueuedJobIsCancelled() throws Exception {
+    final CountDownLatch blockingTaskReleased = new CountDownLatch(1);
+    PriorityExecutor executor = createBlockedPriorityExecutor(blockingTaskReleased);
+    JobScheduler jobScheduler =
+        new JobScheduler(
+            executor, mTestJobRunnable, 0, createProducerContext(Priority.MEDIUM, false));
+
+    assertFalse(jobScheduler.withdrawQueuedJob());
+    jobScheduler.updateJob(fakeEncodedImage(), Consumer.IS_LAST);
+    jobScheduler.scheduleJob();
+
+    assertTrue(jobScheduler.withdrawQueuedJob());
+    assertFalse(jobScheduler.withdrawQueuedJob());
+    assertEquals(1, executor.getCancelledTaskCount());
+    assertEquals(JobScheduler.JobState.IDLE, jobScheduler.mJobState);
+    assertNull(jobScheduler.mEncodedImage);
+    runQueuedTasks(executor, blockingTaskReleased);
+    assertEquals(0, mTestJobRunnable.jobs.size());
+  }
+
+  /** @return an executor whose only thread is busy until the latch is released */
+  private static PriorityExecutor createBlockedPriorityExecutor(
+      final CountDownLatch blockingTaskReleased) throws InterruptedException {
+    PriorityExecutor executor = new PriorityExecutor(1, Executors.defaultThreadFactory());
+    final CountDownLatch blockingTaskStarted = new CountDownLatch(1);
+    executor.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            blockingTaskStarted.countDown();
+            try {
+              blockingTaskReleased.await();
+            } catch (InterruptedException e) {
+              throw new RuntimeException(e);
+            }
+          }
+        });
+    assertTrue(blockingTaskStarted.await(5, TimeUnit.SECONDS));
+    return executor;
+  }
+
+  /** Releases the thread and waits for the queued tasks, and a last one added here, to run */
+  private static void runQueuedTasks(
+      PriorityExecutor executor, CountDownLatch blockingTaskReleased)
+      throws InterruptedException {
+    final CountDownLatch done = new CountDownLatch(1);
+    executor.submit(
+        new Runnable() {
+          @Override
+          public void run() {
+            done.countDown();
+          }
+        },
+        Priority.LOW,
+        true);
+    blockingTaskReleased.countDown();
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+  }
+
+  private static ProducerContext createProducerContext(Priority priority, boolean isPrefetch) {
+    ProducerContext producerContext = mock(ProducerContext.class);
+    when(producerContext.getPriority()).thenReturn(priority);
+    when(producerContext.isPrefetch()).thenReturn(isPrefetch);
+    return producerContext;
+  }
+
+  private static ProducerContextCallbacks captureCallbacks(ProducerContext producerContext) {
+    ArgumentCaptor<ProducerContextCallbacks> callbacks =
+        ArgumentCaptor.forClass(ProducerContextCallbacks.class);
+    verify(producerContext).addCallbacks(callbacks.capture());
+    return callbacks.getValue();
+  }
+
   private static void assertJobsEqual(
       TestJobRunnable.Job job, EncodedImage encodedImage, @Consumer.Status int status) {
     assertReferencesEqual(encodedImage, job.encodedImage);
@@ -26,6 +26,11 @@ import com.facebook.imagepipeline.common.Priority;
 import com.facebook.imagepipeline.core.ImagePipelineConfig;
 import com.facebook.imagepipeline.image.CloseableImage;
 import com.facebook.imagepipeline.request.ImageRequest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.*;
 import org.junit.runner.*;
 import org.mockito.*;
@@ -636,4 +641,122 @@ public class MultiplexProducerTest {
     mProducerContext1.setPriority(Priority.MEDIUM);
     assertEquals(Priority.HIGH, mMultiplexedContext1.getPriority());
   }
+
+  @Test
+  public void testStartedAsPrefetchIsSetByFirstRequest() {
+    mProducerContext1.setIsPrefetch(true);
+    mMultiplexProducer.produceResults(mConsumer1, mProducerContext1);
+    mMultiplexProducer.produceResults(mConsumer2, mProducerContext2);
+    assertEquals(
+        Boolean.TRUE,
+        mMultiplexedContext1.getExtra(MultiplexProducer.EXTRAS_STARTED_AS_PREFETCH));
+    assertFalse(mMultiplexedContext1.isPrefetch());
+  }
+
+  @Test
+  public void testConcurrentAttachAndCancelLosesNoConsumers() throws Exception {
+    final ConcurrentLinkedQueue<Consumer<CloseableReference<CloseableImage>>> forwardingConsumers =
+        new ConcurrentLinkedQueue<>();
+    // an input producer that acknowledges cancellation right away, like a cache miss would
+    Producer<CloseableReference<CloseableImage>> inputProducer =
+        new Producer<CloseableReference<CloseableImage>>() {
+          @Override
+          public void produceResults(
+              final Consumer<CloseableReference<CloseableImage>> consumer,
+              ProducerContext context) {
+            forwardingConsumers.add(consumer);
+            context.addCallbacks(
+                new BaseProducerContextCallbacks() {
+                  @Override
+                  public void onCancellationRequested() {
+                    consumer.onCancellation();
+                  }
+                });
+          }
+        };
+    final BitmapMemoryCacheKeyMultiplexProducer multiplexProducer =
+        new BitmapMemoryCacheKeyMultiplexProducer(mCacheKeyFactory, inputProducer);
+
+    final int numThreads = 8;
+    final int requestsPerThread = 500;
+    final List<CountingConsumer> consumers = new ArrayList<>();
+    final List<SettableProducerContext> contexts = new ArrayList<>();
+    for (int i = 0; i < numThreads * requestsPerThread; i++) {
+      consumers.add(new CountingConsumer());
+      contexts.add(
+          new SettableProducerContext(
+              mImageRequest1,
+              "id" + i,
+              mProducerListener,
+              mCallerContext,
+              ImageRequest.RequestLevel.FULL_FETCH,
+              false,
+              true,
+              Priority.MEDIUM,
+              mConfig));
+    }
+
+    Thread[] threads = new Thread[numThreads];
+    for (int t = 0; t < numThreads; t++) {
+      final int firstRequest = t * requestsPerThread;
+      threads[t] =
+          new Thread(
+              new Runnable() {
+                @Override
+                public void run() {
+                  Random random = new Random(firstRequest);
+                  for (int i = firstRequest; i < firstRequest + requestsPerThread; i++) {
+                    multiplexProducer.produceResults(consumers.get(i), contexts.get(i));
+                    if (random.nextBoolean()) {
+                      contexts.get(i).cancel();
+                    }
+                  }
+                }
+              });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    // late callbacks to forwarding consumers of cancelled fetches are ignored
+    for (Consumer<CloseableReference<CloseableImage>> forwardingConsumer : forwardingConsumers) {
+      forwardingConsumer.onNewResult(mFinalImageReference1, Consumer.IS_LAST);
+    }
+
+    for (int i = 0; i < consumers.size(); i++) {
+      CountingConsumer consumer = consumers.get(i);
+      if (contexts.get(i).isCancelled()) {
+        assertEquals(1, consumer.mCancellations.get());
+        assertEquals(0, consumer.mResults.get());
+      } else {
+        assertEquals(0, consumer.mCancellations.get());
+        assertEquals(1, consumer.mResults.get());
+      }
+    }
+    assertTrue(multiplexProducer.mMultiplexers.isEmpty());
+  }
+
+  private static class CountingConsumer implements Consumer<CloseableReference<CloseableImage>> {
+    final AtomicInteger mResults = new AtomicInteger();
+    final AtomicInteger mCancellations = new AtomicInteger();
+
+    @Override
+    public void onNewResult(CloseableReference<CloseableImage> newResult, @Status int status) {
+      if (BaseConsumer.isLast(status)) {
+        mResults.incrementAndGet();
+      }
+    }
+
+    @Override
+    public void onFailure(Throwable t) {}
+
+    @Override
+    public void onCancellation() {
+      mCancellations.incrementAndGet();
+    }
+
+    @Override
+    public void onProgressUpdate(float progress) {}
+  }
 }
@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.producers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.graphics.Bitmap;
+import com.facebook.cache.common.CacheKey;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.common.references.ResourceReleaser;
+import com.facebook.imagepipeline.bitmaps.PlatformBitmapFactory;
+import com.facebook.imagepipeline.cache.BitmapMemoryCacheKey;
+import com.facebook.imagepipeline.cache.BitmapMemoryCacheResolutionIndex;
+import com.facebook.imagepipeline.cache.CacheKeyFactory;
+import com.facebook.imagepipeline.cache.ImageCacheStatsTracker;
+import com.facebook.imagepipeline.cache.MemoryCache;
+import com.facebook.imagepipeline.common.ImageDecodeOptions;
+import com.facebook.imagepipeline.common.ResizeOptions;
+import com.facebook.imagepipeline.common.RotationOptions;
+import com.facebook.imagepipeline.image.CloseableImage;
+import com.facebook.imagepipeline.image.CloseableStaticBitmap;
+import com.facebook.imagepipeline.image.ImmutableQualityInfo;
+import com.facebook.imagepipeline.request.ImageRequest;
+import javax.annotation.Nullable;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/** Tests for {@link ResolutionAwareBitmapMemoryCacheProducer} */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class ResolutionAwareBitmapMemoryCacheProducerTest {
+
+  private static final String SOURCE = "http://fresco/image.jpg";
+  private static final float MAX_SERVED_SIZE_RATIO = 1.5f;
+
+  @Mock public MemoryCache<CacheKey, CloseableImage> mMemoryCache;
+  @Mock public CacheKeyFactory mCacheKeyFactory;
+  @Mock public PlatformBitmapFactory mPlatformBitmapFactory;
+  @Mock public ImageCacheStatsTracker mImageCacheStatsTracker;
+  @Mock public Producer<CloseableReference<CloseableImage>> mInputProducer;
+  @Mock public Consumer<CloseableReference<CloseableImage>> mConsumer;
+  @Mock public ProducerContext mProducerContext;
+  @Mock public ImageRequest mImageRequest;
+  @Mock public ProducerListener2 mProducerListener;
+  @Mock public ResourceReleaser<Bitmap> mBitmapReleaser;
+
+  private BitmapMemoryCacheResolutionIndex mResolutionIndex;
+  private BitmapMemoryCacheKey mRequestedKey;
+  private BitmapMemoryCacheKey mLargerKey;
+  private ResolutionAwareBitmapMemoryCacheProducer mProducer;
+
+  @Before
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+    mResolutionIndex = new BitmapMemoryCacheResolutionIndex();
+    mProducer =
+        new ResolutionAwareBitmapMemoryCacheProducer(
+            mMemoryCache,
+            mCacheKeyFactory,
+            mResolutionIndex,
+            mPlatformBitmapFactory,
+            mImageCacheStatsTracker,
+            MAX_SERVED_SIZE_RATIO,
+            mInputProducer);
+    mRequestedKey = newKey(new ResizeOptions(200, 200));
+    mLargerKey = newKey(null);
+
+    when(mProducerContext.getImageRequest()).thenReturn(mImageRequest);
+    when(mProducerContext.getProducerListener()).thenReturn(mProducerListener);
+    when(mProducerContext.getCallerContext()).thenReturn(this);
+    when(mCacheKeyFactory.getBitmapCacheKey(mImageRequest, this)).thenReturn(mRequestedKey);
+    when(mImageRequest.isMemoryCacheEnabled()).thenReturn(true);
+  }
+
+  @Test
+  public void testExactKeyInCachePassedThrough() {
+    mResolutionIndex.put(mLargerKey, 1000, 1000);
+    when(mMemoryCache.contains(mRequestedKey)).thenReturn(true);
+
+    mProducer.produceResults(mConsumer, mProducerContext);
+
+    verify(mInputProducer).produceResults(any(Consumer.class), eq(mProducerContext));
+    verify(mMemoryCache, never()).get(any(CacheKey.class));
+    verify(mImageCacheStatsTracker, never()).onBitmapCacheLargerSizeMiss(any(CacheKey.class));
+  }
+
+  @Test
+  public void testInputResultIndexed() {
+    mProducer.produceResults(mConsumer, mProducerContext);
+    ArgumentCaptor<Consumer> consumerCaptor = ArgumentCaptor.forClass(Consumer.class);
+    verify(mInputProducer).produceResults(consumerCaptor.capture(), eq(mProducerContext));
+    verify(mImageCacheStatsTracker).onBitmapCacheLargerSizeMiss(mRequestedKey);
+
+    CloseableReference<CloseableImage> result =
+        CloseableReference.<CloseableImage>of(mockStaticBitmap(250, 250));
+    consumerCaptor.getValue().onNewResult(result, Consumer.IS_LAST);
+
+    verify(mConsumer).onNewResult(result, Consumer.IS_LAST);
+    BitmapMemoryCacheKey smallerKey = newKey(new ResizeOptions(100, 100));
+    assertEquals(1, mResolutionIndex.findLarger(smallerKey).size());
+    assertSame(mRequestedKey, mResolutionIndex.findLarger(smallerKey).get(0).key);
+  }
+
+  @Test
+  public void testLargerBitmapServedWithinRatio() {
+    CloseableStaticBitmap largerImage = mockStaticBitmap(250, 280);
+    CloseableReference<CloseableImage> largerReference =
+        CloseableReference.<CloseableImage>of(largerImage);
+    mResolutionIndex.put(mLargerKey, 250, 280);
+    when(mMemoryCache.get(mLargerKey)).thenReturn(largerReference.clone());
+
+    ResultConsumer consumer = new ResultConsumer();
+    mProducer.produceResults(consumer, mProducerContext);
+
+    assertSame(largerImage, consumer.mResult);
+    assertTrue(consumer.mIsLast);
+    verify(mInputProducer, never()).produceResults(any(Consumer.class), any(ProducerContext.class));
+    verify(mMemoryCache, never()).cache(any(CacheKey.class), any(CloseableReference.class));
+    verify(mImageCacheStatsTracker).onBitmapCacheLargerSizeHit(mRequestedKey, false);
+    verify(mProducerListener)
+        .onUltimateProducerReached(
+            mProducerContext, ResolutionAwareBitmapMemoryCacheProducer.PRODUCER_NAME, true);
+    // the reference of the cache was closed, the one of the test is still valid
+    assertTrue(largerReference.isValid());
+    assertEquals(1, largerReference.getUnderlyingReferenceTestOnly().getRefCountTestOnly());
+  }
+
+  @Test
+  public void testLargerBitmapDownscaled() {
+    CloseableStaticBitmap largerImage = mockStaticBitmap(800, 600);
+    mResolutionIndex.put(mLargerKey, 800, 600);
+    when(mMemoryCache.get(mLargerKey))
+        .thenReturn(CloseableReference.<CloseableImage>of(largerImage));
+    Bitmap largerBitmap = largerImage.getUnderlyingBitmap();
+    Bitmap scaledBitmap = mockBitmap(267, 200);
+    when(mPlatformBitmapFactory.createScaledBitmap(largerBitmap, 267, 200, true, this))
+        .thenReturn(CloseableReference.of(scaledBitmap, mBitmapReleaser));
+    when(mMemoryCache.cache(eq(mRequestedKey), any(CloseableReference.class)))
+        .thenAnswer(
+            new Answer<CloseableReference<CloseableImage>>() {
+              @Override
+              public CloseableReference<CloseableImage> answer(InvocationOnMock invocation) {
+                return invocation.<CloseableReference<CloseableImage>>getArgument(1).clone();
+              }
+            });
+
+    ResultConsumer consumer = new ResultConsumer();
+    mProducer.produceResults(consumer, mProducerContext);
+
+    assertSame(scaledBitmap, ((CloseableStaticBitmap) consumer.mResult).getUnderlyingBitmap());
+    assertTrue(consumer.mIsLast);
+    verify(mInputProducer, never()).produceResults(any(Consumer.class), any(ProducerContext.class));
+    verify(mImageCacheStatsTracker).onBitmapCacheLargerSizeHit(mRequestedKey, true);
+    assertSame(
+        mRequestedKey,
+        mResolutionIndex.findLarger(newKey(new ResizeOptions(100, 100))).get(0).key);
+  }
+
+  @Test
+  public void testEvictedBitmapRemovedFromIndex() {
+    mResolutionIndex.put(mLargerKey, 1000, 1000);
+    when(mMemoryCache.get(mLargerKey)).thenReturn(null);
+
+    mProducer.produceResults(mConsumer, mProducerContext);
+
+    assertTrue(mResolutionIndex.findLarger(mRequestedKey).isEmpty());
+    verify(mImageCacheStatsTracker).onBitmapCacheLargerSizeMiss(mRequestedKey);
+    verify(mInputProducer).produceResults(any(Consumer.class), eq(mProducerContext));
+  }
+
+  @Test
+  public void testPartialBitmapNotServed() {
+    CloseableStaticBitmap largerImage = mockStaticBitmap(1000, 1000);
+    when(largerImage.getQualityInfo()).thenReturn(ImmutableQualityInfo.of(3, false, false));
+    mResolutionIndex.put(mLargerKey, 1000, 1000);
+    when(mMemoryCache.get(mLargerKey))
+        .thenReturn(CloseableReference.<CloseableImage>of(largerImage));
+
+    mProducer.produceResults(mConsumer, mProducerContext);
+
+    verify(mImageCacheStatsTracker).onBitmapCacheLargerSizeMiss(mRequestedKey);
+    verify(mInputProducer).produceResults(any(Consumer.class), eq(mProducerContext));
+  }
+
+  /** Keeps the image of the result, which is only valid during the call */
+  private static class ResultConsumer extends BaseConsumer<CloseableReference<CloseableImage>> {
+
+    private @Nullable CloseableImage mResult;
+    private boolean mIsLast;
+
+    @Override
+    protected void onNewResultImpl(
+        @Nullable CloseableReference<CloseableImage> newResult, @Status int status) {
+      mResult = newResult == null ? null : newResult.get();
+      mIsLast = isLast(status);
+    }
+
+    @Override
+    protected void onFailureImpl(Throwable t) {}
+
+    @Override
+    protected void onCancellationImpl() {}
+  }
+
+  private static BitmapMemoryCacheKey newKey(@Nullable ResizeOptions resizeOptions) {
+    return new BitmapMemoryCacheKey(
+        SOURCE,
+        resizeOptions,
+        RotationOptions.autoRotate(),
+        ImageDecodeOptions.defaults(),
+        null,
+        null,
+        null);
+  }
+
+  private static CloseableStaticBitmap mockStaticBitmap(int width, int height) {
+    CloseableStaticBitmap image = mock(CloseableStaticBitmap.class);
+    Bitmap bitmap = mockBitmap(width, height);
+    when(image.getWidth()).thenReturn(width);
+    when(image.getHeight()).thenReturn(height);
+    when(image.getUnderlyingBitmap()).thenReturn(bitmap);
+    when(image.getQualityInfo()).thenReturn(ImmutableQualityInfo.FULL_QUALITY);
+    return image;
+  }
+
+  private static Bitmap mockBitmap(int width, int height) {
+    Bitmap bitmap = mock(Bitmap.class);
+    when(bitmap.getWidth()).thenReturn(width);
+    when(bitmap.getHeight()).thenReturn(height);
+    when(bitmap.isMutable()).thenReturn(true);
+    return bitmap;
+  }
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.fresco.vito.core.impl;
+
+import android.util.SparseArray;
+import com.facebook.datasource.DataSource;
+import com.facebook.fresco.vito.core.FrescoVitoPrefetcher;
+import com.facebook.fresco.vito.core.PrefetchTarget;
+import com.facebook.fresco.vito.core.VitoImageRequest;
+import com.facebook.infer.annotation.Nullsafe;
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Prefetches the images of a list ahead of the scroll, choosing the {@link PrefetchTarget} of each
+ * item from how soon it will be visible at the current scroll velocity.
+ *
+ * <p>The items visible within {@code decodedWithinMs} are prefetched to the bitmap cache, then to
+ * the encoded cache within {@code encodedWithinMs}, and to the disk cache within {@code
+ * diskWithinMs}. When the list scrolls so fast that an item would be visible for less than {@code
+ * minVisibleDurationToDecodeMs}, it is not decoded ahead. Prefetches of the items the list
+ * scrolled past, or that are no longer planned, are cancelled.
+ *
+ * <p>Each prefetch is counted as a hit if it finished before its item became visible, as late if
+ * it was still running, and as wasted if it finished but was cancelled before its item became
+ * visible.
+ */
+@NotThreadSafe
+@Nullsafe(Nullsafe.Mode.LOCAL)
+public class VelocityPrefetchPlanner {
+
+  public static final long DEFAULT_DECODED_WITHIN_MS = 300;
+  public static final long DEFAULT_ENCODED_WITHIN_MS = 1000;
+  public static final long DEFAULT_DISK_WITHIN_MS = 3000;
+  public static final long DEFAULT_MIN_VISIBLE_DURATION_TO_DECODE_MS = 100;
+  public static final float DEFAULT_IDLE_VELOCITY_ITEMS_PER_SECOND = 2f;
+  public static final int DEFAULT_MAX_ITEMS_AHEAD = 20;
+
+  private final FrescoVitoPrefetcher mPrefetcher;
+  private final @Nullable Object mCallerContext;
+  private final String mCallsite;
+  private final long mDecodedWithinMs;
+  private final long mEncodedWithinMs;
+  private final long mDiskWithinMs;
+  private final long mMinVisibleDurationToDecodeMs;
+  private final float mIdleVelocityItemsPerSecond;
+  private final int mMaxItemsAhead;
+
+  private final SparseArray<Prefetch> mPrefetches = new SparseArray<>();
+  private List<VitoImageRequest> mItems = new ArrayList<>();
+  private boolean mScrollingBackward;
+
+  private long mStartedCount;
+  private long mHitCount;
+  private long mLateCount;
+  private long mWastedCount;
+  private long mCancelledCount;
+
+  public VelocityPrefetchPlanner(
+      FrescoVitoPrefetcher prefetcher, @Nullable Object callerContext, String callsite) {
+    this(
+        prefetcher,
+        callerContext,
+        callsite,
+        DEFAULT_DECODED_WITHIN_MS,
+        DEFAULT_ENCODED_WITHIN_MS,
+        DEFAULT_DISK_WITHIN_MS,
+        DEFAULT_MIN_VISIBLE_DURATION_TO_DECODE_MS,
+        DEFAULT_IDLE_VELOCITY_ITEMS_PER_SECOND,
+        DEFAULT_MAX_ITEMS_AHEAD);
+  }
+
+  /**
+   * @param idleVelocityItemsPerSecond the velocity assumed when the list scrolls slower, so that
+   *     the next items are prefetched while it is idle
+   * @param maxItemsAhead the maximum number of items prefetched ahead of the visible ones
+   */
+  public VelocityPrefetchPlanner(
+      FrescoVitoPrefetcher prefetcher,
+      @Nullable Object callerContext,
+      String callsite,
+      long decodedWithinMs,
+      long encodedWithinMs,
+      long diskWithinMs,
+      long minVisibleDurationToDecodeMs,
+      float idleVelocityItemsPerSecond,
+      int maxItemsAhead) {
+    if (idleVelocityItemsPerSecond <= 0) {
+      throw new IllegalArgumentException("idleVelocityItemsPerSecond must be > 0");
+    }
+    mPrefetcher = prefetcher;
+    mCallerContext = callerContext;
+    mCallsite = callsite;
+    mDecodedWithinMs = decodedWithinMs;
+    mEncodedWithinMs = encodedWithinMs;
+    mDiskWithinMs = diskWithinMs;
+    mMinVisibleDurationToDecodeMs = minVisibleDurationToDecodeMs;
+    mIdleVelocityItemsPerSecond = idleVelocityItemsPerSecond;
+    mMaxItemsAhead = maxItemsAhead;
+  }
+
+  /**
+   * Sets the image requests of the items of the list, by position. The prefetches of the positions
+   * whose request changed, or that are gone, are cancelled. The others keep running, e.g. when a
+   * page of items is appended.
+   */
+  public void setItems(List<VitoImageRequest> items) {
+    for (int i = mPrefetches.size() - 1; i >= 0; i--) {
+      final int position = mPrefetches.keyAt(i);
+      if (position >= items.size() || !items.get(position).equals(mItems.get(position))) {
+        cancel(mPrefetches.valueAt(i));
+        mPrefetches.removeAt(i);
+      }
+    }
+    mItems = new ArrayList<>(items);
+  }
+
+  /**
+   * Plans the prefetches for the new scroll position.
+   *
+   * @param firstVisiblePosition the position of the first visible item
+   * @param lastVisiblePosition the position of the last visible item
+   * @param velocityItemsPerSecond the scroll velocity, positive towards the last item
+   */
+  public void onScroll(
+      int firstVisiblePosition, int lastVisiblePosition, float velocityItemsPerSecond) {
+    if (velocityItemsPerSecond != 0) {
+      mScrollingBackward = velocityItemsPerSecond < 0;
+    }
+    final float speedItemsPerSecond =
+        Math.max(Math.abs(velocityItemsPerSecond), mIdleVelocityItemsPerSecond);
+    final int visibleItemCount = lastVisiblePosition - firstVisiblePosition + 1;
+    // Decoding an image shown for a few frames only takes time from the visible ones
+    final boolean decode =
+        visibleItemCount * 1000f / speedItemsPerSecond >= mMinVisibleDurationToDecodeMs;
+
+    final SparseArray<PrefetchTarget> plan = new SparseArray<>();
+    for (int distance = 1; distance <= mMaxItemsAhead; distance++) {
+      final int position =
+          mScrollingBackward ? firstVisiblePosition - distance : lastVisiblePosition + distance;
+      if (position < 0 || position >= mItems.size()) {
+        break;
+      }
+      final long timeToVisibleMs = (long) ((distance - 1) * 1000f / speedItemsPerSecond);
+      final PrefetchTarget target = choosePrefetchTarget(timeToVisibleMs, decode);
+      if (target == null) {
+        break;
+      }
+      plan.put(position, target);
+    }
+
+    // Stop the prefetches that are visible or no longer needed
+    for (int i = mPrefetches.size() - 1; i >= 0; i--) {
+      final int position = mPrefetches.keyAt(i);
+      final Prefetch prefetch = mPrefetches.valueAt(i);
+      if (position >= firstVisiblePosition && position <= lastVisiblePosition) {
+        if (prefetch.hasSucceeded()) {
+          mHitCount++;
+        } else if (!prefetch.hasFailed()) {
+          mLateCount++;
+        }
+        prefetch.close();
+        mPrefetches.removeAt(i);
+      } else if (plan.get(position) == null) {
+        cancel(prefetch);
+        mPrefetches.removeAt(i);
+      }
+    }
+
+    for (int i = 0; i < plan.size(); i++) {
+      final int position = plan.keyAt(i);
+      final PrefetchTarget target = plan.valueAt(i);
+      final Prefetch prefetch = mPrefetches.get(position);
+      if (prefetch != null && !isHigher(target, prefetch.mTarget)) {
+        continue;
+      }
+      final VitoImageRequest imageRequest = mItems.get(position);
+      mPrefetches.put(
+          position,
+          new Prefetch(
+              target,
+              mPrefetcher.prefetch(target, imageRequest, mCallerContext, null, mCallsite)));
+      mStartedCount++;
+      // The prefetch to the lower target is part of the new one
+      if (prefetch != null) {
+        prefetch.close();
+      }
+    }
+  }
+
+  /** Cancels all the prefetches, e.g. when the list is no longer shown. */
+  public void cancelAll() {
+    for (int i = 0; i < mPrefetches.size(); i++) {
+      cancel(mPrefetches.valueAt(i));
+    }
+    mPrefetches.clear();
+  }
+
+  @Nullable
+  private PrefetchTarget choosePrefetchTarget(long timeToVisibleMs, boolean decode) {
+    if (timeToVisibleMs <= mDecodedWithinMs && decode) {
+      return PrefetchTarget.MEMORY_DECODED;
+    } else if (timeToVisibleMs <= mEncodedWithinMs) {
+      return PrefetchTarget.MEMORY_ENCODED;
+    } else if (timeToVisibleMs <= mDiskWithinMs) {
+      return PrefetchTarget.DISK;
+    }
+    return null;
+  }
+
+  private void cancel(Prefetch prefetch) {
+    if (prefetch.hasSucceeded()) {
+      mWastedCount++;
+    } else if (!prefetch.hasFailed()) {
+      mCancelledCount++;
+    }
+    prefetch.close();
+  }
+
+  /** @return whether the target keeps the image closer to being displayed */
+  private static boolean isHigher(PrefetchTarget target, PrefetchTarget other) {
+    return getLevel(target) > getLevel(other);
+  }
+
+  private static int getLevel(PrefetchTarget target) {
+    switch (target) {
+      case MEMORY_DECODED:
+        return 2;
+      case MEMORY_ENCODED:
+        return 1;
+      case DISK:
+      default:
+        return 0;
+    }
+  }
+
+  /** @return the number of prefetches started */
+  public long getStartedCount() {
+    return mStartedCount;
+  }
+
+  /** @return the number of items that became visible after their prefetch finished */
+  public long getHitCount() {
+    return mHitCount;
+  }
+
+  /** @return the number of items that became visible while their prefetch was running */
+  public long getLateCount() {
+    return mLateCount;
+  }
+
+  /** @return the number of prefetches that finished, but whose item never became visible */
+  public long getWastedCount() {
+    return mWastedCount;
+  }
+
+  /** @return the number of prefetches cancelled before they finished */
+  public long getCancelledCount() {
+    return mCancelledCount;
+  }
+
+  /** @return the number of prefetches running or finished, for items not visible yet */
+  public int getPendingCount() {
+    return mPrefetches.size();
+  }
+
+  /** @return the target of the prefetch of the item, or null if it isn't prefetched */
+  @Nullable
+  public PrefetchTarget getPrefetchTarget(int position) {
+    final Prefetch prefetch = mPrefetches.get(position);
+    return prefetch != null ? prefetch.mTarget : null;
+  }
+
+  private static class Prefetch {
+
+    private final PrefetchTarget mTarget;
+    private final DataSource<Void> mDataSource;
+
+    private Prefetch(PrefetchTarget target, DataSource<Void> dataSource) {
+      mTarget = target;
+      mDataSource = dataSource;
+    }
+
+    private boolean hasSucceeded() {
+      return mDataSource.isFinished() && !mDataSource.hasFailed();
+    }
+
+    private boolean hasFailed() {
+      return mDataSource.hasFailed();
+    }
+
+    private void close() {
+      mDataSource.close();
+    }
+  }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.fresco.vito.core.impl;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.facebook.datasource.DataSource;
+import com.facebook.fresco.vito.core.FrescoVitoPrefetcher;
+import com.facebook.fresco.vito.core.PrefetchTarget;
+import com.facebook.fresco.vito.core.VitoImageRequest;
+import com.facebook.imagepipeline.listener.RequestListener;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class VelocityPrefetchPlannerTest {
+
+  private static final int ITEM_COUNT = 100;
+  private static final String CALLSITE = "test";
+
+  private final List<VitoImageRequest> mItems = new ArrayList<>();
+  private final Map<VitoImageRequest, DataSource<Void>> mDataSources = new HashMap<>();
+
+  private FrescoVitoPrefetcher mPrefetcher;
+  private VelocityPrefetchPlanner mPlanner;
+
+  @Before
+  public void setUp() {
+    mPrefetcher = mock(FrescoVitoPrefetcher.class);
+    when(mPrefetcher.prefetch(
+            any(PrefetchTarget.class),
+            any(VitoImageRequest.class),
+            any(),
+            (RequestListener) isNull(),
+            anyString()))
+        .thenAnswer(
+            new Answer<DataSource<Void>>() {
+              @Override
+              public DataSource<Void> answer(InvocationOnMock invocation) {
+                DataSource<Void> dataSource = mock(DataSource.class);
+                mDataSources.put((VitoImageRequest) invocation.getArguments()[1], dataSource);
+                return dataSource;
+              }
+            });
+    for (int i = 0; i < ITEM_COUNT; i++) {
+      mItems.add(mock(VitoImageRequest.class));
+    }
+    mPlanner = new VelocityPrefetchPlanner(mPrefetcher, null, CALLSITE);
+    mPlanner.setItems(mItems);
+  }
+
+  @Test
+  public void testOnScroll_whenIdle_thenPrefetchNextItemsByTimeToVisible() {
+    mPlanner.onScroll(0, 4, 0);
+
+    // The next items are visible in 0, 500, 1000 ... ms at the idle velocity
+    assertThat(mPlanner.getPrefetchTarget(5)).isEqualTo(PrefetchTarget.MEMORY_DECODED);
+    assertThat(mPlanner.getPrefetchTarget(6)).isEqualTo(PrefetchTarget.MEMORY_ENCODED);
+    assertThat(mPlanner.getPrefetchTarget(7)).isEqualTo(PrefetchTarget.MEMORY_ENCODED);
+    assertThat(mPlanner.getPrefetchTarget(8)).isEqualTo(PrefetchTarget.DISK);
+    assertThat(mPlanner.getPrefetchTarget(11)).isEqualTo(PrefetchTarget.DISK);
+    assertThat(mPlanner.getPrefetchTarget(12)).isNull();
+    assertThat(mPlanner.getPrefetchTarget(3)).isNull();
+    assertThat(mPlanner.getStartedCount()).isEqualTo(7);
+    verify(mPrefetcher)
+        .prefetch(PrefetchTarget.MEMORY_DECODED, mItems.get(5), null, null, CALLSITE);
+  }
+
+  @Test
+  public void testOnScroll_whenScrollingBackward_thenPrefetchPreviousItems() {
+    mPlanner.onScroll(50, 54, -4);
+
+    assertThat(mPlanner.getPrefetchTarget(49)).isEqualTo(PrefetchTarget.MEMORY_DECODED);
+    assertThat(mPlanner.getPrefetchTarget(55)).isNull();
+
+    // The direction is kept once the scroll stops
+    mPlanner.onScroll(50, 54, 0);
+    assertThat(mPlanner.getPrefetchTarget(49)).isEqualTo(PrefetchTarget.MEMORY_DECODED);
+  }
+
+  @Test
+  public void testOnScroll_whenFling_thenDoNotDecode() {
+    mPlanner.onScroll(0, 4, 100);
+
+    for (int position = 5; position < 5 + VelocityPrefetchPlanner.DEFAULT_MAX_ITEMS_AHEAD;
+        position++) {
+      assertThat(mPlanner.getPrefetchTarget(position)).isEqualTo(PrefetchTarget.MEMORY_ENCODED);
+    }
+    assertThat(mPlanner.getPendingCount())
+        .isEqualTo(VelocityPrefetchPlanner.DEFAULT_MAX_ITEMS_AHEAD);
+  }
+
+  @Test
+  public void testOnScroll_whenItemCloser_thenUpgradePrefetch() {
+    mPlanner.onScroll(0, 4, 0);
+    DataSource<Void> encodedDataSource = mDataSources.get(mItems.get(6));
+
+    mPlanner.onScroll(1, 5, 0);
+
+    assertThat(mPlanner.getPrefetchTarget(6)).isEqualTo(PrefetchTarget.MEMORY_DECODED);
+    verify(mPrefetcher)
+        .prefetch(PrefetchTarget.MEMORY_DECODED, mItems.get(6), null, null, CALLSITE);
+    verify(encodedDataSource).close();
+  }
+
+  @Test
+  public void testOnScroll_whenItemVisible_thenCountHitOrLate() {
+    mPlanner.onScroll(0, 4, 0);
+    finish(5);
+
+    mPlanner.onScroll(2, 6, 0);
+
+    assertThat(mPlanner.getHitCount()).isEqualTo(1);
+    assertThat(mPlanner.getLateCount()).isEqualTo(1);
+    verify(mDataSources.get(mItems.get(5))).close();
+    assertThat(mPlanner.getPrefetchTarget(5)).isNull();
+  }
+
+  @Test
+  public void testOnScroll_whenItemsSkippedPast_thenCancelPrefetches() {
+    // Synthetic trace: a fling over 40 items, then the list settles
+    mPlanner.onScroll(0, 4, 100);
+    finish(5);
+    finish(6);
+    mPlanner.onScroll(40, 44, 20);
+
+    assertThat(mPlanner.getWastedCount()).isEqualTo(2);
+    assertThat(mPlanner.getCancelledCount()).isEqualTo(18);
+    verify(mDataSources.get(mItems.get(5))).close();
+    verify(mPrefetcher)
+        .prefetch(eq(PrefetchTarget.MEMORY_DECODED), eq(mItems.get(47)), any(), any(), anyString());
+
+    mPlanner.onScroll(42, 46, 0);
+
+    assertThat(mPlanner.getHitCount()).isEqualTo(0);
+    assertThat(mPlanner.getLateCount()).isEqualTo(2);
+    assertThat(mPlanner.getPrefetchTarget(47)).isEqualTo(PrefetchTarget.MEMORY_DECODED);
+    assertThat(mPlanner.getPrefetchTarget(53)).isEqualTo(PrefetchTarget.MEMORY_ENCODED);
+    assertThat(mPlanner.getPrefetchTarget(54)).isNull();
+  }
+
+  @Test
+  public void testSetItems_whenItemsChanged_thenCancelTheirPrefetches() {
+    mPlanner.onScroll(0, 4, 0);
+    List<VitoImageRequest> items = new ArrayList<>(mItems.subList(0, 10));
+    items.set(6, mock(VitoImageRequest.class));
+
+    mPlanner.setItems(items);
+
+    // 6 changed, 10 and 11 are gone
+    assertThat(mPlanner.getPendingCount()).isEqualTo(4);
+    assertThat(mPlanner.getPrefetchTarget(6)).isNull();
+    assertThat(mPlanner.getPrefetchTarget(7)).isEqualTo(PrefetchTarget.MEMORY_ENCODED);
+    assertThat(mPlanner.getCancelledCount()).isEqualTo(3);
+  }
+
+  @Test
+  public void testSetItems_whenItemsAppended_thenKeepPrefetches() {
+    mPlanner.onScroll(0, 4, 0);
+    List<VitoImageRequest> items = new ArrayList<>(mItems);
+    items.add(mock(VitoImageRequest.class));
+
+    mPlanner.setItems(items);
+    mPlanner.onScroll(0, 4, 0);
+
+    assertThat(mPlanner.getPendingCount()).isEqualTo(7);
+    assertThat(mPlanner.getCancelledCount()).isEqualTo(0);
+    assertThat(mPlanner.getStartedCount()).isEqualTo(7);
+  }
+
+  private void finish(int position) {
+    DataSource<Void> dataSource = mDataSources.get(mItems.get(position));
+    when(dataSource.isFinished()).thenReturn(true);
+  }
+}